@@ -0,0 +1,60 @@
+--
+-- Copyright © 2016-2021 The Thingsboard Authors
+--
+-- Licensed under the Apache License, Version 2.0 (the "License");
+-- you may not use this file except in compliance with the License.
+-- You may obtain a copy of the License at
+--
+--     http://www.apache.org/licenses/LICENSE-2.0
+--
+-- Unless required by applicable law or agreed to in writing, software
+-- distributed under the License is distributed on an "AS IS" BASIS,
+-- WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+-- See the License for the specific language governing permissions and
+-- limitations under the License.
+--
+
+
+CREATE TABLE IF NOT EXISTS attribute_kv_dictionary
+(
+    key    varchar(255) NOT NULL,
+    key_id serial UNIQUE,
+    CONSTRAINT attribute_key_id_pkey PRIMARY KEY (key)
+);
+
+DO $$
+    BEGIN
+        IF EXISTS (SELECT 1 FROM information_schema.columns
+                   WHERE table_name = 'attribute_kv' AND column_name = 'attribute_key' AND data_type = 'character varying') THEN
+            INSERT INTO attribute_kv_dictionary(key)
+                SELECT DISTINCT attribute_key FROM attribute_kv ORDER BY attribute_key
+                ON CONFLICT DO NOTHING;
+
+            ALTER TABLE attribute_kv RENAME TO attribute_kv_old;
+            ALTER TABLE attribute_kv_old RENAME CONSTRAINT attribute_kv_pkey TO attribute_kv_old_pkey;
+            DROP INDEX IF EXISTS idx_attribute_kv_by_key_and_last_update_ts;
+
+            CREATE TABLE attribute_kv (
+                entity_type varchar(255),
+                entity_id uuid,
+                attribute_type varchar(255),
+                attribute_key int,
+                bool_v boolean,
+                str_v varchar(10000000),
+                long_v bigint,
+                dbl_v double precision,
+                json_v json,
+                last_update_ts bigint,
+                CONSTRAINT attribute_kv_pkey PRIMARY KEY (entity_type, entity_id, attribute_type, attribute_key)
+            );
+
+            INSERT INTO attribute_kv (entity_type, entity_id, attribute_type, attribute_key, bool_v, str_v, long_v, dbl_v, json_v, last_update_ts)
+                SELECT a.entity_type, a.entity_id, a.attribute_type, d.key_id, a.bool_v, a.str_v, a.long_v, a.dbl_v, a.json_v, a.last_update_ts
+                FROM attribute_kv_old a INNER JOIN attribute_kv_dictionary d ON a.attribute_key = d.key;
+
+            DROP TABLE attribute_kv_old;
+        END IF;
+    END;
+$$;
+
+CREATE INDEX IF NOT EXISTS idx_attribute_kv_by_key_and_last_update_ts ON attribute_kv(entity_id, attribute_key, last_update_ts desc);
@@ -29,8 +29,10 @@ import com.google.gson.JsonParser;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskRejectedException;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.util.StringUtils;
 import org.springframework.web.bind.annotation.PathVariable;
@@ -40,13 +42,17 @@ import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.NativeWebRequest;
 import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.context.request.async.DeferredResultProcessingInterceptor;
+import org.springframework.web.context.request.async.WebAsyncUtils;
 import org.thingsboard.common.util.ThingsBoardThreadFactory;
 import org.thingsboard.rule.engine.api.msg.DeviceAttributesEventNotificationMsg;
 import org.thingsboard.server.common.data.DataConstants;
 import org.thingsboard.server.common.data.EntityType;
 import org.thingsboard.server.common.data.TenantProfile;
 import org.thingsboard.server.common.data.audit.ActionType;
+import org.thingsboard.server.common.data.exception.ThingsboardErrorCode;
 import org.thingsboard.server.common.data.exception.ThingsboardException;
 import org.thingsboard.server.common.data.id.CustomerId;
 import org.thingsboard.server.common.data.id.DeviceId;
@@ -78,6 +84,10 @@ import org.thingsboard.server.queue.util.TbCoreComponent;
 import org.thingsboard.server.service.security.AccessValidator;
 import org.thingsboard.server.service.security.model.SecurityUser;
 import org.thingsboard.server.service.security.permission.Operation;
+import org.thingsboard.server.service.telemetry.TsKvDataFormat;
+import org.thingsboard.server.service.telemetry.TelemetryImportResult;
+import org.thingsboard.server.service.telemetry.TelemetryImportService;
+import org.thingsboard.server.service.telemetry.TsKvExportWriter;
 import org.thingsboard.server.service.telemetry.AttributeData;
 import org.thingsboard.server.service.telemetry.TsData;
 import org.thingsboard.server.service.telemetry.exception.InvalidParametersException;
@@ -86,6 +96,8 @@ import org.thingsboard.server.service.telemetry.exception.UncheckedApiException;
 import javax.annotation.Nullable;
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -96,7 +108,9 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 
 /**
@@ -117,13 +131,36 @@ public class TelemetryController extends BaseController {
     @Value("${transport.json.max_string_value_length:0}")
     private int maxStringValueLength;
 
+    @Autowired
+    private TelemetryImportService telemetryImportService;
+
+    @Value("${server.rest.timeseries_export.page_size:1000}")
+    private int exportPageSize;
+
+    @Value("${server.rest.timeseries_export.threads:4}")
+    private int exportThreads;
+
+    @Value("${server.rest.timeseries_export.max_pending:16}")
+    private int exportMaxPending;
+
+    @Value("${server.rest.timeseries_export.timeout_ms:600000}")
+    private long exportTimeoutMs;
+
     private ExecutorService executor;
 
+    private ThreadPoolTaskExecutor exportExecutor;
+
     private static final ObjectMapper mapper = new ObjectMapper();
 
     @PostConstruct
     public void initExecutor() {
         executor = Executors.newSingleThreadExecutor(ThingsBoardThreadFactory.forName("telemetry-controller"));
+        exportExecutor = new ThreadPoolTaskExecutor();
+        exportExecutor.setCorePoolSize(exportThreads);
+        exportExecutor.setMaxPoolSize(exportThreads);
+        exportExecutor.setQueueCapacity(exportMaxPending);
+        exportExecutor.setThreadFactory(ThingsBoardThreadFactory.forName("timeseries-export"));
+        exportExecutor.initialize();
     }
 
     @PreDestroy
@@ -131,6 +168,9 @@ public class TelemetryController extends BaseController {
         if (executor != null) {
             executor.shutdownNow();
         }
+        if (exportExecutor != null) {
+            exportExecutor.shutdown();
+        }
     }
 
     @PreAuthorize("hasAnyAuthority('SYS_ADMIN', 'TENANT_ADMIN', 'CUSTOMER_USER')")
@@ -222,6 +262,92 @@ public class TelemetryController extends BaseController {
                 });
     }
 
+    @PreAuthorize("hasAnyAuthority('SYS_ADMIN', 'TENANT_ADMIN', 'CUSTOMER_USER')")
+    @RequestMapping(value = "/{entityType}/{entityId}/values/timeseries/export", method = RequestMethod.GET, params = {"keys", "startTs", "endTs"})
+    @ResponseBody
+    public DeferredResult<Void> exportTimeseries(
+            @PathVariable("entityType") String entityType,
+            @PathVariable("entityId") String entityIdStr,
+            @RequestParam(name = "keys") String keys,
+            @RequestParam(name = "startTs") Long startTs,
+            @RequestParam(name = "endTs") Long endTs,
+            @RequestParam(name = "format", defaultValue = "NDJSON") String formatStr,
+            @RequestParam(name = "orderBy", defaultValue = "ASC") String orderBy,
+            @RequestParam(name = "useStrictDataTypes", required = false, defaultValue = "false") Boolean useStrictDataTypes,
+            HttpServletRequest request,
+            HttpServletResponse response) throws ThingsboardException {
+        checkParameter("entityId", entityIdStr);
+        try {
+            EntityId entityId = EntityIdFactory.getByTypeAndId(entityType, entityIdStr);
+            checkEntityId(entityId, Operation.READ_TELEMETRY);
+            TsKvDataFormat format = TsKvDataFormat.valueOf(formatStr.toUpperCase());
+            TsKvExportWriter exportWriter = new TsKvExportWriter(tsService, getTenantId(), entityId, format, exportPageSize, useStrictDataTypes);
+            List<String> keyList = toKeysList(keys);
+            DeferredResult<Void> result = new DeferredResult<>(exportTimeoutMs);
+            AtomicReference<Future<?>> exportFuture = new AtomicReference<>();
+            // The export writes to the response, so it is submitted only after the async request processing is started
+            WebAsyncUtils.getAsyncManager(request).registerDeferredResultInterceptor(TsKvExportWriter.class, new DeferredResultProcessingInterceptor() {
+                @Override
+                public <T> void preProcess(NativeWebRequest webRequest, DeferredResult<T> deferredResult) {
+                    try {
+                        exportFuture.set(exportExecutor.submit(() -> {
+                            try {
+                                response.setContentType(format.getMediaType().toString());
+                                exportWriter.write(response.getOutputStream(), keyList, startTs, endTs, orderBy);
+                                result.setResult(null);
+                            } catch (Exception e) {
+                                if (!exportWriter.isCancelled()) {
+                                    log.debug("[{}] Failed to export time-series", entityId, e);
+                                }
+                                result.setErrorResult(e);
+                            }
+                        }));
+                    } catch (TaskRejectedException e) {
+                        result.setErrorResult(new ThingsboardException("Too many time-series exports in progress!", ThingsboardErrorCode.TOO_MANY_REQUESTS));
+                    }
+                }
+            });
+            result.onTimeout(() -> {
+                log.warn("[{}] Time-series export timed out after {} ms", entityId, exportTimeoutMs);
+                exportWriter.cancel();
+                Future<?> future = exportFuture.get();
+                if (future != null) {
+                    future.cancel(true);
+                }
+                if (response.isCommitted()) {
+                    // the status is already sent, so the partial response is just ended
+                    try {
+                        response.getOutputStream().close();
+                    } catch (IOException e) {
+                        log.debug("[{}] Failed to close time-series export stream", entityId, e);
+                    }
+                }
+            });
+            return result;
+        } catch (Exception e) {
+            throw handleException(e);
+        }
+    }
+
+    @PreAuthorize("hasAnyAuthority('TENANT_ADMIN', 'CUSTOMER_USER')")
+    @RequestMapping(value = "/timeseries/import", method = RequestMethod.POST)
+    @ResponseBody
+    public TelemetryImportResult importTimeseries(
+            @RequestParam(name = "format", defaultValue = "NDJSON") String formatStr,
+            @RequestParam(name = "ttl", defaultValue = "0") Long ttl,
+            @RequestParam(name = "updateLatest", defaultValue = "false") Boolean updateLatest,
+            @RequestParam(name = "notifySubscribers", defaultValue = "false") Boolean notifySubscribers,
+            HttpServletRequest request) throws ThingsboardException {
+        try {
+            TsKvDataFormat format = TsKvDataFormat.valueOf(formatStr.toUpperCase());
+            SecurityUser user = getCurrentUser();
+            return telemetryImportService.importTimeseries(user.getTenantId(), user.getCustomerId(), request.getInputStream(), format, ttl,
+                    updateLatest, notifySubscribers, entityId -> checkEntityId(entityId, Operation.WRITE_TELEMETRY));
+        } catch (Exception e) {
+            throw handleException(e);
+        }
+    }
+
     @PreAuthorize("hasAnyAuthority('SYS_ADMIN', 'TENANT_ADMIN', 'CUSTOMER_USER')")
     @RequestMapping(value = "/{deviceId}/{scope}", method = RequestMethod.POST)
     @ResponseBody
@@ -24,6 +24,7 @@ import com.google.common.util.concurrent.ListenableFuture;
 import lombok.extern.slf4j.Slf4j;
 import org.checkerframework.checker.nullness.qual.Nullable;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.stereotype.Service;
 import org.thingsboard.server.common.data.EdgeUtils;
 import org.thingsboard.server.common.data.EntityType;
@@ -54,6 +55,7 @@ import org.thingsboard.server.dao.rule.RuleChainService;
 import org.thingsboard.server.dao.user.UserService;
 import org.thingsboard.server.gen.transport.TransportProtos;
 import org.thingsboard.server.queue.util.TbCoreComponent;
+import org.thingsboard.server.service.edge.rpc.EdgeRpcService;
 import org.thingsboard.server.service.executors.DbCallbackExecutorService;
 import org.thingsboard.server.service.queue.TbClusterService;
 
@@ -98,6 +100,10 @@ public class DefaultEdgeNotificationService implements EdgeNotificationService {
     @Autowired
     private DbCallbackExecutorService dbCallbackExecutorService;
 
+    @Lazy
+    @Autowired(required = false)
+    private EdgeRpcService edgeRpcService;
+
     private ExecutorService tsCallBackExecutor;
 
     @PostConstruct
@@ -142,6 +148,10 @@ public class DefaultEdgeNotificationService implements EdgeNotificationService {
         Futures.addCallback(future, new FutureCallback<EdgeEvent>() {
             @Override
             public void onSuccess(@Nullable EdgeEvent result) {
+                // the event is streamed only after it is committed, so the edge never sees an event that may be rolled back
+                if (result != null && edgeRpcService != null && edgeRpcService.offerEdgeEvent(result)) {
+                    return;
+                }
                 clusterService.onEdgeEventUpdate(tenantId, edgeId);
             }
 
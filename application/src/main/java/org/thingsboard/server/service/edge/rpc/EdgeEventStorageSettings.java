@@ -29,4 +29,8 @@ public class EdgeEventStorageSettings {
     private long noRecordsSleepInterval;
     @Value("${edges.storage.sleep_between_batches}")
     private long sleepIntervalBetweenBatches;
+    @Value("${edges.storage.max_stream_events:0}")
+    private int maxStreamEventsCount;
+    @Value("${edges.storage.max_events_per_downlink_msg:1}")
+    private int maxEventsPerDownlinkMsg;
 }
@@ -30,6 +30,7 @@ import org.thingsboard.common.util.ThingsBoardThreadFactory;
 import org.thingsboard.server.common.data.DataConstants;
 import org.thingsboard.server.common.data.Tenant;
 import org.thingsboard.server.common.data.edge.Edge;
+import org.thingsboard.server.common.data.edge.EdgeEvent;
 import org.thingsboard.server.common.data.id.EdgeId;
 import org.thingsboard.server.common.data.id.TenantId;
 import org.thingsboard.server.common.data.kv.BasicTsKvEntry;
@@ -49,13 +50,10 @@ import javax.annotation.PreDestroy;
 import java.io.File;
 import java.io.IOException;
 import java.util.Collections;
-import java.util.Map;
-import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 @Service
@@ -65,8 +63,6 @@ import java.util.concurrent.TimeUnit;
 public class EdgeGrpcService extends EdgeRpcServiceGrpc.EdgeRpcServiceImplBase implements EdgeRpcService {
 
     private final ConcurrentMap<EdgeId, EdgeGrpcSession> sessions = new ConcurrentHashMap<>();
-    private final ConcurrentMap<EdgeId, Boolean> sessionNewEvents = new ConcurrentHashMap<>();
-    private final ConcurrentMap<EdgeId, ScheduledFuture<?>> sessionEdgeEventChecks = new ConcurrentHashMap<>();
     private static final ObjectMapper mapper = new ObjectMapper();
 
     @Value("${edges.rpc.port}")
@@ -128,14 +124,6 @@ public class EdgeGrpcService extends EdgeRpcServiceGrpc.EdgeRpcServiceImplBase i
         if (server != null) {
             server.shutdownNow();
         }
-        for (Map.Entry<EdgeId, ScheduledFuture<?>> entry : sessionEdgeEventChecks.entrySet()) {
-            EdgeId edgeId = entry.getKey();
-            ScheduledFuture<?> sessionEdgeEventCheck = entry.getValue();
-            if (sessionEdgeEventCheck != null && !sessionEdgeEventCheck.isCancelled() && !sessionEdgeEventCheck.isDone()) {
-                sessionEdgeEventCheck.cancel(true);
-                sessionEdgeEventChecks.remove(edgeId);
-            }
-        }
         if (scheduler != null) {
             scheduler.shutdownNow();
         }
@@ -143,7 +131,7 @@ public class EdgeGrpcService extends EdgeRpcServiceGrpc.EdgeRpcServiceImplBase i
 
     @Override
     public StreamObserver<RequestMsg> handleMsgs(StreamObserver<ResponseMsg> outputStream) {
-        return new EdgeGrpcSession(ctx, outputStream, this::onEdgeConnect, this::onEdgeDisconnect, mapper).getInputStream();
+        return new EdgeGrpcSession(ctx, outputStream, this::onEdgeConnect, this::onEdgeConnected, this::onEdgeDisconnect, mapper).getInputStream();
     }
 
     @Override
@@ -164,28 +152,46 @@ public class EdgeGrpcService extends EdgeRpcServiceGrpc.EdgeRpcServiceImplBase i
             log.info("Closing and removing session for edge [{}]", edgeId);
             session.close();
             sessions.remove(edgeId);
-            sessionNewEvents.remove(edgeId);
-            cancelScheduleEdgeEventsCheck(edgeId);
+            processEdgeEvents(session);
         }
     }
 
     @Override
     public void onEdgeEvent(EdgeId edgeId) {
         log.trace("[{}] onEdgeEvent", edgeId.getId());
-        if (Boolean.FALSE.equals(sessionNewEvents.get(edgeId))) {
-            log.trace("[{}] set session new events flag to true", edgeId.getId());
-            sessionNewEvents.put(edgeId, true);
+        EdgeGrpcSession session = sessions.get(edgeId);
+        if (session != null) {
+            session.requestCatchUp();
+            processEdgeEvents(session);
+        }
+    }
+
+    @Override
+    public boolean offerEdgeEvent(EdgeEvent edgeEvent) {
+        EdgeGrpcSession session = sessions.get(edgeEvent.getEdgeId());
+        if (session != null && session.offerEdgeEvent(edgeEvent)) {
+            log.trace("[{}] Streaming edge event [{}]", edgeEvent.getEdgeId().getId(), edgeEvent);
+            processEdgeEvents(session);
+            return true;
         }
+        return false;
     }
 
     private void onEdgeConnect(EdgeId edgeId, EdgeGrpcSession edgeGrpcSession) {
         log.info("[{}] edge [{}] connected successfully.", edgeGrpcSession.getSessionId(), edgeId);
-        sessions.put(edgeId, edgeGrpcSession);
-        sessionNewEvents.put(edgeId, false);
+        EdgeGrpcSession previousSession = sessions.put(edgeId, edgeGrpcSession);
+        if (previousSession != null && previousSession != edgeGrpcSession) {
+            processEdgeEvents(previousSession);
+        }
         save(edgeId, DefaultDeviceStateService.ACTIVITY_STATE, true);
         save(edgeId, DefaultDeviceStateService.LAST_CONNECT_TIME, System.currentTimeMillis());
-        cancelScheduleEdgeEventsCheck(edgeId);
-        scheduleEdgeEventsCheck(edgeGrpcSession);
+    }
+
+    /**
+     * Replays the persisted events once the connect response is sent and the session is marked as connected.
+     */
+    private void onEdgeConnected(EdgeGrpcSession edgeGrpcSession) {
+        processEdgeEvents(edgeGrpcSession);
     }
 
     public EdgeGrpcSession getEdgeGrpcSessionById(TenantId tenantId, EdgeId edgeId) {
@@ -198,48 +204,47 @@ public class EdgeGrpcService extends EdgeRpcServiceGrpc.EdgeRpcServiceImplBase i
         }
     }
 
-    private void scheduleEdgeEventsCheck(EdgeGrpcSession session) {
-        EdgeId edgeId = session.getEdge().getId();
-        UUID tenantId = session.getEdge().getTenantId().getId();
-        if (sessions.containsKey(edgeId)) {
-            ScheduledFuture<?> schedule = scheduler.schedule(() -> {
-                try {
-                    if (Boolean.TRUE.equals(sessionNewEvents.get(edgeId))) {
-                        log.trace("[{}] Set session new events flag to false", edgeId.getId());
-                        sessionNewEvents.put(edgeId, false);
-                        session.processEdgeEvents();
-                    }
-                } catch (Exception e) {
-                    log.warn("[{}] Failed to process edge events for edge [{}]!", tenantId, session.getEdge().getId().getId(), e);
-                }
-                scheduleEdgeEventsCheck(session);
-            }, ctx.getEdgeEventStorageSettings().getNoRecordsSleepInterval(), TimeUnit.MILLISECONDS);
-            sessionEdgeEventChecks.put(edgeId, schedule);
-            log.trace("[{}] Check edge event scheduled for edge [{}]", tenantId, edgeId.getId());
-        } else {
-            log.debug("[{}] Session was removed and edge event check schedule must not be started [{}]",
-                    tenantId, edgeId.getId());
+    /**
+     * Starts the delivery of the session events unless it is already running. The events are delivered as soon as they
+     * are queued, the edge_event table is read only to replay the events persisted while the edge was not streaming.
+     */
+    private void processEdgeEvents(EdgeGrpcSession session) {
+        if (session.requestProcessing()) {
+            scheduler.execute(() -> runEdgeEventsProcessing(session));
         }
     }
 
-    private void cancelScheduleEdgeEventsCheck(EdgeId edgeId) {
-        log.trace("[{}] cancelling edge event check for edge", edgeId);
-        if (sessionEdgeEventChecks.containsKey(edgeId)) {
-            ScheduledFuture<?> sessionEdgeEventCheck = sessionEdgeEventChecks.get(edgeId);
-            if (sessionEdgeEventCheck != null && !sessionEdgeEventCheck.isCancelled() && !sessionEdgeEventCheck.isDone()) {
-                sessionEdgeEventCheck.cancel(true);
-                sessionEdgeEventChecks.remove(edgeId);
+    private void runEdgeEventsProcessing(EdgeGrpcSession session) {
+        long retryDelay = 0;
+        try {
+            while (session.pollProcessingRequest()) {
+                if (!session.processEdgeEvents()) {
+                    retryDelay = ctx.getEdgeEventStorageSettings().getSleepIntervalBetweenBatches();
+                    break;
+                }
             }
+        } catch (Exception e) {
+            log.warn("[{}] Failed to process edge events for edge [{}]!", session.getSessionId(), session.getEdge().getId().getId(), e);
+            retryDelay = ctx.getEdgeEventStorageSettings().getNoRecordsSleepInterval();
+        }
+        if (retryDelay > 0 && session.isConnected()) {
+            // keeps the processing flag, so the requests received in the meantime are handled by the retry
+            session.requestProcessing();
+            scheduler.schedule(() -> runEdgeEventsProcessing(session), retryDelay, TimeUnit.MILLISECONDS);
+        } else if (session.finishProcessing()) {
+            scheduler.execute(() -> runEdgeEventsProcessing(session));
         }
     }
 
     private void onEdgeDisconnect(EdgeId edgeId) {
         log.info("[{}] edge disconnected!", edgeId);
-        sessions.remove(edgeId);
-        sessionNewEvents.remove(edgeId);
+        EdgeGrpcSession session = sessions.remove(edgeId);
+        if (session != null) {
+            // discards the streamed events, they are persisted and are read from the database by the next session
+            processEdgeEvents(session);
+        }
         save(edgeId, DefaultDeviceStateService.ACTIVITY_STATE, false);
         save(edgeId, DefaultDeviceStateService.LAST_DISCONNECT_TIME, System.currentTimeMillis());
-        cancelScheduleEdgeEventsCheck(edgeId);
     }
 
     private void save(EdgeId edgeId, String key, long value) {
@@ -15,7 +15,6 @@
  */
 package org.thingsboard.server.service.edge.rpc;
 
-import com.datastax.oss.driver.api.core.uuid.Uuids;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
@@ -24,6 +23,7 @@ import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.MoreExecutors;
 import com.google.gson.JsonElement;
+import com.google.protobuf.Descriptors;
 import io.grpc.stub.StreamObserver;
 import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
@@ -60,9 +60,6 @@ import org.thingsboard.server.common.data.id.WidgetsBundleId;
 import org.thingsboard.server.common.data.kv.AttributeKvEntry;
 import org.thingsboard.server.common.data.kv.BaseAttributeKvEntry;
 import org.thingsboard.server.common.data.kv.LongDataEntry;
-import org.thingsboard.server.common.data.page.PageData;
-import org.thingsboard.server.common.data.page.SortOrder;
-import org.thingsboard.server.common.data.page.TimePageLink;
 import org.thingsboard.server.common.data.relation.EntityRelation;
 import org.thingsboard.server.common.data.rule.RuleChain;
 import org.thingsboard.server.common.data.rule.RuleChainMetaData;
@@ -112,15 +109,23 @@ import org.thingsboard.server.service.edge.EdgeContextComponent;
 import java.io.Closeable;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 @Slf4j
 @Data
@@ -130,8 +135,11 @@ public final class EdgeGrpcSession implements Closeable {
 
     private static final String QUEUE_START_TS_ATTR_KEY = "queueStartTs";
 
+    private static final UUID MIN_EDGE_EVENT_ID = new UUID(0L, 0L);
+
     private final UUID sessionId;
     private final BiConsumer<EdgeId, EdgeGrpcSession> sessionOpenListener;
+    private final Consumer<EdgeGrpcSession> sessionConnectedListener;
     private final Consumer<EdgeId> sessionCloseListener;
     private final ObjectMapper mapper;
 
@@ -143,12 +151,27 @@ public final class EdgeGrpcSession implements Closeable {
 
     private CountDownLatch latch;
 
+    // events saved by the local node while the edge is connected; they are already persisted and are only delivered sooner
+    private final Queue<EdgeEvent> streamedEdgeEvents = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger streamedEdgeEventsCount = new AtomicInteger();
+    private final List<EdgeEvent> inFlightEdgeEvents = new ArrayList<>();
+    // streamed events delivered ahead of the persisted queue position; skipped when the queue is read from the database
+    private final Map<UUID, EdgeEvent> deliveredStreamedEdgeEvents = new LinkedHashMap<>();
+    // number of requests to read the persisted events; the queue is replayed from the database on connect
+    private final AtomicInteger catchUpRequests = new AtomicInteger(1);
+    private final AtomicBoolean processing = new AtomicBoolean();
+    private final AtomicBoolean processingRequested = new AtomicBoolean();
+    // keyset position of the last persisted event delivered to the edge
+    private Long queueStartTs;
+    private UUID queueStartId;
+
     EdgeGrpcSession(EdgeContextComponent ctx, StreamObserver<ResponseMsg> outputStream, BiConsumer<EdgeId, EdgeGrpcSession> sessionOpenListener,
-                    Consumer<EdgeId> sessionCloseListener, ObjectMapper mapper) {
+                    Consumer<EdgeGrpcSession> sessionConnectedListener, Consumer<EdgeId> sessionCloseListener, ObjectMapper mapper) {
         this.sessionId = UUID.randomUUID();
         this.ctx = ctx;
         this.outputStream = outputStream;
         this.sessionOpenListener = sessionOpenListener;
+        this.sessionConnectedListener = sessionConnectedListener;
         this.sessionCloseListener = sessionCloseListener;
         this.mapper = mapper;
         initInputStream();
@@ -167,6 +190,7 @@ public final class EdgeGrpcSession implements Closeable {
                         outputStream.onError(new RuntimeException(responseMsg.getErrorMsg()));
                     } else {
                         connected = true;
+                        sessionConnectedListener.accept(EdgeGrpcSession.this);
                     }
                 }
                 if (connected && requestMsg.getMsgType().equals(RequestMsgType.SYNC_REQUEST_RPC_MESSAGE)) {
@@ -269,59 +293,223 @@ public final class EdgeGrpcSession implements Closeable {
         sendDownlinkMsg(edgeConfigMsg);
     }
 
-    void processEdgeEvents() throws ExecutionException, InterruptedException {
-        log.trace("[{}] processHandleMessages started", this.sessionId);
-        if (isConnected()) {
-            Long queueStartTs = getQueueStartTs().get();
-            TimePageLink pageLink = new TimePageLink(
-                    ctx.getEdgeEventStorageSettings().getMaxReadRecordsCount(),
-                    0,
-                    null,
-                    new SortOrder("createdTime", SortOrder.Direction.ASC),
-                    queueStartTs,
-                    null);
-            PageData<EdgeEvent> pageData;
-            UUID ifOffset = null;
-            boolean success = true;
-            do {
-                pageData = ctx.getEdgeEventService().findEdgeEvents(edge.getTenantId(), edge.getId(), pageLink, true);
-                if (isConnected() && !pageData.getData().isEmpty()) {
-                    log.trace("[{}] [{}] event(s) are going to be processed.", this.sessionId, pageData.getData().size());
-                    List<DownlinkMsg> downlinkMsgsPack = convertToDownlinkMsgsPack(pageData.getData());
-                    log.trace("[{}] [{}] downlink msg(s) are going to be send.", this.sessionId, downlinkMsgsPack.size());
+    /**
+     * Streams the saved event to the edge before it is read from the database. Returns false if the event must be
+     * delivered from the database instead: streaming is disabled, the edge is offline, the stream is full or persisted
+     * events are not delivered yet. A streamed event is still read back from the database once to move the queue
+     * position past it, then it is skipped.
+     */
+    boolean offerEdgeEvent(EdgeEvent edgeEvent) {
+        int maxStreamEventsCount = ctx.getEdgeEventStorageSettings().getMaxStreamEventsCount();
+        if (maxStreamEventsCount <= 0 || !isConnected() || catchUpRequests.get() > 0) {
+            return false;
+        }
+        if (streamedEdgeEventsCount.incrementAndGet() > maxStreamEventsCount) {
+            streamedEdgeEventsCount.decrementAndGet();
+            // the following events must not overtake this one, so the stream is paused until the queue is read
+            catchUpRequests.incrementAndGet();
+            return false;
+        }
+        streamedEdgeEvents.add(edgeEvent);
+        return true;
+    }
 
-                    latch = new CountDownLatch(downlinkMsgsPack.size());
-                    for (DownlinkMsg downlinkMsg : downlinkMsgsPack) {
-                        sendDownlinkMsg(ResponseMsg.newBuilder()
-                                .setDownlinkMsg(downlinkMsg)
-                                .build());
-                    }
+    void requestCatchUp() {
+        catchUpRequests.incrementAndGet();
+    }
 
-                    ifOffset = pageData.getData().get(pageData.getData().size() - 1).getUuidId();
+    /**
+     * Returns true if the caller must start the processing of the edge events. Requests received while the processing
+     * is running are coalesced and handled by the running processing.
+     */
+    boolean requestProcessing() {
+        processingRequested.set(true);
+        return processing.compareAndSet(false, true);
+    }
 
-                    success = latch.await(10, TimeUnit.SECONDS);
-                    if (!success) {
-                        log.warn("[{}] Failed to deliver the batch: {}", this.sessionId, downlinkMsgsPack);
-                    }
+    boolean pollProcessingRequest() {
+        return processingRequested.getAndSet(false);
+    }
+
+    /**
+     * Returns true if the processing was requested after the last poll and the caller must start it again.
+     */
+    boolean finishProcessing() {
+        processing.set(false);
+        return processingRequested.get() && processing.compareAndSet(false, true);
+    }
+
+    /**
+     * Delivers the events streamed in memory and then the events persisted in the database. Returns false if a batch
+     * was not acknowledged by the edge and the processing must be retried.
+     */
+    boolean processEdgeEvents() throws ExecutionException, InterruptedException {
+        log.trace("[{}] processHandleMessages started", this.sessionId);
+        boolean success = processStreamedEdgeEvents();
+        if (success && isConnected()) {
+            int requests = catchUpRequests.get();
+            if (requests > 0) {
+                success = processPersistedEdgeEvents();
+                if (success) {
+                    catchUpRequests.addAndGet(-requests);
                 }
-                if (isConnected() && (!success || pageData.hasNext())) {
-                    try {
-                        Thread.sleep(ctx.getEdgeEventStorageSettings().getSleepIntervalBetweenBatches());
-                    } catch (InterruptedException e) {
-                        log.error("[{}] Error during sleep between batches", this.sessionId, e);
-                    }
-                    if (success) {
-                        pageLink = pageLink.nextPageLink();
+            }
+        }
+        if (!isConnected()) {
+            discardStreamedEdgeEvents();
+        }
+        log.trace("[{}] processHandleMessages finished", this.sessionId);
+        return success;
+    }
+
+    private boolean processStreamedEdgeEvents() throws InterruptedException {
+        int maxReadRecordsCount = ctx.getEdgeEventStorageSettings().getMaxReadRecordsCount();
+        while (isConnected()) {
+            if (inFlightEdgeEvents.isEmpty()) {
+                EdgeEvent edgeEvent;
+                while (inFlightEdgeEvents.size() < maxReadRecordsCount && (edgeEvent = streamedEdgeEvents.poll()) != null) {
+                    streamedEdgeEventsCount.decrementAndGet();
+                    if (isAfterQueuePosition(edgeEvent)) {
+                        inFlightEdgeEvents.add(edgeEvent);
                     }
                 }
-            } while (isConnected() && (!success || pageData.hasNext()));
+                if (inFlightEdgeEvents.isEmpty()) {
+                    return true;
+                }
+            }
+            if (!sendEdgeEvents(inFlightEdgeEvents)) {
+                return false;
+            }
+            for (EdgeEvent delivered : inFlightEdgeEvents) {
+                deliveredStreamedEdgeEvents.put(delivered.getUuidId(), delivered);
+            }
+            inFlightEdgeEvents.clear();
+            if (deliveredStreamedEdgeEvents.size() >= ctx.getEdgeEventStorageSettings().getMaxStreamEventsCount()) {
+                // Moves the persisted queue position past the delivered events. The position is moved only by reading the
+                // queue, because events saved by other nodes or not accepted by the stream may be placed before the
+                // streamed ones. So every streamed event is still read back once, streaming only delivers it sooner.
+                catchUpRequests.incrementAndGet();
+            }
+        }
+        return true;
+    }
 
-            if (ifOffset != null) {
-                Long newStartTs = Uuids.unixTimestamp(ifOffset);
-                updateQueueStartTs(newStartTs);
+    private boolean processPersistedEdgeEvents() throws ExecutionException, InterruptedException {
+        if (queueStartTs == null) {
+            queueStartTs = getQueueStartTs().get();
+            queueStartId = MIN_EDGE_EVENT_ID;
+        }
+        int maxReadRecordsCount = ctx.getEdgeEventStorageSettings().getMaxReadRecordsCount();
+        EdgeEvent lastEdgeEvent = null;
+        boolean success = true;
+        List<EdgeEvent> edgeEvents;
+        do {
+            edgeEvents = ctx.getEdgeEventService().findEdgeEventsAfter(edge.getTenantId(), edge.getId(), queueStartTs, queueStartId, maxReadRecordsCount);
+            if (edgeEvents.isEmpty() || !isConnected()) {
+                break;
+            }
+            List<EdgeEvent> undelivered = edgeEvents.stream()
+                    .filter(edgeEvent -> !deliveredStreamedEdgeEvents.containsKey(edgeEvent.getUuidId()))
+                    .collect(Collectors.toList());
+            success = undelivered.isEmpty() || sendEdgeEvents(undelivered);
+            if (!success) {
+                break;
             }
+            edgeEvents.forEach(edgeEvent -> deliveredStreamedEdgeEvents.remove(edgeEvent.getUuidId()));
+            lastEdgeEvent = edgeEvents.get(edgeEvents.size() - 1);
+            queueStartTs = lastEdgeEvent.getCreatedTime();
+            queueStartId = lastEdgeEvent.getUuidId();
+        } while (isConnected() && edgeEvents.size() == maxReadRecordsCount);
+        if (success) {
+            deliveredStreamedEdgeEvents.values().removeIf(edgeEvent -> !isAfterQueuePosition(edgeEvent));
         }
-        log.trace("[{}] processHandleMessages finished", this.sessionId);
+
+        if (lastEdgeEvent != null) {
+            updateQueueStartTs(lastEdgeEvent.getCreatedTime());
+        }
+        return success;
+    }
+
+    private boolean sendEdgeEvents(List<EdgeEvent> edgeEvents) throws InterruptedException {
+        log.trace("[{}] [{}] event(s) are going to be processed.", this.sessionId, edgeEvents.size());
+        List<DownlinkMsg> downlinkMsgsPack = mergeDownlinkMsgs(convertToDownlinkMsgsPack(edgeEvents));
+        log.trace("[{}] [{}] downlink msg(s) are going to be send.", this.sessionId, downlinkMsgsPack.size());
+        if (downlinkMsgsPack.isEmpty()) {
+            return true;
+        }
+        latch = new CountDownLatch(downlinkMsgsPack.size());
+        for (DownlinkMsg downlinkMsg : downlinkMsgsPack) {
+            sendDownlinkMsg(ResponseMsg.newBuilder()
+                    .setDownlinkMsg(downlinkMsg)
+                    .build());
+        }
+        boolean success = latch.await(10, TimeUnit.SECONDS);
+        if (!success) {
+            log.warn("[{}] Failed to deliver the batch: {}", this.sessionId, downlinkMsgsPack);
+        }
+        return success;
+    }
+
+    /**
+     * Merges consecutive messages that carry updates of the same kind, so the edge acknowledges them with a single
+     * response. Messages of different kinds are not merged to keep the order of the updates.
+     */
+    private List<DownlinkMsg> mergeDownlinkMsgs(List<DownlinkMsg> downlinkMsgs) {
+        int maxEventsPerDownlinkMsg = ctx.getEdgeEventStorageSettings().getMaxEventsPerDownlinkMsg();
+        if (maxEventsPerDownlinkMsg <= 1 || downlinkMsgs.size() <= 1) {
+            return downlinkMsgs;
+        }
+        List<DownlinkMsg> result = new ArrayList<>();
+        DownlinkMsg.Builder current = null;
+        Set<Descriptors.FieldDescriptor> currentFields = null;
+        int currentEvents = 0;
+        for (DownlinkMsg downlinkMsg : downlinkMsgs) {
+            Set<Descriptors.FieldDescriptor> fields = downlinkMsg.getAllFields().keySet();
+            if (current != null && currentEvents < maxEventsPerDownlinkMsg && fields.size() == 1 && fields.equals(currentFields)) {
+                current.mergeFrom(downlinkMsg);
+                currentEvents++;
+            } else {
+                if (current != null) {
+                    result.add(current.build());
+                }
+                current = downlinkMsg.toBuilder();
+                currentFields = fields;
+                currentEvents = 1;
+            }
+        }
+        result.add(current.build());
+        return result;
+    }
+
+    /**
+     * Streamed events are persisted before they are offered and the queue position is not moved past the undelivered
+     * ones, so they are read from the database by the next session of the edge in their original order.
+     */
+    private void discardStreamedEdgeEvents() {
+        while (streamedEdgeEvents.poll() != null) {
+            streamedEdgeEventsCount.decrementAndGet();
+        }
+        inFlightEdgeEvents.clear();
+        deliveredStreamedEdgeEvents.clear();
+    }
+
+    /**
+     * Compares the event with the keyset position of the persisted queue in the order used by the database:
+     * by creation time and then by id as an unsigned 128-bit value.
+     */
+    private boolean isAfterQueuePosition(EdgeEvent edgeEvent) {
+        if (queueStartTs == null) {
+            return true;
+        }
+        if (edgeEvent.getCreatedTime() != queueStartTs) {
+            return edgeEvent.getCreatedTime() > queueStartTs;
+        }
+        UUID id = edgeEvent.getUuidId();
+        int result = Long.compareUnsigned(id.getMostSignificantBits(), queueStartId.getMostSignificantBits());
+        if (result == 0) {
+            result = Long.compareUnsigned(id.getLeastSignificantBits(), queueStartId.getLeastSignificantBits());
+        }
+        return result > 0;
     }
 
     private List<DownlinkMsg> convertToDownlinkMsgsPack(List<EdgeEvent> edgeEvents) {
@@ -16,6 +16,7 @@
 package org.thingsboard.server.service.edge.rpc;
 
 import org.thingsboard.server.common.data.edge.Edge;
+import org.thingsboard.server.common.data.edge.EdgeEvent;
 import org.thingsboard.server.common.data.id.EdgeId;
 
 public interface EdgeRpcService {
@@ -25,4 +26,9 @@ public interface EdgeRpcService {
     void deleteEdge(EdgeId edgeId);
 
     void onEdgeEvent(EdgeId edgeId);
+
+    /**
+     * Streams the saved event to the edge connected to this node. Returns false if the edge must read the event from the database instead.
+     */
+    boolean offerEdgeEvent(EdgeEvent edgeEvent);
 }
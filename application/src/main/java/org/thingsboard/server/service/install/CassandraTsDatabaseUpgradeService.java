@@ -51,7 +51,20 @@ public class CassandraTsDatabaseUpgradeService extends AbstractCassandraDatabase
             case "2.5.0":
             case "3.1.1":
             case "3.2.1":
+                break;
             case "3.2.2":
+                log.info("Updating schema ...");
+                String createTsKvRollupTableStmt = "CREATE TABLE IF NOT EXISTS ts_kv_rollup_cf (" +
+                        "entity_type text, entity_id timeuuid, key text, resolution text, partition bigint, ts bigint, dirty boolean, " +
+                        "long_cnt bigint, dbl_cnt bigint, bool_cnt bigint, str_cnt bigint, json_cnt bigint, " +
+                        "long_min bigint, long_max bigint, long_sum bigint, dbl_min double, dbl_max double, dbl_sum double, " +
+                        "bool_min boolean, bool_max boolean, str_min text, str_max text, json_min text, json_max text, " +
+                        "PRIMARY KEY (( entity_type, entity_id, key, resolution, partition ), ts))";
+                log.info("Creating ts rollups ...");
+                cluster.getSession().execute(createTsKvRollupTableStmt);
+                Thread.sleep(2500);
+                log.info("Ts rollups created.");
+                log.info("Schema updated.");
                 break;
             default:
                 throw new RuntimeException("Unable to upgrade Cassandra database, unsupported fromVersion: " + fromVersion);
@@ -46,6 +46,7 @@ public class PsqlTsDatabaseUpgradeService extends AbstractSqlTsDatabaseUpgradeSe
     private static final String LOAD_FUNCTIONS_SQL = "schema_update_psql_ts.sql";
     private static final String LOAD_TTL_FUNCTIONS_SQL = "schema_update_ttl.sql";
     private static final String LOAD_DROP_PARTITIONS_FUNCTIONS_SQL = "schema_update_psql_drop_partitions.sql";
+    private static final String LOAD_DICTIONARY_TTL_FUNCTIONS_SQL = "schema_update_psql_ttl.sql";
 
     private static final String TS_KV_OLD = "ts_kv_old;";
     private static final String TS_KV_LATEST_OLD = "ts_kv_latest_old;";
@@ -211,8 +212,10 @@ public class PsqlTsDatabaseUpgradeService extends AbstractSqlTsDatabaseUpgradeSe
                 break;
             case "3.2.2":
                 try (Connection conn = DriverManager.getConnection(dbUrl, dbUserName, dbPassword)) {
+                    log.info("Load TTL functions ...");
+                    loadSql(conn, LOAD_DICTIONARY_TTL_FUNCTIONS_SQL, "3.2.2");
                     log.info("Load Drop Partitions functions ...");
-                    loadSql(conn, LOAD_DROP_PARTITIONS_FUNCTIONS_SQL, "2.4.3");
+                    loadSql(conn, LOAD_DROP_PARTITIONS_FUNCTIONS_SQL, "3.2.2");
                 }
                 break;
             default:
@@ -459,6 +459,11 @@ public class SqlDatabaseUpgradeService implements DatabaseEntitiesUpgradeService
                     schemaUpdateFile = Paths.get(installScripts.getDataDir(), "upgrade", "3.2.2", "schema_update_ttl.sql");
                     loadSql(schemaUpdateFile, conn);
                     log.info("Edge TTL functions successfully loaded!");
+                    log.info("Updating attribute_kv to use attribute_kv_dictionary keys ...");
+                    schemaUpdateFile = Paths.get(installScripts.getDataDir(), "upgrade", "3.2.2", "schema_update_attribute_kv.sql");
+                    loadSql(schemaUpdateFile, conn);
+                    log.info("attribute_kv successfully updated!");
+                    conn.createStatement().execute("CREATE INDEX IF NOT EXISTS idx_edge_event_by_edge_id_and_created_time ON edge_event(tenant_id, edge_id, created_time, id);");
                     conn.createStatement().execute("UPDATE tb_schema_settings SET schema_version = 3003000;");
                     log.info("Schema updated.");
                 } catch (Exception e) {
@@ -45,6 +45,7 @@ public class TimescaleTsDatabaseUpgradeService extends AbstractSqlTsDatabaseUpgr
 
     private static final String LOAD_FUNCTIONS_SQL = "schema_update_timescale_ts.sql";
     private static final String LOAD_TTL_FUNCTIONS_SQL = "schema_update_ttl.sql";
+    private static final String LOAD_DICTIONARY_TTL_FUNCTIONS_SQL = "schema_update_timescale_ttl.sql";
 
     private static final String TENANT_TS_KV_OLD_TABLE = "tenant_ts_kv_old;";
 
@@ -185,6 +186,9 @@ public class TimescaleTsDatabaseUpgradeService extends AbstractSqlTsDatabaseUpgr
                 }
                 break;
             case "3.2.2":
+                try (Connection conn = DriverManager.getConnection(dbUrl, dbUserName, dbPassword)) {
+                    loadSql(conn, LOAD_DICTIONARY_TTL_FUNCTIONS_SQL, "3.2.2");
+                }
                 break;
             default:
                 throw new RuntimeException("Unable to upgrade SQL database, unsupported fromVersion: " + fromVersion);
@@ -23,6 +23,7 @@ import org.springframework.stereotype.Service;
 import org.thingsboard.server.common.data.EntityType;
 import org.thingsboard.server.common.data.UUIDConverter;
 import org.thingsboard.server.dao.cassandra.CassandraCluster;
+import org.thingsboard.server.dao.sql.attributes.AttributeKeyDictionary;
 import org.thingsboard.server.dao.util.NoSqlAnyDao;
 import org.thingsboard.server.service.install.EntityDatabaseSchemaService;
 
@@ -30,6 +31,7 @@ import java.sql.Connection;
 import java.sql.DriverManager;
 import java.util.Arrays;
 import java.util.List;
+import java.util.function.ToIntFunction;
 
 import static org.thingsboard.server.service.install.migrate.CassandraToSqlColumn.bigintColumn;
 import static org.thingsboard.server.service.install.migrate.CassandraToSqlColumn.booleanColumn;
@@ -37,6 +39,7 @@ import static org.thingsboard.server.service.install.migrate.CassandraToSqlColum
 import static org.thingsboard.server.service.install.migrate.CassandraToSqlColumn.enumToIntColumn;
 import static org.thingsboard.server.service.install.migrate.CassandraToSqlColumn.idColumn;
 import static org.thingsboard.server.service.install.migrate.CassandraToSqlColumn.jsonColumn;
+import static org.thingsboard.server.service.install.migrate.CassandraToSqlColumn.keyIdColumn;
 import static org.thingsboard.server.service.install.migrate.CassandraToSqlColumn.stringColumn;
 
 @Service
@@ -51,6 +54,9 @@ public class CassandraEntitiesToSqlMigrateService implements EntitiesMigrateServ
     @Autowired
     protected CassandraCluster cluster;
 
+    @Autowired
+    private AttributeKeyDictionary attributeKeyDictionary;
+
     @Value("${spring.datasource.url}")
     protected String dbUrl;
 
@@ -76,7 +82,21 @@ public class CassandraEntitiesToSqlMigrateService implements EntitiesMigrateServ
         entityDatabaseSchemaService.createDatabaseIndexes();
     }
 
-    private static List<CassandraToSqlTable> tables = Arrays.asList(
+    static CassandraToSqlTable attributesTable(ToIntFunction<String> keyIdResolver) {
+        return new CassandraToSqlTable("attributes_kv_cf", "attribute_kv",
+                idColumn("entity_id"),
+                stringColumn("entity_type"),
+                stringColumn("attribute_type"),
+                keyIdColumn("attribute_key", keyIdResolver),
+                booleanColumn("bool_v", true),
+                stringColumn("str_v"),
+                bigintColumn("long_v"),
+                doubleColumn("dbl_v"),
+                jsonColumn("json_v"),
+                bigintColumn("last_update_ts"));
+    }
+
+    private final List<CassandraToSqlTable> tables = Arrays.asList(
        new CassandraToSqlTable("admin_settings",
                 idColumn("id"),
                 stringColumn("key"),
@@ -128,17 +148,7 @@ public class CassandraEntitiesToSqlMigrateService implements EntitiesMigrateServ
                 stringColumn("action_data"),
                 stringColumn("action_status"),
                 stringColumn("action_failure_details")),
-        new CassandraToSqlTable("attributes_kv_cf", "attribute_kv",
-                idColumn("entity_id"),
-                stringColumn("entity_type"),
-                stringColumn("attribute_type"),
-                stringColumn("attribute_key"),
-                booleanColumn("bool_v", true),
-                stringColumn("str_v"),
-                bigintColumn("long_v"),
-                doubleColumn("dbl_v"),
-                jsonColumn("json_v"),
-                bigintColumn("last_update_ts")),
+        attributesTable(key -> attributeKeyDictionary.getOrSaveKeyId(key)),
         new CassandraToSqlTable("component_descriptor",
                 idColumn("id"),
                 stringColumn("type"),
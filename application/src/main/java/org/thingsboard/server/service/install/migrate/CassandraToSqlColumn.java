@@ -22,6 +22,7 @@ import org.thingsboard.server.common.data.UUIDConverter;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Types;
+import java.util.function.ToIntFunction;
 import java.util.regex.Pattern;
 
 @Data
@@ -39,6 +40,7 @@ public class CassandraToSqlColumn {
     private int size;
     private Class<? extends Enum> enumClass;
     private boolean allowNullBoolean = false;
+    private ToIntFunction<String> keyIdResolver;
 
     public static CassandraToSqlColumn idColumn(String name) {
         return new CassandraToSqlColumn(name, CassandraToSqlColumnType.ID);
@@ -76,6 +78,15 @@ public class CassandraToSqlColumn {
         return new CassandraToSqlColumn(name, CassandraToSqlColumnType.ENUM_TO_INT, enumClass);
     }
 
+    /**
+     * String key in Cassandra that is stored as the integer id of the key in SQL.
+     */
+    public static CassandraToSqlColumn keyIdColumn(String name, ToIntFunction<String> keyIdResolver) {
+        CassandraToSqlColumn column = new CassandraToSqlColumn(name, CassandraToSqlColumnType.KEY_ID);
+        column.setKeyIdResolver(keyIdResolver);
+        return column;
+    }
+
     public CassandraToSqlColumn(String columnName) {
         this(columnName, columnName, CassandraToSqlColumnType.STRING, null, false);
     }
@@ -125,6 +136,7 @@ public class CassandraToSqlColumn {
                 case STRING:
                 case JSON:
                 case ENUM_TO_INT:
+                case KEY_ID:
                 default:
                     String value = row.getString(index);
                     return this.replaceNullChars(value);
@@ -152,6 +164,9 @@ public class CassandraToSqlColumn {
                 case BOOLEAN:
                     sqlInsertStatement.setBoolean(this.sqlIndex, Boolean.parseBoolean(value));
                     break;
+                case KEY_ID:
+                    sqlInsertStatement.setInt(this.sqlIndex, this.keyIdResolver.applyAsInt(value));
+                    break;
                 case ENUM_TO_INT:
                     @SuppressWarnings("unchecked")
                     Enum<?> enumVal = Enum.valueOf(this.enumClass, value);
@@ -24,5 +24,6 @@ public enum CassandraToSqlColumnType {
     BOOLEAN,
     STRING,
     JSON,
-    ENUM_TO_INT
+    ENUM_TO_INT,
+    KEY_ID
 }
@@ -43,4 +43,8 @@ public abstract class PaginatedUpdater<I, D extends SearchTextBased<? extends UU
 
     protected abstract void updateEntity(D entity);
 
+    protected String getName() { return ""; }
+
+    protected boolean forceReportTotal() { return false; }
+
 }
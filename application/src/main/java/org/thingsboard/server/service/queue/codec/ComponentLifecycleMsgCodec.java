@@ -0,0 +1,64 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.service.queue.codec;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import org.springframework.stereotype.Component;
+import org.thingsboard.server.common.data.id.EntityId;
+import org.thingsboard.server.common.data.id.EntityIdFactory;
+import org.thingsboard.server.common.data.id.TenantId;
+import org.thingsboard.server.common.data.plugin.ComponentLifecycleEvent;
+import org.thingsboard.server.common.msg.plugin.ComponentLifecycleMsg;
+import org.thingsboard.server.common.transport.util.DataCodec;
+import org.thingsboard.server.gen.transport.TransportProtos.ComponentLifecycleMsgProto;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+@Component
+public class ComponentLifecycleMsgCodec implements DataCodec<ComponentLifecycleMsg> {
+
+    @Override
+    public int getTypeId() {
+        return 1;
+    }
+
+    @Override
+    public Class<ComponentLifecycleMsg> getMsgClass() {
+        return ComponentLifecycleMsg.class;
+    }
+
+    @Override
+    public byte[] encode(ComponentLifecycleMsg msg) {
+        return ComponentLifecycleMsgProto.newBuilder()
+                .setTenantIdMSB(msg.getTenantId().getId().getMostSignificantBits())
+                .setTenantIdLSB(msg.getTenantId().getId().getLeastSignificantBits())
+                .setEntityType(msg.getEntityId().getEntityType().name())
+                .setEntityIdMSB(msg.getEntityId().getId().getMostSignificantBits())
+                .setEntityIdLSB(msg.getEntityId().getId().getLeastSignificantBits())
+                .setEvent(msg.getEvent().name())
+                .build().toByteArray();
+    }
+
+    @Override
+    public ComponentLifecycleMsg decode(ByteBuffer data) throws InvalidProtocolBufferException {
+        ComponentLifecycleMsgProto proto = ComponentLifecycleMsgProto.parseFrom(data);
+        TenantId tenantId = new TenantId(new UUID(proto.getTenantIdMSB(), proto.getTenantIdLSB()));
+        EntityId entityId = EntityIdFactory.getByTypeAndUuid(proto.getEntityType(), new UUID(proto.getEntityIdMSB(), proto.getEntityIdLSB()));
+        return new ComponentLifecycleMsg(tenantId, entityId, ComponentLifecycleEvent.valueOf(proto.getEvent()));
+    }
+
+}
@@ -0,0 +1,86 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.service.queue.codec;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import org.springframework.stereotype.Component;
+import org.thingsboard.rule.engine.api.msg.DeviceAttributesEventNotificationMsg;
+import org.thingsboard.server.common.data.id.DeviceId;
+import org.thingsboard.server.common.data.id.TenantId;
+import org.thingsboard.server.common.data.kv.AttributeKey;
+import org.thingsboard.server.common.data.kv.AttributeKvEntry;
+import org.thingsboard.server.common.transport.util.DataCodec;
+import org.thingsboard.server.gen.transport.TransportProtos.AttributeKeyProto;
+import org.thingsboard.server.gen.transport.TransportProtos.DeviceAttributesEventNotificationMsgProto;
+import org.thingsboard.server.service.subscription.TbSubscriptionUtils;
+
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+@Component
+public class DeviceAttributesEventNotificationMsgCodec implements DataCodec<DeviceAttributesEventNotificationMsg> {
+
+    @Override
+    public int getTypeId() {
+        return 5;
+    }
+
+    @Override
+    public Class<DeviceAttributesEventNotificationMsg> getMsgClass() {
+        return DeviceAttributesEventNotificationMsg.class;
+    }
+
+    @Override
+    public byte[] encode(DeviceAttributesEventNotificationMsg msg) {
+        DeviceAttributesEventNotificationMsgProto.Builder builder = DeviceAttributesEventNotificationMsgProto.newBuilder()
+                .setTenantIdMSB(msg.getTenantId().getId().getMostSignificantBits())
+                .setTenantIdLSB(msg.getTenantId().getId().getLeastSignificantBits())
+                .setDeviceIdMSB(msg.getDeviceId().getId().getMostSignificantBits())
+                .setDeviceIdLSB(msg.getDeviceId().getId().getLeastSignificantBits())
+                .setDeleted(msg.isDeleted());
+        if (msg.getScope() != null) {
+            builder.setScope(msg.getScope());
+        }
+        if (msg.getDeletedKeys() != null) {
+            msg.getDeletedKeys().forEach(key -> builder.addDeletedKeys(AttributeKeyProto.newBuilder()
+                    .setScope(key.getScope())
+                    .setAttributeKey(key.getAttributeKey())));
+        }
+        if (msg.getValues() != null) {
+            msg.getValues().forEach(value -> builder.addValues(TbSubscriptionUtils.toKeyValueProto(value.getLastUpdateTs(), value)));
+        }
+        return builder.build().toByteArray();
+    }
+
+    @Override
+    public DeviceAttributesEventNotificationMsg decode(ByteBuffer data) throws InvalidProtocolBufferException {
+        DeviceAttributesEventNotificationMsgProto proto = DeviceAttributesEventNotificationMsgProto.parseFrom(data);
+        TenantId tenantId = new TenantId(new UUID(proto.getTenantIdMSB(), proto.getTenantIdLSB()));
+        DeviceId deviceId = new DeviceId(new UUID(proto.getDeviceIdMSB(), proto.getDeviceIdLSB()));
+        if (proto.getDeleted()) {
+            Set<AttributeKey> keys = new HashSet<>(proto.getDeletedKeysCount());
+            proto.getDeletedKeysList().forEach(key -> keys.add(new AttributeKey(key.getScope(), key.getAttributeKey())));
+            return DeviceAttributesEventNotificationMsg.onDelete(tenantId, deviceId, keys);
+        } else {
+            List<AttributeKvEntry> values = TbSubscriptionUtils.toAttributeKvList(proto.getValuesList());
+            return DeviceAttributesEventNotificationMsg.onUpdate(tenantId, deviceId, proto.getScope(), values);
+        }
+    }
+
+}
@@ -0,0 +1,66 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.service.queue.codec;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import org.springframework.stereotype.Component;
+import org.thingsboard.rule.engine.api.msg.DeviceEdgeUpdateMsg;
+import org.thingsboard.server.common.data.id.DeviceId;
+import org.thingsboard.server.common.data.id.EdgeId;
+import org.thingsboard.server.common.data.id.TenantId;
+import org.thingsboard.server.common.transport.util.DataCodec;
+import org.thingsboard.server.gen.transport.TransportProtos.DeviceEdgeUpdateMsgProto;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+@Component
+public class DeviceEdgeUpdateMsgCodec implements DataCodec<DeviceEdgeUpdateMsg> {
+
+    @Override
+    public int getTypeId() {
+        return 4;
+    }
+
+    @Override
+    public Class<DeviceEdgeUpdateMsg> getMsgClass() {
+        return DeviceEdgeUpdateMsg.class;
+    }
+
+    @Override
+    public byte[] encode(DeviceEdgeUpdateMsg msg) {
+        DeviceEdgeUpdateMsgProto.Builder builder = DeviceEdgeUpdateMsgProto.newBuilder()
+                .setTenantIdMSB(msg.getTenantId().getId().getMostSignificantBits())
+                .setTenantIdLSB(msg.getTenantId().getId().getLeastSignificantBits())
+                .setDeviceIdMSB(msg.getDeviceId().getId().getMostSignificantBits())
+                .setDeviceIdLSB(msg.getDeviceId().getId().getLeastSignificantBits());
+        if (msg.getEdgeId() != null) {
+            builder.setHasEdgeId(true)
+                    .setEdgeIdMSB(msg.getEdgeId().getId().getMostSignificantBits())
+                    .setEdgeIdLSB(msg.getEdgeId().getId().getLeastSignificantBits());
+        }
+        return builder.build().toByteArray();
+    }
+
+    @Override
+    public DeviceEdgeUpdateMsg decode(ByteBuffer data) throws InvalidProtocolBufferException {
+        DeviceEdgeUpdateMsgProto proto = DeviceEdgeUpdateMsgProto.parseFrom(data);
+        EdgeId edgeId = proto.getHasEdgeId() ? new EdgeId(new UUID(proto.getEdgeIdMSB(), proto.getEdgeIdLSB())) : null;
+        return new DeviceEdgeUpdateMsg(new TenantId(new UUID(proto.getTenantIdMSB(), proto.getTenantIdLSB())),
+                new DeviceId(new UUID(proto.getDeviceIdMSB(), proto.getDeviceIdLSB())), edgeId);
+    }
+
+}
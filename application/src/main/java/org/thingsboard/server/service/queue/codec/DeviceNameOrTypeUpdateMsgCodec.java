@@ -0,0 +1,62 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.service.queue.codec;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import org.springframework.stereotype.Component;
+import org.thingsboard.rule.engine.api.msg.DeviceNameOrTypeUpdateMsg;
+import org.thingsboard.server.common.data.id.DeviceId;
+import org.thingsboard.server.common.data.id.TenantId;
+import org.thingsboard.server.common.transport.util.DataCodec;
+import org.thingsboard.server.gen.transport.TransportProtos.DeviceNameOrTypeUpdateMsgProto;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+@Component
+public class DeviceNameOrTypeUpdateMsgCodec implements DataCodec<DeviceNameOrTypeUpdateMsg> {
+
+    @Override
+    public int getTypeId() {
+        return 3;
+    }
+
+    @Override
+    public Class<DeviceNameOrTypeUpdateMsg> getMsgClass() {
+        return DeviceNameOrTypeUpdateMsg.class;
+    }
+
+    @Override
+    public byte[] encode(DeviceNameOrTypeUpdateMsg msg) {
+        return DeviceNameOrTypeUpdateMsgProto.newBuilder()
+                .setTenantIdMSB(msg.getTenantId().getId().getMostSignificantBits())
+                .setTenantIdLSB(msg.getTenantId().getId().getLeastSignificantBits())
+                .setDeviceIdMSB(msg.getDeviceId().getId().getMostSignificantBits())
+                .setDeviceIdLSB(msg.getDeviceId().getId().getLeastSignificantBits())
+                .setDeviceName(msg.getDeviceName())
+                .setDeviceType(msg.getDeviceType())
+                .build().toByteArray();
+    }
+
+    @Override
+    public DeviceNameOrTypeUpdateMsg decode(ByteBuffer data) throws InvalidProtocolBufferException {
+        DeviceNameOrTypeUpdateMsgProto proto = DeviceNameOrTypeUpdateMsgProto.parseFrom(data);
+        return new DeviceNameOrTypeUpdateMsg(new TenantId(new UUID(proto.getTenantIdMSB(), proto.getTenantIdLSB())),
+                new DeviceId(new UUID(proto.getDeviceIdMSB(), proto.getDeviceIdLSB())),
+                proto.getDeviceName(), proto.getDeviceType());
+    }
+
+}
@@ -0,0 +1,59 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.service.queue.codec;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import org.springframework.stereotype.Component;
+import org.thingsboard.server.common.data.id.EdgeId;
+import org.thingsboard.server.common.data.id.TenantId;
+import org.thingsboard.server.common.msg.edge.EdgeEventUpdateMsg;
+import org.thingsboard.server.common.transport.util.DataCodec;
+import org.thingsboard.server.gen.transport.TransportProtos.EdgeEventUpdateMsgProto;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+@Component
+public class EdgeEventUpdateMsgCodec implements DataCodec<EdgeEventUpdateMsg> {
+
+    @Override
+    public int getTypeId() {
+        return 2;
+    }
+
+    @Override
+    public Class<EdgeEventUpdateMsg> getMsgClass() {
+        return EdgeEventUpdateMsg.class;
+    }
+
+    @Override
+    public byte[] encode(EdgeEventUpdateMsg msg) {
+        return EdgeEventUpdateMsgProto.newBuilder()
+                .setTenantIdMSB(msg.getTenantId().getId().getMostSignificantBits())
+                .setTenantIdLSB(msg.getTenantId().getId().getLeastSignificantBits())
+                .setEdgeIdMSB(msg.getEdgeId().getId().getMostSignificantBits())
+                .setEdgeIdLSB(msg.getEdgeId().getId().getLeastSignificantBits())
+                .build().toByteArray();
+    }
+
+    @Override
+    public EdgeEventUpdateMsg decode(ByteBuffer data) throws InvalidProtocolBufferException {
+        EdgeEventUpdateMsgProto proto = EdgeEventUpdateMsgProto.parseFrom(data);
+        return new EdgeEventUpdateMsg(new TenantId(new UUID(proto.getTenantIdMSB(), proto.getTenantIdLSB())),
+                new EdgeId(new UUID(proto.getEdgeIdMSB(), proto.getEdgeIdLSB())));
+    }
+
+}
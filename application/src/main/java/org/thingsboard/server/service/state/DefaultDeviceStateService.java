@@ -17,15 +17,18 @@ package org.thingsboard.server.service.state;
 
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.base.Function;
+import com.google.common.collect.Lists;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningScheduledExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
+import lombok.Data;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
 import org.springframework.util.StringUtils;
 import org.thingsboard.common.util.ThingsBoardThreadFactory;
@@ -42,6 +45,7 @@ import org.thingsboard.server.common.data.kv.LongDataEntry;
 import org.thingsboard.server.common.data.kv.TsKvEntry;
 import org.thingsboard.server.common.data.page.PageData;
 import org.thingsboard.server.common.data.page.PageLink;
+import org.thingsboard.server.common.data.page.SortOrder;
 import org.thingsboard.server.common.msg.TbMsg;
 import org.thingsboard.server.common.msg.TbMsgDataType;
 import org.thingsboard.server.common.msg.TbMsgMetaData;
@@ -55,6 +59,7 @@ import org.thingsboard.server.dao.timeseries.TimeseriesService;
 import org.thingsboard.common.util.JacksonUtil;
 import org.thingsboard.server.gen.transport.TransportProtos;
 import org.thingsboard.server.queue.discovery.event.PartitionChangeEvent;
+import org.thingsboard.server.queue.discovery.event.PartitionWarmUpEvent;
 import org.thingsboard.server.queue.discovery.PartitionService;
 import org.thingsboard.server.queue.discovery.TbApplicationEventListener;
 import org.thingsboard.server.queue.util.TbCoreComponent;
@@ -68,8 +73,10 @@ import javax.annotation.PreDestroy;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.Set;
 import java.util.UUID;
@@ -128,11 +135,16 @@ public class DefaultDeviceStateService extends TbApplicationEventListener<Partit
     @Getter
     private int initFetchPackSize;
 
+    @Value("${state.warmUpSafetyMarginInSec:60}")
+    @Getter
+    private long warmUpSafetyMarginInSec;
+
     private ListeningScheduledExecutorService queueExecutor;
     private final ConcurrentMap<TopicPartitionInfo, Set<DeviceId>> partitionedDevices = new ConcurrentHashMap<>();
     private final ConcurrentMap<DeviceId, DeviceStateData> deviceStates = new ConcurrentHashMap<>();
     private final ConcurrentMap<DeviceId, Long> deviceLastReportedActivity = new ConcurrentHashMap<>();
     private final ConcurrentMap<DeviceId, Long> deviceLastSavedActivity = new ConcurrentHashMap<>();
+    private final ConcurrentMap<TopicPartitionInfo, WarmedUpPartition> warmedUpPartitions = new ConcurrentHashMap<>();
     private volatile EventDeduplicationExecutor<Set<TopicPartitionInfo>> deduplicationExecutor;
 
 
@@ -328,35 +340,30 @@ public class DefaultDeviceStateService extends TbApplicationEventListener<Partit
 
             addedPartitions.forEach(tpi -> partitionedDevices.computeIfAbsent(tpi, key -> ConcurrentHashMap.newKeySet()));
 
-            //TODO 3.0: replace this dummy search with new functionality to search by partitions using SQL capabilities.
-            // Adding only devices that are in new partitions
-            List<Tenant> tenants = tenantService.findTenants(new PageLink(Integer.MAX_VALUE)).getData();
-            for (Tenant tenant : tenants) {
-                PageLink pageLink = new PageLink(initFetchPackSize);
-                while (pageLink != null) {
-                    List<ListenableFuture<Void>> fetchFutures = new ArrayList<>();
-                    PageData<Device> page = deviceService.findDevicesByTenantId(tenant.getId(), pageLink);
-                    pageLink = page.hasNext() ? pageLink.nextPageLink() : null;
-                    for (Device device : page.getData()) {
-                        TopicPartitionInfo tpi = partitionService.resolve(ServiceType.TB_CORE, tenant.getId(), device.getId());
-                        if (addedPartitions.contains(tpi)) {
-                            ListenableFuture<Void> future = Futures.transform(fetchDeviceState(device), new Function<DeviceStateData, Void>() {
-                                @Nullable
-                                @Override
-                                public Void apply(@Nullable DeviceStateData state) {
-                                    if (state != null) {
-                                        addDeviceUsingState(tpi, state);
-                                    }
-                                    return null;
-                                }
-                            }, MoreExecutors.directExecutor());
-                            fetchFutures.add(future);
-                        }
-                    }
-                    try {
-                        Futures.successfulAsList(fetchFutures).get();
-                    } catch (InterruptedException | ExecutionException e) {
-                        log.warn("Failed to init device state service from DB", e);
+            Set<TopicPartitionInfo> coldPartitions = new HashSet<>(addedPartitions);
+            Map<TopicPartitionInfo, WarmedUpPartition> warmedUp = new HashMap<>();
+            for (TopicPartitionInfo tpi : addedPartitions) {
+                WarmedUpPartition partition = warmedUpPartitions.remove(tpi);
+                if (partition != null) {
+                    warmedUp.put(tpi, partition);
+                    coldPartitions.remove(tpi);
+                }
+            }
+            if (!warmedUp.isEmpty()) {
+                log.info("WARMED UP PARTITIONS: {}", warmedUp.keySet());
+                initStateFromWarmedUpPartitions(warmedUp);
+            }
+
+            if (!coldPartitions.isEmpty()) {
+                //TODO 3.0: replace this dummy search with new functionality to search by partitions using SQL capabilities.
+                // Adding only devices that are in new partitions
+                List<Tenant> tenants = tenantService.findTenants(new PageLink(Integer.MAX_VALUE)).getData();
+                for (Tenant tenant : tenants) {
+                    PageLink pageLink = new PageLink(initFetchPackSize);
+                    while (pageLink != null) {
+                        PageData<Device> page = deviceService.findDevicesByTenantId(tenant.getId(), pageLink);
+                        pageLink = page.hasNext() ? pageLink.nextPageLink() : null;
+                        fetchAndAddDevices(tenant.getId(), page.getData(), coldPartitions);
                     }
                 }
             }
@@ -369,6 +376,119 @@ public class DefaultDeviceStateService extends TbApplicationEventListener<Partit
         }
     }
 
+    private void fetchAndAddDevices(TenantId tenantId, List<Device> devices, Set<TopicPartitionInfo> partitions) {
+        List<ListenableFuture<Void>> fetchFutures = new ArrayList<>();
+        for (Device device : devices) {
+            TopicPartitionInfo tpi = partitionService.resolve(ServiceType.TB_CORE, tenantId, device.getId());
+            if (partitions.contains(tpi)) {
+                ListenableFuture<Void> future = Futures.transform(fetchDeviceState(device), new Function<DeviceStateData, Void>() {
+                    @Nullable
+                    @Override
+                    public Void apply(@Nullable DeviceStateData state) {
+                        if (state != null) {
+                            addDeviceUsingState(tpi, state);
+                        }
+                        return null;
+                    }
+                }, MoreExecutors.directExecutor());
+                fetchFutures.add(future);
+            }
+        }
+        try {
+            Futures.successfulAsList(fetchFutures).get();
+        } catch (InterruptedException | ExecutionException e) {
+            log.warn("Failed to init device state service from DB", e);
+        }
+    }
+
+    @EventListener(PartitionWarmUpEvent.class)
+    public void onPartitionWarmUp(PartitionWarmUpEvent event) {
+        if (ServiceType.TB_CORE.equals(event.getServiceType())) {
+            queueExecutor.submit(() -> warmUpPartitions(event.getPartitions()));
+        }
+    }
+
+    /**
+     * Finds the devices of the partitions that will be handed over to this service, while the previous owner still
+     * processes them. Once the partitions are acquired only these devices are loaded instead of scanning all devices.
+     * Devices are paged by id, so a device that exists during the whole scan is found even if other devices are created
+     * or deleted meanwhile. Devices created during the scan are found on acquisition by their creation time.
+     */
+    private void warmUpPartitions(Set<TopicPartitionInfo> partitions) {
+        try {
+            // a new handover plan replaces the previous one, whose partitions may never be acquired
+            warmedUpPartitions.clear();
+            Set<TopicPartitionInfo> pendingPartitions = new HashSet<>(partitions);
+            pendingPartitions.removeAll(partitionedDevices.keySet());
+            if (pendingPartitions.isEmpty()) {
+                return;
+            }
+            long ts = System.currentTimeMillis();
+            Map<TopicPartitionInfo, WarmedUpPartition> warmedUp = new HashMap<>();
+            pendingPartitions.forEach(tpi -> warmedUp.put(tpi, new WarmedUpPartition(ts)));
+            List<Tenant> tenants = tenantService.findTenants(new PageLink(Integer.MAX_VALUE)).getData();
+            for (Tenant tenant : tenants) {
+                DeviceId idOffset = null;
+                List<Device> devices;
+                do {
+                    devices = deviceService.findDevicesByTenantIdAndIdOffset(tenant.getId(), idOffset, initFetchPackSize);
+                    for (Device device : devices) {
+                        WarmedUpPartition partition = warmedUp.get(partitionService.resolve(ServiceType.TB_CORE, tenant.getId(), device.getId()));
+                        if (partition != null) {
+                            partition.getDevices().computeIfAbsent(tenant.getId(), id -> new ArrayList<>()).add(device.getId());
+                        }
+                        idOffset = device.getId();
+                    }
+                } while (devices.size() == initFetchPackSize);
+            }
+            warmedUpPartitions.putAll(warmedUp);
+            log.info("Warmed up partitions: {}", warmedUp.keySet());
+        } catch (Throwable t) {
+            log.warn("Failed to warm up partitions {}", partitions, t);
+        }
+    }
+
+    private void initStateFromWarmedUpPartitions(Map<TopicPartitionInfo, WarmedUpPartition> warmedUp) throws InterruptedException, ExecutionException {
+        Set<TopicPartitionInfo> partitions = warmedUp.keySet();
+        Map<TenantId, Set<DeviceId>> warmedUpDevices = new HashMap<>();
+        long warmUpTs = Long.MAX_VALUE;
+        for (WarmedUpPartition partition : warmedUp.values()) {
+            warmUpTs = Math.min(warmUpTs, partition.getTs());
+            partition.getDevices().forEach((tenantId, deviceIds) -> warmedUpDevices.computeIfAbsent(tenantId, id -> new HashSet<>()).addAll(deviceIds));
+        }
+        // Devices are read again by id, so the ones deleted after the warm up are skipped.
+        for (Map.Entry<TenantId, Set<DeviceId>> entry : warmedUpDevices.entrySet()) {
+            for (List<DeviceId> deviceIds : Lists.partition(new ArrayList<>(entry.getValue()), initFetchPackSize)) {
+                List<Device> devices = deviceService.findDevicesByTenantIdAndIdsAsync(entry.getKey(), deviceIds).get();
+                fetchAndAddDevices(entry.getKey(), devices, partitions);
+            }
+        }
+        // Devices created after the warm up were registered by the previous owner of the partition. The margin covers
+        // the devices created during the warm up behind its id offset and the clock drift between the services.
+        warmUpTs -= TimeUnit.SECONDS.toMillis(warmUpSafetyMarginInSec);
+        List<Tenant> tenants = tenantService.findTenants(new PageLink(Integer.MAX_VALUE)).getData();
+        for (Tenant tenant : tenants) {
+            Set<DeviceId> knownDevices = warmedUpDevices.getOrDefault(tenant.getId(), Collections.emptySet());
+            PageLink pageLink = new PageLink(initFetchPackSize, 0, null, new SortOrder("createdTime", SortOrder.Direction.DESC));
+            while (pageLink != null) {
+                PageData<Device> page = deviceService.findDevicesByTenantId(tenant.getId(), pageLink);
+                List<Device> newDevices = new ArrayList<>();
+                boolean reachedWarmUp = false;
+                for (Device device : page.getData()) {
+                    if (device.getCreatedTime() < warmUpTs) {
+                        reachedWarmUp = true;
+                        break;
+                    }
+                    if (!knownDevices.contains(device.getId())) {
+                        newDevices.add(device);
+                    }
+                }
+                fetchAndAddDevices(tenant.getId(), newDevices, partitions);
+                pageLink = page.hasNext() && !reachedWarmUp ? pageLink.nextPageLink() : null;
+            }
+        }
+    }
+
     private void addDeviceUsingState(TopicPartitionInfo tpi, DeviceStateData state) {
         partitionedDevices.computeIfAbsent(tpi, id -> ConcurrentHashMap.newKeySet()).add(state.getDeviceId());
         deviceStates.put(state.getDeviceId(), state);
@@ -558,4 +678,10 @@ public class DefaultDeviceStateService extends TbApplicationEventListener<Partit
             log.warn("[{}] Failed to update attribute [{}] with value [{}]", deviceId, key, value, t);
         }
     }
+
+    @Data
+    private static class WarmedUpPartition {
+        private final long ts;
+        private final Map<TenantId, List<DeviceId>> devices = new HashMap<>();
+    }
 }
@@ -17,6 +17,7 @@ package org.thingsboard.server.service.subscription;
 
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.thingsboard.common.util.DonAsynchron;
 import org.thingsboard.common.util.ThingsBoardThreadFactory;
@@ -43,7 +44,6 @@ import org.thingsboard.common.util.JacksonUtil;
 import org.thingsboard.server.gen.transport.TransportProtos.*;
 import org.thingsboard.server.gen.transport.TransportProtos.LocalSubscriptionServiceMsgProto;
 import org.thingsboard.server.gen.transport.TransportProtos.TbSubscriptionUpdateProto;
-import org.thingsboard.server.gen.transport.TransportProtos.TbSubscriptionUpdateValueListProto;
 import org.thingsboard.server.queue.TbQueueProducer;
 import org.thingsboard.server.queue.common.TbProtoQueueMsg;
 import org.thingsboard.server.queue.discovery.event.PartitionChangeEvent;
@@ -66,11 +66,11 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
-import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.function.Function;
 import java.util.function.Predicate;
 
@@ -103,12 +103,20 @@ public class DefaultSubscriptionManagerService extends TbApplicationEventListene
     @Autowired
     private TbClusterService clusterService;
 
+    @Value("${queue.core.subscription-updates.batch-window-ms:0}")
+    private long subUpdatesBatchWindowMs;
+
+    @Value("${queue.core.subscription-updates.max-batch-size:1000}")
+    private int subUpdatesMaxBatchSize;
+
     private final Map<EntityId, Set<TbSubscription>> subscriptionsByEntityId = new ConcurrentHashMap<>();
     private final Map<String, Map<Integer, TbSubscription>> subscriptionsByWsSessionId = new ConcurrentHashMap<>();
     private final ConcurrentMap<TopicPartitionInfo, Set<TbSubscription>> partitionedSubscriptions = new ConcurrentHashMap<>();
     private final Set<TopicPartitionInfo> currentPartitions = ConcurrentHashMap.newKeySet();
 
     private ExecutorService tsCallBackExecutor;
+    private ScheduledExecutorService subUpdatesBatchExecutor;
+    private TbSubscriptionUpdateBatcher subUpdatesBatcher;
     private String serviceId;
     private TbQueueProducer<TbProtoQueueMsg<ToCoreNotificationMsg>> toCoreNotificationsProducer;
 
@@ -117,6 +125,11 @@ public class DefaultSubscriptionManagerService extends TbApplicationEventListene
         tsCallBackExecutor = Executors.newSingleThreadExecutor(ThingsBoardThreadFactory.forName("ts-sub-callback"));
         serviceId = serviceInfoProvider.getServiceId();
         toCoreNotificationsProducer = producerProvider.getTbCoreNotificationsMsgProducer();
+        if (subUpdatesBatchWindowMs > 0) {
+            subUpdatesBatchExecutor = Executors.newSingleThreadScheduledExecutor(ThingsBoardThreadFactory.forName("ts-sub-batch"));
+            subUpdatesBatcher = new TbSubscriptionUpdateBatcher(subUpdatesBatchWindowMs, subUpdatesMaxBatchSize, subUpdatesBatchExecutor,
+                    (targetServiceId, msg) -> toCoreNotificationsProducer.send(partitionService.getNotificationsTopic(ServiceType.TB_CORE, targetServiceId), msg, null));
+        }
     }
 
     @PreDestroy
@@ -124,6 +137,9 @@ public class DefaultSubscriptionManagerService extends TbApplicationEventListene
         if (tsCallBackExecutor != null) {
             tsCallBackExecutor.shutdownNow();
         }
+        if (subUpdatesBatchExecutor != null) {
+            subUpdatesBatchExecutor.shutdownNow();
+        }
     }
 
     @Override
@@ -341,6 +357,8 @@ public class DefaultSubscriptionManagerService extends TbApplicationEventListene
                     if (serviceId.equals(s.getServiceId())) {
                         TelemetrySubscriptionUpdate update = new TelemetrySubscriptionUpdate(s.getSubscriptionId(), subscriptionUpdate);
                         localSubscriptionService.onSubscriptionUpdate(s.getSessionId(), update, TbCallback.EMPTY);
+                    } else if (subUpdatesBatcher != null) {
+                        subUpdatesBatcher.add(s.getServiceId(), s, subscriptionUpdate);
                     } else {
                         TopicPartitionInfo tpi = partitionService.getNotificationsTopic(ServiceType.TB_CORE, s.getServiceId());
                         toCoreNotificationsProducer.send(tpi, toProto(s, subscriptionUpdate), null);
@@ -464,32 +482,7 @@ public class DefaultSubscriptionManagerService extends TbApplicationEventListene
         builder.setSessionId(subscription.getSessionId());
         builder.setSubscriptionId(subscription.getSubscriptionId());
 
-        Map<String, List<Object>> data = new TreeMap<>();
-        for (TsKvEntry tsEntry : updates) {
-            List<Object> values = data.computeIfAbsent(tsEntry.getKey(), k -> new ArrayList<>());
-            Object[] value = new Object[2];
-            value[0] = tsEntry.getTs();
-            value[1] = tsEntry.getValueAsString();
-            values.add(value);
-        }
-
-        data.forEach((key, value) -> {
-            TbSubscriptionUpdateValueListProto.Builder dataBuilder = TbSubscriptionUpdateValueListProto.newBuilder();
-            dataBuilder.setKey(key);
-            boolean hasData = false;
-            for (Object v : value) {
-                Object[] array = (Object[]) v;
-                dataBuilder.addTs((long) array[0]);
-                String strVal = (String) array[1];
-                if (strVal != null) {
-                    hasData = true;
-                    dataBuilder.addValue(strVal);
-                }
-            }
-            if (hasData) {
-                builder.addData(dataBuilder.build());
-            }
-        });
+        builder.addAllData(TbSubscriptionUtils.toValueListProto(updates));
 
         ToCoreNotificationMsg toCoreMsg = ToCoreNotificationMsg.newBuilder().setToLocalSubscriptionServiceMsg(
                 LocalSubscriptionServiceMsgProto.newBuilder().setSubUpdate(builder.build()).build())
@@ -22,6 +22,9 @@ import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
 import org.thingsboard.common.util.ThingsBoardExecutors;
 import org.thingsboard.server.gen.transport.TransportProtos;
+import org.thingsboard.server.gen.transport.TransportProtos.TbSubscriptionBatchUpdateProto;
+import org.thingsboard.server.gen.transport.TransportProtos.TbSubscriptionTargetProto;
+import org.thingsboard.server.gen.transport.TransportProtos.TbSubscriptionUpdateGroupProto;
 import org.thingsboard.server.queue.discovery.event.ClusterTopologyChangeEvent;
 import org.thingsboard.server.queue.discovery.event.PartitionChangeEvent;
 import org.thingsboard.server.queue.discovery.PartitionService;
@@ -38,6 +41,7 @@ import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
@@ -169,6 +173,17 @@ public class DefaultTbLocalSubscriptionService implements TbLocalSubscriptionSer
         callback.onSuccess();
     }
 
+    @Override
+    public void onSubscriptionUpdate(TbSubscriptionBatchUpdateProto update, TbCallback callback) {
+        for (TbSubscriptionUpdateGroupProto group : update.getGroupsList()) {
+            Map<String, List<Object>> data = TbSubscriptionUtils.fromValueListProto(group.getDataList());
+            for (TbSubscriptionTargetProto target : group.getTargetsList()) {
+                onSubscriptionUpdate(target.getSessionId(), new TelemetrySubscriptionUpdate(target.getSubscriptionId(), data), TbCallback.EMPTY);
+            }
+        }
+        callback.onSuccess();
+    }
+
     @Override
     public void cancelSubscription(String sessionId, int subscriptionId) {
         log.debug("[{}][{}] Going to remove subscription.", sessionId, subscriptionId);
@@ -18,6 +18,7 @@ package org.thingsboard.server.service.subscription;
 import org.thingsboard.server.queue.discovery.event.ClusterTopologyChangeEvent;
 import org.thingsboard.server.queue.discovery.event.PartitionChangeEvent;
 import org.thingsboard.server.common.msg.queue.TbCallback;
+import org.thingsboard.server.gen.transport.TransportProtos.TbSubscriptionBatchUpdateProto;
 import org.thingsboard.server.service.telemetry.sub.AlarmSubscriptionUpdate;
 import org.thingsboard.server.service.telemetry.sub.TelemetrySubscriptionUpdate;
 
@@ -33,6 +34,8 @@ public interface TbLocalSubscriptionService {
 
     void onSubscriptionUpdate(String sessionId, AlarmSubscriptionUpdate update, TbCallback callback);
 
+    void onSubscriptionUpdate(TbSubscriptionBatchUpdateProto update, TbCallback callback);
+
     void onApplicationEvent(PartitionChangeEvent event);
 
     void onApplicationEvent(ClusterTopologyChangeEvent event);
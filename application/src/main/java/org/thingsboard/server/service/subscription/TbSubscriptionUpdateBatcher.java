@@ -0,0 +1,139 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.service.subscription;
+
+import lombok.extern.slf4j.Slf4j;
+import org.thingsboard.server.common.data.kv.TsKvEntry;
+import org.thingsboard.server.gen.transport.TransportProtos.LocalSubscriptionServiceMsgProto;
+import org.thingsboard.server.gen.transport.TransportProtos.TbSubscriptionBatchUpdateProto;
+import org.thingsboard.server.gen.transport.TransportProtos.TbSubscriptionTargetProto;
+import org.thingsboard.server.gen.transport.TransportProtos.TbSubscriptionUpdateGroupProto;
+import org.thingsboard.server.gen.transport.TransportProtos.ToCoreNotificationMsg;
+import org.thingsboard.server.queue.common.TbProtoQueueMsg;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * Coalesces telemetry subscription updates bound for the same remote core service. Updates collected within the window
+ * are sent as one notification where subscriptions that receive identical values share a single serialized payload.
+ * Batches are flushed on the scheduler thread only, so notifications to a service keep the order of the updates.
+ */
+@Slf4j
+class TbSubscriptionUpdateBatcher {
+
+    private final long windowMs;
+    private final int maxBatchSize;
+    private final ScheduledExecutorService scheduler;
+    private final BiConsumer<String, TbProtoQueueMsg<ToCoreNotificationMsg>> sender;
+    private final ConcurrentMap<String, PendingBatch> pendingBatches = new ConcurrentHashMap<>();
+
+    TbSubscriptionUpdateBatcher(long windowMs, int maxBatchSize, ScheduledExecutorService scheduler,
+                                BiConsumer<String, TbProtoQueueMsg<ToCoreNotificationMsg>> sender) {
+        this.windowMs = windowMs;
+        this.maxBatchSize = maxBatchSize;
+        this.scheduler = scheduler;
+        this.sender = sender;
+    }
+
+    void add(String serviceId, TbSubscription subscription, List<TsKvEntry> update) {
+        while (true) {
+            PendingBatch batch = pendingBatches.computeIfAbsent(serviceId, id -> new PendingBatch(subscription.getEntityId().getId()));
+            synchronized (batch) {
+                if (batch.closed) {
+                    continue;
+                }
+                batch.add(subscription, update);
+                if (!batch.scheduled) {
+                    batch.scheduled = true;
+                    scheduler.schedule(() -> flush(serviceId, batch), windowMs, TimeUnit.MILLISECONDS);
+                } else if (batch.size == maxBatchSize) {
+                    scheduler.execute(() -> flush(serviceId, batch));
+                }
+            }
+            return;
+        }
+    }
+
+    private void flush(String serviceId, PendingBatch batch) {
+        pendingBatches.remove(serviceId, batch);
+        TbProtoQueueMsg<ToCoreNotificationMsg> msg;
+        synchronized (batch) {
+            if (batch.closed) {
+                return;
+            }
+            batch.closed = true;
+            msg = batch.toProto();
+        }
+        try {
+            sender.accept(serviceId, msg);
+        } catch (Exception e) {
+            log.warn("[{}] Failed to send {} subscription updates", serviceId, batch.size, e);
+        }
+    }
+
+    private static class PendingBatch {
+        private final UUID msgKey;
+        private final List<List<TsKvEntry>> updates = new ArrayList<>();
+        private final List<TbSubscriptionUpdateGroupProto.Builder> groups = new ArrayList<>();
+        private final Map<List<TsKvEntry>, Integer> groupByUpdate = new HashMap<>();
+        private final Map<TbSubscription, Integer> lastGroupBySubscription = new HashMap<>();
+        private int size;
+        private boolean scheduled;
+        private boolean closed;
+
+        PendingBatch(UUID msgKey) {
+            this.msgKey = msgKey;
+        }
+
+        void add(TbSubscription subscription, List<TsKvEntry> update) {
+            Integer groupIdx = groupByUpdate.get(update);
+            Integer lastGroupIdx = lastGroupBySubscription.get(subscription);
+            // A subscription must receive its updates in order, so it may join an existing group only if it has no later updates.
+            if (groupIdx == null || (lastGroupIdx != null && lastGroupIdx > groupIdx)) {
+                groupIdx = groups.size();
+                groups.add(TbSubscriptionUpdateGroupProto.newBuilder());
+                updates.add(update);
+                groupByUpdate.put(update, groupIdx);
+            }
+            groups.get(groupIdx).addTargets(TbSubscriptionTargetProto.newBuilder()
+                    .setSessionId(subscription.getSessionId())
+                    .setSubscriptionId(subscription.getSubscriptionId())
+                    .build());
+            lastGroupBySubscription.put(subscription, groupIdx);
+            size++;
+        }
+
+        TbProtoQueueMsg<ToCoreNotificationMsg> toProto() {
+            TbSubscriptionBatchUpdateProto.Builder builder = TbSubscriptionBatchUpdateProto.newBuilder();
+            for (int i = 0; i < groups.size(); i++) {
+                builder.addGroups(groups.get(i).addAllData(TbSubscriptionUtils.toValueListProto(updates.get(i))));
+            }
+            ToCoreNotificationMsg toCoreMsg = ToCoreNotificationMsg.newBuilder().setToLocalSubscriptionServiceMsg(
+                    LocalSubscriptionServiceMsgProto.newBuilder().setSubBatchUpdate(builder.build()).build())
+                    .build();
+            return new TbProtoQueueMsg<>(msgKey, toCoreMsg);
+        }
+    }
+}
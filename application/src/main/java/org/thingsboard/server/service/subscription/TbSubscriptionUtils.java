@@ -42,6 +42,7 @@ import org.thingsboard.server.gen.transport.TransportProtos.TbSubscriptionCloseP
 import org.thingsboard.server.gen.transport.TransportProtos.TbSubscriptionKetStateProto;
 import org.thingsboard.server.gen.transport.TransportProtos.TbSubscriptionProto;
 import org.thingsboard.server.gen.transport.TransportProtos.TbSubscriptionUpdateProto;
+import org.thingsboard.server.gen.transport.TransportProtos.TbSubscriptionUpdateValueListProto;
 import org.thingsboard.server.gen.transport.TransportProtos.TbTimeSeriesSubscriptionProto;
 import org.thingsboard.server.gen.transport.TransportProtos.TbTimeSeriesUpdateProto;
 import org.thingsboard.server.gen.transport.TransportProtos.ToCoreMsg;
@@ -168,20 +169,55 @@ public class TbSubscriptionUtils {
         if (proto.getErrorCode() > 0) {
             return new TelemetrySubscriptionUpdate(proto.getSubscriptionId(), SubscriptionErrorCode.forCode(proto.getErrorCode()), proto.getErrorMsg());
         } else {
-            Map<String, List<Object>> data = new TreeMap<>();
-            proto.getDataList().forEach(v -> {
-                List<Object> values = data.computeIfAbsent(v.getKey(), k -> new ArrayList<>());
-                for (int i = 0; i < v.getTsCount(); i++) {
-                    Object[] value = new Object[2];
-                    value[0] = v.getTs(i);
-                    value[1] = v.getValue(i);
-                    values.add(value);
-                }
-            });
-            return new TelemetrySubscriptionUpdate(proto.getSubscriptionId(), data);
+            return new TelemetrySubscriptionUpdate(proto.getSubscriptionId(), fromValueListProto(proto.getDataList()));
         }
     }
 
+    public static Map<String, List<Object>> fromValueListProto(List<TbSubscriptionUpdateValueListProto> dataList) {
+        Map<String, List<Object>> data = new TreeMap<>();
+        dataList.forEach(v -> {
+            List<Object> values = data.computeIfAbsent(v.getKey(), k -> new ArrayList<>());
+            for (int i = 0; i < v.getTsCount(); i++) {
+                Object[] value = new Object[2];
+                value[0] = v.getTs(i);
+                value[1] = v.getValue(i);
+                values.add(value);
+            }
+        });
+        return data;
+    }
+
+    public static List<TbSubscriptionUpdateValueListProto> toValueListProto(List<TsKvEntry> updates) {
+        Map<String, List<Object>> data = new TreeMap<>();
+        for (TsKvEntry tsEntry : updates) {
+            List<Object> values = data.computeIfAbsent(tsEntry.getKey(), k -> new ArrayList<>());
+            Object[] value = new Object[2];
+            value[0] = tsEntry.getTs();
+            value[1] = tsEntry.getValueAsString();
+            values.add(value);
+        }
+
+        List<TbSubscriptionUpdateValueListProto> result = new ArrayList<>(data.size());
+        data.forEach((key, value) -> {
+            TbSubscriptionUpdateValueListProto.Builder dataBuilder = TbSubscriptionUpdateValueListProto.newBuilder();
+            dataBuilder.setKey(key);
+            boolean hasData = false;
+            for (Object v : value) {
+                Object[] array = (Object[]) v;
+                dataBuilder.addTs((long) array[0]);
+                String strVal = (String) array[1];
+                if (strVal != null) {
+                    hasData = true;
+                    dataBuilder.addValue(strVal);
+                }
+            }
+            if (hasData) {
+                result.add(dataBuilder.build());
+            }
+        });
+        return result;
+    }
+
     public static AlarmSubscriptionUpdate fromProto(TransportProtos.TbAlarmSubscriptionUpdateProto proto) {
         if (proto.getErrorCode() > 0) {
             return new AlarmSubscriptionUpdate(proto.getSubscriptionId(), SubscriptionErrorCode.forCode(proto.getErrorCode()), proto.getErrorMsg());
@@ -236,7 +272,7 @@ public class TbSubscriptionUtils {
     }
 
 
-    private static TsKvProto.Builder toKeyValueProto(long ts, KvEntry attr) {
+    public static TsKvProto.Builder toKeyValueProto(long ts, KvEntry attr) {
         KeyValueProto.Builder dataBuilder = KeyValueProto.newBuilder();
         dataBuilder.setKey(attr.getKey());
         dataBuilder.setType(KeyValueType.forNumber(attr.getDataType().ordinal()));
@@ -0,0 +1,213 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.service.telemetry;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.thingsboard.server.common.data.ApiUsageRecordKey;
+import org.thingsboard.server.common.data.exception.ThingsboardErrorCode;
+import org.thingsboard.server.common.data.exception.ThingsboardException;
+import org.thingsboard.server.common.data.id.CustomerId;
+import org.thingsboard.server.common.data.id.EntityId;
+import org.thingsboard.server.common.data.id.TenantId;
+import org.thingsboard.server.common.data.kv.TsKvEntry;
+import org.thingsboard.server.common.msg.tools.TbRateLimits;
+import org.thingsboard.server.dao.timeseries.TimeseriesService;
+import org.thingsboard.server.queue.usagestats.TbApiUsageClient;
+import org.thingsboard.server.queue.util.TbCoreComponent;
+import org.thingsboard.server.service.apiusage.TbApiUsageStateService;
+
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Collectors;
+
+@Service
+@TbCoreComponent
+@Slf4j
+public class DefaultTelemetryImportService implements TelemetryImportService {
+
+    private final TimeseriesService tsService;
+    private final TelemetrySubscriptionService tsSubService;
+    private final TbApiUsageClient apiUsageClient;
+    private final TbApiUsageStateService apiUsageStateService;
+
+    private final ConcurrentMap<TenantId, TbRateLimits> perTenantLimits = new ConcurrentHashMap<>();
+
+    @Value("${server.rest.telemetry_import.batch_size:1000}")
+    private int batchSize;
+
+    @Value("${server.rest.telemetry_import.tenant_rate_limit:}")
+    private String tenantRateLimit;
+
+    @Value("${server.rest.telemetry_import.max_wait_ms:30000}")
+    private long maxWaitMs;
+
+    public DefaultTelemetryImportService(TimeseriesService tsService,
+                                         TelemetrySubscriptionService tsSubService,
+                                         TbApiUsageClient apiUsageClient,
+                                         TbApiUsageStateService apiUsageStateService) {
+        this.tsService = tsService;
+        this.tsSubService = tsSubService;
+        this.apiUsageClient = apiUsageClient;
+        this.apiUsageStateService = apiUsageStateService;
+    }
+
+    @Override
+    public TelemetryImportResult importTimeseries(TenantId tenantId, CustomerId customerId, InputStream in, TsKvDataFormat format, long ttl,
+                                                  boolean updateLatest, boolean notifySubscribers, EntityValidator validator) throws Exception {
+        if (!apiUsageStateService.getApiUsageState(tenantId).isDbStorageEnabled()) {
+            throw new ThingsboardException("DB storage writes are disabled due to API limits!", ThingsboardErrorCode.TOO_MANY_REQUESTS);
+        }
+        TsKvImportReader reader = new TsKvImportReader(format, in);
+        Set<EntityId> validated = new HashSet<>();
+        Map<EntityId, List<TsKvEntry>> batch = new LinkedHashMap<>();
+        int batchRecords = 0;
+        long totalRecords = 0;
+        TsKvImportReader.Record record;
+        while ((record = reader.next()) != null) {
+            EntityId entityId = record.getEntityId();
+            if (validated.add(entityId)) {
+                validator.validate(entityId);
+            }
+            batch.computeIfAbsent(entityId, id -> new ArrayList<>()).add(record.getEntry());
+            if (++batchRecords >= batchSize) {
+                saveBatch(tenantId, customerId, batch, batchRecords, ttl, updateLatest, notifySubscribers);
+                totalRecords += batchRecords;
+                batch = new LinkedHashMap<>();
+                batchRecords = 0;
+            }
+        }
+        if (batchRecords > 0) {
+            saveBatch(tenantId, customerId, batch, batchRecords, ttl, updateLatest, notifySubscribers);
+            totalRecords += batchRecords;
+        }
+        log.debug("[{}] Imported {} time-series records of {} entities", tenantId, totalRecords, validated.size());
+        return new TelemetryImportResult(validated.size(), totalRecords);
+    }
+
+    private void saveBatch(TenantId tenantId, CustomerId customerId, Map<EntityId, List<TsKvEntry>> batch, int batchRecords, long ttl,
+                           boolean updateLatest, boolean notifySubscribers) throws Exception {
+        checkRateLimit(tenantId, batchRecords);
+        List<ListenableFuture<?>> futures = new ArrayList<>(batch.size());
+        for (Map.Entry<EntityId, List<TsKvEntry>> entry : batch.entrySet()) {
+            EntityId entityId = entry.getKey();
+            List<TsKvEntry> entries = entry.getValue();
+            ListenableFuture<Integer> saveFuture = tsService.saveWithoutLatest(tenantId, entityId, entries, ttl);
+            futures.add(Futures.transform(saveFuture, dataPoints -> {
+                if (dataPoints != null && dataPoints > 0) {
+                    apiUsageClient.report(tenantId, customerId, ApiUsageRecordKey.STORAGE_DP_COUNT, dataPoints);
+                }
+                return null;
+            }, MoreExecutors.directExecutor()));
+            if (updateLatest || notifySubscribers) {
+                futures.add(saveLatestIfNewer(tenantId, entityId, getLatest(entries), notifySubscribers));
+            }
+        }
+        Futures.allAsList(futures).get();
+    }
+
+    /**
+     * Historical records must not replace the values that were reported after them,
+     * so only the keys whose stored latest value is older than the imported one are updated.
+     */
+    private ListenableFuture<Void> saveLatestIfNewer(TenantId tenantId, EntityId entityId, List<TsKvEntry> latest, boolean notifySubscribers) {
+        List<String> keys = latest.stream().map(TsKvEntry::getKey).collect(Collectors.toList());
+        return Futures.transformAsync(tsService.findLatest(tenantId, entityId, keys), stored -> {
+            List<TsKvEntry> newer = getNewer(latest, stored);
+            if (newer.isEmpty()) {
+                return Futures.immediateFuture(null);
+            }
+            if (!notifySubscribers) {
+                return Futures.transform(tsService.saveLatest(tenantId, entityId, newer), result -> null, MoreExecutors.directExecutor());
+            }
+            SettableFuture<Void> future = SettableFuture.create();
+            tsSubService.saveLatestAndNotify(tenantId, entityId, newer, new FutureCallback<Void>() {
+                @Override
+                public void onSuccess(Void result) {
+                    future.set(null);
+                }
+
+                @Override
+                public void onFailure(Throwable t) {
+                    future.setException(t);
+                }
+            });
+            return future;
+        }, MoreExecutors.directExecutor());
+    }
+
+    private void checkRateLimit(TenantId tenantId, int records) throws ThingsboardException, InterruptedException {
+        if (tenantRateLimit == null || tenantRateLimit.isEmpty()) {
+            return;
+        }
+        TbRateLimits rateLimits = perTenantLimits.computeIfAbsent(tenantId, id -> new TbRateLimits(tenantRateLimit));
+        // a request for more tokens than the bucket capacity is never satisfied, so large batches are consumed in parts
+        long chunkSize = getMinCapacity(tenantRateLimit);
+        long remaining = records;
+        while (remaining > 0) {
+            long chunk = Math.min(remaining, chunkSize);
+            if (!rateLimits.tryConsume(chunk, Duration.ofMillis(maxWaitMs))) {
+                throw new ThingsboardException("Telemetry import rate limit exceeded!", ThingsboardErrorCode.TOO_MANY_REQUESTS);
+            }
+            remaining -= chunk;
+        }
+    }
+
+    static long getMinCapacity(String rateLimit) {
+        long minCapacity = Long.MAX_VALUE;
+        for (String limit : rateLimit.split(",")) {
+            minCapacity = Math.min(minCapacity, Long.parseLong(limit.split(":")[0]));
+        }
+        return Math.max(1, minCapacity);
+    }
+
+    static List<TsKvEntry> getNewer(List<TsKvEntry> latest, List<TsKvEntry> stored) {
+        Map<String, Long> storedTs = new HashMap<>();
+        for (TsKvEntry entry : stored) {
+            // missing keys are returned with the current time and no value
+            if (entry.getValue() != null) {
+                storedTs.put(entry.getKey(), entry.getTs());
+            }
+        }
+        return latest.stream()
+                .filter(entry -> entry.getTs() > storedTs.getOrDefault(entry.getKey(), Long.MIN_VALUE))
+                .collect(Collectors.toList());
+    }
+
+    static List<TsKvEntry> getLatest(List<TsKvEntry> entries) {
+        Map<String, TsKvEntry> latest = new HashMap<>();
+        for (TsKvEntry entry : entries) {
+            latest.merge(entry.getKey(), entry, (a, b) -> b.getTs() >= a.getTs() ? b : a);
+        }
+        return new ArrayList<>(latest.values());
+    }
+
+}
@@ -0,0 +1,45 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.service.telemetry;
+
+import org.thingsboard.server.common.data.exception.ThingsboardException;
+import org.thingsboard.server.common.data.id.CustomerId;
+import org.thingsboard.server.common.data.id.EntityId;
+import org.thingsboard.server.common.data.id.TenantId;
+
+import java.io.InputStream;
+
+/**
+ * Bulk ingestion of historical time-series of many entities.
+ */
+public interface TelemetryImportService {
+
+    /**
+     * Reads the stream incrementally and saves the records in batches. The next batch is read only after the previous
+     * one is saved, so a slow database slows down the upload instead of buffering it in memory.
+     *
+     * @param validator       called once per entity before its first record is saved
+     * @param updateLatest    whether the latest values should be updated with the newest imported records
+     * @param notifySubscribers whether WebSocket subscriptions should be notified. Implies updateLatest
+     */
+    TelemetryImportResult importTimeseries(TenantId tenantId, CustomerId customerId, InputStream in, TsKvDataFormat format, long ttl,
+                                           boolean updateLatest, boolean notifySubscribers, EntityValidator validator) throws Exception;
+
+    interface EntityValidator {
+        void validate(EntityId entityId) throws ThingsboardException;
+    }
+
+}
@@ -0,0 +1,183 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.service.telemetry;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.thingsboard.common.util.JacksonUtil;
+import org.thingsboard.server.common.data.id.EntityId;
+import org.thingsboard.server.common.data.id.TenantId;
+import org.thingsboard.server.common.data.kv.Aggregation;
+import org.thingsboard.server.common.data.kv.BaseReadTsKvQuery;
+import org.thingsboard.server.common.data.kv.DataType;
+import org.thingsboard.server.common.data.kv.TsKvEntry;
+import org.thingsboard.server.dao.timeseries.TimeseriesService;
+
+import java.io.BufferedWriter;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Streams raw time-series of an entity to an output stream. Every key is read page by page, continuing from the
+ * timestamp of the last written record, so memory usage is bounded by the page size and the next page is read only
+ * after the previous one was written to the client. A cancelled export stops writing before the next page or
+ * the next write to the output stream.
+ */
+public class TsKvExportWriter {
+
+    private static final String DESC_ORDER = "DESC";
+
+    private final TimeseriesService tsService;
+    private final TenantId tenantId;
+    private final EntityId entityId;
+    private final TsKvDataFormat format;
+    private final int pageSize;
+    private final boolean useStrictDataTypes;
+    private volatile boolean cancelled;
+
+    public TsKvExportWriter(TimeseriesService tsService, TenantId tenantId, EntityId entityId, TsKvDataFormat format, int pageSize, boolean useStrictDataTypes) {
+        this.tsService = tsService;
+        this.tenantId = tenantId;
+        this.entityId = entityId;
+        this.format = format;
+        this.pageSize = pageSize;
+        this.useStrictDataTypes = useStrictDataTypes;
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public void write(OutputStream out, List<String> keys, long startTs, long endTs, String orderBy) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new CancellableOutputStream(out), StandardCharsets.UTF_8));
+        if (format == TsKvDataFormat.CSV) {
+            writer.write("key,ts,value\n");
+        }
+        boolean desc = DESC_ORDER.equalsIgnoreCase(orderBy);
+        for (String key : keys) {
+            long from = startTs;
+            long to = endTs;
+            while (from < to) {
+                checkCancelled();
+                List<TsKvEntry> page = findPage(key, from, to, desc);
+                for (TsKvEntry entry : page) {
+                    writeEntry(writer, entry);
+                }
+                writer.flush();
+                if (page.size() < pageSize) {
+                    break;
+                }
+                long lastTs = page.get(page.size() - 1).getTs();
+                if (desc) {
+                    to = lastTs;
+                } else {
+                    from = lastTs + 1;
+                }
+            }
+        }
+        writer.flush();
+    }
+
+    private void checkCancelled() throws IOException {
+        if (cancelled) {
+            throw new InterruptedIOException("Time-series export was cancelled");
+        }
+    }
+
+    private List<TsKvEntry> findPage(String key, long from, long to, boolean desc) throws IOException {
+        BaseReadTsKvQuery query = new BaseReadTsKvQuery(key, from, to, 0, pageSize, Aggregation.NONE, desc ? DESC_ORDER : "ASC");
+        try {
+            return tsService.findAll(tenantId, entityId, Collections.singletonList(query)).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Time-series export was interrupted");
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to read time-series [" + key + "] of " + entityId, e.getCause());
+        }
+    }
+
+    private void writeEntry(Writer writer, TsKvEntry entry) throws IOException {
+        switch (format) {
+            case NDJSON:
+                ObjectNode row = JacksonUtil.newObjectNode();
+                row.put("key", entry.getKey());
+                row.put("ts", entry.getTs());
+                if (useStrictDataTypes) {
+                    row.set("value", entry.getDataType() == DataType.JSON ?
+                            JacksonUtil.toJsonNode(entry.getJsonValue().get()) : JacksonUtil.valueToTree(entry.getValue()));
+                } else {
+                    row.put("value", entry.getValueAsString());
+                }
+                writer.write(JacksonUtil.toString(row));
+                writer.write('\n');
+                break;
+            case CSV:
+                writer.write(escapeCsv(entry.getKey()));
+                writer.write(',');
+                writer.write(Long.toString(entry.getTs()));
+                writer.write(',');
+                writer.write(escapeCsv(entry.getValueAsString()));
+                writer.write('\n');
+                break;
+        }
+    }
+
+    private static String escapeCsv(String value) {
+        if (value == null) {
+            return "";
+        }
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    private class CancellableOutputStream extends FilterOutputStream {
+
+        CancellableOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            checkCancelled();
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            checkCancelled();
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            checkCancelled();
+            out.flush();
+        }
+    }
+}
@@ -0,0 +1,246 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.service.telemetry;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
+import lombok.Data;
+import org.thingsboard.common.util.JacksonUtil;
+import org.thingsboard.server.common.data.id.EntityId;
+import org.thingsboard.server.common.data.id.EntityIdFactory;
+import org.thingsboard.server.common.data.kv.BasicTsKvEntry;
+import org.thingsboard.server.common.data.kv.BooleanDataEntry;
+import org.thingsboard.server.common.data.kv.DoubleDataEntry;
+import org.thingsboard.server.common.data.kv.JsonDataEntry;
+import org.thingsboard.server.common.data.kv.KvEntry;
+import org.thingsboard.server.common.data.kv.LongDataEntry;
+import org.thingsboard.server.common.data.kv.StringDataEntry;
+import org.thingsboard.server.common.data.kv.TsKvEntry;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads time-series records of many entities from a stream one record at a time.
+ * <p>
+ * NDJSON: one object per line, either {"entityType", "entityId", "ts", "key", "value"}
+ * or {"entityType", "entityId", "ts", "values": {"key": value, ...}}.
+ * <p>
+ * CSV: the header "entityType,entityId,key,ts,value" followed by one record per line. Values are typed the same way
+ * as the values posted to the telemetry API: booleans, integers, doubles and strings.
+ */
+public class TsKvImportReader {
+
+    private static final List<String> CSV_HEADER = Arrays.asList("entityType", "entityId", "key", "ts", "value");
+
+    @Data
+    public static class Record {
+        private final EntityId entityId;
+        private final TsKvEntry entry;
+    }
+
+    private final TsKvDataFormat format;
+    private final BufferedReader csvReader;
+    private final MappingIterator<JsonNode> jsonIterator;
+    private final Deque<Record> pending = new ArrayDeque<>();
+    private long lineNumber;
+
+    public TsKvImportReader(TsKvDataFormat format, InputStream in) throws IOException {
+        this.format = format;
+        if (format == TsKvDataFormat.CSV) {
+            this.csvReader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            this.jsonIterator = null;
+            List<String> header = readCsvRecord();
+            if (header == null || !CSV_HEADER.equals(header)) {
+                throw new IllegalArgumentException("CSV header must be: " + String.join(",", CSV_HEADER));
+            }
+        } else {
+            this.csvReader = null;
+            this.jsonIterator = JacksonUtil.OBJECT_MAPPER.readerFor(JsonNode.class).readValues(in);
+        }
+    }
+
+    /**
+     * @return next record or null if the stream is over
+     */
+    public Record next() throws IOException {
+        while (pending.isEmpty()) {
+            if (format == TsKvDataFormat.CSV) {
+                List<String> values = readCsvRecord();
+                if (values == null) {
+                    return null;
+                }
+                if (values.size() == 1 && values.get(0).isEmpty()) {
+                    continue;
+                }
+                if (values.size() != CSV_HEADER.size()) {
+                    throw invalidRecord("expected " + CSV_HEADER.size() + " values but got " + values.size());
+                }
+                EntityId entityId = toEntityId(values.get(0), values.get(1));
+                pending.add(new Record(entityId, new BasicTsKvEntry(toTs(values.get(3)), toKvEntry(values.get(2), values.get(4)))));
+            } else {
+                JsonNode node;
+                try {
+                    if (!jsonIterator.hasNextValue()) {
+                        return null;
+                    }
+                    lineNumber++;
+                    node = jsonIterator.nextValue();
+                } catch (JsonProcessingException e) {
+                    throw invalidRecord(e.getOriginalMessage());
+                }
+                readJsonRecord(node);
+            }
+        }
+        return pending.poll();
+    }
+
+    private void readJsonRecord(JsonNode node) {
+        if (!node.isObject()) {
+            throw invalidRecord("JSON object expected");
+        }
+        EntityId entityId = toEntityId(node.path("entityType").asText(), node.path("entityId").asText());
+        JsonNode tsNode = node.get("ts");
+        if (tsNode == null || !tsNode.canConvertToLong()) {
+            throw invalidRecord("'ts' is missing or is not a number");
+        }
+        long ts = tsNode.asLong();
+        JsonNode values = node.get("values");
+        if (values != null && values.isObject()) {
+            Iterator<Map.Entry<String, JsonNode>> fields = values.fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                pending.add(new Record(entityId, new BasicTsKvEntry(ts, toKvEntry(field.getKey(), field.getValue()))));
+            }
+        } else {
+            String key = node.path("key").asText();
+            if (key.isEmpty() || !node.has("value")) {
+                throw invalidRecord("'key' and 'value' or 'values' are required");
+            }
+            pending.add(new Record(entityId, new BasicTsKvEntry(ts, toKvEntry(key, node.get("value")))));
+        }
+    }
+
+    private KvEntry toKvEntry(String key, JsonNode value) {
+        if (value.isBoolean()) {
+            return new BooleanDataEntry(key, value.asBoolean());
+        } else if (value.isIntegralNumber() && value.canConvertToLong()) {
+            return new LongDataEntry(key, value.asLong());
+        } else if (value.isNumber()) {
+            return new DoubleDataEntry(key, value.asDouble());
+        } else if (value.isTextual()) {
+            return new StringDataEntry(key, value.asText());
+        } else if (value.isContainerNode()) {
+            return new JsonDataEntry(key, JacksonUtil.toString(value));
+        } else {
+            throw invalidRecord("unsupported value of key [" + key + "]");
+        }
+    }
+
+    private KvEntry toKvEntry(String key, String value) {
+        if (key.isEmpty()) {
+            throw invalidRecord("'key' is empty");
+        }
+        if ("true".equalsIgnoreCase(value) || "false".equalsIgnoreCase(value)) {
+            return new BooleanDataEntry(key, Boolean.parseBoolean(value));
+        }
+        try {
+            return new LongDataEntry(key, Long.parseLong(value));
+        } catch (NumberFormatException e) {
+            // not an integer
+        }
+        try {
+            return new DoubleDataEntry(key, Double.parseDouble(value));
+        } catch (NumberFormatException e) {
+            return new StringDataEntry(key, value);
+        }
+    }
+
+    private long toTs(String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw invalidRecord("'ts' is not a number");
+        }
+    }
+
+    private EntityId toEntityId(String entityType, String entityId) {
+        try {
+            return EntityIdFactory.getByTypeAndId(entityType, entityId);
+        } catch (Exception e) {
+            throw invalidRecord("invalid entity [" + entityType + "][" + entityId + "]");
+        }
+    }
+
+    /**
+     * Reads one CSV record. Quoted values may contain commas, quotes escaped as "" and line breaks.
+     */
+    private List<String> readCsvRecord() throws IOException {
+        int c = csvReader.read();
+        if (c < 0) {
+            return null;
+        }
+        lineNumber++;
+        List<String> values = new ArrayList<>();
+        StringBuilder value = new StringBuilder();
+        boolean quoted = false;
+        while (true) {
+            if (quoted) {
+                if (c < 0) {
+                    throw invalidRecord("unterminated quoted value");
+                } else if (c == '"') {
+                    csvReader.mark(1);
+                    if (csvReader.read() == '"') {
+                        value.append('"');
+                    } else {
+                        csvReader.reset();
+                        quoted = false;
+                    }
+                } else {
+                    value.append((char) c);
+                }
+            } else if (c < 0 || c == '\n') {
+                values.add(value.toString());
+                return values;
+            } else if (c == '\r') {
+                // ignore, line ends with \n
+            } else if (c == ',') {
+                values.add(value.toString());
+                value.setLength(0);
+            } else if (c == '"' && value.length() == 0) {
+                quoted = true;
+            } else {
+                value.append((char) c);
+            }
+            c = csvReader.read();
+        }
+    }
+
+    private IllegalArgumentException invalidRecord(String reason) {
+        return new IllegalArgumentException("Invalid record #" + lineNumber + ": " + reason);
+    }
+}
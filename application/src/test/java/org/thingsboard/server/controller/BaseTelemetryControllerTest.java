@@ -0,0 +1,53 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.controller;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.web.servlet.MvcResult;
+import org.thingsboard.server.common.data.Device;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+public abstract class BaseTelemetryControllerTest extends AbstractControllerTest {
+
+    private Device device;
+
+    @Before
+    public void beforeTest() throws Exception {
+        loginTenantAdmin();
+        Device device = new Device();
+        device.setName("Export device");
+        device.setType("default");
+        this.device = doPost("/api/device", device, Device.class);
+    }
+
+    @Test
+    public void testExportTimeseriesIsStreamedAsynchronously() throws Exception {
+        String telemetry = "[{\"ts\":1000,\"values\":{\"temperature\":20}},{\"ts\":2000,\"values\":{\"temperature\":21}}]";
+        doPost("/api/plugins/telemetry/DEVICE/" + device.getId().getId() + "/timeseries/ANY", telemetry, String.class);
+
+        MvcResult result = doGet("/api/plugins/telemetry/DEVICE/" + device.getId().getId()
+                + "/values/timeseries/export?keys=temperature&startTs=0&endTs=3000&format=CSV").andReturn();
+        Assert.assertTrue(result.getRequest().isAsyncStarted());
+        String body = mockMvc.perform(asyncDispatch(result)).andExpect(status().isOk()).andReturn().getResponse().getContentAsString();
+
+        Assert.assertTrue(body, body.contains("temperature,1000,20"));
+        Assert.assertTrue(body, body.contains("temperature,2000,21"));
+    }
+}
@@ -21,17 +21,22 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.context.ApplicationEvent;
 import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.test.util.ReflectionTestUtils;
 import org.thingsboard.server.common.data.id.DeviceId;
 import org.thingsboard.server.common.data.id.TenantId;
 import org.thingsboard.server.queue.discovery.HashPartitionService;
+import org.thingsboard.server.common.msg.queue.ServiceQueue;
 import org.thingsboard.server.common.msg.queue.ServiceType;
 import org.thingsboard.server.queue.discovery.TbServiceInfoProvider;
 import org.thingsboard.server.common.msg.queue.TopicPartitionInfo;
 import org.thingsboard.server.gen.transport.TransportProtos;
 import org.thingsboard.server.queue.discovery.TenantRoutingInfoService;
+import org.thingsboard.server.queue.discovery.event.PartitionChangeEvent;
+import org.thingsboard.server.queue.discovery.event.PartitionWarmUpEvent;
 import org.thingsboard.server.queue.settings.TbQueueRuleEngineSettings;
 
 import java.util.ArrayList;
@@ -40,9 +45,15 @@ import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @Slf4j
@@ -76,6 +87,7 @@ public class HashPartitionServiceTest {
         ReflectionTestUtils.setField(clusterRoutingService, "coreTopic", "tb.core");
         ReflectionTestUtils.setField(clusterRoutingService, "corePartitions", 10);
         ReflectionTestUtils.setField(clusterRoutingService, "hashFunctionName", hashFunctionName);
+        ReflectionTestUtils.setField(clusterRoutingService, "assignmentStrategyName", "modulo");
         TransportProtos.ServiceInfo currentServer = TransportProtos.ServiceInfo.newBuilder()
                 .setServiceId("tb-core-0")
                 .setTenantIdMSB(TenantId.NULL_UUID.getMostSignificantBits())
@@ -105,6 +117,96 @@ public class HashPartitionServiceTest {
         testDevicesDispersion(devices);
     }
 
+    @Test
+    public void testStickyAssignmentHandsOverPartitionsReleasedByOwner() throws Exception {
+        ApplicationEventPublisher publisher = mock(ApplicationEventPublisher.class);
+        HashPartitionService partitionService = createHandoverPartitionService(publisher);
+        try {
+            // The new service joins a cluster where tb-core-0 owns all the partitions.
+            partitionService.recalculatePartitions(coreServiceInfo("tb-core-1"),
+                    Collections.singletonList(coreServiceInfo("tb-core-0", IntStream.range(0, 10).boxed().collect(Collectors.toList()))));
+
+            ArgumentCaptor<ApplicationEvent> captor = ArgumentCaptor.forClass(ApplicationEvent.class);
+            verify(publisher, atLeastOnce()).publishEvent(captor.capture());
+            List<PartitionWarmUpEvent> warmUps = filterEvents(captor.getAllValues(), PartitionWarmUpEvent.class);
+            Assert.assertEquals(1, warmUps.size());
+            Set<TopicPartitionInfo> warmUpPartitions = warmUps.get(0).getPartitions();
+            Assert.assertEquals(5, warmUpPartitions.size());
+
+            // The partitions are not acquired until tb-core-0 releases them, even after all the handover steps.
+            Thread.sleep(500);
+            verify(publisher, never()).publishEvent(any(PartitionChangeEvent.class));
+
+            List<Integer> released = warmUpPartitions.stream().map(tpi -> tpi.getPartition().get()).collect(Collectors.toList());
+            List<Integer> retained = IntStream.range(0, 10).boxed().filter(i -> !released.contains(i)).collect(Collectors.toList());
+            partitionService.recalculatePartitions(coreServiceInfo("tb-core-1"), Collections.singletonList(coreServiceInfo("tb-core-0", retained)));
+
+            captor = ArgumentCaptor.forClass(ApplicationEvent.class);
+            verify(publisher, atLeastOnce()).publishEvent(captor.capture());
+            List<PartitionChangeEvent> changes = filterEvents(captor.getAllValues(), PartitionChangeEvent.class);
+            Assert.assertEquals(1, changes.size());
+            Assert.assertEquals(warmUpPartitions, changes.get(0).getPartitions());
+        } finally {
+            partitionService.destroy();
+        }
+    }
+
+    @Test
+    public void testStickyAssignmentTakesUnreportedPartitionsOnColdStart() {
+        ApplicationEventPublisher publisher = mock(ApplicationEventPublisher.class);
+        HashPartitionService partitionService = createHandoverPartitionService(publisher);
+        try {
+            // tb-core-0 doesn't report any partitions, so there is nothing to wait for.
+            partitionService.recalculatePartitions(coreServiceInfo("tb-core-1"), Collections.singletonList(coreServiceInfo("tb-core-0")));
+
+            ArgumentCaptor<ApplicationEvent> captor = ArgumentCaptor.forClass(ApplicationEvent.class);
+            verify(publisher, atLeastOnce()).publishEvent(captor.capture());
+            Assert.assertTrue(filterEvents(captor.getAllValues(), PartitionWarmUpEvent.class).isEmpty());
+            List<PartitionChangeEvent> changes = filterEvents(captor.getAllValues(), PartitionChangeEvent.class);
+            Assert.assertEquals(1, changes.size());
+            Assert.assertEquals(5, changes.get(0).getPartitions().size());
+        } finally {
+            partitionService.destroy();
+        }
+    }
+
+    private HashPartitionService createHandoverPartitionService(ApplicationEventPublisher publisher) {
+        HashPartitionService partitionService = new HashPartitionService(discoveryService, routingInfoService, publisher, ruleEngineSettings);
+        ReflectionTestUtils.setField(partitionService, "coreTopic", "tb.core");
+        ReflectionTestUtils.setField(partitionService, "corePartitions", 10);
+        ReflectionTestUtils.setField(partitionService, "hashFunctionName", hashFunctionName);
+        ReflectionTestUtils.setField(partitionService, "assignmentStrategyName", "sticky");
+        ReflectionTestUtils.setField(partitionService, "handoverDelayMs", 100L);
+        ReflectionTestUtils.setField(partitionService, "handoverBatches", 2);
+        partitionService.init();
+        return partitionService;
+    }
+
+    private static <T> List<T> filterEvents(List<ApplicationEvent> events, Class<T> eventClass) {
+        return events.stream().filter(eventClass::isInstance).map(eventClass::cast).collect(Collectors.toList());
+    }
+
+    private static TransportProtos.ServiceInfo coreServiceInfo(String serviceId) {
+        return coreServiceInfo(serviceId, Collections.emptyList());
+    }
+
+    private static TransportProtos.ServiceInfo coreServiceInfo(String serviceId, List<Integer> ownedPartitions) {
+        TransportProtos.ServiceInfo.Builder builder = TransportProtos.ServiceInfo.newBuilder()
+                .setServiceId(serviceId)
+                .setTenantIdMSB(TenantId.NULL_UUID.getMostSignificantBits())
+                .setTenantIdLSB(TenantId.NULL_UUID.getLeastSignificantBits())
+                .addAllServiceTypes(Collections.singletonList(ServiceType.TB_CORE.name()));
+        if (!ownedPartitions.isEmpty()) {
+            builder.addOwnedPartitions(TransportProtos.OwnedPartitionsInfo.newBuilder()
+                    .setServiceType(ServiceType.TB_CORE.name())
+                    .setQueueName(ServiceQueue.MAIN)
+                    .setTenantIdMSB(TenantId.NULL_UUID.getMostSignificantBits())
+                    .setTenantIdLSB(TenantId.NULL_UUID.getLeastSignificantBits())
+                    .addAllPartitions(ownedPartitions));
+        }
+        return builder.build();
+    }
+
     private void testDevicesDispersion(List<DeviceId> devices) {
         long start = System.currentTimeMillis();
         Map<Integer, Integer> map = new HashMap<>();
@@ -0,0 +1,204 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.service.edge.rpc;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.grpc.stub.StreamObserver;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.thingsboard.server.common.data.edge.Edge;
+import org.thingsboard.server.common.data.edge.EdgeEvent;
+import org.thingsboard.server.common.data.edge.EdgeEventActionType;
+import org.thingsboard.server.common.data.edge.EdgeEventType;
+import org.thingsboard.server.common.data.id.EdgeEventId;
+import org.thingsboard.server.common.data.id.EdgeId;
+import org.thingsboard.server.common.data.id.TenantId;
+import org.thingsboard.server.dao.attributes.AttributesService;
+import org.thingsboard.server.dao.edge.EdgeEventService;
+import org.thingsboard.server.service.edge.EdgeContextComponent;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class EdgeGrpcSessionTest {
+
+    private final TenantId tenantId = new TenantId(UUID.randomUUID());
+    private final EdgeId edgeId = new EdgeId(UUID.randomUUID());
+
+    private EdgeEventService edgeEventService;
+    private EdgeEventStorageSettings settings;
+    private EdgeGrpcSession session;
+    private final List<EdgeEvent> persisted = new ArrayList<>();
+    private long lastCreatedTime = 1000;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void before() {
+        edgeEventService = Mockito.mock(EdgeEventService.class);
+        settings = new EdgeEventStorageSettings();
+        settings.setMaxReadRecordsCount(10);
+        settings.setMaxStreamEventsCount(2);
+        EdgeContextComponent ctx = Mockito.mock(EdgeContextComponent.class);
+        when(ctx.getEdgeEventService()).thenReturn(edgeEventService);
+        when(ctx.getEdgeEventStorageSettings()).thenReturn(settings);
+        when(ctx.getAttributesService()).thenReturn(Mockito.mock(AttributesService.class));
+        when(edgeEventService.findEdgeEventsAfter(eq(tenantId), eq(edgeId), anyLong(), any(), anyInt())).thenAnswer(invocation -> {
+            // every saved event has a distinct creation time, so the position is defined by it
+            long startTs = invocation.getArgument(2);
+            List<EdgeEvent> result = new ArrayList<>();
+            for (EdgeEvent edgeEvent : persisted) {
+                if (edgeEvent.getCreatedTime() > startTs) {
+                    result.add(edgeEvent);
+                }
+            }
+            return result.subList(0, Math.min(result.size(), invocation.<Integer>getArgument(4)));
+        });
+
+        session = new EdgeGrpcSession(ctx, Mockito.mock(StreamObserver.class), (id, s) -> {}, s -> {}, id -> {}, new ObjectMapper());
+        Edge edge = new Edge(edgeId);
+        edge.setTenantId(tenantId);
+        session.setEdge(edge);
+        session.setConnected(true);
+        session.setQueueStartTs(0L);
+        session.setQueueStartId(new UUID(0L, 0L));
+    }
+
+    @Test
+    public void testPersistedEventsAreReplayedBeforeStreaming() throws Exception {
+        EdgeEvent edgeEvent = saveEdgeEvent();
+        Assert.assertEquals(1, session.getCatchUpRequests().get());
+        Assert.assertFalse(session.offerEdgeEvent(edgeEvent));
+
+        Assert.assertTrue(session.processEdgeEvents());
+        Assert.assertEquals(0, session.getCatchUpRequests().get());
+        Assert.assertEquals(edgeEvent.getUuidId(), session.getQueueStartId());
+        Assert.assertTrue(session.offerEdgeEvent(saveEdgeEvent()));
+    }
+
+    @Test
+    public void testStreamedEventsAreSkippedWhenQueueIsRead() throws Exception {
+        Assert.assertTrue(session.processEdgeEvents());
+        EdgeEvent streamed = saveEdgeEvent();
+        Assert.assertTrue(session.offerEdgeEvent(streamed));
+
+        Assert.assertTrue(session.processEdgeEvents());
+        Assert.assertTrue(session.getInFlightEdgeEvents().isEmpty());
+        Assert.assertEquals(Collections.singleton(streamed.getUuidId()), session.getDeliveredStreamedEdgeEvents().keySet());
+        Assert.assertEquals(0, session.getCatchUpRequests().get());
+
+        EdgeEvent notified = saveEdgeEvent();
+        session.requestCatchUp();
+        Assert.assertTrue(session.processEdgeEvents());
+        Assert.assertTrue(session.getDeliveredStreamedEdgeEvents().isEmpty());
+        Assert.assertEquals(notified.getUuidId(), session.getQueueStartId());
+        Assert.assertEquals(0, session.getCatchUpRequests().get());
+    }
+
+    @Test
+    public void testFullStreamPausesStreamingUntilQueueIsRead() throws Exception {
+        Assert.assertTrue(session.processEdgeEvents());
+        Assert.assertTrue(session.offerEdgeEvent(saveEdgeEvent()));
+        Assert.assertTrue(session.offerEdgeEvent(saveEdgeEvent()));
+        EdgeEvent overflow = saveEdgeEvent();
+        Assert.assertFalse(session.offerEdgeEvent(overflow));
+        Assert.assertEquals(1, session.getCatchUpRequests().get());
+        // the following events must not overtake the overflowed one
+        Assert.assertFalse(session.offerEdgeEvent(saveEdgeEvent()));
+
+        Assert.assertTrue(session.processEdgeEvents());
+        Assert.assertEquals(0, session.getCatchUpRequests().get());
+        Assert.assertEquals(persisted.get(persisted.size() - 1).getUuidId(), session.getQueueStartId());
+        Assert.assertTrue(session.getDeliveredStreamedEdgeEvents().isEmpty());
+        Assert.assertTrue(session.offerEdgeEvent(saveEdgeEvent()));
+    }
+
+    @Test
+    public void testDeliveredStreamedEventsMoveQueuePosition() throws Exception {
+        Assert.assertTrue(session.processEdgeEvents());
+        verify(edgeEventService, times(1)).findEdgeEventsAfter(eq(tenantId), eq(edgeId), anyLong(), any(), anyInt());
+        Assert.assertTrue(session.offerEdgeEvent(saveEdgeEvent()));
+        Assert.assertTrue(session.offerEdgeEvent(saveEdgeEvent()));
+
+        Assert.assertTrue(session.processEdgeEvents());
+        // max_stream_events delivered events force the read of the queue that moves its position past them
+        verify(edgeEventService, times(2)).findEdgeEventsAfter(eq(tenantId), eq(edgeId), anyLong(), any(), anyInt());
+        Assert.assertEquals(persisted.get(1).getUuidId(), session.getQueueStartId());
+        Assert.assertTrue(session.getDeliveredStreamedEdgeEvents().isEmpty());
+    }
+
+    @Test
+    public void testStreamingIsDisabledByDefault() {
+        settings.setMaxStreamEventsCount(0);
+        session.getCatchUpRequests().set(0);
+        Assert.assertFalse(session.offerEdgeEvent(saveEdgeEvent()));
+    }
+
+    @Test
+    public void testStreamedEventsAreDiscardedOnDisconnect() throws Exception {
+        Assert.assertTrue(session.processEdgeEvents());
+        Assert.assertTrue(session.offerEdgeEvent(saveEdgeEvent()));
+        session.setConnected(false);
+
+        Assert.assertTrue(session.processEdgeEvents());
+        Assert.assertTrue(session.getStreamedEdgeEvents().isEmpty());
+        Assert.assertEquals(0, session.getStreamedEdgeEventsCount().get());
+        Assert.assertEquals(new UUID(0L, 0L), session.getQueueStartId());
+        verify(edgeEventService, times(1)).findEdgeEventsAfter(eq(tenantId), eq(edgeId), anyLong(), any(), anyInt());
+    }
+
+    @Test
+    public void testProcessingRequestsAreCoalesced() {
+        Assert.assertTrue(session.requestProcessing());
+        Assert.assertFalse(session.requestProcessing());
+        Assert.assertTrue(session.pollProcessingRequest());
+        Assert.assertFalse(session.pollProcessingRequest());
+        Assert.assertFalse(session.finishProcessing());
+
+        Assert.assertTrue(session.requestProcessing());
+        Assert.assertTrue(session.pollProcessingRequest());
+        // requested while the processing was running, so the caller starts it again
+        Assert.assertFalse(session.requestProcessing());
+        Assert.assertTrue(session.finishProcessing());
+        Assert.assertTrue(session.pollProcessingRequest());
+        Assert.assertFalse(session.finishProcessing());
+        Assert.assertTrue(session.requestProcessing());
+    }
+
+    private EdgeEvent saveEdgeEvent() {
+        EdgeEvent edgeEvent = new EdgeEvent();
+        edgeEvent.setId(new EdgeEventId(UUID.randomUUID()));
+        edgeEvent.setCreatedTime(++lastCreatedTime);
+        edgeEvent.setTenantId(tenantId);
+        edgeEvent.setEdgeId(edgeId);
+        // not converted to a downlink msg, so the batch is delivered without waiting for the edge response
+        edgeEvent.setType(EdgeEventType.WIDGETS_BUNDLE);
+        edgeEvent.setAction(EdgeEventActionType.TIMESERIES_UPDATED);
+        persisted.add(edgeEvent);
+        return edgeEvent;
+    }
+}
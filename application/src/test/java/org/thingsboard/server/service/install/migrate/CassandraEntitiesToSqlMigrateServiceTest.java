@@ -0,0 +1,114 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.service.install.migrate;
+
+import com.datastax.oss.driver.api.core.cql.ResultSet;
+import com.datastax.oss.driver.api.core.cql.Row;
+import com.datastax.oss.driver.api.core.cql.Statement;
+import com.datastax.oss.driver.api.core.uuid.Uuids;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.thingsboard.server.dao.cassandra.guava.GuavaSession;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class CassandraEntitiesToSqlMigrateServiceTest {
+
+    private static final List<String> ATTRIBUTE_COLUMNS = Arrays.asList("entity_id", "entity_type", "attribute_type",
+            "attribute_key", "bool_v", "str_v", "long_v", "dbl_v", "json_v", "last_update_ts");
+    private static final int ATTRIBUTE_KEY_SQL_INDEX = 4;
+
+    @Test
+    public void testAttributeKeysAreMigratedAsKeyIds() throws Exception {
+        Map<String, Integer> dictionary = new HashMap<>();
+        List<String> resolvedKeys = new ArrayList<>();
+        CassandraToSqlTable table = CassandraEntitiesToSqlMigrateService.attributesTable(key -> {
+            resolvedKeys.add(key);
+            return dictionary.computeIfAbsent(key, k -> dictionary.size() + 1);
+        });
+
+        GuavaSession session = mock(GuavaSession.class);
+        ResultSet resultSet = mock(ResultSet.class);
+        List<Row> rows = Arrays.asList(attributeRow("temperature", "21"), attributeRow("firmware", "1.0"), attributeRow("temperature", "22"));
+        when(resultSet.iterator()).thenReturn(rows.iterator());
+        when(session.execute(any(Statement.class))).thenReturn(resultSet);
+
+        Connection conn = mock(Connection.class);
+        PreparedStatement insert = mock(PreparedStatement.class);
+        mockAttributeKvTable(conn);
+        ArgumentCaptor<String> insertSql = ArgumentCaptor.forClass(String.class);
+        when(conn.prepareStatement(insertSql.capture())).thenReturn(insert);
+
+        table.migrateToSql(session, conn);
+
+        Assert.assertTrue(insertSql.getValue().startsWith("INSERT INTO attribute_kv (entity_id,entity_type,attribute_type,attribute_key,"));
+        Assert.assertEquals(Arrays.asList("temperature", "firmware", "temperature"), resolvedKeys);
+        verify(insert, times(2)).setInt(ATTRIBUTE_KEY_SQL_INDEX, 1);
+        verify(insert, times(1)).setInt(ATTRIBUTE_KEY_SQL_INDEX, 2);
+        verify(insert, never()).setString(eq(ATTRIBUTE_KEY_SQL_INDEX), anyString());
+        verify(insert).setString(6, "21");
+        verify(insert, times(3)).setNull(5, Types.BOOLEAN);
+        verify(insert, times(3)).executeUpdate();
+        verify(conn).commit();
+    }
+
+    private Row attributeRow(String key, String value) {
+        Row row = mock(Row.class);
+        String[] values = {null, "DEVICE", "SERVER_SCOPE", key, null, value, null, null, null, "1000"};
+        for (int i = 0; i < values.length; i++) {
+            when(row.isNull(i)).thenReturn(values[i] == null);
+            when(row.getString(i)).thenReturn(values[i]);
+        }
+        UUID entityId = Uuids.timeBased();
+        when(row.isNull(0)).thenReturn(false);
+        when(row.getUuid(0)).thenReturn(entityId);
+        when(row.getLong(9)).thenReturn(1000L);
+        return row;
+    }
+
+    private void mockAttributeKvTable(Connection conn) throws Exception {
+        DatabaseMetaData metaData = mock(DatabaseMetaData.class);
+        java.sql.ResultSet columns = mock(java.sql.ResultSet.class);
+        int[] sqlTypes = {Types.OTHER, Types.VARCHAR, Types.VARCHAR, Types.INTEGER, Types.BOOLEAN, Types.VARCHAR,
+                Types.BIGINT, Types.DOUBLE, Types.OTHER, Types.BIGINT};
+        int[] position = {-1};
+        when(columns.next()).thenAnswer(invocation -> ++position[0] < ATTRIBUTE_COLUMNS.size());
+        when(columns.getString("COLUMN_NAME")).thenAnswer(invocation -> ATTRIBUTE_COLUMNS.get(position[0]));
+        when(columns.getInt("DATA_TYPE")).thenAnswer(invocation -> sqlTypes[position[0]]);
+        when(columns.getInt("COLUMN_SIZE")).thenReturn(10000000);
+        when(metaData.getColumns(null, null, "attribute_kv", null)).thenReturn(columns);
+        when(conn.getMetaData()).thenReturn(metaData);
+    }
+}
@@ -0,0 +1,166 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.service.queue.codec;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.thingsboard.rule.engine.api.msg.DeviceAttributesEventNotificationMsg;
+import org.thingsboard.rule.engine.api.msg.DeviceEdgeUpdateMsg;
+import org.thingsboard.rule.engine.api.msg.DeviceNameOrTypeUpdateMsg;
+import org.thingsboard.server.common.data.DataConstants;
+import org.thingsboard.server.common.data.id.DeviceId;
+import org.thingsboard.server.common.data.id.EdgeId;
+import org.thingsboard.server.common.data.id.RuleChainId;
+import org.thingsboard.server.common.data.id.TenantId;
+import org.thingsboard.server.common.data.kv.AttributeKey;
+import org.thingsboard.server.common.data.kv.AttributeKvEntry;
+import org.thingsboard.server.common.data.kv.BaseAttributeKvEntry;
+import org.thingsboard.server.common.data.kv.DoubleDataEntry;
+import org.thingsboard.server.common.data.kv.StringDataEntry;
+import org.thingsboard.server.common.data.plugin.ComponentLifecycleEvent;
+import org.thingsboard.server.common.msg.edge.EdgeEventUpdateMsg;
+import org.thingsboard.server.common.msg.plugin.ComponentLifecycleMsg;
+import org.thingsboard.server.common.transport.util.DataCodec;
+import org.thingsboard.server.common.transport.util.ProtoWithFSTService;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+@Slf4j
+public class DataCodecTest {
+
+    private final TenantId tenantId = new TenantId(UUID.randomUUID());
+    private final DeviceId deviceId = new DeviceId(UUID.randomUUID());
+
+    private ProtoWithFSTService fstService;
+    private ProtoWithFSTService protoService;
+
+    @Before
+    public void setUp() {
+        List<DataCodec<?>> codecs = Arrays.asList(new ComponentLifecycleMsgCodec(), new EdgeEventUpdateMsgCodec(),
+                new DeviceNameOrTypeUpdateMsgCodec(), new DeviceEdgeUpdateMsgCodec(), new DeviceAttributesEventNotificationMsgCodec());
+        fstService = new ProtoWithFSTService(codecs, false);
+        protoService = new ProtoWithFSTService(codecs, true);
+    }
+
+    @Test
+    public void testComponentLifecycleMsgRoundTrip() {
+        ComponentLifecycleMsg msg = new ComponentLifecycleMsg(tenantId, new RuleChainId(UUID.randomUUID()), ComponentLifecycleEvent.UPDATED);
+        ComponentLifecycleMsg decoded = roundTrip(msg);
+        Assert.assertEquals(msg.getTenantId(), decoded.getTenantId());
+        Assert.assertEquals(msg.getEntityId(), decoded.getEntityId());
+        Assert.assertEquals(msg.getEvent(), decoded.getEvent());
+        Assert.assertTrue(decoded.getRuleChainId().isPresent());
+    }
+
+    @Test
+    public void testEdgeEventUpdateMsgRoundTrip() {
+        EdgeEventUpdateMsg msg = new EdgeEventUpdateMsg(tenantId, new EdgeId(UUID.randomUUID()));
+        EdgeEventUpdateMsg decoded = roundTrip(msg);
+        Assert.assertEquals(msg.getTenantId(), decoded.getTenantId());
+        Assert.assertEquals(msg.getEdgeId(), decoded.getEdgeId());
+    }
+
+    @Test
+    public void testDeviceMsgsRoundTrip() {
+        DeviceNameOrTypeUpdateMsg nameMsg = new DeviceNameOrTypeUpdateMsg(tenantId, deviceId, "Device A", "default");
+        Assert.assertEquals(nameMsg, roundTrip(nameMsg));
+
+        DeviceEdgeUpdateMsg edgeMsg = new DeviceEdgeUpdateMsg(tenantId, deviceId, new EdgeId(UUID.randomUUID()));
+        Assert.assertEquals(edgeMsg, roundTrip(edgeMsg));
+
+        DeviceEdgeUpdateMsg unassignMsg = new DeviceEdgeUpdateMsg(tenantId, deviceId, null);
+        Assert.assertEquals(unassignMsg, roundTrip(unassignMsg));
+    }
+
+    @Test
+    public void testDeviceAttributesEventNotificationMsgRoundTrip() {
+        DeviceAttributesEventNotificationMsg updateMsg = createAttributesUpdateMsg();
+        DeviceAttributesEventNotificationMsg decodedUpdate = roundTrip(updateMsg);
+        Assert.assertFalse(decodedUpdate.isDeleted());
+        Assert.assertEquals(updateMsg.getScope(), decodedUpdate.getScope());
+        Assert.assertEquals(updateMsg.getValues(), decodedUpdate.getValues());
+
+        DeviceAttributesEventNotificationMsg deleteMsg = DeviceAttributesEventNotificationMsg.onDelete(tenantId, deviceId,
+                Collections.singleton(new AttributeKey(DataConstants.SHARED_SCOPE, "targetFirmware")));
+        DeviceAttributesEventNotificationMsg decodedDelete = roundTrip(deleteMsg);
+        Assert.assertTrue(decodedDelete.isDeleted());
+        Assert.assertEquals(deleteMsg.getDeletedKeys(), decodedDelete.getDeletedKeys());
+    }
+
+    @Test
+    public void testRegisteredMsgIsProtoEncoded() throws Exception {
+        DeviceNameOrTypeUpdateMsgCodec codec = new DeviceNameOrTypeUpdateMsgCodec();
+        DeviceNameOrTypeUpdateMsg msg = new DeviceNameOrTypeUpdateMsg(tenantId, deviceId, "Device A", "default");
+        byte[] data = protoService.encode(msg);
+
+        Assert.assertArrayEquals(new byte[]{'T', 'B', 1, (byte) (codec.getTypeId() >>> 8), (byte) codec.getTypeId()}, Arrays.copyOf(data, 5));
+        Assert.assertArrayEquals(codec.encode(msg), Arrays.copyOfRange(data, 5, data.length));
+        Assert.assertEquals(msg, codec.decode(ByteBuffer.wrap(data, 5, data.length - 5)));
+
+        byte[] fstData = fstService.encode(msg);
+        Assert.assertFalse(fstData[0] == 'T' && fstData[1] == 'B');
+        String notRegistered = "Device A";
+        Assert.assertArrayEquals(fstService.encode(notRegistered), protoService.encode(notRegistered));
+    }
+
+    @Test
+    public void testDataWithHeaderOfUnknownTypeIsNotDecodedAsProto() {
+        Assert.assertFalse(protoService.decode(new byte[]{'T', 'B', 1, (byte) 0xFF, (byte) 0xFF}).isPresent());
+        int typeId = new DeviceNameOrTypeUpdateMsgCodec().getTypeId();
+        Assert.assertFalse(protoService.decode(new byte[]{'T', 'B', 1, (byte) (typeId >>> 8), (byte) typeId, (byte) 0xFF}).isPresent());
+    }
+
+    @Test
+    public void testFstEncodedMsgIsDecodedDuringMigration() {
+        DeviceNameOrTypeUpdateMsg msg = new DeviceNameOrTypeUpdateMsg(tenantId, deviceId, "Device A", "default");
+        Optional<DeviceNameOrTypeUpdateMsg> decoded = protoService.decode(fstService.encode(msg));
+        Assert.assertTrue(decoded.isPresent());
+        Assert.assertEquals(msg, decoded.get());
+    }
+
+    @Test
+    public void testProtoEncodingIsSmallerThanFst() {
+        DeviceAttributesEventNotificationMsg msg = createAttributesUpdateMsg();
+        int fstSize = fstService.encode(msg).length;
+        int protoSize = protoService.encode(msg).length;
+        log.info("Encoded size: FST [{}] bytes, protobuf [{}] bytes", fstSize, protoSize);
+        Assert.assertTrue(protoSize < fstSize);
+    }
+
+    private DeviceAttributesEventNotificationMsg createAttributesUpdateMsg() {
+        long ts = System.currentTimeMillis();
+        List<AttributeKvEntry> values = Arrays.asList(
+                new BaseAttributeKvEntry(new StringDataEntry("firmwareVersion", "1.2.3"), ts),
+                new BaseAttributeKvEntry(new DoubleDataEntry("temperatureThreshold", 42.5), ts));
+        return DeviceAttributesEventNotificationMsg.onUpdate(tenantId, deviceId, DataConstants.SHARED_SCOPE, values);
+    }
+
+    private <T> T roundTrip(T msg) {
+        byte[] data = protoService.encode(msg);
+        Optional<T> decoded = protoService.decode(data);
+        Assert.assertTrue(decoded.isPresent());
+        Assert.assertNotSame(msg, decoded.get());
+        return decoded.get();
+    }
+
+}
@@ -0,0 +1,126 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.service.subscription;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.thingsboard.server.common.data.id.DeviceId;
+import org.thingsboard.server.common.data.id.TenantId;
+import org.thingsboard.server.common.data.kv.BasicTsKvEntry;
+import org.thingsboard.server.common.data.kv.LongDataEntry;
+import org.thingsboard.server.common.data.kv.TsKvEntry;
+import org.thingsboard.server.gen.transport.TransportProtos.TbSubscriptionBatchUpdateProto;
+import org.thingsboard.server.gen.transport.TransportProtos.TbSubscriptionUpdateGroupProto;
+import org.thingsboard.server.gen.transport.TransportProtos.ToCoreNotificationMsg;
+import org.thingsboard.server.queue.common.TbProtoQueueMsg;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+public class TbSubscriptionUpdateBatcherTest {
+
+    private final TenantId tenantId = new TenantId(UUID.randomUUID());
+    private final DeviceId deviceId = new DeviceId(UUID.randomUUID());
+
+    private ScheduledExecutorService scheduler;
+    private BlockingQueue<TbProtoQueueMsg<ToCoreNotificationMsg>> sent;
+
+    @Before
+    public void before() {
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        sent = new LinkedBlockingQueue<>();
+    }
+
+    @After
+    public void after() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void testSubscriptionsWithSameValuesShareGroup() throws InterruptedException {
+        TbSubscriptionUpdateBatcher batcher = new TbSubscriptionUpdateBatcher(50, 1000, scheduler, (serviceId, msg) -> sent.add(msg));
+        List<TsKvEntry> temperature = update("temperature", 42L);
+        for (int i = 0; i < 50; i++) {
+            batcher.add("tb-core-1", subscription("session-" + i, i), temperature);
+        }
+        batcher.add("tb-core-1", subscription("session-50", 50), update("humidity", 10L));
+
+        TbSubscriptionBatchUpdateProto batch = poll();
+        Assert.assertEquals(2, batch.getGroupsCount());
+        Assert.assertEquals(50, batch.getGroups(0).getTargetsCount());
+        Assert.assertEquals("temperature", batch.getGroups(0).getData(0).getKey());
+        Assert.assertEquals(1, batch.getGroups(1).getTargetsCount());
+        Assert.assertNull(sent.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testUpdatesOfSubscriptionKeepOrder() throws InterruptedException {
+        TbSubscriptionUpdateBatcher batcher = new TbSubscriptionUpdateBatcher(50, 1000, scheduler, (serviceId, msg) -> sent.add(msg));
+        TbSubscription first = subscription("session-1", 1);
+        TbSubscription second = subscription("session-2", 2);
+        batcher.add("tb-core-1", first, update("temperature", 1L));
+        batcher.add("tb-core-1", first, update("temperature", 2L));
+        batcher.add("tb-core-1", first, update("temperature", 1L));
+        batcher.add("tb-core-1", second, update("temperature", 1L));
+
+        TbSubscriptionBatchUpdateProto batch = poll();
+        Assert.assertEquals(3, batch.getGroupsCount());
+        TbSubscriptionUpdateGroupProto last = batch.getGroups(2);
+        Assert.assertEquals("1", last.getData(0).getValue(0));
+        // The first subscription can't rejoin the first group, while the second one joins the latest group with the same values.
+        Assert.assertEquals(1, batch.getGroups(0).getTargetsCount());
+        Assert.assertEquals(2, last.getTargetsCount());
+    }
+
+    @Test
+    public void testFullBatchIsSentBeforeWindowEnds() throws InterruptedException {
+        TbSubscriptionUpdateBatcher batcher = new TbSubscriptionUpdateBatcher(TimeUnit.MINUTES.toMillis(1), 10, scheduler, (serviceId, msg) -> sent.add(msg));
+        for (int i = 0; i < 10; i++) {
+            batcher.add("tb-core-1", subscription("session-" + i, i), update("temperature", i));
+        }
+        Assert.assertEquals(10, poll().getGroupsCount());
+    }
+
+    private TbSubscriptionBatchUpdateProto poll() throws InterruptedException {
+        TbProtoQueueMsg<ToCoreNotificationMsg> msg = sent.poll(5, TimeUnit.SECONDS);
+        Assert.assertNotNull(msg);
+        return msg.getValue().getToLocalSubscriptionServiceMsg().getSubBatchUpdate();
+    }
+
+    private TbSubscription subscription(String sessionId, int subscriptionId) {
+        return TbTimeseriesSubscription.builder()
+                .serviceId("tb-core-1")
+                .sessionId(sessionId)
+                .subscriptionId(subscriptionId)
+                .tenantId(tenantId)
+                .entityId(deviceId)
+                .allKeys(true)
+                .keyStates(Collections.emptyMap())
+                .build();
+    }
+
+    private static List<TsKvEntry> update(String key, long value) {
+        return Collections.singletonList(new BasicTsKvEntry(1000L, new LongDataEntry(key, value)));
+    }
+}
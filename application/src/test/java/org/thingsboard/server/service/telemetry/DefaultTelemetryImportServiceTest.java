@@ -0,0 +1,188 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.service.telemetry;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.thingsboard.server.common.data.ApiUsageState;
+import org.thingsboard.server.common.data.exception.ThingsboardErrorCode;
+import org.thingsboard.server.common.data.exception.ThingsboardException;
+import org.thingsboard.server.common.data.id.DeviceId;
+import org.thingsboard.server.common.data.id.EntityId;
+import org.thingsboard.server.common.data.id.TenantId;
+import org.thingsboard.server.common.data.kv.BasicTsKvEntry;
+import org.thingsboard.server.common.data.kv.LongDataEntry;
+import org.thingsboard.server.common.data.kv.StringDataEntry;
+import org.thingsboard.server.common.data.kv.TsKvEntry;
+import org.thingsboard.server.dao.timeseries.TimeseriesService;
+import org.thingsboard.server.queue.usagestats.TbApiUsageClient;
+import org.thingsboard.server.service.apiusage.TbApiUsageStateService;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class DefaultTelemetryImportServiceTest {
+
+    private final TenantId tenantId = new TenantId(UUID.randomUUID());
+    private final DeviceId deviceA = new DeviceId(UUID.randomUUID());
+    private final DeviceId deviceB = new DeviceId(UUID.randomUUID());
+
+    @Mock
+    private TimeseriesService tsService;
+    @Mock
+    private TelemetrySubscriptionService tsSubService;
+    @Mock
+    private TbApiUsageClient apiUsageClient;
+    @Mock
+    private TbApiUsageStateService apiUsageStateService;
+
+    private DefaultTelemetryImportService importService;
+
+    @Before
+    public void before() {
+        importService = new DefaultTelemetryImportService(tsService, tsSubService, apiUsageClient, apiUsageStateService);
+        ReflectionTestUtils.setField(importService, "batchSize", 3);
+        ReflectionTestUtils.setField(importService, "tenantRateLimit", "");
+        ReflectionTestUtils.setField(importService, "maxWaitMs", 100L);
+        when(apiUsageStateService.getApiUsageState(tenantId)).thenReturn(new ApiUsageState());
+    }
+
+    @Test
+    public void testImportSavesInBatchesAndValidatesEachEntityOnce() throws Exception {
+        when(tsService.saveWithoutLatest(any(), any(), anyList(), anyLong()))
+                .thenAnswer(invocation -> Futures.immediateFuture(invocation.<List<TsKvEntry>>getArgument(2).size()));
+        List<EntityId> validated = new ArrayList<>();
+
+        TelemetryImportResult result = importService.importTimeseries(tenantId, null, stream(csv(5)), TsKvDataFormat.CSV, 0L,
+                false, false, validated::add);
+
+        Assert.assertEquals(2, result.getEntities());
+        Assert.assertEquals(5, result.getRecords());
+        Assert.assertEquals(2, validated.size());
+        // first batch: 2 records of A and 1 of B, second batch: 1 record of A and 1 of B
+        verify(tsService, times(2)).saveWithoutLatest(eq(tenantId), eq(deviceA), anyList(), eq(0L));
+        verify(tsService, times(2)).saveWithoutLatest(eq(tenantId), eq(deviceB), anyList(), eq(0L));
+        verify(tsService, never()).saveLatest(any(), any(), anyList());
+        verifyNoInteractions(tsSubService);
+    }
+
+    @Test
+    public void testImportUpdatesLatestWithNewestRecordPerKey() throws Exception {
+        when(tsService.saveWithoutLatest(any(), any(), anyList(), anyLong())).thenReturn(Futures.immediateFuture(0));
+        when(tsService.saveLatest(any(), any(), anyList())).thenReturn(Futures.immediateFuture(null));
+        when(tsService.findLatest(any(), any(), anyList()))
+                .thenReturn(Futures.immediateFuture(Collections.singletonList(new BasicTsKvEntry(System.currentTimeMillis(), new StringDataEntry("temperature", null)))));
+        ReflectionTestUtils.setField(importService, "batchSize", 10);
+
+        importService.importTimeseries(tenantId, null, stream(csv(5)), TsKvDataFormat.CSV, 0L, true, false, entityId -> {
+        });
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<TsKvEntry>> latestCaptor = ArgumentCaptor.forClass(List.class);
+        verify(tsService).saveLatest(eq(tenantId), eq(deviceA), latestCaptor.capture());
+        Assert.assertEquals(1, latestCaptor.getValue().size());
+        Assert.assertEquals(40L, latestCaptor.getValue().get(0).getTs());
+    }
+
+    @Test
+    public void testImportDoesNotOverwriteNewerLatestValues() throws Exception {
+        when(tsService.saveWithoutLatest(any(), any(), anyList(), anyLong())).thenReturn(Futures.immediateFuture(0));
+        when(tsService.findLatest(eq(tenantId), eq(deviceA), anyList()))
+                .thenReturn(Futures.immediateFuture(Collections.singletonList(new BasicTsKvEntry(100L, new LongDataEntry("temperature", 1L)))));
+        when(tsService.findLatest(eq(tenantId), eq(deviceB), anyList()))
+                .thenReturn(Futures.immediateFuture(Collections.singletonList(new BasicTsKvEntry(20L, new LongDataEntry("temperature", 1L)))));
+        doAnswer(invocation -> {
+            invocation.<FutureCallback<Void>>getArgument(3).onSuccess(null);
+            return null;
+        }).when(tsSubService).saveLatestAndNotify(any(), any(), anyList(), any());
+        ReflectionTestUtils.setField(importService, "batchSize", 10);
+
+        importService.importTimeseries(tenantId, null, stream(csv(5)), TsKvDataFormat.CSV, 0L, false, true, entityId -> {
+        });
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<TsKvEntry>> latestCaptor = ArgumentCaptor.forClass(List.class);
+        verify(tsSubService, never()).saveLatestAndNotify(eq(tenantId), eq(deviceA), anyList(), any());
+        verify(tsSubService).saveLatestAndNotify(eq(tenantId), eq(deviceB), latestCaptor.capture(), any());
+        Assert.assertEquals(30L, latestCaptor.getValue().get(0).getTs());
+        verify(tsService, never()).saveLatest(any(), any(), anyList());
+    }
+
+    @Test
+    public void testBatchLargerThanRateLimitCapacityIsConsumedInParts() throws Exception {
+        when(tsService.saveWithoutLatest(any(), any(), anyList(), anyLong())).thenReturn(Futures.immediateFuture(0));
+        ReflectionTestUtils.setField(importService, "tenantRateLimit", "2:1");
+        ReflectionTestUtils.setField(importService, "maxWaitMs", 5000L);
+
+        TelemetryImportResult result = importService.importTimeseries(tenantId, null, stream(csv(5)), TsKvDataFormat.CSV, 0L,
+                false, false, entityId -> {
+                });
+
+        Assert.assertEquals(5, result.getRecords());
+    }
+
+    @Test
+    public void testImportIsRejectedWhenRateLimitIsExceeded() throws Exception {
+        when(tsService.saveWithoutLatest(any(), any(), anyList(), anyLong())).thenReturn(Futures.immediateFuture(0));
+        ReflectionTestUtils.setField(importService, "tenantRateLimit", "4:3600");
+
+        try {
+            importService.importTimeseries(tenantId, null, stream(csv(5)), TsKvDataFormat.CSV, 0L, false, false, entityId -> {
+            });
+            Assert.fail("Exception expected");
+        } catch (ThingsboardException e) {
+            Assert.assertEquals(ThingsboardErrorCode.TOO_MANY_REQUESTS, e.getErrorCode());
+        }
+        verify(tsService, times(2)).saveWithoutLatest(any(), any(), anyList(), anyLong());
+    }
+
+    private String csv(int records) {
+        StringBuilder csv = new StringBuilder("entityType,entityId,key,ts,value\n");
+        for (int i = 0; i < records; i++) {
+            DeviceId deviceId = i % 2 == 0 ? deviceA : deviceB;
+            csv.append("DEVICE,").append(deviceId.getId()).append(",temperature,").append(i * 10).append(',').append(i).append('\n');
+        }
+        return csv.toString();
+    }
+
+    private static ByteArrayInputStream stream(String body) {
+        return new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,136 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.service.telemetry;
+
+import com.google.common.util.concurrent.Futures;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.thingsboard.server.common.data.id.DeviceId;
+import org.thingsboard.server.common.data.id.TenantId;
+import org.thingsboard.server.common.data.kv.BasicTsKvEntry;
+import org.thingsboard.server.common.data.kv.LongDataEntry;
+import org.thingsboard.server.common.data.kv.ReadTsKvQuery;
+import org.thingsboard.server.common.data.kv.StringDataEntry;
+import org.thingsboard.server.common.data.kv.TsKvEntry;
+import org.thingsboard.server.dao.timeseries.TimeseriesService;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class TsKvExportWriterTest {
+
+    private final TenantId tenantId = new TenantId(UUID.randomUUID());
+    private final DeviceId deviceId = new DeviceId(UUID.randomUUID());
+
+    @Mock
+    private TimeseriesService tsService;
+
+    private final List<TsKvEntry> stored = new ArrayList<>();
+
+    @Before
+    public void before() {
+        for (long ts = 1; ts <= 5; ts++) {
+            stored.add(new BasicTsKvEntry(ts * 10, new LongDataEntry("temperature", ts)));
+        }
+        when(tsService.findAll(any(), any(), anyList())).thenAnswer(invocation -> {
+            ReadTsKvQuery query = invocation.<List<ReadTsKvQuery>>getArgument(2).get(0);
+            Comparator<TsKvEntry> order = Comparator.comparingLong(TsKvEntry::getTs);
+            List<TsKvEntry> page = stored.stream()
+                    .filter(e -> e.getKey().equals(query.getKey()) && e.getTs() >= query.getStartTs() && e.getTs() < query.getEndTs())
+                    .sorted("DESC".equals(query.getOrder()) ? order.reversed() : order)
+                    .limit(query.getLimit())
+                    .collect(Collectors.toList());
+            return Futures.immediateFuture(page);
+        });
+    }
+
+    @Test
+    public void testNdjsonExportReadsAllPages() throws IOException {
+        String result = export(TsKvDataFormat.NDJSON, "ASC");
+        String[] lines = result.split("\n");
+        Assert.assertEquals(5, lines.length);
+        Assert.assertEquals("{\"key\":\"temperature\",\"ts\":10,\"value\":\"1\"}", lines[0]);
+        Assert.assertEquals("{\"key\":\"temperature\",\"ts\":50,\"value\":\"5\"}", lines[4]);
+        // Two full pages and the last one that is not full.
+        verify(tsService, times(3)).findAll(any(), any(), anyList());
+    }
+
+    @Test
+    public void testDescExport() throws IOException {
+        String[] lines = export(TsKvDataFormat.CSV, "DESC").split("\n");
+        Assert.assertEquals(6, lines.length);
+        Assert.assertEquals("key,ts,value", lines[0]);
+        Assert.assertEquals("temperature,50,5", lines[1]);
+        Assert.assertEquals("temperature,10,1", lines[5]);
+    }
+
+    @Test
+    public void testCsvEscaping() throws IOException {
+        stored.clear();
+        stored.add(new BasicTsKvEntry(10, new StringDataEntry("temperature", "a,\"b\"")));
+        String[] lines = export(TsKvDataFormat.CSV, "ASC").split("\n");
+        Assert.assertEquals("temperature,10,\"a,\"\"b\"\"\"", lines[1]);
+    }
+
+    @Test
+    public void testCancelledExportStopsBeforeNextPage() throws IOException {
+        TsKvExportWriter writer = new TsKvExportWriter(tsService, tenantId, deviceId, TsKvDataFormat.NDJSON, 2, false);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        OutputStream cancellingOut = new FilterOutputStream(out) {
+            @Override
+            public void flush() throws IOException {
+                super.flush();
+                writer.cancel();
+            }
+        };
+        try {
+            writer.write(cancellingOut, Collections.singletonList("temperature"), 0, 100, "ASC");
+            Assert.fail("Cancelled export should fail");
+        } catch (InterruptedIOException e) {
+            Assert.assertTrue(writer.isCancelled());
+        }
+        Assert.assertEquals(2, new String(out.toByteArray(), StandardCharsets.UTF_8).split("\n").length);
+        verify(tsService, times(1)).findAll(any(), any(), anyList());
+    }
+
+    private String export(TsKvDataFormat format, String orderBy) throws IOException {
+        TsKvExportWriter writer = new TsKvExportWriter(tsService, tenantId, deviceId, format, 2, false);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer.write(out, Collections.singletonList("temperature"), 0, 100, orderBy);
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,88 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.service.telemetry;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.thingsboard.server.common.data.id.AssetId;
+import org.thingsboard.server.common.data.id.DeviceId;
+import org.thingsboard.server.common.data.kv.DataType;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+public class TsKvImportReaderTest {
+
+    private final DeviceId deviceId = new DeviceId(UUID.randomUUID());
+    private final AssetId assetId = new AssetId(UUID.randomUUID());
+
+    @Test
+    public void testReadNdjson() throws IOException {
+        String body = "{\"entityType\":\"DEVICE\",\"entityId\":\"" + deviceId.getId() + "\",\"ts\":10,\"key\":\"temperature\",\"value\":21.5}\n" +
+                "{\"entityType\":\"ASSET\",\"entityId\":\"" + assetId.getId() + "\",\"ts\":20,\"values\":{\"count\":3,\"on\":true,\"cfg\":{\"a\":1}}}\n";
+        List<TsKvImportReader.Record> records = readAll(TsKvDataFormat.NDJSON, body);
+
+        Assert.assertEquals(4, records.size());
+        Assert.assertEquals(deviceId, records.get(0).getEntityId());
+        Assert.assertEquals(DataType.DOUBLE, records.get(0).getEntry().getDataType());
+        Assert.assertEquals(assetId, records.get(1).getEntityId());
+        Assert.assertEquals(20L, records.get(1).getEntry().getTs());
+        Assert.assertEquals(DataType.LONG, records.get(1).getEntry().getDataType());
+        Assert.assertEquals(DataType.BOOLEAN, records.get(2).getEntry().getDataType());
+        Assert.assertEquals(DataType.JSON, records.get(3).getEntry().getDataType());
+    }
+
+    @Test
+    public void testReadCsv() throws IOException {
+        String body = "entityType,entityId,key,ts,value\r\n" +
+                "DEVICE," + deviceId.getId() + ",temperature,10,42\r\n" +
+                "DEVICE," + deviceId.getId() + ",status,20,\"ok, \"\"fine\"\"\nreally\"\r\n";
+        List<TsKvImportReader.Record> records = readAll(TsKvDataFormat.CSV, body);
+
+        Assert.assertEquals(2, records.size());
+        Assert.assertEquals(DataType.LONG, records.get(0).getEntry().getDataType());
+        Assert.assertEquals(Long.valueOf(42), records.get(0).getEntry().getLongValue().get());
+        Assert.assertEquals("ok, \"fine\"\nreally", records.get(1).getEntry().getStrValue().get());
+        Assert.assertEquals(20L, records.get(1).getEntry().getTs());
+    }
+
+    @Test
+    public void testInvalidRecordReportsItsNumber() throws IOException {
+        String body = "entityType,entityId,key,ts,value\n" +
+                "DEVICE," + deviceId.getId() + ",temperature,10,42\n" +
+                "DEVICE," + deviceId.getId() + ",temperature,yesterday,42\n";
+        try {
+            readAll(TsKvDataFormat.CSV, body);
+            Assert.fail("Exception expected");
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().startsWith("Invalid record #3"));
+        }
+    }
+
+    private List<TsKvImportReader.Record> readAll(TsKvDataFormat format, String body) throws IOException {
+        TsKvImportReader reader = new TsKvImportReader(format, new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)));
+        List<TsKvImportReader.Record> records = new ArrayList<>();
+        TsKvImportReader.Record record;
+        while ((record = reader.next()) != null) {
+            records.add(record);
+        }
+        return records;
+    }
+}
@@ -0,0 +1,146 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.Data;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compares two JMH JSON result files: the primary score and the normalized allocation rate of every benchmark.
+ */
+public class BaselineReport {
+
+    private static final String ALLOC_RATE_NORM = "\u00b7gc.alloc.rate.norm";
+    private static final String THROUGHPUT_MODE = "thrpt";
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private final List<Row> rows;
+    private final double threshold;
+
+    private BaselineReport(List<Row> rows, double threshold) {
+        this.rows = rows;
+        this.threshold = threshold;
+    }
+
+    public static BaselineReport compare(File baselineFile, File currentFile, double threshold) throws IOException {
+        Map<String, JsonNode> baseline = load(baselineFile);
+        Map<String, JsonNode> current = load(currentFile);
+        List<Row> rows = new ArrayList<>();
+        for (Map.Entry<String, JsonNode> entry : current.entrySet()) {
+            JsonNode currentResult = entry.getValue();
+            JsonNode baselineResult = baseline.get(entry.getKey());
+            Row row = new Row(entry.getKey(), currentResult.get("mode").asText(),
+                    currentResult.get("primaryMetric").get("scoreUnit").asText());
+            row.setScore(currentResult.get("primaryMetric").get("score").asDouble());
+            row.setAllocNorm(getAllocNorm(currentResult));
+            if (baselineResult != null) {
+                row.setBaselineScore(baselineResult.get("primaryMetric").get("score").asDouble());
+                row.setBaselineAllocNorm(getAllocNorm(baselineResult));
+            }
+            rows.add(row);
+        }
+        return new BaselineReport(rows, threshold);
+    }
+
+    public boolean hasRegressions() {
+        return rows.stream().anyMatch(this::isRegression);
+    }
+
+    public void print(PrintStream out) {
+        out.println(String.format("%-90s %5s %14s %14s %9s %12s %12s %9s", "Benchmark", "Mode", "Baseline", "Current", "Change",
+                "Alloc B/op", "Baseline B/op", "Change"));
+        for (Row row : rows) {
+            out.println(String.format("%-90s %5s %14.3f %14.3f %8.1f%% %12.1f %12.1f %8.1f%% %s%s", row.getKey(), row.getMode(),
+                    row.getBaselineScore(), row.getScore(), row.getScoreChange(),
+                    row.getAllocNorm(), row.getBaselineAllocNorm(), row.getAllocChange(),
+                    row.getScoreUnit(), isRegression(row) ? " REGRESSION" : ""));
+        }
+    }
+
+    private boolean isRegression(Row row) {
+        if (Double.isNaN(row.getBaselineScore())) {
+            return false;
+        }
+        double change = row.getScoreChange();
+        return THROUGHPUT_MODE.equals(row.getMode()) ? change < -threshold : change > threshold;
+    }
+
+    private static Map<String, JsonNode> load(File file) throws IOException {
+        Map<String, JsonNode> results = new LinkedHashMap<>();
+        for (JsonNode result : mapper.readTree(file)) {
+            results.put(getKey(result), result);
+        }
+        return results;
+    }
+
+    private static String getKey(JsonNode result) {
+        StringBuilder key = new StringBuilder(result.get("benchmark").asText());
+        JsonNode params = result.get("params");
+        if (params != null) {
+            Map<String, String> sortedParams = new TreeMap<>();
+            Iterator<Map.Entry<String, JsonNode>> fields = params.fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                sortedParams.put(field.getKey(), field.getValue().asText());
+            }
+            key.append(sortedParams);
+        }
+        return key.toString();
+    }
+
+    private static double getAllocNorm(JsonNode result) {
+        JsonNode secondaryMetrics = result.get("secondaryMetrics");
+        if (secondaryMetrics != null && secondaryMetrics.has(ALLOC_RATE_NORM)) {
+            return secondaryMetrics.get(ALLOC_RATE_NORM).get("score").asDouble();
+        }
+        return Double.NaN;
+    }
+
+    @Data
+    private static class Row {
+        private final String key;
+        private final String mode;
+        private final String scoreUnit;
+        private double score;
+        private double baselineScore = Double.NaN;
+        private double allocNorm = Double.NaN;
+        private double baselineAllocNorm = Double.NaN;
+
+        double getScoreChange() {
+            return change(baselineScore, score);
+        }
+
+        double getAllocChange() {
+            return change(baselineAllocNorm, allocNorm);
+        }
+
+        private static double change(double baseline, double current) {
+            return (current - baseline) / baseline * 100;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+
+/**
+ * Runs the benchmarks with the GC profiler and optionally compares the results with a baseline run:
+ * java -Dbenchmark.baseline=baseline.json -jar benchmarks/target/benchmarks.jar [include regexp]
+ * <p>
+ * Results are written to benchmark.result (benchmark-result.json by default) and can be used as the next baseline.
+ * The process exits with code 1 if any benchmark is slower than the baseline by more than benchmark.threshold percent.
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws Exception {
+        String include = args.length > 0 ? args[0] : "org\\.thingsboard\\.server\\.benchmark\\..*";
+        String resultFile = System.getProperty("benchmark.result", "benchmark-result.json");
+        String baselineFile = System.getProperty("benchmark.baseline");
+        double threshold = Double.parseDouble(System.getProperty("benchmark.threshold", "10"));
+
+        Options options = new OptionsBuilder()
+                .include(include)
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON)
+                .result(resultFile)
+                .build();
+        new Runner(options).run();
+
+        if (baselineFile != null) {
+            BaselineReport report = BaselineReport.compare(new File(baselineFile), new File(resultFile), threshold);
+            report.print(System.out);
+            if (report.hasRegressions()) {
+                System.exit(1);
+            }
+        }
+    }
+}
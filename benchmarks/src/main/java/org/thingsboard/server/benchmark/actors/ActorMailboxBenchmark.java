@@ -0,0 +1,107 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.benchmark.actors;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.thingsboard.server.actors.TbActorRef;
+import org.thingsboard.server.actors.TbActorSystem;
+import org.thingsboard.server.actors.TbStringActorId;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mailbox throughput of {@link org.thingsboard.server.actors.TbActorMailbox} with several producers
+ * and tell-to-process latency of {@link org.thingsboard.server.actors.DefaultTbActorSystem}.
+ */
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class ActorMailboxBenchmark {
+
+    private static final int BATCH_SIZE = 1024;
+
+    @State(Scope.Benchmark)
+    public static class ActorsState {
+
+        @Param({"1", "16"})
+        public int actors;
+
+        @Param({"4"})
+        public int parallelism;
+
+        TbActorSystem actorSystem;
+        TbActorRef[] actorRefs;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            actorSystem = ActorSystemState.create(parallelism);
+            actorRefs = new TbActorRef[actors];
+            for (int i = 0; i < actors; i++) {
+                actorRefs[i] = actorSystem.createRootActor(ActorSystemState.DISPATCHER,
+                        new CountingActor.CountingActorCreator(new TbStringActorId("actor-" + i)));
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            actorSystem.stop();
+        }
+
+        TbActorRef randomActor() {
+            return actorRefs[ThreadLocalRandom.current().nextInt(actorRefs.length)];
+        }
+    }
+
+    @Benchmark
+    @Threads(4)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void mailboxThroughput(ActorsState state) throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(BATCH_SIZE);
+        BenchmarkMsg msg = new BenchmarkMsg(latch);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            state.randomActor().tell(msg);
+        }
+        latch.await();
+    }
+
+    @Benchmark
+    @Threads(1)
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void tellToProcessLatency(ActorsState state) throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(1);
+        state.randomActor().tell(new BenchmarkMsg(latch));
+        latch.await();
+    }
+}
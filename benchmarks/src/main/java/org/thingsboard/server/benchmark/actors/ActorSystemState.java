@@ -0,0 +1,44 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.benchmark.actors;
+
+import org.thingsboard.server.actors.DefaultTbActorSystem;
+import org.thingsboard.server.actors.TbActorSystem;
+import org.thingsboard.server.actors.TbActorSystemSettings;
+
+import java.util.concurrent.Executors;
+
+/**
+ * Actor system configured the same way as the rule engine one: work stealing dispatcher and default throughput.
+ */
+final class ActorSystemState {
+
+    static final String DISPATCHER = "benchmark-dispatcher";
+    static final int ACTOR_THROUGHPUT = 5;
+
+    private ActorSystemState() {
+    }
+
+    static TbActorSystem create(int parallelism) {
+        return create(DISPATCHER, parallelism);
+    }
+
+    static TbActorSystem create(String dispatcherName, int parallelism) {
+        TbActorSystem actorSystem = new DefaultTbActorSystem(new TbActorSystemSettings(ACTOR_THROUGHPUT, 1, 1));
+        actorSystem.createDispatcher(dispatcherName, Executors.newWorkStealingPool(parallelism));
+        return actorSystem;
+    }
+}
@@ -0,0 +1,151 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.benchmark.actors;
+
+import org.thingsboard.server.actors.ActorSystemContext;
+import org.thingsboard.server.actors.TbActorRef;
+import org.thingsboard.server.common.data.TenantProfile;
+import org.thingsboard.server.common.data.id.EntityId;
+import org.thingsboard.server.common.data.id.RuleNodeId;
+import org.thingsboard.server.common.data.id.TenantId;
+import org.thingsboard.server.common.data.plugin.ComponentLifecycleEvent;
+import org.thingsboard.server.common.data.relation.EntityRelation;
+import org.thingsboard.server.common.data.rule.RuleChain;
+import org.thingsboard.server.common.data.rule.RuleNode;
+import org.thingsboard.server.common.msg.TbMsg;
+import org.thingsboard.server.common.msg.queue.QueueToRuleEngineMsg;
+import org.thingsboard.server.common.msg.queue.RuleEngineException;
+import org.thingsboard.server.common.msg.queue.ServiceQueue;
+import org.thingsboard.server.common.msg.queue.ServiceType;
+import org.thingsboard.server.common.msg.queue.TbMsgCallback;
+import org.thingsboard.server.common.msg.queue.TopicPartitionInfo;
+import org.thingsboard.server.dao.rule.RuleChainService;
+import org.thingsboard.server.dao.tenant.TbTenantProfileCache;
+import org.thingsboard.server.gen.transport.TransportProtos.ToRuleEngineMsg;
+import org.thingsboard.server.queue.TbQueueCallback;
+import org.thingsboard.server.queue.usagestats.TbApiUsageClient;
+import org.thingsboard.server.service.queue.TbClusterService;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Actor system context of a single tenant with one rule chain. Rule chain and rule nodes are served from memory,
+ * every partition is local and lifecycle events are not persisted. Messages pushed to the rule engine queue are
+ * delivered back to the rule chain actor the same way the rule engine consumer does it, and the push is acknowledged
+ * once the delivered copy is processed, so the callback of the original message completes after all its branches.
+ */
+class BenchmarkActorSystemContext extends ActorSystemContext {
+
+    private final TenantId tenantId;
+    private final TopicPartitionInfo tpi;
+    private final RuleChainService ruleChainService;
+    private final TbClusterService clusterService;
+    private final TbApiUsageClient apiUsageClient;
+    private final TbTenantProfileCache tenantProfileCache;
+    private volatile TbActorRef ruleChainActor;
+
+    BenchmarkActorSystemContext(RuleChain ruleChain, List<RuleNode> ruleNodes, Map<RuleNodeId, List<EntityRelation>> relations) {
+        this.tenantId = ruleChain.getTenantId();
+        this.tpi = new TopicPartitionInfo(ServiceQueue.MAIN, tenantId, 0, true);
+        Map<RuleNodeId, RuleNode> ruleNodesById = new HashMap<>();
+        ruleNodes.forEach(ruleNode -> ruleNodesById.put(ruleNode.getId(), ruleNode));
+
+        Map<String, Function<Object[], Object>> ruleChainAnswers = new HashMap<>();
+        ruleChainAnswers.put("findRuleChainById", args -> ruleChain);
+        ruleChainAnswers.put("getRuleChainNodes", args -> ruleNodes);
+        ruleChainAnswers.put("findRuleNodeById", args -> ruleNodesById.get(args[1]));
+        ruleChainAnswers.put("getRuleNodeRelations", args -> relations.get(args[1]));
+        this.ruleChainService = ServiceStubs.stub(RuleChainService.class, ruleChainAnswers);
+
+        Map<String, Function<Object[], Object>> clusterAnswers = new HashMap<>();
+        clusterAnswers.put("pushMsgToRuleEngine", args -> {
+            pushMsgToRuleEngine((ToRuleEngineMsg) args[2], (TbQueueCallback) args[3]);
+            return null;
+        });
+        this.clusterService = ServiceStubs.stub(TbClusterService.class, clusterAnswers);
+
+        Map<String, Function<Object[], Object>> apiUsageAnswers = new HashMap<>();
+        apiUsageAnswers.put("report", args -> null);
+        this.apiUsageClient = ServiceStubs.stub(TbApiUsageClient.class, apiUsageAnswers);
+
+        TenantProfile tenantProfile = new TenantProfile();
+        Map<String, Function<Object[], Object>> tenantProfileAnswers = new HashMap<>();
+        tenantProfileAnswers.put("get", args -> tenantProfile);
+        this.tenantProfileCache = ServiceStubs.stub(TbTenantProfileCache.class, tenantProfileAnswers);
+    }
+
+    void setRuleChainActor(TbActorRef ruleChainActor) {
+        this.ruleChainActor = ruleChainActor;
+    }
+
+    private void pushMsgToRuleEngine(ToRuleEngineMsg toRuleEngineMsg, TbQueueCallback callback) {
+        TbMsg tbMsg = TbMsg.fromBytes(ServiceQueue.MAIN, toRuleEngineMsg.getTbMsg().toByteArray(), new TbMsgCallback() {
+            @Override
+            public void onSuccess() {
+                callback.onSuccess(null);
+            }
+
+            @Override
+            public void onFailure(RuleEngineException e) {
+                callback.onFailure(e);
+            }
+        });
+        ruleChainActor.tell(new QueueToRuleEngineMsg(tenantId, tbMsg, new HashSet<>(toRuleEngineMsg.getRelationTypesList()),
+                toRuleEngineMsg.getFailureMessage()));
+    }
+
+    @Override
+    public RuleChainService getRuleChainService() {
+        return ruleChainService;
+    }
+
+    @Override
+    public TbClusterService getClusterService() {
+        return clusterService;
+    }
+
+    @Override
+    public TbApiUsageClient getApiUsageClient() {
+        return apiUsageClient;
+    }
+
+    @Override
+    public TbTenantProfileCache getTenantProfileCache() {
+        return tenantProfileCache;
+    }
+
+    @Override
+    public TopicPartitionInfo resolve(ServiceType serviceType, TenantId tenantId, EntityId entityId) {
+        return tpi;
+    }
+
+    @Override
+    public TopicPartitionInfo resolve(ServiceType serviceType, String queueName, TenantId tenantId, EntityId entityId) {
+        return tpi;
+    }
+
+    @Override
+    public void persistError(TenantId tenantId, EntityId entityId, String method, Exception e) {
+    }
+
+    @Override
+    public void persistLifecycleEvent(TenantId tenantId, EntityId entityId, ComponentLifecycleEvent lcEvent, Exception e) {
+    }
+}
@@ -0,0 +1,37 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.benchmark.actors;
+
+import lombok.Getter;
+import org.thingsboard.server.common.msg.MsgType;
+import org.thingsboard.server.common.msg.TbActorMsg;
+
+import java.util.concurrent.CountDownLatch;
+
+public class BenchmarkMsg implements TbActorMsg {
+
+    @Getter
+    private final CountDownLatch latch;
+
+    public BenchmarkMsg(CountDownLatch latch) {
+        this.latch = latch;
+    }
+
+    @Override
+    public MsgType getMsgType() {
+        return MsgType.QUEUE_TO_RULE_ENGINE_MSG;
+    }
+}
@@ -0,0 +1,53 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.benchmark.actors;
+
+import org.thingsboard.server.actors.AbstractTbActor;
+import org.thingsboard.server.actors.TbActor;
+import org.thingsboard.server.actors.TbActorCreator;
+import org.thingsboard.server.actors.TbActorId;
+import org.thingsboard.server.common.msg.TbActorMsg;
+
+public class CountingActor extends AbstractTbActor {
+
+    private long processed;
+
+    @Override
+    public boolean process(TbActorMsg msg) {
+        processed++;
+        ((BenchmarkMsg) msg).getLatch().countDown();
+        return true;
+    }
+
+    public static class CountingActorCreator implements TbActorCreator {
+
+        private final TbActorId actorId;
+
+        public CountingActorCreator(TbActorId actorId) {
+            this.actorId = actorId;
+        }
+
+        @Override
+        public TbActorId createActorId() {
+            return actorId;
+        }
+
+        @Override
+        public TbActor createActor() {
+            return new CountingActor();
+        }
+    }
+}
@@ -0,0 +1,40 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.benchmark.actors;
+
+import org.thingsboard.rule.engine.api.TbContext;
+import org.thingsboard.rule.engine.api.TbNode;
+import org.thingsboard.rule.engine.api.TbNodeConfiguration;
+import org.thingsboard.server.common.msg.TbMsg;
+
+/**
+ * Rule node without any logic: every message is passed to the next nodes with the Success relation.
+ */
+public class PassThroughNode implements TbNode {
+
+    @Override
+    public void init(TbContext ctx, TbNodeConfiguration configuration) {
+    }
+
+    @Override
+    public void onMsg(TbContext ctx, TbMsg msg) {
+        ctx.tellSuccess(msg);
+    }
+
+    @Override
+    public void destroy() {
+    }
+}
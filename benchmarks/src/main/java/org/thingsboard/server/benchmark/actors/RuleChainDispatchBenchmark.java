@@ -0,0 +1,172 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.benchmark.actors;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.thingsboard.rule.engine.api.TbRelationTypes;
+import org.thingsboard.server.actors.TbActorRef;
+import org.thingsboard.server.actors.TbActorSystem;
+import org.thingsboard.server.actors.ruleChain.RuleChainActor;
+import org.thingsboard.server.actors.service.DefaultActorService;
+import org.thingsboard.server.common.data.id.DeviceId;
+import org.thingsboard.server.common.data.id.RuleChainId;
+import org.thingsboard.server.common.data.id.RuleNodeId;
+import org.thingsboard.server.common.data.id.TenantId;
+import org.thingsboard.server.common.data.relation.EntityRelation;
+import org.thingsboard.server.common.data.relation.RelationTypeGroup;
+import org.thingsboard.server.common.data.rule.RuleChain;
+import org.thingsboard.server.common.data.rule.RuleChainType;
+import org.thingsboard.server.common.data.rule.RuleNode;
+import org.thingsboard.server.common.msg.TbMsg;
+import org.thingsboard.server.common.msg.TbMsgMetaData;
+import org.thingsboard.server.common.msg.queue.QueueToRuleEngineMsg;
+import org.thingsboard.server.common.msg.queue.RuleEngineException;
+import org.thingsboard.server.common.msg.queue.TbMsgCallback;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Traversal of a rule chain by the rule chain and rule node actors of the rule engine. The first node has 'branches'
+ * outgoing Success relations, each branch is a linear chain of 'depth' pass through nodes, and every node also has
+ * a Failure relation that is filtered out. More than one branch sends the message copies through the queue stub.
+ */
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class RuleChainDispatchBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class RuleChainState {
+
+        @Param({"5", "20"})
+        public int depth;
+
+        @Param({"1", "3"})
+        public int branches;
+
+        @Param({"4"})
+        public int parallelism;
+
+        TbActorSystem actorSystem;
+        TbActorRef ruleChainActor;
+        TenantId tenantId;
+        DeviceId originator;
+        TbMsgMetaData metaData;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            tenantId = new TenantId(UUID.randomUUID());
+            RuleChain ruleChain = new RuleChain(new RuleChainId(UUID.randomUUID()));
+            ruleChain.setTenantId(tenantId);
+            ruleChain.setName("Benchmark");
+            ruleChain.setType(RuleChainType.CORE);
+            List<RuleNode> ruleNodes = new ArrayList<>();
+            Map<RuleNodeId, List<EntityRelation>> relations = new HashMap<>();
+            RuleNode firstNode = addRuleNode(ruleChain, ruleNodes, relations);
+            RuleNode failureNode = addRuleNode(ruleChain, ruleNodes, relations);
+            ruleChain.setFirstRuleNodeId(firstNode.getId());
+            for (int branch = 0; branch < branches; branch++) {
+                RuleNode previous = firstNode;
+                for (int i = 0; i < depth; i++) {
+                    RuleNode ruleNode = addRuleNode(ruleChain, ruleNodes, relations);
+                    relations.get(previous.getId()).add(newRelation(previous, ruleNode, TbRelationTypes.SUCCESS));
+                    relations.get(previous.getId()).add(newRelation(previous, failureNode, TbRelationTypes.FAILURE));
+                    previous = ruleNode;
+                }
+            }
+            BenchmarkActorSystemContext systemContext = new BenchmarkActorSystemContext(ruleChain, ruleNodes, relations);
+            actorSystem = ActorSystemState.create(DefaultActorService.RULE_DISPATCHER_NAME, parallelism);
+            systemContext.setActorSystem(actorSystem);
+            ruleChainActor = actorSystem.createRootActor(DefaultActorService.RULE_DISPATCHER_NAME,
+                    new RuleChainActor.ActorCreator(systemContext, tenantId, ruleChain));
+            systemContext.setRuleChainActor(ruleChainActor);
+            originator = new DeviceId(UUID.randomUUID());
+            metaData = new TbMsgMetaData();
+            metaData.putValue("deviceName", "benchmark");
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            actorSystem.stop();
+        }
+
+        private static RuleNode addRuleNode(RuleChain ruleChain, List<RuleNode> ruleNodes, Map<RuleNodeId, List<EntityRelation>> relations) {
+            RuleNode ruleNode = new RuleNode(new RuleNodeId(UUID.randomUUID()));
+            ruleNode.setRuleChainId(ruleChain.getId());
+            ruleNode.setType(PassThroughNode.class.getName());
+            ruleNode.setName("Node " + ruleNodes.size());
+            ruleNode.setConfiguration(new ObjectMapper().createObjectNode());
+            ruleNodes.add(ruleNode);
+            relations.put(ruleNode.getId(), new ArrayList<>());
+            return ruleNode;
+        }
+
+        private static EntityRelation newRelation(RuleNode from, RuleNode to, String type) {
+            return new EntityRelation(from.getId(), to.getId(), type, RelationTypeGroup.RULE_NODE);
+        }
+    }
+
+    @Benchmark
+    @Threads(4)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public void traverseRuleChain(RuleChainState state) throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(1);
+        TbMsg msg = TbMsg.newMsg("POST_TELEMETRY_REQUEST", state.originator, state.metaData.copy(), "{\"temperature\":42}",
+                new LatchCallback(latch));
+        state.ruleChainActor.tell(new QueueToRuleEngineMsg(state.tenantId, msg, null, null));
+        latch.await();
+    }
+
+    private static class LatchCallback implements TbMsgCallback {
+
+        private final CountDownLatch latch;
+
+        private LatchCallback(CountDownLatch latch) {
+            this.latch = latch;
+        }
+
+        @Override
+        public void onSuccess() {
+            latch.countDown();
+        }
+
+        @Override
+        public void onFailure(RuleEngineException e) {
+            latch.countDown();
+        }
+    }
+}
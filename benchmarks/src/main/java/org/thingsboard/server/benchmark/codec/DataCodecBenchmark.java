@@ -0,0 +1,92 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.benchmark.codec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.thingsboard.rule.engine.api.msg.DeviceAttributesEventNotificationMsg;
+import org.thingsboard.server.common.data.DataConstants;
+import org.thingsboard.server.common.data.id.DeviceId;
+import org.thingsboard.server.common.data.id.TenantId;
+import org.thingsboard.server.common.data.kv.AttributeKvEntry;
+import org.thingsboard.server.common.data.kv.BaseAttributeKvEntry;
+import org.thingsboard.server.common.data.kv.DoubleDataEntry;
+import org.thingsboard.server.common.data.kv.StringDataEntry;
+import org.thingsboard.server.common.transport.util.DataCodec;
+import org.thingsboard.server.common.transport.util.ProtoWithFSTService;
+import org.thingsboard.server.service.queue.codec.DeviceAttributesEventNotificationMsgCodec;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding and decoding time of the cluster messages with the protobuf codecs compared to the FST serialization.
+ */
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DataCodecBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class CodecState {
+
+        @Param({"fst", "protobuf"})
+        public String encoding;
+
+        ProtoWithFSTService service;
+        DeviceAttributesEventNotificationMsg msg;
+        byte[] data;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            List<DataCodec<?>> codecs = Collections.singletonList(new DeviceAttributesEventNotificationMsgCodec());
+            service = new ProtoWithFSTService(codecs, "protobuf".equals(encoding));
+            long ts = System.currentTimeMillis();
+            List<AttributeKvEntry> values = Arrays.asList(
+                    new BaseAttributeKvEntry(new StringDataEntry("firmwareVersion", "1.2.3"), ts),
+                    new BaseAttributeKvEntry(new DoubleDataEntry("temperatureThreshold", 42.5), ts));
+            msg = DeviceAttributesEventNotificationMsg.onUpdate(new TenantId(UUID.randomUUID()), new DeviceId(UUID.randomUUID()),
+                    DataConstants.SHARED_SCOPE, values);
+            data = service.encode(msg);
+        }
+    }
+
+    @Benchmark
+    public byte[] encode(CodecState state) {
+        return state.service.encode(state.msg);
+    }
+
+    @Benchmark
+    public Optional<DeviceAttributesEventNotificationMsg> decode(CodecState state) {
+        return state.service.decode(state.data);
+    }
+}
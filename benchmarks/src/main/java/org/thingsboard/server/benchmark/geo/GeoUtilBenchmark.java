@@ -0,0 +1,110 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.benchmark.geo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.thingsboard.rule.engine.geo.GeoUtil;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Point-in-polygon check of the geofencing nodes against a perimeter of 'zones' random polygons.
+ * The compiled polygons are cached by the first check, so the benchmark measures the lookup and the containment test.
+ */
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class GeoUtilBenchmark {
+
+    private static final int VERTICES = 32;
+    private static final int POINTS = 1000;
+
+    @State(Scope.Benchmark)
+    public static class PerimeterState {
+
+        @Param({"1", "5000"})
+        public int zones;
+
+        String perimeter;
+        double[] latitudes;
+        double[] longitudes;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            Random random = new Random(42);
+            if (zones == 1) {
+                perimeter = polygon(random, 50.0, 30.0);
+            } else {
+                StringBuilder builder = new StringBuilder("[");
+                for (int i = 0; i < zones; i++) {
+                    if (i > 0) {
+                        builder.append(",");
+                    }
+                    builder.append(polygon(random, -60 + random.nextDouble() * 120, -170 + random.nextDouble() * 340));
+                }
+                perimeter = builder.append("]").toString();
+            }
+            latitudes = new double[POINTS];
+            longitudes = new double[POINTS];
+            for (int i = 0; i < POINTS; i++) {
+                latitudes[i] = -60 + random.nextDouble() * 120;
+                longitudes[i] = -170 + random.nextDouble() * 340;
+            }
+            GeoUtil.getPolygons(perimeter);
+        }
+
+        private String polygon(Random random, double centerLatitude, double centerLongitude) {
+            StringBuilder builder = new StringBuilder("[");
+            for (int i = 0; i < VERTICES; i++) {
+                double angle = 2 * Math.PI * i / VERTICES;
+                double radius = 0.5 + random.nextDouble() * 0.5;
+                if (i > 0) {
+                    builder.append(",");
+                }
+                builder.append("[").append(centerLatitude + radius * Math.sin(angle)).append(", ")
+                        .append(centerLongitude + radius * Math.cos(angle)).append("]");
+            }
+            return builder.append("]").toString();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public int contains(PerimeterState state) {
+        int matches = 0;
+        for (int i = 0; i < POINTS; i++) {
+            if (GeoUtil.contains(state.perimeter, state.latitudes[i], state.longitudes[i])) {
+                matches++;
+            }
+        }
+        return matches;
+    }
+}
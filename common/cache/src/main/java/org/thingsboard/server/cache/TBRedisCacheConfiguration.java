@@ -15,9 +15,12 @@
  */
 package org.thingsboard.server.cache;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.Data;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.cache.CacheManager;
 import org.springframework.cache.annotation.EnableCaching;
 import org.springframework.context.annotation.Bean;
@@ -28,17 +31,27 @@ import org.springframework.data.redis.cache.RedisCacheManager;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
 import org.springframework.data.redis.connection.jedis.JedisConnectionFactory;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.JdkSerializationRedisSerializer;
+import org.springframework.data.redis.serializer.RedisSerializationContext;
+import org.springframework.data.redis.serializer.RedisSerializer;
 import org.springframework.format.support.DefaultFormattingConversionService;
 import org.springframework.util.Assert;
 import org.thingsboard.server.common.data.id.EntityId;
 import redis.clients.jedis.JedisPoolConfig;
 
+import java.util.HashMap;
+import java.util.Map;
+
 @Configuration
 @ConditionalOnProperty(prefix = "cache", value = "type", havingValue = "redis", matchIfMissing = false)
 @EnableCaching
+@EnableConfigurationProperties({TBRedisSerializerProperties.class, TBRedisNearCacheProperties.class})
 @Data
 public abstract class TBRedisCacheConfiguration {
 
+    private static final String JAVA_SERIALIZER = "java";
+    private static final String FST_SERIALIZER = "fst";
+
     @Value("${redis.pool_config.maxTotal}")
     private int maxTotal;
 
@@ -72,6 +85,15 @@ public abstract class TBRedisCacheConfiguration {
     @Value("${redis.pool_config.blockWhenExhausted}")
     private boolean blockWhenExhausted;
 
+    @Autowired
+    private TBRedisSerializerProperties serializerProperties;
+
+    @Autowired
+    private TBRedisNearCacheProperties nearCacheProperties;
+
+    @Autowired(required = false)
+    private MeterRegistry meterRegistry;
+
     @Bean
     public RedisConnectionFactory redisConnectionFactory() {
         return loadFactory();
@@ -85,7 +107,37 @@ public abstract class TBRedisCacheConfiguration {
         RedisCacheConfiguration.registerDefaultConverters(redisConversionService);
         registerDefaultConverters(redisConversionService);
         RedisCacheConfiguration configuration = RedisCacheConfiguration.defaultCacheConfig().withConversionService(redisConversionService);
-        return RedisCacheManager.builder(cf).cacheDefaults(configuration).build();
+        Map<String, RedisSerializer<Object>> serializers = new HashMap<>();
+        Map<String, RedisCacheConfiguration> cacheConfigurations = new HashMap<>();
+        serializerProperties.getCaches().forEach((cacheName, serializerType) ->
+                cacheConfigurations.put(cacheName, withValueSerializer(configuration, serializers, serializerType)));
+        RedisCacheManager redisCacheManager = RedisCacheManager.builder(cf)
+                .cacheDefaults(withValueSerializer(configuration, serializers, serializerProperties.getType()))
+                .withInitialCacheConfigurations(cacheConfigurations)
+                .build();
+        if (nearCacheProperties.isEnabled()) {
+            // the wrapped manager is not a bean, so the initial caches with their serializers are created here
+            redisCacheManager.afterPropertiesSet();
+            return new TbNearCacheManager(redisCacheManager, nearCacheProperties, redisConversionService, cf, meterRegistry);
+        }
+        return redisCacheManager;
+    }
+
+    private static RedisCacheConfiguration withValueSerializer(RedisCacheConfiguration configuration,
+                                                               Map<String, RedisSerializer<Object>> serializers, String serializerType) {
+        RedisSerializer<Object> serializer = serializers.computeIfAbsent(serializerType.toLowerCase(), TBRedisCacheConfiguration::createValueSerializer);
+        return configuration.serializeValuesWith(RedisSerializationContext.SerializationPair.fromSerializer(serializer));
+    }
+
+    private static RedisSerializer<Object> createValueSerializer(String serializerType) {
+        switch (serializerType) {
+            case JAVA_SERIALIZER:
+                return new JdkSerializationRedisSerializer();
+            case FST_SERIALIZER:
+                return new TbFSTRedisSerializer();
+            default:
+                throw new IllegalArgumentException("Unsupported Redis cache serializer: " + serializerType);
+        }
     }
 
     @Bean
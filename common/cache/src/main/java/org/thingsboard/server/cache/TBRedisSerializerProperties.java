@@ -0,0 +1,41 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.cache;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.HashMap;
+import java.util.Map;
+
+@Data
+@ConfigurationProperties(prefix = "redis.serializer")
+public class TBRedisSerializerProperties {
+
+    /**
+     * Serializer of the cache values: 'java' or 'fst'.
+     * */
+    private String type = "java";
+
+    /**
+     * Serializer overrides per cache name.
+     * */
+    private Map<String, String> caches = new HashMap<>();
+
+    public String getType(String cacheName) {
+        return caches.getOrDefault(cacheName, type);
+    }
+}
@@ -0,0 +1,68 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.cache;
+
+import org.nustaq.serialization.FSTConfiguration;
+import org.springframework.cache.support.NullValue;
+import org.springframework.data.redis.serializer.JdkSerializationRedisSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+/**
+ * Compact binary serializer of the cache values.
+ * Values that start with the JDK serialization stream header are read with JDK serialization,
+ * so the values stored before switching to this serializer are still readable.
+ * */
+public class TbFSTRedisSerializer implements RedisSerializer<Object> {
+
+    private static final byte JDK_STREAM_MAGIC_0 = (byte) 0xAC;
+    private static final byte JDK_STREAM_MAGIC_1 = (byte) 0xED;
+    private static final byte[] EMPTY_ARRAY = new byte[0];
+
+    private final FSTConfiguration config = FSTConfiguration.createDefaultConfiguration();
+    private final JdkSerializationRedisSerializer jdkSerializer = new JdkSerializationRedisSerializer();
+
+    @Override
+    public byte[] serialize(Object value) throws SerializationException {
+        if (value == null) {
+            return EMPTY_ARRAY;
+        }
+        if (value instanceof NullValue) {
+            // NullValue is compared by identity, JDK serialization restores the singleton instance
+            return jdkSerializer.serialize(value);
+        }
+        try {
+            return config.asByteArray(value);
+        } catch (Exception e) {
+            throw new SerializationException("Cannot serialize value of type " + value.getClass().getName(), e);
+        }
+    }
+
+    @Override
+    public Object deserialize(byte[] bytes) throws SerializationException {
+        if (bytes == null || bytes.length == 0) {
+            return null;
+        }
+        if (bytes.length > 1 && bytes[0] == JDK_STREAM_MAGIC_0 && bytes[1] == JDK_STREAM_MAGIC_1) {
+            return jdkSerializer.deserialize(bytes);
+        }
+        try {
+            return config.asObject(bytes);
+        } catch (Exception e) {
+            throw new SerializationException("Cannot deserialize value", e);
+        }
+    }
+}
@@ -0,0 +1,233 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.cache;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.cache.Cache;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Two-tier cache: a small per-node local cache in front of the shared remote (Redis) cache.
+ * Every modification goes to the remote cache first and is then broadcast to the other nodes
+ * through the {@link TbNearCacheInvalidationPublisher}, so their local copies are dropped.
+ * Every local invalidation bumps the version of the key, and a value read from the remote cache is only kept locally
+ * if the version did not change since the read started, so a concurrent invalidation is never overwritten by a stale value.
+ * */
+@Slf4j
+public class TbNearCache implements Cache {
+
+    private static final int VERSION_STRIPES = 1024;
+
+    private final Cache localCache;
+    private final Cache remoteCache;
+    private final Function<Object, String> keyConverter;
+    private final TbNearCacheInvalidationPublisher invalidationPublisher;
+    private final AtomicLongArray localVersions = new AtomicLongArray(VERSION_STRIPES);
+
+    private final LongAdder localHits = new LongAdder();
+    private final LongAdder localMisses = new LongAdder();
+    private final LongAdder remoteHits = new LongAdder();
+    private final LongAdder remoteMisses = new LongAdder();
+
+    public TbNearCache(Cache localCache, Cache remoteCache, Function<Object, String> keyConverter,
+                       TbNearCacheInvalidationPublisher invalidationPublisher) {
+        this.localCache = localCache;
+        this.remoteCache = remoteCache;
+        this.keyConverter = keyConverter;
+        this.invalidationPublisher = invalidationPublisher;
+    }
+
+    @Override
+    public String getName() {
+        return remoteCache.getName();
+    }
+
+    @Override
+    public Object getNativeCache() {
+        return remoteCache.getNativeCache();
+    }
+
+    public Cache getRemoteCache() {
+        return remoteCache;
+    }
+
+    @Override
+    public ValueWrapper get(Object key) {
+        String localKey = keyConverter.apply(key);
+        ValueWrapper valueWrapper = getLocal(localKey);
+        if (valueWrapper != null) {
+            return valueWrapper;
+        }
+        long version = getLocalVersion(localKey);
+        valueWrapper = remoteCache.get(key);
+        recordRemoteLookups(valueWrapper != null ? 1 : 0, valueWrapper != null ? 0 : 1);
+        if (valueWrapper != null) {
+            putLocal(localKey, valueWrapper.get(), version);
+        }
+        return valueWrapper;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T get(Object key, Class<T> type) {
+        ValueWrapper valueWrapper = get(key);
+        Object value = valueWrapper != null ? valueWrapper.get() : null;
+        if (value != null && type != null && !type.isInstance(value)) {
+            throw new IllegalStateException("Cached value is not of required type [" + type.getName() + "]: " + value);
+        }
+        return (T) value;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T get(Object key, Callable<T> valueLoader) {
+        ValueWrapper valueWrapper = get(key);
+        if (valueWrapper != null) {
+            return (T) valueWrapper.get();
+        }
+        String localKey = keyConverter.apply(key);
+        long version = getLocalVersion(localKey);
+        T value = remoteCache.get(key, valueLoader);
+        putLocal(localKey, value, version);
+        return value;
+    }
+
+    @Override
+    public void put(Object key, Object value) {
+        remoteCache.put(key, value);
+        String localKey = keyConverter.apply(key);
+        localVersions.incrementAndGet(stripe(localKey));
+        localCache.put(localKey, value);
+        invalidationPublisher.publishEvict(getName(), localKey);
+    }
+
+    @Override
+    public ValueWrapper putIfAbsent(Object key, Object value) {
+        ValueWrapper existing = remoteCache.putIfAbsent(key, value);
+        String localKey = keyConverter.apply(key);
+        evictLocal(localKey);
+        invalidationPublisher.publishEvict(getName(), localKey);
+        return existing;
+    }
+
+    @Override
+    public void evict(Object key) {
+        remoteCache.evict(key);
+        String localKey = keyConverter.apply(key);
+        evictLocal(localKey);
+        invalidationPublisher.publishEvict(getName(), localKey);
+    }
+
+    @Override
+    public void clear() {
+        remoteCache.clear();
+        clearLocal();
+        invalidationPublisher.publishClear(getName());
+    }
+
+    /**
+     * Looks up the key in the local tier only.
+     * */
+    public ValueWrapper getLocal(Object key) {
+        ValueWrapper valueWrapper = localCache.get(toLocalKey(key));
+        if (valueWrapper != null) {
+            localHits.increment();
+        } else {
+            localMisses.increment();
+        }
+        return valueWrapper;
+    }
+
+    /**
+     * Returns the version of the local entry. Has to be taken before the value is fetched from the remote tier.
+     * */
+    public long getLocalVersion(Object key) {
+        return localVersions.get(stripe(toLocalKey(key)));
+    }
+
+    /**
+     * Stores the value fetched from the remote tier in the local tier without touching the remote one.
+     * The value is dropped if the key was invalidated after the given version was taken.
+     * Versions are shared by the keys of the same stripe, so an invalidation of another key may drop the value as well.
+     * */
+    public void putLocal(Object key, Object value, long version) {
+        String localKey = toLocalKey(key);
+        int stripe = stripe(localKey);
+        if (localVersions.get(stripe) != version) {
+            return;
+        }
+        localCache.put(localKey, value);
+        if (localVersions.get(stripe) != version) {
+            localCache.evict(localKey);
+        }
+    }
+
+    public void recordRemoteLookups(int hits, int misses) {
+        remoteHits.add(hits);
+        remoteMisses.add(misses);
+    }
+
+    void onEvict(String localKey) {
+        log.trace("[{}] Evicting local entry: {}", getName(), localKey);
+        evictLocal(localKey);
+    }
+
+    void onClear() {
+        log.trace("[{}] Clearing local entries", getName());
+        clearLocal();
+    }
+
+    private void evictLocal(String localKey) {
+        localVersions.incrementAndGet(stripe(localKey));
+        localCache.evict(localKey);
+    }
+
+    private void clearLocal() {
+        for (int i = 0; i < VERSION_STRIPES; i++) {
+            localVersions.incrementAndGet(i);
+        }
+        localCache.clear();
+    }
+
+    private String toLocalKey(Object key) {
+        return key instanceof String ? (String) key : keyConverter.apply(key);
+    }
+
+    private static int stripe(String localKey) {
+        int hash = localKey.hashCode();
+        return (hash ^ (hash >>> 16)) & (VERSION_STRIPES - 1);
+    }
+
+    public long getLocalHits() {
+        return localHits.sum();
+    }
+
+    public long getLocalMisses() {
+        return localMisses.sum();
+    }
+
+    public long getRemoteHits() {
+        return remoteHits.sum();
+    }
+
+    public long getRemoteMisses() {
+        return remoteMisses.sum();
+    }
+}
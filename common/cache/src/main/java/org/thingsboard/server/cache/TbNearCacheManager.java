@@ -0,0 +1,181 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.cache;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.caffeine.CaffeineCache;
+import org.springframework.core.convert.ConversionService;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Wraps the Redis cache manager and puts a local Caffeine tier in front of the caches configured in 'redis.near_cache.specs'.
+ * Local entries are invalidated on all nodes through the Redis pub/sub channel.
+ * */
+@Slf4j
+public class TbNearCacheManager implements CacheManager, TbNearCacheInvalidationPublisher, MessageListener, InitializingBean, DisposableBean {
+
+    private static final String EVICT = "E";
+    private static final String CLEAR = "C";
+    private static final String METRIC_NAME = "cache.near";
+
+    private final CacheManager remoteCacheManager;
+    private final TBRedisNearCacheProperties properties;
+    private final ConversionService conversionService;
+    private final RedisConnectionFactory connectionFactory;
+    private final MeterRegistry meterRegistry;
+    private final String nodeId = UUID.randomUUID().toString();
+    private final byte[] channel;
+    private final ConcurrentHashMap<String, Cache> caches = new ConcurrentHashMap<>();
+
+    private RedisMessageListenerContainer listenerContainer;
+
+    public TbNearCacheManager(CacheManager remoteCacheManager, TBRedisNearCacheProperties properties, ConversionService conversionService,
+                              RedisConnectionFactory connectionFactory, MeterRegistry meterRegistry) {
+        this.remoteCacheManager = remoteCacheManager;
+        this.properties = properties;
+        this.conversionService = conversionService;
+        this.connectionFactory = connectionFactory;
+        this.meterRegistry = meterRegistry;
+        this.channel = properties.getChannel().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        if (connectionFactory != null) {
+            listenerContainer = new RedisMessageListenerContainer();
+            listenerContainer.setConnectionFactory(connectionFactory);
+            listenerContainer.addMessageListener(this, new ChannelTopic(properties.getChannel()));
+            listenerContainer.afterPropertiesSet();
+            listenerContainer.start();
+        }
+        log.info("Near cache enabled for caches: {}", properties.getSpecs().keySet());
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        if (listenerContainer != null) {
+            listenerContainer.destroy();
+        }
+    }
+
+    @Override
+    public Cache getCache(String name) {
+        Cache cache = caches.get(name);
+        if (cache == null) {
+            Cache remoteCache = remoteCacheManager.getCache(name);
+            if (remoteCache == null) {
+                return null;
+            }
+            cache = caches.computeIfAbsent(name, n -> createCache(remoteCache));
+        }
+        return cache;
+    }
+
+    @Override
+    public Collection<String> getCacheNames() {
+        return remoteCacheManager.getCacheNames();
+    }
+
+    private Cache createCache(Cache remoteCache) {
+        CacheSpecs specs = properties.getSpecs().get(remoteCache.getName());
+        if (specs == null) {
+            return remoteCache;
+        }
+        CaffeineCache localCache = new CaffeineCache(remoteCache.getName(), Caffeine.newBuilder()
+                .maximumSize(specs.getMaxSize())
+                .expireAfterWrite(specs.getTimeToLiveInMinutes(), TimeUnit.MINUTES)
+                .build());
+        TbNearCache nearCache = new TbNearCache(localCache, remoteCache, this::toLocalKey, this);
+        if (meterRegistry != null) {
+            registerCounter(nearCache, "local", "hit", TbNearCache::getLocalHits);
+            registerCounter(nearCache, "local", "miss", TbNearCache::getLocalMisses);
+            registerCounter(nearCache, "remote", "hit", TbNearCache::getRemoteHits);
+            registerCounter(nearCache, "remote", "miss", TbNearCache::getRemoteMisses);
+        }
+        return nearCache;
+    }
+
+    private void registerCounter(TbNearCache cache, String tier, String result, ToDoubleFunction<TbNearCache> f) {
+        FunctionCounter.builder(METRIC_NAME, cache, f)
+                .tags("cacheName", cache.getName(), "tier", tier, "result", result)
+                .register(meterRegistry);
+    }
+
+    private String toLocalKey(Object key) {
+        return TbRedisCacheKeys.convertKey(conversionService, key);
+    }
+
+    @Override
+    public void publishEvict(String cacheName, String key) {
+        publish(String.join("\n", nodeId, cacheName, EVICT, key));
+    }
+
+    @Override
+    public void publishClear(String cacheName) {
+        publish(String.join("\n", nodeId, cacheName, CLEAR, ""));
+    }
+
+    private void publish(String msg) {
+        if (connectionFactory == null) {
+            return;
+        }
+        try (RedisConnection connection = connectionFactory.getConnection()) {
+            connection.publish(channel, msg.getBytes(StandardCharsets.UTF_8));
+        } catch (Exception e) {
+            log.warn("Failed to publish near cache invalidation [{}]", msg, e);
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        onInvalidation(new String(message.getBody(), StandardCharsets.UTF_8));
+    }
+
+    void onInvalidation(String msg) {
+        String[] parts = msg.split("\n", 4);
+        if (parts.length < 4 || nodeId.equals(parts[0])) {
+            return;
+        }
+        Cache cache = caches.get(parts[1]);
+        if (cache instanceof TbNearCache) {
+            TbNearCache nearCache = (TbNearCache) cache;
+            if (CLEAR.equals(parts[2])) {
+                nearCache.onClear();
+            } else {
+                nearCache.onEvict(parts[3]);
+            }
+        }
+    }
+}
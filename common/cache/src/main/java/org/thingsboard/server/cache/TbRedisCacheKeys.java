@@ -0,0 +1,67 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.cache;
+
+import org.springframework.core.convert.ConversionService;
+import org.springframework.core.convert.TypeDescriptor;
+import org.springframework.data.redis.cache.RedisCache;
+import org.springframework.data.redis.cache.RedisCacheConfiguration;
+import org.springframework.util.ReflectionUtils;
+
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+
+/**
+ * Derives the keys of the {@link RedisCache} entries from its {@link RedisCacheConfiguration}, the same way the cache does it,
+ * for the code that reads the entries with the connection directly.
+ * */
+public final class TbRedisCacheKeys {
+
+    private TbRedisCacheKeys() {
+    }
+
+    /**
+     * Returns the serialized Redis key of the cache entry: the converted key with the prefix of the cache if it is enabled.
+     * */
+    public static byte[] toRawKey(RedisCache cache, Object key) {
+        RedisCacheConfiguration configuration = cache.getCacheConfiguration();
+        String cacheKey = convertKey(configuration.getConversionService(), key);
+        if (configuration.usePrefix()) {
+            cacheKey = configuration.getKeyPrefixFor(cache.getName()) + cacheKey;
+        }
+        ByteBuffer buffer = configuration.getKeySerializationPair().write(cacheKey);
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Converts the cache key to string with the conversion service, or with its own toString method if it has one.
+     * */
+    public static String convertKey(ConversionService conversionService, Object key) {
+        if (key instanceof String) {
+            return (String) key;
+        }
+        if (conversionService.canConvert(TypeDescriptor.forObject(key), TypeDescriptor.valueOf(String.class))) {
+            return conversionService.convert(key, String.class);
+        }
+        Method toString = ReflectionUtils.findMethod(key.getClass(), "toString");
+        if (toString != null && !Object.class.equals(toString.getDeclaringClass())) {
+            return key.toString();
+        }
+        throw new IllegalStateException("Cannot convert cache key " + key + " to String");
+    }
+}
@@ -16,7 +16,7 @@
 package org.thingsboard.server.cache.ota;
 
 import lombok.RequiredArgsConstructor;
-import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
 import org.springframework.cache.CacheManager;
 import org.springframework.stereotype.Service;
 
@@ -24,7 +24,7 @@ import static org.thingsboard.server.common.data.CacheConstants.OTA_PACKAGE_CACH
 import static org.thingsboard.server.common.data.CacheConstants.OTA_PACKAGE_DATA_CACHE;
 
 @Service
-@ConditionalOnProperty(prefix = "cache", value = "type", havingValue = "caffeine", matchIfMissing = true)
+@ConditionalOnExpression("'${cache.type:caffeine}'=='caffeine' && '${cache.ota.storage:heap}'=='heap'")
 @RequiredArgsConstructor
 public class CaffeineOtaPackageCache implements OtaPackageDataCache {
 
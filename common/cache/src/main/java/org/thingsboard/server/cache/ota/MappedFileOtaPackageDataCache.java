@@ -0,0 +1,248 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.cache.ota;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps the OTA package data in local files that are memory-mapped on load,
+ * so the package data does not occupy the heap and chunks are served as slices of the mapping.
+ * Files survive restarts and are verified with the CRC32 checksum from the file header when loaded.
+ * */
+@Service
+@ConditionalOnExpression("'${cache.type:caffeine}'=='caffeine' && '${cache.ota.storage:heap}'=='mmap'")
+@Slf4j
+public class MappedFileOtaPackageDataCache implements OtaPackageDataCache, InitializingBean {
+
+    private static final int MAGIC = 0x54424F41;
+    // magic (4 bytes) + crc32 (4 bytes) + data length (8 bytes)
+    private static final int HEADER_SIZE = 16;
+    private static final String FILE_SUFFIX = ".ota";
+    private static final char VERSION_SEPARATOR = '_';
+
+    private final Path directory;
+    private final long maxSizeBytes;
+    private final AtomicLong fileVersion = new AtomicLong(System.currentTimeMillis());
+
+    private Cache<String, MappedOtaPackage> packages;
+
+    public MappedFileOtaPackageDataCache(@Value("${cache.ota.directory:}") String directory,
+                                         @Value("${cache.ota.max_size_mb:1024}") long maxSizeMb,
+                                         @Value("${service.id:}") String serviceId) {
+        this.directory = StringUtils.isEmpty(directory) ? defaultDirectory(serviceId) : Paths.get(directory);
+        this.maxSizeBytes = maxSizeMb * 1024 * 1024;
+    }
+
+    /**
+     * Services on the same host must not share the files: each of them evicts and deletes the files of its own cache.
+     * The subdirectory is named after the service id, or the host name if the id is not set, so it is kept between restarts.
+     */
+    static Path defaultDirectory(String serviceId) {
+        String name = serviceId;
+        if (StringUtils.isEmpty(name)) {
+            try {
+                name = InetAddress.getLocalHost().getHostName();
+            } catch (UnknownHostException e) {
+                name = "pid-" + ProcessHandle.current().pid();
+            }
+        }
+        return Paths.get(System.getProperty("java.io.tmpdir"), "tb-ota-packages", name.replaceAll("[^A-Za-z0-9._-]", "_"));
+    }
+
+    @Override
+    public void afterPropertiesSet() throws IOException {
+        Files.createDirectories(directory);
+        packages = Caffeine.newBuilder()
+                .maximumWeight(Math.max(1, maxSizeBytes / 1024))
+                .weigher((String key, MappedOtaPackage otaPackage) -> (int) Math.max(1, otaPackage.getSize() / 1024))
+                .executor(Runnable::run)
+                .removalListener((String key, MappedOtaPackage otaPackage, RemovalCause cause) -> {
+                    if (otaPackage != null) {
+                        log.debug("[{}] Removing OTA package data file {}, cause: {}", key, otaPackage.getFile(), cause);
+                        deleteFile(otaPackage.getFile());
+                    }
+                })
+                .build();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + FILE_SUFFIX)) {
+            for (Path file : files) {
+                loadFile(file);
+            }
+        }
+        log.info("Initialized OTA package data cache in {}: {} packages loaded", directory, packages.estimatedSize());
+    }
+
+    @Override
+    public byte[] get(String key) {
+        return get(key, 0, 0);
+    }
+
+    @Override
+    public byte[] get(String key, int chunkSize, int chunk) {
+        ByteBuffer buffer = getChunk(key, chunkSize, chunk);
+        if (buffer == null) {
+            return null;
+        }
+        byte[] result = new byte[buffer.remaining()];
+        buffer.get(result);
+        return result;
+    }
+
+    @Override
+    public ByteBuffer getChunk(String key, int chunkSize, int chunk) {
+        MappedOtaPackage otaPackage = packages.getIfPresent(key);
+        if (chunkSize < 1) {
+            return otaPackage != null ? otaPackage.getData() : null;
+        }
+        if (otaPackage != null && otaPackage.getSize() > 0) {
+            long startIndex = (long) chunkSize * chunk;
+            long size = Math.min(otaPackage.getSize() - startIndex, chunkSize);
+            if (startIndex < otaPackage.getSize() && size > 0) {
+                ByteBuffer data = otaPackage.getData();
+                data.position((int) startIndex);
+                data.limit((int) (startIndex + size));
+                return data.slice();
+            }
+        }
+        return ByteBuffer.allocate(0);
+    }
+
+    @Override
+    public void put(String key, byte[] value) {
+        packages.asMap().computeIfAbsent(key, k -> {
+            try {
+                return writeFile(k, value);
+            } catch (IOException e) {
+                log.warn("[{}] Failed to store OTA package data", k, e);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public void evict(String key) {
+        packages.invalidate(key);
+    }
+
+    private MappedOtaPackage writeFile(String key, byte[] value) throws IOException {
+        CRC32 crc32 = new CRC32();
+        crc32.update(value);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt((int) crc32.getValue()).putLong(value.length).flip();
+        Path file = directory.resolve(key + VERSION_SEPARATOR + fileVersion.incrementAndGet() + FILE_SUFFIX);
+        Path tmpFile = directory.resolve(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmpFile, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            channel.write(new ByteBuffer[]{header, ByteBuffer.wrap(value)});
+        }
+        Files.move(tmpFile, file, StandardCopyOption.ATOMIC_MOVE);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new MappedOtaPackage(file, channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE, value.length));
+        }
+    }
+
+    private void loadFile(Path file) {
+        String fileName = file.getFileName().toString();
+        int separatorIdx = fileName.lastIndexOf(VERSION_SEPARATOR);
+        if (separatorIdx < 1) {
+            deleteFile(file);
+            return;
+        }
+        String key = fileName.substring(0, separatorIdx);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            channel.read(header, 0);
+            header.flip();
+            if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC) {
+                throw new IOException("Invalid header");
+            }
+            int checksum = header.getInt();
+            long length = header.getLong();
+            if (length != channel.size() - HEADER_SIZE) {
+                throw new IOException("Invalid data length: " + length);
+            }
+            MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE, length);
+            CRC32 crc32 = new CRC32();
+            crc32.update(data.duplicate());
+            if ((int) crc32.getValue() != checksum) {
+                throw new IOException("Checksum mismatch");
+            }
+            if (packages.asMap().putIfAbsent(key, new MappedOtaPackage(file, data)) != null) {
+                deleteFile(file);
+            }
+        } catch (Exception e) {
+            log.warn("[{}] Failed to load OTA package data file {}: {}", key, file, e.getMessage());
+            deleteFile(file);
+        }
+    }
+
+    private static void deleteFile(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("Failed to delete OTA package data file {}", file, e);
+            file.toFile().deleteOnExit();
+        }
+    }
+
+    long getEstimatedSize() {
+        packages.cleanUp();
+        return packages.estimatedSize();
+    }
+
+    private static class MappedOtaPackage {
+        private final Path file;
+        private final ByteBuffer data;
+
+        MappedOtaPackage(Path file, ByteBuffer data) {
+            this.file = file;
+            this.data = data;
+        }
+
+        Path getFile() {
+            return file;
+        }
+
+        long getSize() {
+            return data.capacity();
+        }
+
+        ByteBuffer getData() {
+            return data.duplicate();
+        }
+    }
+}
@@ -15,12 +15,22 @@
  */
 package org.thingsboard.server.cache.ota;
 
+import java.nio.ByteBuffer;
+
 public interface OtaPackageDataCache {
 
     byte[] get(String key);
 
     byte[] get(String key, int chunkSize, int chunk);
 
+    /**
+     * Returns the chunk as a read-only buffer. Implementations that keep the data off-heap return a slice of it without copying.
+     * */
+    default ByteBuffer getChunk(String key, int chunkSize, int chunk) {
+        byte[] data = get(key, chunkSize, chunk);
+        return data != null ? ByteBuffer.wrap(data).asReadOnlyBuffer() : null;
+    }
+
     void put(String key, byte[] value);
 
     void evict(String key);
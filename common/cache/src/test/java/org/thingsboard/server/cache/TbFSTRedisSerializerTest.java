@@ -0,0 +1,61 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.cache;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.cache.support.NullValue;
+import org.springframework.data.redis.serializer.JdkSerializationRedisSerializer;
+import org.thingsboard.server.common.data.Device;
+import org.thingsboard.server.common.data.id.DeviceId;
+import org.thingsboard.server.common.data.id.TenantId;
+
+import java.util.UUID;
+
+public class TbFSTRedisSerializerTest {
+
+    private final TbFSTRedisSerializer serializer = new TbFSTRedisSerializer();
+    private final JdkSerializationRedisSerializer jdkSerializer = new JdkSerializationRedisSerializer();
+
+    @Test
+    public void testRoundTripIsSmallerThanJdkSerialization() {
+        Device device = createDevice();
+        byte[] data = serializer.serialize(device);
+        Assert.assertEquals(device, serializer.deserialize(data));
+        Assert.assertTrue(data.length < jdkSerializer.serialize(device).length);
+    }
+
+    @Test
+    public void testJdkSerializedValueIsReadable() {
+        Device device = createDevice();
+        Assert.assertEquals(device, serializer.deserialize(jdkSerializer.serialize(device)));
+    }
+
+    @Test
+    public void testNullValues() {
+        Assert.assertSame(NullValue.INSTANCE, serializer.deserialize(serializer.serialize(NullValue.INSTANCE)));
+        Assert.assertNull(serializer.deserialize(serializer.serialize(null)));
+    }
+
+    private Device createDevice() {
+        Device device = new Device(new DeviceId(UUID.randomUUID()));
+        device.setTenantId(new TenantId(UUID.randomUUID()));
+        device.setName("Thermostat A");
+        device.setType("thermostat");
+        device.setLabel("Building 1");
+        return device;
+    }
+}
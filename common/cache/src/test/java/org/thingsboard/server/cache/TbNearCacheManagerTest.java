@@ -0,0 +1,125 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.cache;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.MapConfigurationPropertySource;
+import org.springframework.cache.Cache;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.format.support.DefaultFormattingConversionService;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import static org.mockito.ArgumentMatchers.any;
+
+public class TbNearCacheManagerTest {
+
+    private static final String CACHE = "devices";
+
+    private ConcurrentMapCacheManager redis;
+    private SimpleMeterRegistry meterRegistry;
+    private TbNearCacheManager node1;
+    private TbNearCacheManager node2;
+
+    @Before
+    public void before() {
+        redis = new ConcurrentMapCacheManager();
+        meterRegistry = new SimpleMeterRegistry();
+        TBRedisNearCacheProperties properties = new TBRedisNearCacheProperties();
+        properties.setEnabled(true);
+        CacheSpecs specs = new CacheSpecs();
+        specs.setTimeToLiveInMinutes(1);
+        specs.setMaxSize(100);
+        properties.getSpecs().put(CACHE, specs);
+        node1 = new TbNearCacheManager(redis, properties, new DefaultFormattingConversionService(), mockPubSub(() -> node2), meterRegistry);
+        node2 = new TbNearCacheManager(redis, properties, new DefaultFormattingConversionService(), mockPubSub(() -> node1), null);
+    }
+
+    @Test
+    public void testLocalTierServesRepeatedReads() {
+        redis.getCache(CACHE).put("key", "value");
+        TbNearCache cache = (TbNearCache) node1.getCache(CACHE);
+
+        Assert.assertEquals("value", cache.get("key").get());
+        Assert.assertEquals("value", cache.get("key").get());
+        redis.getCache(CACHE).put("key", "changed");
+        Assert.assertEquals("value", cache.get("key").get());
+
+        Assert.assertEquals(2, cache.getLocalHits());
+        Assert.assertEquals(1, cache.getLocalMisses());
+        Assert.assertEquals(1, cache.getRemoteHits());
+        Assert.assertEquals(2.0, meterRegistry.get("cache.near").tags("cacheName", CACHE, "tier", "local", "result", "hit")
+                .functionCounter().count(), 0.0);
+    }
+
+    @Test
+    public void testModificationsInvalidateOtherNodes() {
+        Cache cache1 = node1.getCache(CACHE);
+        Cache cache2 = node2.getCache(CACHE);
+        cache1.put("key", "v1");
+        Assert.assertEquals("v1", cache2.get("key").get());
+
+        cache1.put("key", "v2");
+        Assert.assertEquals("v2", cache2.get("key").get());
+
+        cache1.evict("key");
+        Assert.assertNull(cache2.get("key"));
+
+        cache2.put("key", "v3");
+        Assert.assertEquals("v3", cache1.get("key").get());
+        cache2.clear();
+        Assert.assertNull(cache1.get("key"));
+    }
+
+    @Test
+    public void testCachesWithoutSpecsAreNotWrapped() {
+        Assert.assertFalse(node1.getCache("assets") instanceof TbNearCache);
+        Assert.assertSame(redis.getCache("assets"), node1.getCache("assets"));
+    }
+
+    @Test
+    public void testPropertiesBinding() {
+        Map<String, String> source = new HashMap<>();
+        source.put("redis.near_cache.enabled", "true");
+        source.put("redis.near_cache.specs.deviceProfiles.timeToLiveInMinutes", "60");
+        source.put("redis.near_cache.specs.deviceProfiles.maxSize", "1000");
+        TBRedisNearCacheProperties properties = new Binder(new MapConfigurationPropertySource(source))
+                .bind("redis.near-cache", TBRedisNearCacheProperties.class).get();
+        Assert.assertTrue(properties.isEnabled());
+        Assert.assertEquals(1000, properties.getSpecs().get("deviceProfiles").getMaxSize().intValue());
+    }
+
+    private static RedisConnectionFactory mockPubSub(Supplier<TbNearCacheManager> subscriber) {
+        RedisConnection connection = Mockito.mock(RedisConnection.class);
+        Mockito.when(connection.publish(any(), any())).thenAnswer(invocation -> {
+            subscriber.get().onInvalidation(new String((byte[]) invocation.getArgument(1), StandardCharsets.UTF_8));
+            return 1L;
+        });
+        RedisConnectionFactory connectionFactory = Mockito.mock(RedisConnectionFactory.class);
+        Mockito.when(connectionFactory.getConnection()).thenReturn(connection);
+        return connectionFactory;
+    }
+}
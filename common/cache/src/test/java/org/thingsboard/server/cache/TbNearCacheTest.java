@@ -0,0 +1,86 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.cache;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.cache.Cache;
+import org.springframework.cache.concurrent.ConcurrentMapCache;
+
+public class TbNearCacheTest {
+
+    private static final String CACHE = "devices";
+
+    private ConcurrentMapCache localCache;
+    private ConcurrentMapCache remoteCache;
+    private TbNearCache nearCache;
+    private Runnable onRemoteRead;
+
+    @Before
+    public void before() {
+        localCache = new ConcurrentMapCache("local");
+        remoteCache = new ConcurrentMapCache(CACHE) {
+            @Override
+            public ValueWrapper get(Object key) {
+                ValueWrapper valueWrapper = super.get(key);
+                if (onRemoteRead != null) {
+                    onRemoteRead.run();
+                }
+                return valueWrapper;
+            }
+        };
+        nearCache = new TbNearCache(localCache, remoteCache, Object::toString, Mockito.mock(TbNearCacheInvalidationPublisher.class));
+    }
+
+    @Test
+    public void testInvalidationDuringRemoteReadIsNotOverwritten() {
+        remoteCache.put("key", "v1");
+        onRemoteRead = () -> {
+            remoteCache.put("key", "v2");
+            nearCache.onEvict("key");
+        };
+
+        Assert.assertEquals("v1", nearCache.get("key").get());
+        Assert.assertNull(localCache.get("key"));
+
+        onRemoteRead = null;
+        Assert.assertEquals("v2", nearCache.get("key").get());
+        Assert.assertEquals("v2", localCache.get("key").get());
+    }
+
+    @Test
+    public void testClearDuringRemoteReadIsNotOverwritten() {
+        remoteCache.put("key", "v1");
+        onRemoteRead = nearCache::onClear;
+
+        Assert.assertEquals("v1", nearCache.get("key").get());
+        Assert.assertNull(localCache.get("key"));
+    }
+
+    @Test
+    public void testPutLocalWithOutdatedVersionIsDropped() {
+        long version = nearCache.getLocalVersion("key");
+        nearCache.evict("key");
+        nearCache.putLocal("key", "stale", version);
+        Assert.assertNull(nearCache.getLocal("key"));
+
+        version = nearCache.getLocalVersion("key");
+        nearCache.putLocal("key", "fresh", version);
+        Assert.assertEquals("fresh", nearCache.getLocal("key").get());
+    }
+}
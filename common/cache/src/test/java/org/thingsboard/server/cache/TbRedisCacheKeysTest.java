@@ -0,0 +1,78 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.cache;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.data.redis.cache.RedisCache;
+import org.springframework.data.redis.cache.RedisCacheConfiguration;
+import org.springframework.data.redis.cache.RedisCacheWriter;
+import org.springframework.format.support.DefaultFormattingConversionService;
+import org.thingsboard.server.common.data.id.DeviceId;
+import org.thingsboard.server.common.data.id.EntityId;
+
+import java.util.UUID;
+
+public class TbRedisCacheKeysTest {
+
+    @Test
+    public void testRawKeysMatchRedisCache() {
+        DefaultFormattingConversionService conversionService = new DefaultFormattingConversionService();
+        RedisCacheConfiguration.registerDefaultConverters(conversionService);
+        conversionService.addConverter(EntityId.class, String.class, EntityId::toString);
+        RedisCacheConfiguration configuration = RedisCacheConfiguration.defaultCacheConfig().withConversionService(conversionService);
+
+        for (RedisCacheConfiguration cacheConfiguration : new RedisCacheConfiguration[]{configuration, configuration.disableKeyPrefix()}) {
+            TestRedisCache cache = new TestRedisCache(cacheConfiguration);
+            for (Object key : new Object[]{"key", new DeviceId(UUID.randomUUID()), new TestKey("a", 1)}) {
+                Assert.assertArrayEquals(cache.rawKey(key), TbRedisCacheKeys.toRawKey(cache, key));
+            }
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testKeyWithoutConverterAndToStringIsRejected() {
+        TbRedisCacheKeys.convertKey(new DefaultFormattingConversionService(), new Object());
+    }
+
+    private static class TestRedisCache extends RedisCache {
+
+        TestRedisCache(RedisCacheConfiguration configuration) {
+            super("attributes", Mockito.mock(RedisCacheWriter.class), configuration);
+        }
+
+        byte[] rawKey(Object key) {
+            return serializeCacheKey(createCacheKey(key));
+        }
+    }
+
+    private static class TestKey {
+
+        private final String name;
+        private final int version;
+
+        TestKey(String name, int version) {
+            this.name = name;
+            this.version = version;
+        }
+
+        @Override
+        public String toString() {
+            return name + "_" + version;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.cache.ota;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+
+public class MappedFileOtaPackageDataCacheTest {
+
+    private Path directory;
+    private MappedFileOtaPackageDataCache cache;
+
+    @Before
+    public void before() throws IOException {
+        directory = Files.createTempDirectory("tb-ota-test");
+        cache = createCache(1);
+    }
+
+    @After
+    public void after() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    @Test
+    public void testChunks() {
+        byte[] data = randomData(1000);
+        cache.put("fw", data);
+
+        Assert.assertArrayEquals(data, cache.get("fw"));
+        Assert.assertArrayEquals(Arrays.copyOfRange(data, 0, 300), cache.get("fw", 300, 0));
+        Assert.assertArrayEquals(Arrays.copyOfRange(data, 900, 1000), cache.get("fw", 300, 3));
+        Assert.assertEquals(0, cache.get("fw", 300, 4).length);
+
+        ByteBuffer chunk = cache.getChunk("fw", 300, 1);
+        Assert.assertTrue(chunk.isReadOnly());
+        Assert.assertEquals(300, chunk.remaining());
+        Assert.assertEquals(data[300], chunk.get(0));
+
+        Assert.assertTrue(cache.has("fw"));
+        Assert.assertFalse(cache.has("unknown"));
+        Assert.assertNull(cache.get("unknown"));
+        Assert.assertEquals(0, cache.get("unknown", 300, 0).length);
+    }
+
+    @Test
+    public void testEvict() throws IOException {
+        cache.put("fw", randomData(100));
+        cache.evict("fw");
+        Assert.assertFalse(cache.has("fw"));
+        Assert.assertEquals(0, countFiles());
+    }
+
+    @Test
+    public void testFilesAreReloadedAndVerified() throws Exception {
+        byte[] data = randomData(5000);
+        cache.put("valid", data);
+        cache.put("corrupted", randomData(5000));
+        corrupt("corrupted");
+
+        MappedFileOtaPackageDataCache reloaded = createCache(1);
+        Assert.assertArrayEquals(data, reloaded.get("valid"));
+        Assert.assertFalse(reloaded.has("corrupted"));
+        Assert.assertEquals(1, countFiles());
+    }
+
+    @Test
+    public void testSizeBasedEviction() throws IOException {
+        for (int i = 0; i < 5; i++) {
+            cache.put("fw" + i, randomData(400 * 1024));
+        }
+        Assert.assertTrue(cache.getEstimatedSize() < 5);
+        Assert.assertEquals(cache.getEstimatedSize(), countFiles());
+    }
+
+    @Test
+    public void testDefaultDirectoryIsPerService() {
+        Path tbCore = MappedFileOtaPackageDataCache.defaultDirectory("tb-core-0");
+        Path tbTransport = MappedFileOtaPackageDataCache.defaultDirectory("tb-coap-transport/1");
+        Assert.assertEquals(tbCore.getParent(), tbTransport.getParent());
+        Assert.assertEquals("tb-core-0", tbCore.getFileName().toString());
+        Assert.assertEquals("tb-coap-transport_1", tbTransport.getFileName().toString());
+        Assert.assertEquals(tbCore.getParent(), MappedFileOtaPackageDataCache.defaultDirectory(null).getParent());
+    }
+
+    private MappedFileOtaPackageDataCache createCache(long maxSizeMb) throws IOException {
+        MappedFileOtaPackageDataCache cache = new MappedFileOtaPackageDataCache(directory.toString(), maxSizeMb, "tb-core-0");
+        cache.afterPropertiesSet();
+        return cache;
+    }
+
+    private void corrupt(String key) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, key + "_*")) {
+            for (Path file : files) {
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                    ByteBuffer b = ByteBuffer.allocate(1);
+                    channel.read(b, 100);
+                    b.put(0, (byte) (b.get(0) + 1));
+                    b.rewind();
+                    channel.write(b, 100);
+                }
+            }
+        }
+    }
+
+    private long countFiles() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            long count = 0;
+            for (Path ignored : files) {
+                count++;
+            }
+            return count;
+        }
+    }
+
+    private static byte[] randomData(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+}
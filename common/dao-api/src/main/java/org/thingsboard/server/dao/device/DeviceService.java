@@ -60,6 +60,8 @@ public interface DeviceService {
 
     PageData<Device> findDevicesByTenantId(TenantId tenantId, PageLink pageLink);
 
+    List<Device> findDevicesByTenantIdAndIdOffset(TenantId tenantId, DeviceId idOffset, int limit);
+
     PageData<DeviceInfo> findDeviceInfosByTenantId(TenantId tenantId, PageLink pageLink);
 
     PageData<Device> findDevicesByTenantIdAndType(TenantId tenantId, String type, PageLink pageLink);
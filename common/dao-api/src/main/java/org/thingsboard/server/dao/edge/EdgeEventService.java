@@ -22,10 +22,15 @@ import org.thingsboard.server.common.data.id.TenantId;
 import org.thingsboard.server.common.data.page.PageData;
 import org.thingsboard.server.common.data.page.TimePageLink;
 
+import java.util.List;
+import java.util.UUID;
+
 public interface EdgeEventService {
 
     ListenableFuture<EdgeEvent> saveAsync(EdgeEvent edgeEvent);
 
     PageData<EdgeEvent> findEdgeEvents(TenantId tenantId, EdgeId edgeId, TimePageLink pageLink, boolean withTsUpdate);
 
+    List<EdgeEvent> findEdgeEventsAfter(TenantId tenantId, EdgeId edgeId, long startTs, UUID startId, int limit);
+
 }
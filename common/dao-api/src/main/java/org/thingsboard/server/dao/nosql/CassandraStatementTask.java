@@ -15,6 +15,7 @@
  */
 package org.thingsboard.server.dao.nosql;
 
+import com.datastax.oss.driver.api.core.cql.BatchStatement;
 import com.datastax.oss.driver.api.core.cql.Statement;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
@@ -36,6 +37,14 @@ public class CassandraStatementTask implements AsyncTask {
     private final GuavaSession session;
     private final Statement statement;
 
+    /**
+     * Batches take one permit per statement, so coalescing the writes doesn't bypass the per tenant rate limits.
+     */
+    @Override
+    public int getPermits() {
+        return statement instanceof BatchStatement ? Math.max(1, ((BatchStatement) statement).size()) : 1;
+    }
+
     public ListenableFuture<TbResultSet> executeAsync(Function<Statement, TbResultSetFuture> executeAsyncFunction) {
         return Futures.transform(session.executeAsync(statement),
                 result -> new TbResultSet(statement, result, executeAsyncFunction),
@@ -24,4 +24,11 @@ public interface AsyncTask {
 
     TenantId getTenantId();
 
+    /**
+     * Number of the per tenant rate limit permits taken by the task.
+     */
+    default int getPermits() {
+        return 1;
+    }
+
 }
@@ -35,9 +35,10 @@ import java.util.List;
 @Data
 @Builder
 @AllArgsConstructor
-public class Alarm extends BaseData<AlarmId> implements HasName, HasTenantId {
+public class Alarm extends BaseData<AlarmId> implements HasName, HasTenantId, org.thingsboard.server.common.data.HasCustomerId {
 
     private TenantId tenantId;
+    private org.thingsboard.server.common.data.id.CustomerId customerId;
     private String type;
     private EntityId originator;
     private AlarmSeverity severity;
@@ -54,4 +54,11 @@ public class TbRateLimits {
         return bucket.tryConsume(number);
     }
 
+    /**
+     * Blocks until the tokens are available or the max wait time is elapsed.
+     */
+    public boolean tryConsume(long number, Duration maxWait) throws InterruptedException {
+        return bucket.asScheduler().tryConsume(number, maxWait);
+    }
+
 }
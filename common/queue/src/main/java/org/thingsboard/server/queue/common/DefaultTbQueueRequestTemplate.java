@@ -18,6 +18,7 @@ package org.thingsboard.server.queue.common;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.SettableFuture;
+import io.micrometer.core.instrument.Timer;
 import lombok.Builder;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
@@ -31,16 +32,21 @@ import org.thingsboard.server.queue.TbQueueMsg;
 import org.thingsboard.server.queue.TbQueueMsgMetadata;
 import org.thingsboard.server.queue.TbQueueProducer;
 import org.thingsboard.server.queue.TbQueueRequestTemplate;
+import org.thingsboard.server.common.stats.DefaultCounter;
 import org.thingsboard.server.common.stats.MessagesStats;
+import org.thingsboard.server.common.stats.StatsFactory;
 
 import javax.annotation.Nullable;
 import java.util.List;
+import java.util.Queue;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.LockSupport;
 import java.util.concurrent.locks.ReentrantLock;
@@ -52,17 +58,27 @@ public class DefaultTbQueueRequestTemplate<Request extends TbQueueMsg, Response
     private final TbQueueAdmin queueAdmin;
     private final TbQueueProducer<Request> requestTemplate;
     private final TbQueueConsumer<Response> responseTemplate;
-    final ConcurrentHashMap<UUID, DefaultTbQueueRequestTemplate.ResponseMetaData<Response>> pendingRequests = new ConcurrentHashMap<>();
+    private static final int MAX_INITIAL_CAPACITY = 1 << 16;
+
+    final ConcurrentHashMap<UUID, DefaultTbQueueRequestTemplate.ResponseMetaData<Response>> pendingRequests;
+    /**
+     * Ids of the pending requests in the order of submission, grouped by the request timeout.
+     * Within one group the submission order is also the expiration order, so the cleanup only touches the heads of the queues.
+     * Ids of the requests that already received a response are dropped once they reach the head.
+     * */
+    final ConcurrentHashMap<Long, Queue<UUID>> expirationQueues = new ConcurrentHashMap<>();
     final boolean internalExecutor;
     final ExecutorService executor;
     final long maxRequestTimeoutNs;
     final long maxPendingRequests;
     final long pollInterval;
     volatile boolean stopped = false;
-    long nextCleanupNs = 0L;
     private final Lock cleanerLock = new ReentrantLock();
 
     private MessagesStats messagesStats;
+    private AtomicLong pendingRequestsGauge;
+    private DefaultCounter expiredRequestsCounter;
+    private Timer responseLatencyTimer;
 
     @Builder
     public DefaultTbQueueRequestTemplate(TbQueueAdmin queueAdmin,
@@ -77,6 +93,7 @@ public class DefaultTbQueueRequestTemplate<Request extends TbQueueMsg, Response
         this.responseTemplate = responseTemplate;
         this.maxRequestTimeoutNs = TimeUnit.MILLISECONDS.toNanos(maxRequestTimeout);
         this.maxPendingRequests = maxPendingRequests;
+        this.pendingRequests = new ConcurrentHashMap<>((int) Math.max(16, Math.min(maxPendingRequests, MAX_INITIAL_CAPACITY)));
         this.pollInterval = pollInterval;
         this.internalExecutor = (executor == null);
         this.executor = internalExecutor ? createExecutor() : executor;
@@ -115,6 +132,9 @@ public class DefaultTbQueueRequestTemplate<Request extends TbQueueMsg, Response
         responses.forEach(this::processResponse); //this can take a long time
         responseTemplate.commit();
         tryCleanStaleRequests();
+        if (pendingRequestsGauge != null) {
+            pendingRequestsGauge.set(pendingRequests.mappingCount());
+        }
     }
 
     private boolean tryCleanStaleRequests() {
@@ -124,26 +144,27 @@ public class DefaultTbQueueRequestTemplate<Request extends TbQueueMsg, Response
         try {
             log.trace("tryCleanStaleRequest...");
             final long currentNs = getCurrentClockNs();
-            if (nextCleanupNs < currentNs) {
-                pendingRequests.forEach((key, value) -> {
-                    if (value.expTime < currentNs) {
-                        ResponseMetaData<Response> staleRequest = pendingRequests.remove(key);
-                        if (staleRequest != null) {
-                            setTimeoutException(key, staleRequest, currentNs);
-                        }
-                    }
-                });
-                setupNextCleanup();
-            }
+            expirationQueues.values().forEach(queue -> cleanStaleRequests(queue, currentNs));
         } finally {
             cleanerLock.unlock();
         }
         return true;
     }
 
-    void setupNextCleanup() {
-        nextCleanupNs = getCurrentClockNs() + maxRequestTimeoutNs;
-        log.trace("setupNextCleanup {}", nextCleanupNs);
+    private void cleanStaleRequests(Queue<UUID> queue, long currentNs) {
+        UUID requestId;
+        while ((requestId = queue.peek()) != null) {
+            ResponseMetaData<Response> staleRequest = pendingRequests.get(requestId);
+            if (staleRequest != null) {
+                if (staleRequest.expTime >= currentNs) {
+                    break;
+                }
+                if (pendingRequests.remove(requestId, staleRequest)) {
+                    setTimeoutException(requestId, staleRequest, currentNs);
+                }
+            }
+            queue.poll();
+        }
     }
 
     List<Response> doPoll() {
@@ -160,6 +181,9 @@ public class DefaultTbQueueRequestTemplate<Request extends TbQueueMsg, Response
         } else {
             log.error("Request timeout detected, currentNs [{}], {}, key [{}]", currentNs, staleRequest, key);
         }
+        if (expiredRequestsCounter != null) {
+            expiredRequestsCounter.increment();
+        }
         staleRequest.future.setException(new TimeoutException());
     }
 
@@ -175,6 +199,9 @@ public class DefaultTbQueueRequestTemplate<Request extends TbQueueMsg, Response
             if (expectedResponse == null) {
                 log.warn("[{}] Invalid or stale request, response: {}", requestId, String.valueOf(response).replace("\n", " "));
             } else {
+                if (responseLatencyTimer != null) {
+                    responseLatencyTimer.record(getCurrentClockNs() - expectedResponse.submitTime, TimeUnit.NANOSECONDS);
+                }
                 expectedResponse.future.set(response);
             }
         }
@@ -202,6 +229,13 @@ public class DefaultTbQueueRequestTemplate<Request extends TbQueueMsg, Response
         this.messagesStats = messagesStats;
     }
 
+    @Override
+    public void initStats(StatsFactory statsFactory, String statsKey) {
+        this.pendingRequestsGauge = statsFactory.createGauge(statsKey + ".pending", new AtomicLong(0));
+        this.expiredRequestsCounter = statsFactory.createDefaultCounter(statsKey + ".expired");
+        this.responseLatencyTimer = statsFactory.createTimer(statsKey + ".latency");
+    }
+
     @Override
     public ListenableFuture<Response> send(Request request) {
         return send(request, this.maxRequestTimeoutNs);
@@ -219,12 +253,13 @@ public class DefaultTbQueueRequestTemplate<Request extends TbQueueMsg, Response
         request.getHeaders().put(REQUEST_TIME, longToBytes(getCurrentTimeMs()));
         long currentClockNs = getCurrentClockNs();
         SettableFuture<Response> future = SettableFuture.create();
-        ResponseMetaData<Response> responseMetaData = new ResponseMetaData<>(currentClockNs + requestTimeoutNs, future, currentClockNs, requestTimeoutNs);
+        ResponseMetaData<Response> responseMetaData = new ResponseMetaData<>(requestId, currentClockNs + requestTimeoutNs, future, currentClockNs, requestTimeoutNs);
         log.trace("pending {}", responseMetaData);
         if (pendingRequests.putIfAbsent(requestId, responseMetaData) != null) {
             log.warn("Pending request already exists [{}]!", maxPendingRequests);
             return Futures.immediateFailedFuture(new RuntimeException("Pending request already exists !" + requestId));
         }
+        expirationQueues.computeIfAbsent(requestTimeoutNs, timeout -> new ConcurrentLinkedQueue<>()).add(requestId);
         sendToRequestTemplate(request, requestId, future, responseMetaData);
         return future;
     }
@@ -271,12 +306,14 @@ public class DefaultTbQueueRequestTemplate<Request extends TbQueueMsg, Response
 
     @Getter
     static class ResponseMetaData<T> {
+        private final UUID requestId;
         private final long submitTime;
         private final long timeout;
         private final long expTime;
         private final SettableFuture<T> future;
 
-        ResponseMetaData(long ts, SettableFuture<T> future, long submitTime, long timeout) {
+        ResponseMetaData(UUID requestId, long ts, SettableFuture<T> future, long submitTime, long timeout) {
+            this.requestId = requestId;
             this.submitTime = submitTime;
             this.timeout = timeout;
             this.expTime = ts;
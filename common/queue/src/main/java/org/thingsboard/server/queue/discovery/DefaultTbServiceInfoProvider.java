@@ -64,7 +64,7 @@ public class DefaultTbServiceInfoProvider implements TbServiceInfoProvider {
     private ApplicationContext applicationContext;
 
     private List<ServiceType> serviceTypes;
-    private ServiceInfo serviceInfo;
+    private volatile ServiceInfo serviceInfo;
     private TenantId isolatedTenant;
 
     @PostConstruct
@@ -109,7 +109,7 @@ public class DefaultTbServiceInfoProvider implements TbServiceInfoProvider {
     }
 
     @AfterContextReady
-    public void setTransports() {
+    public synchronized void setTransports() {
         serviceInfo = ServiceInfo.newBuilder(serviceInfo)
                 .addAllTransports(getTransportServices().stream()
                         .map(TbTransportService::getName)
@@ -126,6 +126,14 @@ public class DefaultTbServiceInfoProvider implements TbServiceInfoProvider {
         return serviceInfo;
     }
 
+    @Override
+    public synchronized void setOwnedPartitions(List<TransportProtos.OwnedPartitionsInfo> ownedPartitions) {
+        serviceInfo = ServiceInfo.newBuilder(serviceInfo)
+                .clearOwnedPartitions()
+                .addAllOwnedPartitions(ownedPartitions)
+                .build();
+    }
+
     @Override
     public boolean isService(ServiceType serviceType) {
         return serviceTypes.contains(serviceType);
@@ -22,6 +22,7 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
+import org.thingsboard.common.util.ThingsBoardThreadFactory;
 import org.thingsboard.server.common.data.id.EntityId;
 import org.thingsboard.server.common.data.id.TenantId;
 import org.thingsboard.server.common.msg.queue.ServiceQueue;
@@ -32,10 +33,12 @@ import org.thingsboard.server.gen.transport.TransportProtos;
 import org.thingsboard.server.gen.transport.TransportProtos.ServiceInfo;
 import org.thingsboard.server.queue.discovery.event.ClusterTopologyChangeEvent;
 import org.thingsboard.server.queue.discovery.event.PartitionChangeEvent;
+import org.thingsboard.server.queue.discovery.event.PartitionWarmUpEvent;
 import org.thingsboard.server.queue.discovery.event.ServiceListChangedEvent;
 import org.thingsboard.server.queue.settings.TbQueueRuleEngineSettings;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
@@ -47,6 +50,9 @@ import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 @Service
@@ -59,6 +65,12 @@ public class HashPartitionService implements PartitionService {
     private Integer corePartitions;
     @Value("${queue.partitions.hash_function_name:murmur3_128}")
     private String hashFunctionName;
+    @Value("${queue.partitions.assignment_strategy:modulo}")
+    private String assignmentStrategyName;
+    @Value("${queue.partitions.handover_delay_ms:0}")
+    private long handoverDelayMs;
+    @Value("${queue.partitions.handover_batches:1}")
+    private int handoverBatches;
 
     private final ApplicationEventPublisher applicationEventPublisher;
     private final TbServiceInfoProvider serviceInfoProvider;
@@ -74,8 +86,15 @@ public class HashPartitionService implements PartitionService {
     private Map<String, TopicPartitionInfo> tbCoreNotificationTopics = new HashMap<>();
     private Map<String, TopicPartitionInfo> tbRuleEngineNotificationTopics = new HashMap<>();
     private List<ServiceInfo> currentOtherServices;
+    private Map<ServiceQueueKey, String[]> partitionOwners = new HashMap<>();
+    // Partitions reported as owned by the other services, only the services with the handover enabled report them
+    private Map<ServiceQueueKey, Map<Integer, String>> reportedOwners = new HashMap<>();
+    private HandoverPlan handoverPlan;
+    private long handoverGeneration;
 
     private HashFunction hashFunction;
+    private PartitionAssignmentStrategy assignmentStrategy;
+    private ScheduledExecutorService handoverExecutor;
 
     public HashPartitionService(TbServiceInfoProvider serviceInfoProvider,
                                 TenantRoutingInfoService tenantRoutingInfoService,
@@ -90,6 +109,10 @@ public class HashPartitionService implements PartitionService {
     @PostConstruct
     public void init() {
         this.hashFunction = forName(hashFunctionName);
+        this.assignmentStrategy = PartitionAssignmentStrategy.forName(assignmentStrategyName);
+        if (handoverDelayMs > 0) {
+            handoverExecutor = Executors.newSingleThreadScheduledExecutor(ThingsBoardThreadFactory.forName("partition-handover"));
+        }
         partitionSizes.put(new ServiceQueue(ServiceType.TB_CORE), corePartitions);
         partitionTopics.put(new ServiceQueue(ServiceType.TB_CORE), coreTopic);
         tbQueueRuleEngineSettings.getQueues().forEach(queueConfiguration -> {
@@ -98,6 +121,13 @@ public class HashPartitionService implements PartitionService {
         });
     }
 
+    @PreDestroy
+    public void destroy() {
+        if (handoverExecutor != null) {
+            handoverExecutor.shutdownNow();
+        }
+    }
+
     @Override
     public TopicPartitionInfo resolve(ServiceType serviceType, TenantId tenantId, EntityId entityId) {
         return resolve(new ServiceQueue(serviceType), tenantId, entityId);
@@ -127,6 +157,14 @@ public class HashPartitionService implements PartitionService {
 
     @Override
     public synchronized void recalculatePartitions(ServiceInfo currentService, List<ServiceInfo> otherServices) {
+        reportedOwners = getReportedOwners(otherServices);
+        currentService = withoutOwnedPartitions(currentService);
+        otherServices = otherServices.stream().map(HashPartitionService::withoutOwnedPartitions).collect(Collectors.toList());
+        if (handoverPlan != null && currentService.equals(handoverPlan.currentService) && otherServices.equals(currentOtherServices)) {
+            // Only the partitions reported by the other services have changed, so the partitions they released may be acquired now.
+            applyOwners(handoverPlan);
+            return;
+        }
         logServiceInfo(currentService);
         otherServices.forEach(this::logServiceInfo);
         Map<ServiceQueueKey, List<ServiceInfo>> queueServicesMap = new HashMap<>();
@@ -136,19 +174,110 @@ public class HashPartitionService implements PartitionService {
         }
         queueServicesMap.values().forEach(list -> list.sort(Comparator.comparing(ServiceInfo::getServiceId)));
 
-        ConcurrentMap<ServiceQueueKey, List<Integer>> oldPartitions = myPartitions;
         TenantId myIsolatedOrSystemTenantId = getSystemOrIsolatedTenantId(currentService);
+        HandoverPlan plan = new HandoverPlan(++handoverGeneration, currentService);
+        for (Map.Entry<ServiceQueue, Integer> entry : partitionSizes.entrySet()) {
+            ServiceQueueKey myServiceQueueKey = new ServiceQueueKey(entry.getKey(), myIsolatedOrSystemTenantId);
+            List<ServiceInfo> servers = queueServicesMap.getOrDefault(myServiceQueueKey, Collections.emptyList());
+            String[] target = assignmentStrategy.assign(hashFunction, toServiceIds(servers), entry.getValue());
+            String[] previous = partitionOwners.get(myServiceQueueKey);
+            if (previous == null && handoverDelayMs > 0 && currentOtherServices == null) {
+                // We have just joined the cluster, so only the partitions reported by the other services are handed over.
+                previous = getReportedOwners(myServiceQueueKey, target.length);
+            }
+            int[] steps = planHandover(previous, target, toServiceIds(servers));
+            for (int step : steps) {
+                plan.lastStep = Math.max(plan.lastStep, step);
+            }
+            plan.targetOwners.put(myServiceQueueKey, target);
+            plan.steps.put(myServiceQueueKey, steps);
+            if (previous != null) {
+                // Partitions that are not handed over in the first step remain with their current owners until their step.
+                plan.previousOwners.put(myServiceQueueKey, previous);
+            }
+        }
+
+        handoverPlan = plan;
+        if (plan.lastStep > 0) {
+            publishWarmUpEvents(currentService, plan.targetOwners, plan.steps);
+        }
+        applyHandoverStep(plan, 0);
+
+        if (currentOtherServices == null) {
+            currentOtherServices = new ArrayList<>(otherServices);
+        } else {
+            Set<ServiceQueueKey> changes = new HashSet<>();
+            Map<ServiceQueueKey, List<ServiceInfo>> currentMap = getServiceKeyListMap(currentOtherServices);
+            Map<ServiceQueueKey, List<ServiceInfo>> newMap = getServiceKeyListMap(otherServices);
+            currentOtherServices = otherServices;
+            currentMap.forEach((key, list) -> {
+                if (!list.equals(newMap.get(key))) {
+                    changes.add(key);
+                }
+            });
+            currentMap.keySet().forEach(newMap::remove);
+            changes.addAll(newMap.keySet());
+            if (!changes.isEmpty()) {
+                applicationEventPublisher.publishEvent(new ClusterTopologyChangeEvent(this, changes));
+            }
+        }
+
+        applicationEventPublisher.publishEvent(new ServiceListChangedEvent(otherServices, currentService));
+    }
+
+    /**
+     * Moves the partitions that are due at the given step to their new owners. Steps of an outdated plan are ignored.
+     */
+    private synchronized void applyHandoverStep(HandoverPlan plan, int step) {
+        if (plan != handoverPlan) {
+            log.debug("Skipping handover step {} of outdated generation {}", step, plan.generation);
+            return;
+        }
+        plan.step = step;
+        applyOwners(plan);
+        if (step < plan.lastStep) {
+            log.info("Partition handover step {} of {} completed, next step in {} ms", step, plan.lastStep, handoverDelayMs);
+            handoverExecutor.schedule(() -> applyHandoverStep(plan, step + 1), handoverDelayMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Assigns the partitions according to the current step of the plan and notifies the listeners about the resulting
+     * change of the partitions of the current service. A partition due to the current service is acquired only once
+     * no other service reports it as owned, so the old and the new owner never own it at the same time.
+     */
+    private void applyOwners(HandoverPlan plan) {
+        String serviceId = plan.currentService.getServiceId();
+        Map<ServiceQueueKey, String[]> owners = new HashMap<>();
+        plan.targetOwners.forEach((serviceQueueKey, target) -> {
+            String[] previous = plan.previousOwners.get(serviceQueueKey);
+            int[] steps = plan.steps.get(serviceQueueKey);
+            Map<Integer, String> reported = reportedOwners.getOrDefault(serviceQueueKey, Collections.emptyMap());
+            String[] current = new String[target.length];
+            for (int i = 0; i < target.length; i++) {
+                current[i] = steps[i] <= plan.step ? target[i] : previous[i];
+                String reportedOwner = reported.get(i);
+                if (serviceId.equals(current[i]) && reportedOwner != null && !serviceId.equals(reportedOwner)) {
+                    log.debug("[{}] Partition {} is not released by {} yet", serviceQueueKey, i, reportedOwner);
+                    current[i] = reportedOwner;
+                }
+            }
+            owners.put(serviceQueueKey, current);
+        });
+        partitionOwners = owners;
+
+        ConcurrentMap<ServiceQueueKey, List<Integer>> oldPartitions = myPartitions;
         myPartitions = new ConcurrentHashMap<>();
-        partitionSizes.forEach((serviceQueue, size) -> {
-            ServiceQueueKey myServiceQueueKey = new ServiceQueueKey(serviceQueue, myIsolatedOrSystemTenantId);
-            for (int i = 0; i < size; i++) {
-                ServiceInfo serviceInfo = resolveByPartitionIdx(queueServicesMap.get(myServiceQueueKey), i);
-                if (currentService.equals(serviceInfo)) {
-                    ServiceQueueKey serviceQueueKey = new ServiceQueueKey(serviceQueue, getSystemOrIsolatedTenantId(serviceInfo));
+        owners.forEach((serviceQueueKey, current) -> {
+            for (int i = 0; i < current.length; i++) {
+                if (serviceId.equals(current[i])) {
                     myPartitions.computeIfAbsent(serviceQueueKey, key -> new ArrayList<>()).add(i);
                 }
             }
         });
+        if (handoverDelayMs > 0) {
+            serviceInfoProvider.setOwnedPartitions(toOwnedPartitionsInfo(myPartitions));
+        }
 
         oldPartitions.forEach((serviceQueueKey, partitions) -> {
             if (!myPartitions.containsKey(serviceQueueKey)) {
@@ -167,27 +296,84 @@ public class HashPartitionService implements PartitionService {
             }
         });
         tpiCache.clear();
+    }
 
-        if (currentOtherServices == null) {
-            currentOtherServices = new ArrayList<>(otherServices);
-        } else {
-            Set<ServiceQueueKey> changes = new HashSet<>();
-            Map<ServiceQueueKey, List<ServiceInfo>> currentMap = getServiceKeyListMap(currentOtherServices);
-            Map<ServiceQueueKey, List<ServiceInfo>> newMap = getServiceKeyListMap(otherServices);
-            currentOtherServices = otherServices;
-            currentMap.forEach((key, list) -> {
-                if (!list.equals(newMap.get(key))) {
-                    changes.add(key);
+    private String[] getReportedOwners(ServiceQueueKey serviceQueueKey, int partitions) {
+        String[] owners = new String[partitions];
+        reportedOwners.getOrDefault(serviceQueueKey, Collections.emptyMap()).forEach((partition, owner) -> {
+            if (partition < partitions) {
+                owners[partition] = owner;
+            }
+        });
+        return owners;
+    }
+
+    private static Map<ServiceQueueKey, Map<Integer, String>> getReportedOwners(List<ServiceInfo> services) {
+        Map<ServiceQueueKey, Map<Integer, String>> owners = new HashMap<>();
+        for (ServiceInfo service : services) {
+            for (TransportProtos.OwnedPartitionsInfo info : service.getOwnedPartitionsList()) {
+                ServiceQueueKey serviceQueueKey = new ServiceQueueKey(new ServiceQueue(ServiceType.valueOf(info.getServiceType()), info.getQueueName()),
+                        new TenantId(new UUID(info.getTenantIdMSB(), info.getTenantIdLSB())));
+                Map<Integer, String> queueOwners = owners.computeIfAbsent(serviceQueueKey, key -> new HashMap<>());
+                info.getPartitionsList().forEach(partition -> queueOwners.put(partition, service.getServiceId()));
+            }
+        }
+        return owners;
+    }
+
+    private static List<TransportProtos.OwnedPartitionsInfo> toOwnedPartitionsInfo(Map<ServiceQueueKey, List<Integer>> partitions) {
+        List<TransportProtos.OwnedPartitionsInfo> result = new ArrayList<>();
+        partitions.forEach((serviceQueueKey, list) -> result.add(TransportProtos.OwnedPartitionsInfo.newBuilder()
+                .setServiceType(serviceQueueKey.getServiceType().name())
+                .setQueueName(serviceQueueKey.getServiceQueue().getQueue())
+                .setTenantIdMSB(serviceQueueKey.getTenantId().getId().getMostSignificantBits())
+                .setTenantIdLSB(serviceQueueKey.getTenantId().getId().getLeastSignificantBits())
+                .addAllPartitions(list)
+                .build()));
+        return result;
+    }
+
+    private static ServiceInfo withoutOwnedPartitions(ServiceInfo serviceInfo) {
+        return serviceInfo.getOwnedPartitionsCount() > 0 ? ServiceInfo.newBuilder(serviceInfo).clearOwnedPartitions().build() : serviceInfo;
+    }
+
+    private void publishWarmUpEvents(ServiceInfo currentService, Map<ServiceQueueKey, String[]> targetOwners, Map<ServiceQueueKey, int[]> handoverSteps) {
+        targetOwners.forEach((serviceQueueKey, target) -> {
+            int[] steps = handoverSteps.get(serviceQueueKey);
+            Set<TopicPartitionInfo> tpiList = new HashSet<>();
+            for (int i = 0; i < target.length; i++) {
+                if (steps[i] > 0 && currentService.getServiceId().equals(target[i])) {
+                    tpiList.add(buildTopicPartitionInfo(serviceQueueKey, i));
                 }
-            });
-            currentMap.keySet().forEach(newMap::remove);
-            changes.addAll(newMap.keySet());
-            if (!changes.isEmpty()) {
-                applicationEventPublisher.publishEvent(new ClusterTopologyChangeEvent(this, changes));
+            }
+            if (!tpiList.isEmpty()) {
+                log.info("[{}] WARM UP PARTITIONS: {}", serviceQueueKey, tpiList);
+                applicationEventPublisher.publishEvent(new PartitionWarmUpEvent(this, serviceQueueKey, tpiList));
+            }
+        });
+    }
+
+    /**
+     * Returns the handover step of each partition. Step 0 means the partition is assigned immediately: it does not move,
+     * or its previous owner is gone. Partitions taken from live services are spread over steps 1..handoverBatches.
+     */
+    private int[] planHandover(String[] previous, String[] target, List<String> serviceIds) {
+        int[] steps = new int[target.length];
+        if (handoverDelayMs <= 0 || previous == null || previous.length != target.length) {
+            return steps;
+        }
+        int batches = Math.max(1, handoverBatches);
+        int moved = 0;
+        for (int i = 0; i < target.length; i++) {
+            if (previous[i] != null && target[i] != null && !previous[i].equals(target[i]) && serviceIds.contains(previous[i])) {
+                steps[i] = 1 + moved++ % batches;
             }
         }
+        return steps;
+    }
 
-        applicationEventPublisher.publishEvent(new ServiceListChangedEvent(otherServices, currentService));
+    private static List<String> toServiceIds(List<ServiceInfo> servers) {
+        return servers.stream().map(ServiceInfo::getServiceId).collect(Collectors.toList());
     }
 
     @Override
@@ -334,13 +520,6 @@ public class HashPartitionService implements PartitionService {
         }
     }
 
-    private ServiceInfo resolveByPartitionIdx(List<ServiceInfo> servers, Integer partitionIdx) {
-        if (servers == null || servers.isEmpty()) {
-            return null;
-        }
-        return servers.get(partitionIdx % servers.size());
-    }
-
     public static HashFunction forName(String name) {
         switch (name) {
             case "murmur3_32":
@@ -354,4 +533,19 @@ public class HashPartitionService implements PartitionService {
         }
     }
 
+    private static class HandoverPlan {
+        private final long generation;
+        private final ServiceInfo currentService;
+        private final Map<ServiceQueueKey, String[]> previousOwners = new HashMap<>();
+        private final Map<ServiceQueueKey, String[]> targetOwners = new HashMap<>();
+        private final Map<ServiceQueueKey, int[]> steps = new HashMap<>();
+        private int lastStep;
+        private int step;
+
+        private HandoverPlan(long generation, ServiceInfo currentService) {
+            this.generation = generation;
+            this.currentService = currentService;
+        }
+    }
+
 }
@@ -0,0 +1,99 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.queue.discovery;
+
+import com.google.common.hash.HashFunction;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Decides which service owns each partition of a queue. Every node evaluates the strategy independently,
+ * so the result must depend only on the (sorted) list of service ids and the number of partitions.
+ */
+public enum PartitionAssignmentStrategy {
+
+    /**
+     * Partition i belongs to service i % n. Cheap, but almost every partition moves when the number of services changes.
+     */
+    MODULO {
+        @Override
+        public String[] assign(HashFunction hashFunction, List<String> serviceIds, int partitions) {
+            String[] owners = new String[partitions];
+            if (!serviceIds.isEmpty()) {
+                for (int i = 0; i < partitions; i++) {
+                    owners[i] = serviceIds.get(i % serviceIds.size());
+                }
+            }
+            return owners;
+        }
+    },
+
+    /**
+     * Rendezvous (highest random weight) hashing with bounded load: each partition goes to the service with the highest
+     * hash(serviceId, partition) that still owns less than ceil(partitions / n) partitions. Adding or removing a service
+     * moves roughly partitions / n partitions instead of reshuffling the whole queue.
+     */
+    STICKY {
+        @Override
+        public String[] assign(HashFunction hashFunction, List<String> serviceIds, int partitions) {
+            String[] owners = new String[partitions];
+            int servicesCount = serviceIds.size();
+            if (servicesCount == 0) {
+                return owners;
+            }
+            int capacity = (partitions + servicesCount - 1) / servicesCount;
+            int[] load = new int[servicesCount];
+            for (int partition = 0; partition < partitions; partition++) {
+                int owner = -1;
+                long ownerScore = 0;
+                for (int i = 0; i < servicesCount; i++) {
+                    if (load[i] < capacity) {
+                        long score = hashFunction.newHasher()
+                                .putString(serviceIds.get(i), StandardCharsets.UTF_8)
+                                .putInt(partition)
+                                .hash().padToLong();
+                        if (owner < 0 || score > ownerScore) {
+                            owner = i;
+                            ownerScore = score;
+                        }
+                    }
+                }
+                load[owner]++;
+                owners[partition] = serviceIds.get(owner);
+            }
+            return owners;
+        }
+    };
+
+    /**
+     * @param serviceIds ids of the services that serve the queue, sorted by id
+     * @param partitions number of partitions of the queue
+     * @return owner service id per partition, or an array of nulls if there are no services
+     */
+    public abstract String[] assign(HashFunction hashFunction, List<String> serviceIds, int partitions);
+
+    public static PartitionAssignmentStrategy forName(String name) {
+        switch (name) {
+            case "modulo":
+                return MODULO;
+            case "sticky":
+                return STICKY;
+            default:
+                throw new IllegalArgumentException("Can't find partition assignment strategy with name " + name);
+        }
+    }
+}
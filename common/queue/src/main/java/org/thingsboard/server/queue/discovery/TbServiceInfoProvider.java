@@ -17,8 +17,10 @@ package org.thingsboard.server.queue.discovery;
 
 import org.thingsboard.server.common.data.id.TenantId;
 import org.thingsboard.server.common.msg.queue.ServiceType;
+import org.thingsboard.server.gen.transport.TransportProtos.OwnedPartitionsInfo;
 import org.thingsboard.server.gen.transport.TransportProtos.ServiceInfo;
 
+import java.util.List;
 import java.util.Optional;
 
 public interface TbServiceInfoProvider {
@@ -31,4 +33,9 @@ public interface TbServiceInfoProvider {
 
     Optional<TenantId> getIsolatedTenant();
 
+    /**
+     * Replaces the partitions reported as owned by the current service in its service info.
+     */
+    void setOwnedPartitions(List<OwnedPartitionsInfo> ownedPartitions);
+
 }
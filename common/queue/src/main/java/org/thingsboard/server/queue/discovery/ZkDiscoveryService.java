@@ -40,10 +40,11 @@ import org.springframework.stereotype.Service;
 import org.springframework.util.Assert;
 import org.thingsboard.common.util.ThingsBoardThreadFactory;
 import org.thingsboard.server.gen.transport.TransportProtos;
-import org.thingsboard.server.queue.discovery.event.ServiceListChangedEvent;
+import org.thingsboard.server.queue.discovery.event.PartitionChangeEvent;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
+import java.util.Arrays;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.concurrent.ExecutorService;
@@ -134,6 +135,32 @@ public class ZkDiscoveryService implements DiscoveryService, PathChildrenCacheLi
         recalculatePartitions();
     }
 
+    /**
+     * Updates the ZK node of the current instance with the partitions it owns now, so the other services may acquire
+     * the partitions it has released. Executed asynchronously to not block the partition service.
+     */
+    @EventListener(PartitionChangeEvent.class)
+    public void onPartitionChangeEvent(PartitionChangeEvent event) {
+        if (!stopped) {
+            reconnectExecutorService.submit(this::updateCurrentServer);
+        }
+    }
+
+    private void updateCurrentServer() {
+        String path = nodePath;
+        if (stopped || path == null) {
+            return;
+        }
+        try {
+            byte[] data = serviceInfoProvider.getServiceInfo().toByteArray();
+            if (!Arrays.equals(data, client.getData().forPath(path))) {
+                client.setData().forPath(path, data);
+            }
+        } catch (Exception e) {
+            log.warn("Failed to update ZK node {}", path, e);
+        }
+    }
+
     public synchronized void publishCurrentServer() {
         TransportProtos.ServiceInfo self = serviceInfoProvider.getServiceInfo();
         if (currentServerExists()) {
@@ -161,7 +188,8 @@ public class ZkDiscoveryService implements DiscoveryService, PathChildrenCacheLi
             TransportProtos.ServiceInfo self = serviceInfoProvider.getServiceInfo();
             TransportProtos.ServiceInfo registeredServerInfo = null;
             registeredServerInfo = TransportProtos.ServiceInfo.parseFrom(client.getData().forPath(nodePath));
-            if (self.equals(registeredServerInfo)) {
+            // the owned partitions are updated separately and don't identify the instance
+            if (self.toBuilder().clearOwnedPartitions().build().equals(registeredServerInfo.toBuilder().clearOwnedPartitions().build())) {
                 return true;
             }
         } catch (KeeperException.NoNodeException e) {
@@ -0,0 +1,47 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.queue.discovery.event;
+
+import lombok.Getter;
+import org.thingsboard.server.common.msg.queue.ServiceQueueKey;
+import org.thingsboard.server.common.msg.queue.ServiceType;
+import org.thingsboard.server.common.msg.queue.TopicPartitionInfo;
+
+import java.util.Set;
+
+/**
+ * Published when partitions are scheduled to move to the current service but are still owned by another one.
+ * Listeners may preload state for these partitions; ownership itself is granted later by a {@link PartitionChangeEvent}.
+ */
+public class PartitionWarmUpEvent extends TbApplicationEvent {
+
+    private static final long serialVersionUID = 4409346420345245291L;
+
+    @Getter
+    private final ServiceQueueKey serviceQueueKey;
+    @Getter
+    private final Set<TopicPartitionInfo> partitions;
+
+    public PartitionWarmUpEvent(Object source, ServiceQueueKey serviceQueueKey, Set<TopicPartitionInfo> partitions) {
+        super(source);
+        this.serviceQueueKey = serviceQueueKey;
+        this.partitions = partitions;
+    }
+
+    public ServiceType getServiceType() {
+        return serviceQueueKey.getServiceQueue().getType();
+    }
+}
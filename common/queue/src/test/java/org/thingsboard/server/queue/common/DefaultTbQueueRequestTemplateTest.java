@@ -15,12 +15,14 @@
  */
 package org.thingsboard.server.queue.common;
 
+import com.google.common.util.concurrent.ListenableFuture;
 import lombok.extern.slf4j.Slf4j;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
 import org.thingsboard.server.queue.TbQueueAdmin;
@@ -28,6 +30,7 @@ import org.thingsboard.server.queue.TbQueueConsumer;
 import org.thingsboard.server.queue.TbQueueMsg;
 import org.thingsboard.server.queue.TbQueueProducer;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.UUID;
@@ -68,6 +71,8 @@ public class DefaultTbQueueRequestTemplateTest {
     TbQueueConsumer<TbQueueMsg> responseTemplate;
     @Mock
     ExecutorService executorMock;
+    @Captor
+    ArgumentCaptor<DefaultTbQueueRequestTemplate.ResponseMetaData<TbQueueMsg>> argumentCaptorResp;
 
     ExecutorService executor;
     String topic = "js-responses-tb-node-0";
@@ -75,12 +80,12 @@ public class DefaultTbQueueRequestTemplateTest {
     long maxPendingRequests = 32;
     long pollInterval = 5;
 
-    DefaultTbQueueRequestTemplate inst;
+    DefaultTbQueueRequestTemplate<TbQueueMsg, TbQueueMsg> inst;
 
     @Before
     public void setUp() throws Exception {
         willReturn(topic).given(responseTemplate).getTopic();
-        inst = spy(new DefaultTbQueueRequestTemplate(
+        inst = spy(new DefaultTbQueueRequestTemplate<>(
                 queueAdmin, requestTemplate, responseTemplate,
                 maxRequestTimeout, maxPendingRequests, pollInterval, executorMock));
 
@@ -106,7 +111,6 @@ public class DefaultTbQueueRequestTemplateTest {
     @Test
     public void givenExternalExecutor_whenInitStop_thenOK() {
         inst.init();
-        assertThat(inst.nextCleanupNs, equalTo(0L));
         verify(queueAdmin, times(1)).createTopicIfNotExists(topic);
         verify(requestTemplate, times(1)).init();
         verify(responseTemplate, times(1)).subscribe();
@@ -179,7 +183,6 @@ public class DefaultTbQueueRequestTemplateTest {
             return currentTime.get();
         }).given(inst).getCurrentClockNs();
         inst.init();
-        inst.setupNextCleanup();
         willReturn(Collections.emptyList()).given(inst).doPoll();
 
         //when
@@ -193,18 +196,89 @@ public class DefaultTbQueueRequestTemplateTest {
         }
 
         //then
-        ArgumentCaptor<DefaultTbQueueRequestTemplate.ResponseMetaData> argumentCaptorResp = ArgumentCaptor.forClass(DefaultTbQueueRequestTemplate.ResponseMetaData.class);
         ArgumentCaptor<UUID> argumentCaptorUUID = ArgumentCaptor.forClass(UUID.class);
         ArgumentCaptor<Long> argumentCaptorLong = ArgumentCaptor.forClass(Long.class);
         verify(inst, atLeastOnce()).setTimeoutException(argumentCaptorUUID.capture(), argumentCaptorResp.capture(), argumentCaptorLong.capture());
 
-        List<DefaultTbQueueRequestTemplate.ResponseMetaData> responseMetaDataList = argumentCaptorResp.getAllValues();
+        List<DefaultTbQueueRequestTemplate.ResponseMetaData<TbQueueMsg>> responseMetaDataList = argumentCaptorResp.getAllValues();
         List<Long> tickTsList = argumentCaptorLong.getAllValues();
         for (int i = 0; i < responseMetaDataList.size(); i++) {
             assertThat("tickTs >= calculatedExpTime", tickTsList.get(i), greaterThanOrEqualTo(responseMetaDataList.get(i).getSubmitTime() + responseMetaDataList.get(i).getTimeout()));
         }
     }
 
+    @Test
+    public void givenRespondedAndStaleRequests_whenFetchAndProcessResponses_thenOnlyStaleRequestsExpired() {
+        //given
+        AtomicLong currentTime = new AtomicLong();
+        willAnswer(x -> currentTime.get()).given(inst).getCurrentClockNs();
+        willDoNothing().given(inst).sendToRequestTemplate(any(), any(), any(), any());
+        inst.init();
+        willReturn(Collections.emptyList()).given(inst).doPoll();
+
+        final int msgCount = 10;
+        List<ListenableFuture<TbQueueMsg>> futures = new ArrayList<>();
+        for (int i = 0; i < msgCount; i++) {
+            futures.add(inst.send(getRequestMsgMock()));
+        }
+        ArgumentCaptor<UUID> requestIdCaptor = ArgumentCaptor.forClass(UUID.class);
+        verify(inst, times(msgCount)).sendToRequestTemplate(any(), requestIdCaptor.capture(), any(), any());
+        for (int i = 0; i < msgCount / 2; i++) {
+            inst.processResponse(getResponseMsgMock(requestIdCaptor.getAllValues().get(i)));
+        }
+
+        //when
+        currentTime.addAndGet(inst.maxRequestTimeoutNs - 1);
+        inst.fetchAndProcessResponses();
+        verify(inst, never()).setTimeoutException(any(), any(), anyLong());
+
+        currentTime.addAndGet(2);
+        inst.fetchAndProcessResponses();
+
+        //then
+        verify(inst, times(msgCount / 2)).setTimeoutException(any(), any(), anyLong());
+        assertThat(inst.pendingRequests.mappingCount(), equalTo(0L));
+        assertThat(inst.expirationQueues.get(inst.maxRequestTimeoutNs).isEmpty(), is(true));
+        for (int i = 0; i < msgCount; i++) {
+            assertThat(futures.get(i).isDone(), is(true));
+        }
+    }
+
+    @Test
+    public void givenRespondedRequests_whenFetchAndProcessResponses_thenExpirationQueueIsReleasedBeforeTimeout() {
+        //given
+        AtomicLong currentTime = new AtomicLong();
+        willAnswer(x -> currentTime.get()).given(inst).getCurrentClockNs();
+        willDoNothing().given(inst).sendToRequestTemplate(any(), any(), any(), any());
+        inst.init();
+        willReturn(Collections.emptyList()).given(inst).doPoll();
+
+        final int msgCount = 10;
+        for (int i = 0; i < msgCount; i++) {
+            inst.send(getRequestMsgMock());
+        }
+        ArgumentCaptor<UUID> requestIdCaptor = ArgumentCaptor.forClass(UUID.class);
+        verify(inst, times(msgCount)).sendToRequestTemplate(any(), requestIdCaptor.capture(), any(), any());
+        for (int i = 0; i < msgCount; i++) {
+            inst.processResponse(getResponseMsgMock(requestIdCaptor.getAllValues().get(i)));
+        }
+
+        //when
+        inst.fetchAndProcessResponses();
+
+        //then
+        verify(inst, never()).setTimeoutException(any(), any(), anyLong());
+        assertThat(inst.expirationQueues.get(inst.maxRequestTimeoutNs).isEmpty(), is(true));
+    }
+
+    TbQueueMsg getResponseMsgMock(UUID requestId) {
+        TbQueueMsg response = mock(TbQueueMsg.class);
+        DefaultTbQueueMsgHeaders headers = new DefaultTbQueueMsgHeaders();
+        headers.put(AbstractTbQueueTemplate.REQUEST_ID_HEADER, inst.uuidToBytes(requestId));
+        willReturn(headers).given(response).getHeaders();
+        return response;
+    }
+
     TbQueueMsg getRequestMsgMock() {
         return mock(TbQueueMsg.class, RETURNS_DEEP_STUBS);
     }
@@ -0,0 +1,97 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.queue.discovery;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class PartitionAssignmentStrategyTest {
+
+    private static final int PARTITIONS = 100;
+
+    private final HashFunction hashFunction = Hashing.murmur3_128();
+
+    @Test
+    public void testStickyAssignmentIsBalanced() {
+        for (int servicesCount = 1; servicesCount <= 7; servicesCount++) {
+            String[] owners = PartitionAssignmentStrategy.STICKY.assign(hashFunction, serviceIds(servicesCount), PARTITIONS);
+            Map<String, Integer> load = new HashMap<>();
+            for (String owner : owners) {
+                Assert.assertNotNull(owner);
+                load.merge(owner, 1, Integer::sum);
+            }
+            int capacity = (PARTITIONS + servicesCount - 1) / servicesCount;
+            Assert.assertEquals(servicesCount, load.size());
+            load.values().forEach(count -> Assert.assertTrue(count <= capacity));
+        }
+    }
+
+    @Test
+    public void testStickyAssignmentIsDeterministic() {
+        List<String> serviceIds = serviceIds(3);
+        Assert.assertArrayEquals(PartitionAssignmentStrategy.STICKY.assign(hashFunction, serviceIds, PARTITIONS),
+                PartitionAssignmentStrategy.STICKY.assign(hashFunction, new ArrayList<>(serviceIds), PARTITIONS));
+    }
+
+    @Test
+    public void testStickyAssignmentMovesFewerPartitions() {
+        List<String> before = serviceIds(3);
+        List<String> after = serviceIds(4);
+        int stickyMoves = countMoves(PartitionAssignmentStrategy.STICKY, before, after);
+        int moduloMoves = countMoves(PartitionAssignmentStrategy.MODULO, before, after);
+        // At least a quarter of the partitions has to move to the new service.
+        Assert.assertTrue(stickyMoves >= PARTITIONS / 4);
+        Assert.assertTrue("Sticky moves: " + stickyMoves + ", modulo moves: " + moduloMoves, stickyMoves < moduloMoves / 2);
+        // Services that leave only release their own partitions.
+        Assert.assertTrue(countMoves(PartitionAssignmentStrategy.STICKY, after, before) < moduloMoves / 2);
+    }
+
+    @Test
+    public void testNoServices() {
+        String[] owners = PartitionAssignmentStrategy.STICKY.assign(hashFunction, Collections.emptyList(), 10);
+        Assert.assertEquals(10, owners.length);
+        Assert.assertTrue(Arrays.stream(owners).allMatch(owner -> owner == null));
+    }
+
+    private int countMoves(PartitionAssignmentStrategy strategy, List<String> before, List<String> after) {
+        String[] oldOwners = strategy.assign(hashFunction, before, PARTITIONS);
+        String[] newOwners = strategy.assign(hashFunction, after, PARTITIONS);
+        int moves = 0;
+        for (int i = 0; i < PARTITIONS; i++) {
+            if (!oldOwners[i].equals(newOwners[i])) {
+                moves++;
+            }
+        }
+        return moves;
+    }
+
+    private static List<String> serviceIds(int count) {
+        List<String> serviceIds = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            serviceIds.add("tb-core-" + i);
+        }
+        return serviceIds;
+    }
+}
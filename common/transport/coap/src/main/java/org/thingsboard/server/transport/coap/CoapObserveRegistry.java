@@ -0,0 +1,188 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.transport.coap;
+
+import lombok.Getter;
+import org.eclipse.californium.core.observe.ObserveRelation;
+import org.thingsboard.server.gen.transport.TransportProtos;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Keeps the async (observe) sessions of the CoAP transport, indexed by the request token, the session id and the device id,
+ * so the lookups and removals do not scan all observe sessions.
+ */
+class CoapObserveRegistry {
+
+    private final ConcurrentMap<String, ObserveSession> sessionsByToken = new ConcurrentHashMap<>();
+    private final ConcurrentMap<UUID, Set<String>> tokensBySessionId = new ConcurrentHashMap<>();
+    private final ConcurrentMap<UUID, Set<String>> tokensByDeviceId = new ConcurrentHashMap<>();
+
+    /**
+     * Indexes are updated inside the compute of the token, so a concurrent remove of the same token can't leave them stale.
+     *
+     * @return false if the token is already registered
+     */
+    boolean register(String token, TransportProtos.SessionInfoProto sessionInfo) {
+        AtomicBoolean registered = new AtomicBoolean();
+        sessionsByToken.computeIfAbsent(token, key -> {
+            ObserveSession session = new ObserveSession(sessionInfo);
+            index(tokensBySessionId, session.getSessionId(), token);
+            index(tokensByDeviceId, session.getDeviceId(), token);
+            registered.set(true);
+            return session;
+        });
+        return registered.get();
+    }
+
+    TransportProtos.SessionInfoProto getSessionInfo(String token) {
+        ObserveSession session = sessionsByToken.get(token);
+        return session != null ? session.getSessionInfo() : null;
+    }
+
+    /**
+     * Removes the token together with its observe relation.
+     *
+     * @return session of the token or null if the token was not registered
+     */
+    TransportProtos.SessionInfoProto remove(String token) {
+        AtomicReference<ObserveSession> removed = new AtomicReference<>();
+        sessionsByToken.computeIfPresent(token, (key, session) -> {
+            unindex(tokensBySessionId, session.getSessionId(), token);
+            unindex(tokensByDeviceId, session.getDeviceId(), token);
+            removed.set(session);
+            return null;
+        });
+        ObserveSession session = removed.get();
+        return session != null ? session.getSessionInfo() : null;
+    }
+
+    void addRelation(String token, ObserveRelation relation) {
+        ObserveSession session = sessionsByToken.get(token);
+        if (session != null) {
+            session.relation.compareAndSet(null, relation);
+        }
+    }
+
+    void removeRelation(String token) {
+        ObserveSession session = sessionsByToken.get(token);
+        if (session != null) {
+            session.relation.set(null);
+        }
+    }
+
+    void removeRelations(UUID sessionId) {
+        forEachSession(tokensBySessionId, sessionId, session -> session.relation.set(null));
+    }
+
+    List<ObserveRelation> getRelationsBySessionId(UUID sessionId) {
+        return getRelations(tokensBySessionId, sessionId);
+    }
+
+    List<ObserveRelation> getRelationsByDeviceId(UUID deviceId) {
+        return getRelations(tokensByDeviceId, deviceId);
+    }
+
+    int nextNotificationSeq(String token) {
+        ObserveSession session = sessionsByToken.get(token);
+        return session != null ? session.notificationSeq.getAndIncrement() : 0;
+    }
+
+    /**
+     * @return sessions that have at least one observe relation
+     */
+    List<TransportProtos.SessionInfoProto> getObserveSessions() {
+        List<TransportProtos.SessionInfoProto> result = new ArrayList<>();
+        tokensBySessionId.values().forEach(tokens -> {
+            for (String token : tokens) {
+                ObserveSession session = sessionsByToken.get(token);
+                if (session != null && session.relation.get() != null) {
+                    result.add(session.getSessionInfo());
+                    break;
+                }
+            }
+        });
+        return result;
+    }
+
+    int getSessionsCount() {
+        return sessionsByToken.size();
+    }
+
+    private List<ObserveRelation> getRelations(ConcurrentMap<UUID, Set<String>> index, UUID id) {
+        List<ObserveRelation> relations = new ArrayList<>();
+        forEachSession(index, id, session -> {
+            ObserveRelation relation = session.relation.get();
+            if (relation != null) {
+                relations.add(relation);
+            }
+        });
+        return relations;
+    }
+
+    private void forEachSession(ConcurrentMap<UUID, Set<String>> index, UUID id, Consumer<ObserveSession> consumer) {
+        for (String token : index.getOrDefault(id, Collections.emptySet())) {
+            ObserveSession session = sessionsByToken.get(token);
+            if (session != null) {
+                consumer.accept(session);
+            }
+        }
+    }
+
+    private static void index(ConcurrentMap<UUID, Set<String>> index, UUID id, String token) {
+        index.compute(id, (key, tokens) -> {
+            if (tokens == null) {
+                tokens = ConcurrentHashMap.newKeySet();
+            }
+            tokens.add(token);
+            return tokens;
+        });
+    }
+
+    private static void unindex(ConcurrentMap<UUID, Set<String>> index, UUID id, String token) {
+        index.computeIfPresent(id, (key, tokens) -> {
+            tokens.remove(token);
+            return tokens.isEmpty() ? null : tokens;
+        });
+    }
+
+    private static class ObserveSession {
+        @Getter
+        private final TransportProtos.SessionInfoProto sessionInfo;
+        @Getter
+        private final UUID sessionId;
+        @Getter
+        private final UUID deviceId;
+        private final AtomicReference<ObserveRelation> relation = new AtomicReference<>();
+        private final AtomicInteger notificationSeq = new AtomicInteger(0);
+
+        ObserveSession(TransportProtos.SessionInfoProto sessionInfo) {
+            this.sessionInfo = sessionInfo;
+            this.sessionId = new UUID(sessionInfo.getSessionIdMSB(), sessionInfo.getSessionIdLSB());
+            this.deviceId = new UUID(sessionInfo.getDeviceIdMSB(), sessionInfo.getDeviceIdLSB());
+        }
+    }
+}
@@ -39,6 +39,10 @@ public class CoapTransportContext extends TransportContext {
     @Value("${transport.sessions.report_timeout}")
     private long sessionReportTimeout;
 
+    @Getter
+    @Value("${transport.coap.activity_report_batch_size:1000}")
+    private int activityReportBatchSize;
+
     @Getter
     @Autowired
     private JsonCoapAdaptor jsonCoapAdaptor;
@@ -28,7 +28,6 @@ import org.eclipse.californium.core.observe.ObserveRelation;
 import org.eclipse.californium.core.server.resources.CoapExchange;
 import org.eclipse.californium.core.server.resources.Resource;
 import org.eclipse.californium.core.server.resources.ResourceObserver;
-import org.springframework.util.CollectionUtils;
 import org.thingsboard.server.coapserver.CoapServerService;
 import org.thingsboard.server.coapserver.TbCoapDtlsSessionInfo;
 import org.thingsboard.server.common.data.DataConstants;
@@ -44,6 +43,7 @@ import org.thingsboard.server.common.data.device.profile.DeviceProfileTransportC
 import org.thingsboard.server.common.data.device.profile.JsonTransportPayloadConfiguration;
 import org.thingsboard.server.common.data.device.profile.ProtoTransportPayloadConfiguration;
 import org.thingsboard.server.common.data.device.profile.TransportPayloadTypeConfiguration;
+import org.thingsboard.server.common.data.id.DeviceId;
 import org.thingsboard.server.common.data.security.DeviceTokenCredentials;
 import org.thingsboard.server.common.msg.session.FeatureType;
 import org.thingsboard.server.common.msg.session.SessionMsgType;
@@ -55,7 +55,6 @@ import org.thingsboard.server.gen.transport.TransportProtos;
 import org.thingsboard.server.transport.coap.adaptors.CoapTransportAdaptor;
 
 import java.util.List;
-import java.util.Map;
 import java.util.Optional;
 import java.util.Random;
 import java.util.Set;
@@ -63,7 +62,6 @@ import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
 
 @Slf4j
 public class CoapTransportResource extends AbstractCoapTransportResource {
@@ -75,15 +73,14 @@ public class CoapTransportResource extends AbstractCoapTransportResource {
     private static final int REQUEST_ID_POSITION_CERTIFICATE_REQUEST = 4;
     private static final String DTLS_SESSION_ID_KEY = "DTLS_SESSION_ID";
 
-    private final ConcurrentMap<String, TransportProtos.SessionInfoProto> tokenToSessionInfoMap = new ConcurrentHashMap<>();
-    private final ConcurrentMap<String, AtomicInteger> tokenToObserveNotificationSeqMap = new ConcurrentHashMap<>();
-    private final ConcurrentMap<TransportProtos.SessionInfoProto, ObserveRelation> sessionInfoToObserveRelationMap = new ConcurrentHashMap<>();
+    private final CoapObserveRegistry observeRegistry = new CoapObserveRegistry();
     private final Set<UUID> rpcSubscriptions = ConcurrentHashMap.newKeySet();
     private final Set<UUID> attributeSubscriptions = ConcurrentHashMap.newKeySet();
 
     private ConcurrentMap<String, TbCoapDtlsSessionInfo> dtlsSessionIdMap;
     private long timeout;
     private long sessionReportTimeout;
+    private int activityReportBatchSize;
 
     public CoapTransportResource(CoapTransportContext ctx, CoapServerService coapServerService, String name) {
         super(ctx, name);
@@ -92,10 +89,21 @@ public class CoapTransportResource extends AbstractCoapTransportResource {
         this.dtlsSessionIdMap = coapServerService.getDtlsSessionsMap();
         this.timeout = coapServerService.getTimeout();
         this.sessionReportTimeout = ctx.getSessionReportTimeout();
-        ctx.getScheduler().scheduleAtFixedRate(() -> {
-            Set<TransportProtos.SessionInfoProto> observeSessions = sessionInfoToObserveRelationMap.keySet();
-            observeSessions.forEach(this::reportActivity);
-        }, new Random().nextInt((int) sessionReportTimeout), sessionReportTimeout, TimeUnit.MILLISECONDS);
+        this.activityReportBatchSize = Math.max(1, ctx.getActivityReportBatchSize());
+        ctx.getScheduler().scheduleAtFixedRate(() -> reportActivity(observeRegistry.getObserveSessions(), 0),
+                new Random().nextInt((int) sessionReportTimeout), sessionReportTimeout, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Reports the activity of the observe sessions in batches, each batch is a separate task of the scheduler,
+     * so a large number of sessions does not hold the scheduler thread.
+     */
+    private void reportActivity(List<TransportProtos.SessionInfoProto> observeSessions, int fromIndex) {
+        int toIndex = Math.min(fromIndex + activityReportBatchSize, observeSessions.size());
+        observeSessions.subList(fromIndex, toIndex).forEach(this::reportActivity);
+        if (toIndex < observeSessions.size()) {
+            transportContext.getScheduler().schedule(() -> reportActivity(observeSessions, toIndex), 0, TimeUnit.MILLISECONDS);
+        }
     }
 
     @Override
@@ -111,8 +119,7 @@ public class CoapTransportResource extends AbstractCoapTransportResource {
                 relation.setEstablished();
                 addObserveRelation(relation);
             }
-            AtomicInteger notificationCounter = tokenToObserveNotificationSeqMap.computeIfAbsent(token, s -> new AtomicInteger(0));
-            response.getOptions().setObserve(notificationCounter.getAndIncrement());
+            response.getOptions().setObserve(observeRegistry.nextNotificationSeq(token));
         } // ObserveLayer takes care of the else case
     }
 
@@ -121,8 +128,12 @@ public class CoapTransportResource extends AbstractCoapTransportResource {
         relation.getExchange().sendResponse(new Response(code));
     }
 
-    public Map<TransportProtos.SessionInfoProto, ObserveRelation> getSessionInfoToObserveRelationMap() {
-        return sessionInfoToObserveRelationMap;
+    public List<ObserveRelation> getObserveRelations(UUID sessionId) {
+        return observeRegistry.getRelationsBySessionId(sessionId);
+    }
+
+    public List<ObserveRelation> getDeviceObserveRelations(UUID deviceId) {
+        return observeRegistry.getRelationsByDeviceId(deviceId);
     }
 
     @Override
@@ -277,7 +288,7 @@ public class CoapTransportResource extends AbstractCoapTransportResource {
                             new CoapOkCallback(exchange, CoAP.ResponseCode.CREATED, CoAP.ResponseCode.INTERNAL_SERVER_ERROR));
                     break;
                 case SUBSCRIBE_ATTRIBUTES_REQUEST:
-                    TransportProtos.SessionInfoProto currentAttrSession = tokenToSessionInfoMap.get(getTokenFromRequest(request));
+                    TransportProtos.SessionInfoProto currentAttrSession = observeRegistry.getSessionInfo(getTokenFromRequest(request));
                     if (currentAttrSession == null) {
                         attributeSubscriptions.add(sessionId);
                         registerAsyncCoapSession(exchange, sessionInfo, coapTransportAdaptor,
@@ -294,7 +305,6 @@ public class CoapTransportResource extends AbstractCoapTransportResource {
                     if (attrSession != null) {
                         UUID attrSessionId = toSessionId(attrSession);
                         attributeSubscriptions.remove(attrSessionId);
-                        sessionInfoToObserveRelationMap.remove(attrSession);
                         transportService.process(attrSession,
                                 TransportProtos.SubscribeToAttributeUpdatesMsg.newBuilder().setUnsubscribe(true).build(),
                                 new CoapOkCallback(exchange, CoAP.ResponseCode.DELETED, CoAP.ResponseCode.INTERNAL_SERVER_ERROR));
@@ -302,7 +312,7 @@ public class CoapTransportResource extends AbstractCoapTransportResource {
                     }
                     break;
                 case SUBSCRIBE_RPC_COMMANDS_REQUEST:
-                    TransportProtos.SessionInfoProto currentRpcSession = tokenToSessionInfoMap.get(getTokenFromRequest(request));
+                    TransportProtos.SessionInfoProto currentRpcSession = observeRegistry.getSessionInfo(getTokenFromRequest(request));
                     if (currentRpcSession == null) {
                         rpcSubscriptions.add(sessionId);
                         registerAsyncCoapSession(exchange, sessionInfo, coapTransportAdaptor,
@@ -318,7 +328,6 @@ public class CoapTransportResource extends AbstractCoapTransportResource {
                     if (rpcSession != null) {
                         UUID rpcSessionId = toSessionId(rpcSession);
                         rpcSubscriptions.remove(rpcSessionId);
-                        sessionInfoToObserveRelationMap.remove(rpcSession);
                         transportService.process(rpcSession,
                                 TransportProtos.SubscribeToRPCMsg.newBuilder().setUnsubscribe(true).build(),
                                 new CoapOkCallback(exchange, CoAP.ResponseCode.DELETED, CoAP.ResponseCode.INTERNAL_SERVER_ERROR));
@@ -356,12 +365,11 @@ public class CoapTransportResource extends AbstractCoapTransportResource {
     }
 
     private TransportProtos.SessionInfoProto lookupAsyncSessionInfo(String token) {
-        tokenToObserveNotificationSeqMap.remove(token);
-        return tokenToSessionInfoMap.remove(token);
+        return observeRegistry.remove(token);
     }
 
     private void registerAsyncCoapSession(CoapExchange exchange, TransportProtos.SessionInfoProto sessionInfo, CoapTransportAdaptor coapTransportAdaptor, DynamicMessage.Builder rpcRequestDynamicMessageBuilder, String token) {
-        tokenToSessionInfoMap.putIfAbsent(token, sessionInfo);
+        observeRegistry.register(token, sessionInfo);
         transportService.registerAsyncSession(sessionInfo, getCoapSessionListener(exchange, coapTransportAdaptor, rpcRequestDynamicMessageBuilder));
         transportService.process(sessionInfo, getSessionEventMsg(TransportProtos.SessionEvent.OPEN), null);
     }
@@ -486,18 +494,18 @@ public class CoapTransportResource extends AbstractCoapTransportResource {
         @Override
         public void onRemoteSessionCloseCommand(UUID sessionId, TransportProtos.SessionCloseNotificationProto sessionCloseNotification) {
             log.trace("[{}] Received the remote command to close the session: {}", sessionId, sessionCloseNotification.getMessage());
-            Map<TransportProtos.SessionInfoProto, ObserveRelation> sessionToObserveRelationMap = coapTransportResource.getSessionInfoToObserveRelationMap();
-            if (coapTransportResource.getObserverCount() > 0 && !CollectionUtils.isEmpty(sessionToObserveRelationMap)) {
-                Set<TransportProtos.SessionInfoProto> observeSessions = sessionToObserveRelationMap.keySet();
-                Optional<TransportProtos.SessionInfoProto> observeSessionToClose = observeSessions.stream().filter(sessionInfoProto -> {
-                    UUID observeSessionId = new UUID(sessionInfoProto.getSessionIdMSB(), sessionInfoProto.getSessionIdLSB());
-                    return observeSessionId.equals(sessionId);
-                }).findFirst();
-                if (observeSessionToClose.isPresent()) {
-                    TransportProtos.SessionInfoProto sessionInfoProto = observeSessionToClose.get();
-                    ObserveRelation observeRelation = sessionToObserveRelationMap.get(sessionInfoProto);
-                    coapTransportResource.clearAndNotifyObserveRelation(observeRelation, CoAP.ResponseCode.SERVICE_UNAVAILABLE);
-                }
+            if (coapTransportResource.getObserverCount() > 0) {
+                coapTransportResource.getObserveRelations(sessionId).forEach(observeRelation ->
+                        coapTransportResource.clearAndNotifyObserveRelation(observeRelation, CoAP.ResponseCode.SERVICE_UNAVAILABLE));
+            }
+        }
+
+        @Override
+        public void onDeviceDeleted(DeviceId deviceId) {
+            log.trace("[{}] Device was deleted, closing the observe relations", deviceId);
+            if (coapTransportResource.getObserverCount() > 0) {
+                coapTransportResource.getDeviceObserveRelations(deviceId.getId()).forEach(observeRelation ->
+                        coapTransportResource.clearAndNotifyObserveRelation(observeRelation, CoAP.ResponseCode.NOT_FOUND));
             }
         }
 
@@ -548,7 +556,7 @@ public class CoapTransportResource extends AbstractCoapTransportResource {
         public void addedObserveRelation(ObserveRelation relation) {
             Request request = relation.getExchange().getRequest();
             String token = getTokenFromRequest(request);
-            sessionInfoToObserveRelationMap.putIfAbsent(tokenToSessionInfoMap.get(token), relation);
+            observeRegistry.addRelation(token, relation);
             log.trace("Added Observe relation for token: {}", token);
         }
 
@@ -556,8 +564,7 @@ public class CoapTransportResource extends AbstractCoapTransportResource {
         public void removedObserveRelation(ObserveRelation relation) {
             Request request = relation.getExchange().getRequest();
             String token = getTokenFromRequest(request);
-            TransportProtos.SessionInfoProto session = tokenToSessionInfoMap.get(token);
-            sessionInfoToObserveRelationMap.remove(session);
+            observeRegistry.removeRelation(token);
             log.trace("Relation removed for token: {}", token);
         }
     }
@@ -568,7 +575,7 @@ public class CoapTransportResource extends AbstractCoapTransportResource {
         transportService.deregisterSession(session);
         rpcSubscriptions.remove(sessionId);
         attributeSubscriptions.remove(sessionId);
-        sessionInfoToObserveRelationMap.remove(session);
+        observeRegistry.removeRelations(sessionId);
     }
 
     private TransportConfigurationContainer getTransportConfigurationContainer(DeviceProfile deviceProfile) throws AdaptorException {
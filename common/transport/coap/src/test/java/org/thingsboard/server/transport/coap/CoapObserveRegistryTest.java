@@ -0,0 +1,169 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.transport.coap;
+
+import org.eclipse.californium.core.observe.ObserveRelation;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.thingsboard.server.gen.transport.TransportProtos;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+public class CoapObserveRegistryTest {
+
+    private final CoapObserveRegistry registry = new CoapObserveRegistry();
+
+    @Test
+    public void testRegisterAndRemove() {
+        UUID deviceId = UUID.randomUUID();
+        TransportProtos.SessionInfoProto sessionInfo = sessionInfo(UUID.randomUUID(), deviceId);
+
+        assertTrue(registry.register("token1", sessionInfo));
+        assertFalse(registry.register("token1", sessionInfo(UUID.randomUUID(), deviceId)));
+        assertSame(sessionInfo, registry.getSessionInfo("token1"));
+        assertEquals(1, registry.getSessionsCount());
+
+        assertSame(sessionInfo, registry.remove("token1"));
+        assertNull(registry.remove("token1"));
+        assertNull(registry.getSessionInfo("token1"));
+        assertEquals(0, registry.getSessionsCount());
+        assertIndexesEmpty();
+    }
+
+    @Test
+    public void testRelationsAreIndexedBySessionAndDevice() {
+        UUID sessionId = UUID.randomUUID();
+        UUID deviceId = UUID.randomUUID();
+        TransportProtos.SessionInfoProto sessionInfo = sessionInfo(sessionId, deviceId);
+        registry.register("attributes", sessionInfo);
+        registry.register("rpc", sessionInfo);
+        registry.register("other", sessionInfo(UUID.randomUUID(), deviceId));
+        ObserveRelation attributesRelation = mock(ObserveRelation.class);
+        ObserveRelation rpcRelation = mock(ObserveRelation.class);
+        ObserveRelation otherRelation = mock(ObserveRelation.class);
+
+        assertTrue(registry.getObserveSessions().isEmpty());
+        registry.addRelation("attributes", attributesRelation);
+        registry.addRelation("rpc", rpcRelation);
+        registry.addRelation("other", otherRelation);
+
+        assertEquals(2, registry.getRelationsBySessionId(sessionId).size());
+        assertTrue(registry.getRelationsBySessionId(sessionId).containsAll(List.of(attributesRelation, rpcRelation)));
+        assertEquals(3, registry.getRelationsByDeviceId(deviceId).size());
+        assertEquals(2, registry.getObserveSessions().size());
+
+        registry.removeRelation("rpc");
+        assertEquals(List.of(attributesRelation), registry.getRelationsBySessionId(sessionId));
+
+        registry.removeRelations(sessionId);
+        assertTrue(registry.getRelationsBySessionId(sessionId).isEmpty());
+        assertEquals(List.of(otherRelation), registry.getRelationsByDeviceId(deviceId));
+
+        registry.remove("other");
+        assertTrue(registry.getRelationsByDeviceId(deviceId).isEmpty());
+    }
+
+    @Test
+    public void testNotificationSeq() {
+        registry.register("token1", sessionInfo(UUID.randomUUID(), UUID.randomUUID()));
+
+        assertEquals(0, registry.nextNotificationSeq("token1"));
+        assertEquals(1, registry.nextNotificationSeq("token1"));
+        assertEquals(0, registry.nextNotificationSeq("unknown"));
+    }
+
+    @Test
+    public void testConcurrentRegisterAndRemoveKeepIndexesConsistent() throws Exception {
+        int threads = 8;
+        int iterations = 100000;
+        List<String> tokens = List.of("token1", "token2");
+        UUID deviceId = UUID.randomUUID();
+        List<TransportProtos.SessionInfoProto> sessions = List.of(sessionInfo(UUID.randomUUID(), deviceId),
+                sessionInfo(UUID.randomUUID(), deviceId));
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    for (int j = 0; j < iterations; j++) {
+                        String token = tokens.get(random.nextInt(tokens.size()));
+                        if (random.nextBoolean()) {
+                            registry.register(token, sessions.get(random.nextInt(sessions.size())));
+                        } else {
+                            registry.remove(token);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        for (TransportProtos.SessionInfoProto session : sessions) {
+            UUID sessionId = new UUID(session.getSessionIdMSB(), session.getSessionIdLSB());
+            for (String token : tokens) {
+                boolean indexed = tokensBySessionId().getOrDefault(sessionId, Set.of()).contains(token);
+                assertEquals(session.equals(registry.getSessionInfo(token)), indexed);
+            }
+        }
+        tokens.forEach(registry::remove);
+        assertIndexesEmpty();
+    }
+
+    private void assertIndexesEmpty() {
+        assertTrue(tokensBySessionId().isEmpty());
+        assertTrue(((Map<?, ?>) ReflectionTestUtils.getField(registry, "tokensByDeviceId")).isEmpty());
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<UUID, Set<String>> tokensBySessionId() {
+        return (Map<UUID, Set<String>>) ReflectionTestUtils.getField(registry, "tokensBySessionId");
+    }
+
+    private TransportProtos.SessionInfoProto sessionInfo(UUID sessionId, UUID deviceId) {
+        return TransportProtos.SessionInfoProto.newBuilder()
+                .setSessionIdMSB(sessionId.getMostSignificantBits())
+                .setSessionIdLSB(sessionId.getLeastSignificantBits())
+                .setDeviceIdMSB(deviceId.getMostSignificantBits())
+                .setDeviceIdLSB(deviceId.getLeastSignificantBits())
+                .build();
+    }
+}
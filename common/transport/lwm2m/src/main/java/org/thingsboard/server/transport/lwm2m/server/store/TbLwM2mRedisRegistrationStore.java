@@ -38,11 +38,15 @@ import org.eclipse.leshan.server.registration.RegistrationUpdate;
 import org.eclipse.leshan.server.registration.UpdatedRegistration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
 import org.springframework.data.redis.connection.RedisClusterConnection;
 import org.springframework.data.redis.connection.RedisConnection;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.ReturnType;
 import org.springframework.data.redis.core.Cursor;
 import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
 import org.springframework.integration.redis.util.RedisLockRegistry;
 
 import java.net.InetSocketAddress;
@@ -53,7 +57,6 @@ import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Set;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
@@ -71,6 +74,8 @@ public class TbLwM2mRedisRegistrationStore implements CaliforniumRegistrationSto
 
     private static final Logger LOG = LoggerFactory.getLogger(RedisRegistrationStore.class);
 
+    private static final int MAX_CONCURRENT_MODIFICATION_ATTEMPTS = 16;
+
     // Redis key prefixes
     private static final String REG_EP = "REG:EP:"; // (Endpoint => Registration)
     private static final String REG_EP_REGID_IDX = "EP:REGID:"; // secondary index key (Registration ID => Endpoint)
@@ -82,6 +87,51 @@ public class TbLwM2mRedisRegistrationStore implements CaliforniumRegistrationSto
     private static final byte[] EXP_EP = "EXP:EP".getBytes(UTF_8); // a sorted set used for registration expiration
     // (expiration date, Endpoint)
 
+    /*
+     * Registration writes are done with Lua scripts, so each of them is a single atomic round-trip and no distributed
+     * lock is needed. Updates and removals are optimistic: the script is applied only if the stored registration is
+     * still the one that was read, otherwise the caller re-reads it and retries up to MAX_CONCURRENT_MODIFICATION_ATTEMPTS times.
+     * Scripts touch keys from different hash slots, so Redis Cluster falls back to the lock based implementation.
+     */
+
+    // KEYS: endpoint, regId index, address index, identity index, expiration set
+    // ARGV: registration, endpoint, expiration timestamp
+    private static final RedisScript<byte[]> ADD_REGISTRATION_SCRIPT = new DefaultRedisScript<>(
+            "local old = redis.call('GET', KEYS[1])\n" +
+                    "redis.call('SET', KEYS[1], ARGV[1])\n" +
+                    "redis.call('SET', KEYS[2], ARGV[2])\n" +
+                    "redis.call('SET', KEYS[3], ARGV[2])\n" +
+                    "redis.call('SET', KEYS[4], ARGV[2])\n" +
+                    "redis.call('ZADD', KEYS[5], ARGV[3], ARGV[2])\n" +
+                    "return old", byte[].class);
+
+    // KEYS: endpoint, expiration set, new address index, old address index, old identity index
+    // ARGV: expected registration, new registration, endpoint, expiration timestamp, remove old address index, remove old identity index
+    private static final RedisScript<Long> UPDATE_REGISTRATION_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('GET', KEYS[1]) ~= ARGV[1] then return 0 end\n" +
+                    "redis.call('SET', KEYS[1], ARGV[2])\n" +
+                    "redis.call('ZADD', KEYS[2], ARGV[4], ARGV[3])\n" +
+                    "redis.call('SET', KEYS[3], ARGV[3])\n" +
+                    "if ARGV[5] == '1' and redis.call('GET', KEYS[4]) == ARGV[3] then redis.call('DEL', KEYS[4]) end\n" +
+                    "if ARGV[6] == '1' and redis.call('GET', KEYS[5]) == ARGV[3] then redis.call('DEL', KEYS[5]) end\n" +
+                    "return 1", Long.class);
+
+    // KEYS: endpoint, regId index, address index, identity index, expiration set
+    // ARGV: expected registration, endpoint
+    private static final RedisScript<Long> REMOVE_REGISTRATION_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('GET', KEYS[1]) ~= ARGV[1] then return 0 end\n" +
+                    "redis.call('DEL', KEYS[1], KEYS[2])\n" +
+                    "if redis.call('GET', KEYS[3]) == ARGV[2] then redis.call('DEL', KEYS[3]) end\n" +
+                    "if redis.call('GET', KEYS[4]) == ARGV[2] then redis.call('DEL', KEYS[4]) end\n" +
+                    "redis.call('ZREM', KEYS[5], ARGV[2])\n" +
+                    "return 1", Long.class);
+
+    // KEYS: index
+    // ARGV: endpoint
+    private static final RedisScript<Long> REMOVE_INDEX_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('GET', KEYS[1]) == ARGV[1] then return redis.call('DEL', KEYS[1]) end\n" +
+                    "return 0", Long.class);
+
     private final RedisConnectionFactory connectionFactory;
 
     // Listener use to notify when a registration expires
@@ -144,6 +194,9 @@ public class TbLwM2mRedisRegistrationStore implements CaliforniumRegistrationSto
     public Deregistration addRegistration(Registration registration) {
         Lock lock = null;
         try (var connection = connectionFactory.getConnection()) {
+            if (!isCluster(connection)) {
+                return addRegistrationWithScript(connection, registration);
+            }
             String lockKey = toLockKey(registration.getEndpoint());
 
             try {
@@ -200,6 +253,9 @@ public class TbLwM2mRedisRegistrationStore implements CaliforniumRegistrationSto
             if (ep == null) {
                 return null;
             }
+            if (!isCluster(connection)) {
+                return updateRegistrationWithScript(connection, ep, update);
+            }
 
             String lockKey = toLockKey(ep);
             try {
@@ -244,6 +300,57 @@ public class TbLwM2mRedisRegistrationStore implements CaliforniumRegistrationSto
         }
     }
 
+    private Deregistration addRegistrationWithScript(RedisConnection connection, Registration registration) {
+        byte[] endpoint = registration.getEndpoint().getBytes(UTF_8);
+        byte[] old = execute(connection, ADD_REGISTRATION_SCRIPT, ReturnType.VALUE, 5,
+                toEndpointKey(registration.getEndpoint()), toRegIdKey(registration.getId()),
+                toRegAddrKey(registration.getSocketAddress()), toRegIdentityKey(registration.getIdentity()), EXP_EP,
+                serializeReg(registration), endpoint, toScore(registration));
+        if (old == null) {
+            return null;
+        }
+        Registration oldRegistration = deserializeReg(old);
+        // remove old secondary index
+        if (!registration.getId().equals(oldRegistration.getId())) {
+            connection.del(toRegIdKey(oldRegistration.getId()));
+        }
+        if (!oldRegistration.getSocketAddress().equals(registration.getSocketAddress())) {
+            removeAddrIndex(connection, oldRegistration);
+        }
+        if (!oldRegistration.getIdentity().equals(registration.getIdentity())) {
+            removeIdentityIndex(connection, oldRegistration);
+        }
+        // remove old observation
+        Collection<Observation> obsRemoved = unsafeRemoveAllObservations(connection, oldRegistration.getId());
+        return new Deregistration(oldRegistration, obsRemoved);
+    }
+
+    private UpdatedRegistration updateRegistrationWithScript(RedisConnection connection, byte[] ep, RegistrationUpdate update) {
+        for (int attempt = 0; attempt < MAX_CONCURRENT_MODIFICATION_ATTEMPTS; attempt++) {
+            byte[] data = connection.get(toEndpointKey(ep));
+            if (data == null) {
+                return null;
+            }
+            Registration r = deserializeReg(data);
+            if (!r.getId().equals(update.getRegistrationId())) {
+                return null;
+            }
+            Registration updatedRegistration = update.update(r);
+            boolean addressChanged = !r.getSocketAddress().equals(updatedRegistration.getSocketAddress());
+            boolean identityChanged = !r.getIdentity().equals(updatedRegistration.getIdentity());
+            Long updated = execute(connection, UPDATE_REGISTRATION_SCRIPT, ReturnType.INTEGER, 5,
+                    toEndpointKey(updatedRegistration.getEndpoint()), EXP_EP, toRegAddrKey(updatedRegistration.getSocketAddress()),
+                    toRegAddrKey(r.getSocketAddress()), toRegIdentityKey(r.getIdentity()),
+                    data, serializeReg(updatedRegistration), updatedRegistration.getEndpoint().getBytes(UTF_8), toScore(updatedRegistration),
+                    toFlag(addressChanged), toFlag(identityChanged));
+            if (updated != null && updated > 0) {
+                return new UpdatedRegistration(r, updatedRegistration);
+            }
+            // the registration was modified concurrently, retry with the actual one
+        }
+        throw concurrentModificationException(update.getRegistrationId());
+    }
+
     @Override
     public Registration getRegistration(String registrationId) {
         try (var connection = connectionFactory.getConnection()) {
@@ -332,6 +439,24 @@ public class TbLwM2mRedisRegistrationStore implements CaliforniumRegistrationSto
         if (ep == null) {
             return null;
         }
+        if (!isCluster(connection)) {
+            for (int attempt = 0; attempt < MAX_CONCURRENT_MODIFICATION_ATTEMPTS; attempt++) {
+                byte[] data = connection.get(toEndpointKey(ep));
+                if (data == null) {
+                    return null;
+                }
+                Registration r = deserializeReg(data);
+                if (!r.getId().equals(registrationId)) {
+                    return null;
+                }
+                Deregistration deregistration = removeRegistrationWithScript(connection, r, data, removeOnlyIfNotAlive);
+                if (deregistration != null || removeOnlyIfNotAlive && r.isAlive(gracePeriod)) {
+                    return deregistration;
+                }
+                // the registration was modified concurrently, retry with the actual one
+            }
+            throw concurrentModificationException(registrationId);
+        }
 
         Lock lock = null;
         String lockKey = toLockKey(ep);
@@ -365,6 +490,30 @@ public class TbLwM2mRedisRegistrationStore implements CaliforniumRegistrationSto
         }
     }
 
+    /**
+     * Removes the registration if it is still stored as {@code data}. Returns null if it was modified concurrently
+     * or is still alive when {@code removeOnlyIfNotAlive} is set.
+     */
+    private Deregistration removeRegistrationWithScript(RedisConnection connection, Registration r, byte[] data, boolean removeOnlyIfNotAlive) {
+        if (removeOnlyIfNotAlive && r.isAlive(gracePeriod)) {
+            return null;
+        }
+        Long removed = execute(connection, REMOVE_REGISTRATION_SCRIPT, ReturnType.INTEGER, 5,
+                toEndpointKey(r.getEndpoint()), toRegIdKey(r.getId()), toRegAddrKey(r.getSocketAddress()),
+                toRegIdentityKey(r.getIdentity()), EXP_EP,
+                data, r.getEndpoint().getBytes(UTF_8));
+        if (removed == null || removed == 0) {
+            return null;
+        }
+        Collection<Observation> obsRemoved = unsafeRemoveAllObservations(connection, r.getId());
+        return new Deregistration(r, obsRemoved);
+    }
+
+    private IllegalStateException concurrentModificationException(String registrationId) {
+        return new IllegalStateException(String.format("Registration %s was modified concurrently %d times in a row",
+                registrationId, MAX_CONCURRENT_MODIFICATION_ATTEMPTS));
+    }
+
     private void removeAddrIndex(RedisConnection connection, Registration r) {
         removeSecondaryIndex(connection, toRegAddrKey(r.getSocketAddress()), r.getEndpoint());
     }
@@ -375,6 +524,10 @@ public class TbLwM2mRedisRegistrationStore implements CaliforniumRegistrationSto
 
     //TODO: JedisCluster didn't implement Transaction, maybe should use some advanced key creation strategies
     private void removeSecondaryIndex(RedisConnection connection, byte[] indexKey, String endpointName) {
+        if (!isCluster(connection)) {
+            execute(connection, REMOVE_INDEX_SCRIPT, ReturnType.INTEGER, 1, indexKey, endpointName.getBytes(UTF_8));
+            return;
+        }
         // Watch the key to remove.
 //        connection.watch(indexKey);
 
@@ -401,6 +554,41 @@ public class TbLwM2mRedisRegistrationStore implements CaliforniumRegistrationSto
         connection.zRem(EXP_EP, registration.getEndpoint().getBytes(UTF_8));
     }
 
+    private byte[] toScore(Registration registration) {
+        return Long.toString(registration.getExpirationTimeStamp(gracePeriod)).getBytes(UTF_8);
+    }
+
+    private byte[] toFlag(boolean value) {
+        return (value ? "1" : "0").getBytes(UTF_8);
+    }
+
+    private boolean isCluster(RedisConnection connection) {
+        return connection instanceof RedisClusterConnection;
+    }
+
+    /**
+     * Runs the script by its SHA1 and loads it with EVAL if the server does not have it cached yet.
+     */
+    private <T> T execute(RedisConnection connection, RedisScript<?> script, ReturnType returnType, int numKeys, byte[]... keysAndArgs) {
+        try {
+            return connection.evalSha(script.getSha1(), returnType, numKeys, keysAndArgs);
+        } catch (DataAccessException e) {
+            if (!isNoScriptError(e)) {
+                throw e;
+            }
+            return connection.eval(script.getScriptAsString().getBytes(UTF_8), returnType, numKeys, keysAndArgs);
+        }
+    }
+
+    private boolean isNoScriptError(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t.getMessage() != null && t.getMessage().contains("NOSCRIPT")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private byte[] toRegIdKey(String registrationId) {
         return toKey(REG_EP_REGID_IDX, registrationId);
     }
@@ -685,12 +873,18 @@ public class TbLwM2mRedisRegistrationStore implements CaliforniumRegistrationSto
         byte[] regIdKey = toKey(OBS_TKNS_REGID_IDX, registrationId);
 
         // fetch all observations by token
-        for (byte[] token : connection.lRange(regIdKey, 0, -1)) {
-            byte[] obs = connection.get(toKey(OBS_TKN, token));
-            if (obs != null) {
-                removed.add(build(deserializeObs(obs)));
+        List<byte[]> tokens = connection.lRange(regIdKey, 0, -1);
+        if (tokens != null && !tokens.isEmpty()) {
+            byte[][] tokenKeys = tokens.stream().map(token -> toKey(OBS_TKN, token)).toArray(byte[][]::new);
+            List<byte[]> observations = connection.mGet(tokenKeys);
+            if (observations != null) {
+                for (byte[] obs : observations) {
+                    if (obs != null) {
+                        removed.add(build(deserializeObs(obs)));
+                    }
+                }
             }
-            connection.del(toKey(OBS_TKN, token));
+            connection.del(tokenKeys);
         }
         connection.del(regIdKey);
 
@@ -763,17 +957,37 @@ public class TbLwM2mRedisRegistrationStore implements CaliforniumRegistrationSto
         @Override
         public void run() {
             try (var connection = connectionFactory.getConnection()) {
-                Set<byte[]> endpointsExpired = connection.zRangeByScore(EXP_EP, Double.NEGATIVE_INFINITY,
-                        System.currentTimeMillis(), 0, cleanLimit);
-
-                for (byte[] endpoint : endpointsExpired) {
-                    Registration r = deserializeReg(connection.get(toEndpointKey(endpoint)));
-                    if (!r.isAlive(gracePeriod)) {
-                        Deregistration dereg = removeRegistration(connection, r.getId(), true);
-                        if (dereg != null)
-                            expirationListener.registrationExpired(dereg.getRegistration(), dereg.getObservations());
+                // after a mass expiration keep sweeping in batches of cleanLimit until the backlog is drained
+                int removed;
+                int expired;
+                do {
+                    removed = 0;
+                    List<byte[]> endpointsExpired = new ArrayList<>(connection.zRangeByScore(EXP_EP, Double.NEGATIVE_INFINITY,
+                            System.currentTimeMillis(), 0, cleanLimit));
+                    expired = endpointsExpired.size();
+                    if (expired == 0) {
+                        break;
                     }
-                }
+                    List<byte[]> registrations = connection.mGet(endpointsExpired.stream().map(endpoint -> toEndpointKey(endpoint)).toArray(byte[][]::new));
+                    for (int i = 0; i < expired; i++) {
+                        byte[] data = registrations.get(i);
+                        if (data == null) {
+                            // stale expiration entry without registration
+                            connection.zRem(EXP_EP, endpointsExpired.get(i));
+                            removed++;
+                            continue;
+                        }
+                        Registration r = deserializeReg(data);
+                        if (!r.isAlive(gracePeriod)) {
+                            Deregistration dereg = isCluster(connection) ? removeRegistration(connection, r.getId(), true) :
+                                    removeRegistrationWithScript(connection, r, data, true);
+                            if (dereg != null) {
+                                removed++;
+                                expirationListener.registrationExpired(dereg.getRegistration(), dereg.getObservations());
+                            }
+                        }
+                    }
+                } while (expired == cleanLimit && removed > 0);
             } catch (Exception e) {
                 LOG.warn("Unexpected Exception while registration cleaning", e);
             }
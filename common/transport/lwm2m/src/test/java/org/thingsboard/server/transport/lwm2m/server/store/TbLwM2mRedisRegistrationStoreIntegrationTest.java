@@ -0,0 +1,209 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.transport.lwm2m.server.store;
+
+import org.eclipse.leshan.core.Link;
+import org.eclipse.leshan.core.request.Identity;
+import org.eclipse.leshan.server.registration.Deregistration;
+import org.eclipse.leshan.server.registration.ExpirationListener;
+import org.eclipse.leshan.server.registration.Registration;
+import org.eclipse.leshan.server.registration.RegistrationUpdate;
+import org.eclipse.leshan.server.registration.UpdatedRegistration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.jedis.JedisConnectionFactory;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assume.assumeNoException;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Runs the store against a real Redis server, so the registration scripts are executed by Redis itself.
+ * Skipped if Redis is not available. The server is set by the system properties, for example:
+ * mvn test -pl common/transport/lwm2m -Dtest=TbLwM2mRedisRegistrationStoreIntegrationTest -Dtb.test.redis.host=localhost
+ * -Dtb.test.redis.port=6379 -Dtb.test.redis.db=15
+ */
+public class TbLwM2mRedisRegistrationStoreIntegrationTest {
+
+    private static final byte[] EXP_EP = "EXP:EP".getBytes(UTF_8);
+
+    private final String ep = "ep-" + UUID.randomUUID();
+    private final int port = ThreadLocalRandom.current().nextInt(20000, 60000);
+    private final List<String> registrationIds = new ArrayList<>();
+
+    private JedisConnectionFactory connectionFactory;
+    private ScheduledExecutorService schedExecutor;
+    private ExpirationListener expirationListener;
+    private TbLwM2mRedisRegistrationStore store;
+
+    @Before
+    public void before() {
+        RedisStandaloneConfiguration configuration = new RedisStandaloneConfiguration(
+                System.getProperty("tb.test.redis.host", "localhost"), Integer.getInteger("tb.test.redis.port", 6379));
+        configuration.setDatabase(Integer.getInteger("tb.test.redis.db", 15));
+        connectionFactory = new JedisConnectionFactory(configuration);
+        connectionFactory.afterPropertiesSet();
+        try (RedisConnection connection = connectionFactory.getConnection()) {
+            connection.ping();
+        } catch (Exception e) {
+            connectionFactory.destroy();
+            connectionFactory = null;
+            assumeNoException("Redis is not available", e);
+        }
+        schedExecutor = mock(ScheduledExecutorService.class);
+        expirationListener = mock(ExpirationListener.class);
+        store = new TbLwM2mRedisRegistrationStore(connectionFactory, schedExecutor, 1, 0, 100);
+        store.setExpirationListener(expirationListener);
+    }
+
+    @After
+    public void after() {
+        if (connectionFactory != null) {
+            registrationIds.forEach(store::removeRegistration);
+            try (RedisConnection connection = connectionFactory.getConnection()) {
+                connection.zRem(EXP_EP, ep.getBytes(UTF_8));
+            }
+            connectionFactory.destroy();
+        }
+    }
+
+    @Test
+    public void testAddRegistration() {
+        assertNull(store.addRegistration(registration("reg1", port, 300, new Date())));
+
+        assertEquals("reg1", store.getRegistration("reg1").getId());
+        assertEquals("reg1", store.getRegistrationByEndpoint(ep).getId());
+        assertEquals("reg1", store.getRegistrationByAdress(address(port)).getId());
+        assertEquals("reg1", store.getRegistrationByIdentity(Identity.unsecure(address(port))).getId());
+        assertNotNull(expirationScore());
+
+        Deregistration deregistration = store.addRegistration(registration("reg2", port + 1, 300, new Date()));
+        assertNotNull(deregistration);
+        assertEquals("reg1", deregistration.getRegistration().getId());
+        assertNull(store.getRegistration("reg1"));
+        assertEquals("reg2", store.getRegistrationByEndpoint(ep).getId());
+        assertEquals("reg2", store.getRegistrationByAdress(address(port + 1)).getId());
+    }
+
+    @Test
+    public void testUpdateRegistration() {
+        store.addRegistration(registration("reg1", port, 300, new Date()));
+        double score = expirationScore();
+
+        UpdatedRegistration updated = store.updateRegistration(update("reg1", port + 1, 600L));
+
+        assertNotNull(updated);
+        assertEquals(300L, (long) updated.getPreviousRegistration().getLifeTimeInSec());
+        assertEquals(600L, (long) store.getRegistrationByEndpoint(ep).getLifeTimeInSec());
+        assertNull(store.getRegistrationByAdress(address(port)));
+        assertNull(store.getRegistrationByIdentity(Identity.unsecure(address(port))));
+        assertEquals("reg1", store.getRegistrationByAdress(address(port + 1)).getId());
+        assertEquals("reg1", store.getRegistrationByIdentity(Identity.unsecure(address(port + 1))).getId());
+        assertEquals(score + TimeUnit.SECONDS.toMillis(300), expirationScore(), TimeUnit.SECONDS.toMillis(10));
+        assertNull(store.updateRegistration(update("unknown", port, 600L)));
+    }
+
+    @Test
+    public void testRemoveRegistration() {
+        store.addRegistration(registration("reg1", port, 300, new Date()));
+
+        Deregistration deregistration = store.removeRegistration("reg1");
+
+        assertNotNull(deregistration);
+        assertEquals("reg1", deregistration.getRegistration().getId());
+        assertNull(store.getRegistration("reg1"));
+        assertNull(store.getRegistrationByEndpoint(ep));
+        assertNull(store.getRegistrationByAdress(address(port)));
+        assertNull(store.getRegistrationByIdentity(Identity.unsecure(address(port))));
+        assertNull(expirationScore());
+        assertNull(store.removeRegistration("reg1"));
+    }
+
+    @Test
+    public void testScriptsAreReloadedAfterScriptFlush() {
+        store.addRegistration(registration("reg1", port, 300, new Date()));
+        try (RedisConnection connection = connectionFactory.getConnection()) {
+            connection.scriptFlush();
+        }
+
+        assertNotNull(store.updateRegistration(update("reg1", port, 600L)));
+        assertEquals(600L, (long) store.getRegistrationByEndpoint(ep).getLifeTimeInSec());
+        assertNotNull(store.removeRegistration("reg1"));
+        assertNull(store.getRegistrationByEndpoint(ep));
+    }
+
+    @Test
+    public void testExpiredRegistrationIsRemovedByCleaner() {
+        Date longAgo = new Date(System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(10));
+        store.addRegistration(registration("reg1", port, 1, longAgo));
+
+        store.start();
+        ArgumentCaptor<Runnable> cleaner = ArgumentCaptor.forClass(Runnable.class);
+        verify(schedExecutor).scheduleAtFixedRate(cleaner.capture(), anyLong(), anyLong(), eq(TimeUnit.SECONDS));
+        cleaner.getValue().run();
+
+        ArgumentCaptor<Registration> expired = ArgumentCaptor.forClass(Registration.class);
+        verify(expirationListener).registrationExpired(expired.capture(), anyCollection());
+        assertEquals("reg1", expired.getValue().getId());
+        assertNull(store.getRegistration("reg1"));
+        assertNull(store.getRegistrationByAdress(address(port)));
+        assertNull(expirationScore());
+    }
+
+    private Double expirationScore() {
+        try (RedisConnection connection = connectionFactory.getConnection()) {
+            return connection.zScore(EXP_EP, ep.getBytes(UTF_8));
+        }
+    }
+
+    private Registration registration(String id, int port, long lifetime, Date lastUpdate) {
+        registrationIds.add(id);
+        return new Registration.Builder(id, ep, Identity.unsecure(address(port)))
+                .lifeTimeInSec(lifetime)
+                .registrationDate(lastUpdate)
+                .lastUpdate(lastUpdate)
+                .objectLinks(new Link[]{new Link("/1/0")})
+                .build();
+    }
+
+    private RegistrationUpdate update(String id, int port, Long lifetime) {
+        return new RegistrationUpdate(id, Identity.unsecure(address(port)), lifetime, null, null, null, null);
+    }
+
+    private InetSocketAddress address(int port) {
+        return new InetSocketAddress("127.0.0.1", port);
+    }
+}
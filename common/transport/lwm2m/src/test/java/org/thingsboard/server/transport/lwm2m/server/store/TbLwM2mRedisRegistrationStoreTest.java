@@ -0,0 +1,364 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.transport.lwm2m.server.store;
+
+import org.eclipse.leshan.core.Link;
+import org.eclipse.leshan.core.request.Identity;
+import org.eclipse.leshan.server.redis.serialization.RegistrationSerDes;
+import org.eclipse.leshan.server.registration.Deregistration;
+import org.eclipse.leshan.server.registration.ExpirationListener;
+import org.eclipse.leshan.server.registration.Registration;
+import org.eclipse.leshan.server.registration.RegistrationUpdate;
+import org.eclipse.leshan.server.registration.UpdatedRegistration;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.Invocation;
+import org.mockito.invocation.InvocationOnMock;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Runs the store against an in-memory fake of the non-cluster {@link RedisConnection}: plain commands are served from
+ * maps and the registration scripts are emulated by their SHA1, so the optimistic retries can be tested without a Redis server.
+ */
+public class TbLwM2mRedisRegistrationStoreTest {
+
+    private static final String EP = "ep1";
+    private static final String EXP_EP = "EXP:EP";
+    private static final long GRACE_PERIOD = 0;
+
+    private final Map<String, byte[]> values = new HashMap<>();
+    private final Map<String, Map<String, Double>> sortedSets = new HashMap<>();
+    private final Map<String, Integer> scriptCalls = new HashMap<>();
+    private Runnable beforeScript;
+
+    private ScheduledExecutorService schedExecutor;
+    private ExpirationListener expirationListener;
+    private TbLwM2mRedisRegistrationStore store;
+
+    @Before
+    public void before() {
+        RedisConnectionFactory connectionFactory = mock(RedisConnectionFactory.class);
+        when(connectionFactory.getConnection()).thenAnswer(invocation -> mock(RedisConnection.class, this::handle));
+        schedExecutor = mock(ScheduledExecutorService.class);
+        expirationListener = mock(ExpirationListener.class);
+        store = new TbLwM2mRedisRegistrationStore(connectionFactory, schedExecutor, 1, GRACE_PERIOD, 100);
+        store.setExpirationListener(expirationListener);
+    }
+
+    @Test
+    public void testAddRegistration() {
+        Registration registration = registration("reg1", 5683, 300, new Date());
+        assertNull(store.addRegistration(registration));
+
+        assertEquals("reg1", store.getRegistration("reg1").getId());
+        assertEquals("reg1", store.getRegistrationByEndpoint(EP).getId());
+        assertEquals("reg1", store.getRegistrationByAdress(address(5683)).getId());
+        assertEquals("reg1", store.getRegistrationByIdentity(Identity.unsecure(address(5683))).getId());
+        assertTrue(expirations().containsKey(EP));
+
+        Deregistration deregistration = store.addRegistration(registration("reg2", 5684, 300, new Date()));
+        assertNotNull(deregistration);
+        assertEquals("reg1", deregistration.getRegistration().getId());
+        assertNull(store.getRegistration("reg1"));
+        assertNull(store.getRegistrationByAdress(address(5683)));
+        assertEquals("reg2", store.getRegistrationByAdress(address(5684)).getId());
+        assertEquals("reg2", store.getRegistrationByEndpoint(EP).getId());
+    }
+
+    @Test
+    public void testUpdateRegistration() {
+        store.addRegistration(registration("reg1", 5683, 300, new Date()));
+
+        UpdatedRegistration updated = store.updateRegistration(update("reg1", 5684, 600L, null));
+
+        assertNotNull(updated);
+        assertEquals(300L, (long) updated.getPreviousRegistration().getLifeTimeInSec());
+        assertEquals(600L, (long) updated.getUpdatedRegistration().getLifeTimeInSec());
+        assertEquals(600L, (long) store.getRegistrationByEndpoint(EP).getLifeTimeInSec());
+        assertNull(store.getRegistrationByAdress(address(5683)));
+        assertEquals("reg1", store.getRegistrationByAdress(address(5684)).getId());
+        assertEquals(1, (int) scriptCalls.get("update"));
+        assertNull(store.updateRegistration(update("unknown", 5684, 600L, null)));
+    }
+
+    @Test
+    public void testConcurrentUpdateIsRetried() {
+        store.addRegistration(registration("reg1", 5683, 300, new Date()));
+        beforeScript = () -> {
+            beforeScript = null;
+            modifyStoredRegistration("reg1", "+100");
+        };
+
+        UpdatedRegistration updated = store.updateRegistration(update("reg1", 5683, 600L, null));
+
+        assertNotNull(updated);
+        assertEquals(2, (int) scriptCalls.get("update"));
+        Registration stored = store.getRegistrationByEndpoint(EP);
+        assertEquals(600L, (long) stored.getLifeTimeInSec());
+        assertEquals("+100", stored.getSmsNumber());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testUpdateGivesUpWhenAlwaysModifiedConcurrently() {
+        store.addRegistration(registration("reg1", 5683, 300, new Date()));
+        beforeScript = () -> modifyStoredRegistration("reg1", "+" + System.nanoTime());
+
+        store.updateRegistration(update("reg1", 5683, 600L, null));
+    }
+
+    @Test
+    public void testRemoveRegistration() {
+        store.addRegistration(registration("reg1", 5683, 300, new Date()));
+
+        Deregistration deregistration = store.removeRegistration("reg1");
+
+        assertNotNull(deregistration);
+        assertEquals("reg1", deregistration.getRegistration().getId());
+        assertNull(store.getRegistration("reg1"));
+        assertNull(store.getRegistrationByEndpoint(EP));
+        assertNull(store.getRegistrationByAdress(address(5683)));
+        assertNull(store.getRegistrationByIdentity(Identity.unsecure(address(5683))));
+        assertTrue(expirations().isEmpty());
+        assertNull(store.removeRegistration("reg1"));
+    }
+
+    @Test
+    public void testConcurrentRemoveIsRetried() {
+        store.addRegistration(registration("reg1", 5683, 300, new Date()));
+        beforeScript = () -> {
+            beforeScript = null;
+            modifyStoredRegistration("reg1", "+100");
+        };
+
+        Deregistration deregistration = store.removeRegistration("reg1");
+
+        assertNotNull(deregistration);
+        assertEquals("+100", deregistration.getRegistration().getSmsNumber());
+        assertEquals(2, (int) scriptCalls.get("remove"));
+        assertNull(store.getRegistrationByEndpoint(EP));
+    }
+
+    @Test
+    public void testExpiredRegistrationIsRemovedByCleaner() {
+        Date longAgo = new Date(System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(10));
+        store.addRegistration(registration("reg1", 5683, 1, longAgo));
+        store.addRegistration(new Registration.Builder("reg2", "ep2", Identity.unsecure(address(5690)))
+                .lifeTimeInSec(300L).objectLinks(new Link[]{new Link("/1/0")}).build());
+
+        store.start();
+        ArgumentCaptor<Runnable> cleaner = ArgumentCaptor.forClass(Runnable.class);
+        verify(schedExecutor).scheduleAtFixedRate(cleaner.capture(), anyLong(), anyLong(), eq(TimeUnit.SECONDS));
+        cleaner.getValue().run();
+
+        ArgumentCaptor<Registration> expired = ArgumentCaptor.forClass(Registration.class);
+        verify(expirationListener).registrationExpired(expired.capture(), anyCollection());
+        assertEquals("reg1", expired.getValue().getId());
+        assertNull(store.getRegistration("reg1"));
+        assertNull(store.getRegistrationByAdress(address(5683)));
+        assertEquals("reg2", store.getRegistrationByEndpoint("ep2").getId());
+        assertEquals(Collections.singleton("ep2"), expirations().keySet());
+    }
+
+    @Test
+    public void testAliveRegistrationIsKeptByCleaner() {
+        store.addRegistration(registration("reg1", 5683, 300, new Date()));
+        expirations().put(EP, 0.0);
+
+        store.start();
+        ArgumentCaptor<Runnable> cleaner = ArgumentCaptor.forClass(Runnable.class);
+        verify(schedExecutor).scheduleAtFixedRate(cleaner.capture(), anyLong(), anyLong(), any());
+        cleaner.getValue().run();
+
+        verify(expirationListener, never()).registrationExpired(any(), any());
+        assertEquals("reg1", store.getRegistrationByEndpoint(EP).getId());
+    }
+
+    private Registration registration(String id, int port, long lifetime, Date lastUpdate) {
+        return new Registration.Builder(id, EP, Identity.unsecure(address(port)))
+                .lifeTimeInSec(lifetime)
+                .registrationDate(lastUpdate)
+                .lastUpdate(lastUpdate)
+                .objectLinks(new Link[]{new Link("/1/0")})
+                .build();
+    }
+
+    private RegistrationUpdate update(String id, int port, Long lifetime, String smsNumber) {
+        return new RegistrationUpdate(id, Identity.unsecure(address(port)), lifetime, smsNumber, null, null, null);
+    }
+
+    private InetSocketAddress address(int port) {
+        return new InetSocketAddress("127.0.0.1", port);
+    }
+
+    private void modifyStoredRegistration(String id, String smsNumber) {
+        String key = "REG:EP:" + EP;
+        Registration stored = RegistrationSerDes.deserialize(values.get(key));
+        Registration modified = new RegistrationUpdate(id, stored.getIdentity(), null, smsNumber, null, null, null).update(stored);
+        values.put(key, RegistrationSerDes.bSerialize(modified));
+    }
+
+    private Map<String, Double> expirations() {
+        return sortedSets.computeIfAbsent(EXP_EP, k -> new HashMap<>());
+    }
+
+    /* *************** In-memory Redis **************** */
+
+    private Object handle(InvocationOnMock invocation) {
+        Object[] args = ((Invocation) invocation).getRawArguments();
+        switch (invocation.getMethod().getName()) {
+            case "get":
+                return values.get(str(args[0]));
+            case "set":
+                values.put(str(args[0]), (byte[]) args[1]);
+                return true;
+            case "mGet":
+                return Arrays.stream((byte[][]) args[0]).map(key -> values.get(str(key))).collect(Collectors.toList());
+            case "del":
+                return Arrays.stream((byte[][]) args[0]).filter(key -> values.remove(str(key)) != null).count();
+            case "lRange":
+                return new ArrayList<>();
+            case "zRem":
+                return Arrays.stream((byte[][]) args[1])
+                        .filter(member -> sortedSet(args[0]).remove(str(member)) != null).count();
+            case "zRangeByScore":
+                double max = (double) args[2];
+                long count = (long) args[4];
+                Set<byte[]> result = new LinkedHashSet<>();
+                sortedSet(args[0]).entrySet().stream()
+                        .filter(e -> e.getValue() <= max)
+                        .sorted(Map.Entry.comparingByValue())
+                        .limit(count)
+                        .forEach(e -> result.add(e.getKey().getBytes(ISO_8859_1)));
+                return result;
+            case "evalSha":
+                return evalScript((String) args[0], (int) args[2], (byte[][]) args[3]);
+            case "close":
+                return null;
+            default:
+                throw new UnsupportedOperationException(invocation.getMethod().toString());
+        }
+    }
+
+    private Object evalScript(String sha, int numKeys, byte[][] keysAndArgs) {
+        String[] keys = Arrays.stream(keysAndArgs, 0, numKeys).map(this::str).toArray(String[]::new);
+        byte[][] argv = Arrays.copyOfRange(keysAndArgs, numKeys, keysAndArgs.length);
+        if (sha.equals(sha("ADD_REGISTRATION_SCRIPT"))) {
+            count("add");
+            byte[] old = values.put(keys[0], argv[0]);
+            for (int i = 1; i < 4; i++) {
+                values.put(keys[i], argv[1]);
+            }
+            sortedSet(keys[4]).put(str(argv[1]), score(argv[2]));
+            return old;
+        }
+        if (beforeScript != null) {
+            beforeScript.run();
+        }
+        if (sha.equals(sha("UPDATE_REGISTRATION_SCRIPT"))) {
+            count("update");
+            if (!Arrays.equals(values.get(keys[0]), argv[0])) {
+                return 0L;
+            }
+            values.put(keys[0], argv[1]);
+            sortedSet(keys[1]).put(str(argv[2]), score(argv[3]));
+            values.put(keys[2], argv[2]);
+            if ("1".equals(str(argv[4]))) {
+                removeIfEquals(keys[3], argv[2]);
+            }
+            if ("1".equals(str(argv[5]))) {
+                removeIfEquals(keys[4], argv[2]);
+            }
+            return 1L;
+        }
+        if (sha.equals(sha("REMOVE_REGISTRATION_SCRIPT"))) {
+            count("remove");
+            if (!Arrays.equals(values.get(keys[0]), argv[0])) {
+                return 0L;
+            }
+            values.remove(keys[0]);
+            values.remove(keys[1]);
+            removeIfEquals(keys[2], argv[1]);
+            removeIfEquals(keys[3], argv[1]);
+            sortedSet(keys[4]).remove(str(argv[1]));
+            return 1L;
+        }
+        if (sha.equals(sha("REMOVE_INDEX_SCRIPT"))) {
+            return removeIfEquals(keys[0], argv[0]) ? 1L : 0L;
+        }
+        throw new UnsupportedOperationException("Unknown script " + sha);
+    }
+
+    private boolean removeIfEquals(String key, byte[] expected) {
+        if (Arrays.equals(values.get(key), expected)) {
+            values.remove(key);
+            return true;
+        }
+        return false;
+    }
+
+    private void count(String script) {
+        scriptCalls.merge(script, 1, Integer::sum);
+    }
+
+    private Map<String, Double> sortedSet(Object key) {
+        return sortedSets.computeIfAbsent(key instanceof String ? (String) key : str(key), k -> new HashMap<>());
+    }
+
+    private double score(byte[] value) {
+        return Double.parseDouble(new String(value, UTF_8));
+    }
+
+    private String sha(String scriptField) {
+        return ((RedisScript<?>) ReflectionTestUtils.getField(TbLwM2mRedisRegistrationStore.class, scriptField)).getSha1();
+    }
+
+    private String str(Object bytes) {
+        return new String((byte[]) bytes, ISO_8859_1);
+    }
+}
@@ -48,10 +48,14 @@ import java.util.stream.IntStream;
 @Slf4j
 public class PduService {
     public PDU createPdu(DeviceSessionContext sessionContext, SnmpCommunicationConfig communicationConfig, Map<String, String> values) {
+        return createPdu(sessionContext, communicationConfig.getMethod(), communicationConfig.getAllMappings(), values);
+    }
+
+    public PDU createPdu(DeviceSessionContext sessionContext, SnmpMethod method, List<SnmpMapping> mappings, Map<String, String> values) {
         PDU pdu = setUpPdu(sessionContext);
 
-        pdu.setType(communicationConfig.getMethod().getCode());
-        pdu.addAll(communicationConfig.getAllMappings().stream()
+        pdu.setType(method.getCode());
+        pdu.addAll(mappings.stream()
                 .filter(mapping -> values.isEmpty() || values.containsKey(mapping.getKey()))
                 .map(mapping -> Optional.ofNullable(values.get(mapping.getKey()))
                         .map(value -> {
@@ -0,0 +1,166 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.transport.snmp.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.snmp4j.smi.Address;
+import org.thingsboard.common.util.ThingsBoardThreadFactory;
+import org.thingsboard.server.transport.snmp.session.DeviceSessionContext;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Schedules the polling of all SNMP devices with a single timer. Tasks are kept in time buckets of one tick;
+ * every tick the due tasks are grouped by device, so the configs that are due together are queried with one request.
+ * <p>
+ * Number of the polling requests in flight is limited per agent address. Groups of a busy agent are deferred
+ * to the next tick. The lag between the due time and the actual start of the poll is exposed as a gauge.
+ */
+@Slf4j
+class SnmpPollingScheduler {
+
+    interface PollingDispatcher {
+        /**
+         * Sends the requests for the due configs of the device. The callback must be called once all the responses are processed.
+         */
+        void poll(DeviceSessionContext sessionContext, List<SnmpPollingTask> tasks, Runnable onComplete);
+    }
+
+    private final long tickMs;
+    private final int maxConcurrentRequestsPerAgent;
+    private final PollingDispatcher dispatcher;
+    private final AtomicLong pollingLag;
+
+    private final Queue<SnmpPollingTask> incoming = new ConcurrentLinkedQueue<>();
+    // accessed by the scheduler thread only
+    private final TreeMap<Long, List<SnmpPollingTask>> buckets = new TreeMap<>();
+    private final ConcurrentMap<Address, Integer> agentRequests = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService timer;
+
+    SnmpPollingScheduler(long tickMs, int maxConcurrentRequestsPerAgent, AtomicLong pollingLag, PollingDispatcher dispatcher) {
+        this.tickMs = tickMs;
+        this.maxConcurrentRequestsPerAgent = maxConcurrentRequestsPerAgent;
+        this.pollingLag = pollingLag;
+        this.dispatcher = dispatcher;
+    }
+
+    void start() {
+        timer = Executors.newSingleThreadScheduledExecutor(ThingsBoardThreadFactory.forName("snmp-polling-timer"));
+        timer.scheduleAtFixedRate(() -> {
+            try {
+                tick(System.currentTimeMillis());
+            } catch (Throwable t) {
+                log.error("Failed to process SNMP polling tick", t);
+            }
+        }, tickMs, tickMs, TimeUnit.MILLISECONDS);
+    }
+
+    void stop() {
+        if (timer != null) {
+            timer.shutdownNow();
+        }
+    }
+
+    void schedule(SnmpPollingTask task, long dueTs) {
+        task.dueTs = dueTs;
+        incoming.add(task);
+    }
+
+    void tick(long now) {
+        SnmpPollingTask task;
+        while ((task = incoming.poll()) != null) {
+            addToBucket(task, -Math.floorDiv(-task.dueTs, tickMs));
+        }
+
+        long currentBucket = Math.floorDiv(now, tickMs);
+        Map<DeviceSessionContext, List<SnmpPollingTask>> dueTasks = new LinkedHashMap<>();
+        long maxLag = 0;
+        while (!buckets.isEmpty() && buckets.firstKey() <= currentBucket) {
+            for (SnmpPollingTask dueTask : buckets.pollFirstEntry().getValue()) {
+                if (!dueTask.isCancelled()) {
+                    dueTasks.computeIfAbsent(dueTask.getSessionContext(), session -> new ArrayList<>()).add(dueTask);
+                    maxLag = Math.max(maxLag, now - dueTask.dueTs);
+                }
+            }
+        }
+        pollingLag.set(maxLag);
+
+        dueTasks.forEach((sessionContext, tasks) -> {
+            if (sessionContext.isActive()) {
+                Address agent = sessionContext.getTarget().getAddress();
+                if (!tryAcquire(agent)) {
+                    log.trace("Too many requests in flight for agent {}, deferring polling of device {}", agent, sessionContext.getDeviceId());
+                    tasks.forEach(deferredTask -> addToBucket(deferredTask, currentBucket + 1));
+                    return;
+                }
+                AtomicBoolean completed = new AtomicBoolean();
+                try {
+                    dispatcher.poll(sessionContext, tasks, () -> {
+                        if (completed.compareAndSet(false, true)) {
+                            release(agent);
+                        }
+                    });
+                } catch (Exception e) {
+                    log.error("Failed to poll SNMP device {}: {}", sessionContext.getDeviceId(), e.toString());
+                    if (completed.compareAndSet(false, true)) {
+                        release(agent);
+                    }
+                }
+            }
+            tasks.forEach(dueTask -> schedule(dueTask, now + dueTask.getCommunicationConfig().getQueryingFrequencyMs()));
+        });
+    }
+
+    private void addToBucket(SnmpPollingTask task, long bucket) {
+        buckets.computeIfAbsent(bucket, b -> new ArrayList<>()).add(task);
+    }
+
+    private boolean tryAcquire(Address agent) {
+        if (maxConcurrentRequestsPerAgent <= 0) {
+            return true;
+        }
+        AtomicBoolean acquired = new AtomicBoolean();
+        agentRequests.compute(agent, (a, requests) -> {
+            int current = requests != null ? requests : 0;
+            if (current < maxConcurrentRequestsPerAgent) {
+                acquired.set(true);
+                return current + 1;
+            }
+            return current;
+        });
+        return acquired.get();
+    }
+
+    private void release(Address agent) {
+        if (maxConcurrentRequestsPerAgent > 0) {
+            agentRequests.computeIfPresent(agent, (a, requests) -> requests > 1 ? requests - 1 : null);
+        }
+    }
+}
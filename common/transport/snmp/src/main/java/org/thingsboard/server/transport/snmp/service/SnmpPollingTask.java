@@ -0,0 +1,44 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.transport.snmp.service;
+
+import lombok.Getter;
+import org.thingsboard.server.common.data.transport.snmp.config.RepeatingQueryingSnmpCommunicationConfig;
+import org.thingsboard.server.transport.snmp.session.DeviceSessionContext;
+
+/**
+ * Repeating querying of one communication config of the device, scheduled by {@link SnmpPollingScheduler}.
+ */
+public class SnmpPollingTask {
+    @Getter
+    private final DeviceSessionContext sessionContext;
+    @Getter
+    private final RepeatingQueryingSnmpCommunicationConfig communicationConfig;
+    @Getter
+    private volatile boolean cancelled;
+
+    // accessed by the scheduler thread only
+    long dueTs;
+
+    SnmpPollingTask(DeviceSessionContext sessionContext, RepeatingQueryingSnmpCommunicationConfig communicationConfig) {
+        this.sessionContext = sessionContext;
+        this.communicationConfig = communicationConfig;
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+}
@@ -15,6 +15,7 @@
  */
 package org.thingsboard.server.transport.snmp.service;
 
+import com.google.common.collect.Lists;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import lombok.Data;
@@ -40,8 +41,10 @@ import org.thingsboard.server.common.data.kv.DataType;
 import org.thingsboard.server.common.data.transport.snmp.SnmpCommunicationSpec;
 import org.thingsboard.server.common.data.transport.snmp.SnmpMapping;
 import org.thingsboard.server.common.data.transport.snmp.SnmpMethod;
+import org.thingsboard.server.common.data.transport.snmp.SnmpProtocolVersion;
 import org.thingsboard.server.common.data.transport.snmp.config.RepeatingQueryingSnmpCommunicationConfig;
 import org.thingsboard.server.common.data.transport.snmp.config.SnmpCommunicationConfig;
+import org.thingsboard.server.common.stats.StatsFactory;
 import org.thingsboard.server.common.transport.TransportService;
 import org.thingsboard.server.common.transport.TransportServiceCallback;
 import org.thingsboard.server.common.transport.adaptor.JsonConverter;
@@ -52,17 +55,20 @@ import org.thingsboard.server.transport.snmp.session.DeviceSessionContext;
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 @TbSnmpTransportComponent
@@ -72,11 +78,13 @@ import java.util.stream.Collectors;
 public class SnmpTransportService implements TbTransportService {
     private final TransportService transportService;
     private final PduService pduService;
+    private final StatsFactory statsFactory;
 
     @Getter
     private Snmp snmp;
-    private ScheduledExecutorService queryingExecutor;
+    private ExecutorService queryingExecutor;
     private ExecutorService responseProcessingExecutor;
+    private SnmpPollingScheduler pollingScheduler;
 
     private final Map<SnmpCommunicationSpec, ResponseDataMapper> responseDataMappers = new EnumMap<>(SnmpCommunicationSpec.class);
     private final Map<SnmpCommunicationSpec, ResponseProcessor> responseProcessors = new EnumMap<>(SnmpCommunicationSpec.class);
@@ -85,16 +93,26 @@ public class SnmpTransportService implements TbTransportService {
     private Integer responseProcessingParallelismLevel;
     @Value("${transport.snmp.underlying_protocol}")
     private String snmpUnderlyingProtocol;
+    @Value("${transport.snmp.polling.tick_ms:100}")
+    private long pollingTickMs;
+    @Value("${transport.snmp.polling.max_concurrent_requests_per_agent:0}")
+    private int maxConcurrentRequestsPerAgent;
+    @Value("${transport.snmp.polling.max_request_oids:0}")
+    private int maxRequestOids;
 
     @PostConstruct
     private void init() throws IOException {
-        queryingExecutor = Executors.newScheduledThreadPool(Runtime.getRuntime().availableProcessors(), ThingsBoardThreadFactory.forName("snmp-querying"));
+        queryingExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), ThingsBoardThreadFactory.forName("snmp-querying"));
         responseProcessingExecutor = Executors.newWorkStealingPool(responseProcessingParallelismLevel);
 
         initializeSnmp();
         configureResponseDataMappers();
         configureResponseProcessors();
 
+        AtomicLong pollingLag = statsFactory.createGauge("snmpPollingLag", new AtomicLong());
+        pollingScheduler = new SnmpPollingScheduler(pollingTickMs, maxConcurrentRequestsPerAgent, pollingLag, this::poll);
+        pollingScheduler.start();
+
         log.info("SNMP transport service initialized");
     }
 
@@ -118,34 +136,85 @@ public class SnmpTransportService implements TbTransportService {
     }
 
     public void createQueryingTasks(DeviceSessionContext sessionContext) {
-        List<ScheduledFuture<?>> queryingTasks = sessionContext.getProfileTransportConfiguration().getCommunicationConfigs().stream()
+        long now = System.currentTimeMillis();
+        sessionContext.getProfileTransportConfiguration().getCommunicationConfigs().stream()
                 .filter(communicationConfig -> communicationConfig instanceof RepeatingQueryingSnmpCommunicationConfig)
-                .map(config -> {
+                .forEach(config -> {
                     RepeatingQueryingSnmpCommunicationConfig repeatingCommunicationConfig = (RepeatingQueryingSnmpCommunicationConfig) config;
-                    Long queryingFrequency = repeatingCommunicationConfig.getQueryingFrequencyMs();
-
-                    return queryingExecutor.scheduleWithFixedDelay(() -> {
-                        try {
-                            if (sessionContext.isActive()) {
-                                sendRequest(sessionContext, repeatingCommunicationConfig);
-                            }
-                        } catch (Exception e) {
-                            log.error("Failed to send SNMP request for device {}: {}", sessionContext.getDeviceId(), e.toString());
-                        }
-                    }, queryingFrequency, queryingFrequency, TimeUnit.MILLISECONDS);
-                })
-                .collect(Collectors.toList());
-        sessionContext.getQueryingTasks().addAll(queryingTasks);
+                    SnmpPollingTask task = new SnmpPollingTask(sessionContext, repeatingCommunicationConfig);
+                    sessionContext.getQueryingTasks().add(task);
+                    pollingScheduler.schedule(task, now + repeatingCommunicationConfig.getQueryingFrequencyMs());
+                });
     }
 
     public void cancelQueryingTasks(DeviceSessionContext sessionContext) {
-        sessionContext.getQueryingTasks().forEach(task -> task.cancel(true));
+        sessionContext.getQueryingTasks().forEach(SnmpPollingTask::cancel);
         sessionContext.getQueryingTasks().clear();
     }
 
-
-    private void sendRequest(DeviceSessionContext sessionContext, SnmpCommunicationConfig communicationConfig) {
-        sendRequest(sessionContext, communicationConfig, Collections.emptyMap());
+    /**
+     * Queries the due configs of the device. Mappings of the configs with the same method are merged into one request
+     * (split by max_request_oids), so the agent is queried once per tick. SNMPv1 devices are queried with one request per config. GETBULK is not used because the mappings
+     * refer to exact OIDs, while GETBULK returns the successors of the requested OIDs.
+     */
+    private void poll(DeviceSessionContext sessionContext, List<SnmpPollingTask> tasks, Runnable onComplete) {
+        queryingExecutor.execute(() -> {
+            List<PDU> requests = new ArrayList<>();
+            List<List<RequestInfo>> requestInfos = new ArrayList<>();
+            try {
+                Collection<List<RepeatingQueryingSnmpCommunicationConfig>> configGroups;
+                if (sessionContext.getDeviceTransportConfiguration().getProtocolVersion() == SnmpProtocolVersion.V1) {
+                    // SNMPv1 agent fails the whole PDU if any of its OIDs is not found, so the configs are not merged
+                    configGroups = tasks.stream()
+                            .map(task -> Collections.singletonList(task.getCommunicationConfig()))
+                            .collect(Collectors.toList());
+                } else {
+                    configGroups = tasks.stream()
+                            .map(SnmpPollingTask::getCommunicationConfig)
+                            .collect(Collectors.groupingBy(RepeatingQueryingSnmpCommunicationConfig::getMethod, LinkedHashMap::new, Collectors.toList()))
+                            .values();
+                }
+                configGroups.forEach(configs -> {
+                    SnmpMethod method = configs.get(0).getMethod();
+                    Map<String, SnmpMapping> mappingsByOid = new LinkedHashMap<>();
+                    configs.forEach(config -> config.getAllMappings().forEach(mapping -> mappingsByOid.putIfAbsent(mapping.getOid(), mapping)));
+                    List<SnmpMapping> mappings = new ArrayList<>(mappingsByOid.values());
+                    if (mappings.isEmpty()) {
+                        return;
+                    }
+                    for (List<SnmpMapping> chunk : Lists.partition(mappings, maxRequestOids > 0 ? maxRequestOids : mappings.size())) {
+                        Set<String> chunkOids = chunk.stream().map(SnmpMapping::getOid).collect(Collectors.toSet());
+                        requests.add(pduService.createPdu(sessionContext, method, chunk, Collections.emptyMap()));
+                        requestInfos.add(configs.stream()
+                                .map(config -> new RequestInfo(config.getSpec(), config.getAllMappings().stream()
+                                        .filter(mapping -> chunkOids.contains(mapping.getOid()))
+                                        .collect(Collectors.toList())))
+                                .filter(requestInfo -> !requestInfo.getResponseMappings().isEmpty())
+                                .collect(Collectors.toList()));
+                    }
+                });
+            } catch (Exception e) {
+                log.error("Failed to create SNMP requests for device {}: {}", sessionContext.getDeviceId(), e.toString());
+                onComplete.run();
+                return;
+            }
+            if (requests.isEmpty()) {
+                onComplete.run();
+                return;
+            }
+            AtomicInteger pendingResponses = new AtomicInteger(requests.size());
+            Runnable onResponse = () -> {
+                if (pendingResponses.decrementAndGet() == 0) {
+                    onComplete.run();
+                }
+            };
+            for (int i = 0; i < requests.size(); i++) {
+                PollingRequestInfo pollingRequestInfo = new PollingRequestInfo(requestInfos.get(i), onResponse);
+                if (!sendRequest(sessionContext, requests.get(i), pollingRequestInfo)) {
+                    onResponse.run();
+                }
+            }
+        });
     }
 
     private void sendRequest(DeviceSessionContext sessionContext, SnmpCommunicationConfig communicationConfig, Map<String, String> values) {
@@ -154,15 +223,17 @@ public class SnmpTransportService implements TbTransportService {
         sendRequest(sessionContext, request, requestInfo);
     }
 
-    private void sendRequest(DeviceSessionContext sessionContext, PDU request, RequestInfo requestInfo) {
+    private boolean sendRequest(DeviceSessionContext sessionContext, PDU request, Object requestInfo) {
         if (request.size() > 0) {
             log.trace("Executing SNMP request for device {}. Variables bindings: {}", sessionContext.getDeviceId(), request.getVariableBindings());
             try {
                 snmp.send(request, sessionContext.getTarget(), requestInfo, sessionContext);
+                return true;
             } catch (IOException e) {
                 log.error("Failed to send SNMP request to device {}: {}", sessionContext.getDeviceId(), e.toString());
             }
         }
+        return false;
     }
 
     public void onAttributeUpdate(DeviceSessionContext sessionContext, TransportProtos.AttributeUpdateNotificationMsg attributeUpdateNotification) {
@@ -211,6 +282,14 @@ public class SnmpTransportService implements TbTransportService {
     public void processResponseEvent(DeviceSessionContext sessionContext, ResponseEvent event) {
         ((Snmp) event.getSource()).cancel(event.getRequest(), sessionContext);
 
+        Object userObject = event.getUserObject();
+        if (userObject instanceof PollingRequestInfo) {
+            ((PollingRequestInfo) userObject).getOnResponse().run();
+        }
+        if (!sessionContext.isActive()) {
+            return;
+        }
+
         if (event.getError() != null) {
             log.warn("SNMP response error: {}", event.getError().toString());
             return;
@@ -222,9 +301,10 @@ public class SnmpTransportService implements TbTransportService {
             return;
         }
 
-        RequestInfo requestInfo = (RequestInfo) event.getUserObject();
+        List<RequestInfo> requestInfos = userObject instanceof PollingRequestInfo ?
+                ((PollingRequestInfo) userObject).getRequestInfos() : Collections.singletonList((RequestInfo) userObject);
         responseProcessingExecutor.execute(() -> {
-            processResponse(sessionContext, response, requestInfo);
+            requestInfos.forEach(requestInfo -> processResponse(sessionContext, response, requestInfo));
         });
     }
 
@@ -306,6 +386,9 @@ public class SnmpTransportService implements TbTransportService {
     @PreDestroy
     public void shutdown() {
         log.info("Stopping SNMP transport!");
+        if (pollingScheduler != null) {
+            pollingScheduler.stop();
+        }
         if (queryingExecutor != null) {
             queryingExecutor.shutdownNow();
         }
@@ -340,6 +423,12 @@ public class SnmpTransportService implements TbTransportService {
         }
     }
 
+    @Data
+    private static class PollingRequestInfo {
+        private final List<RequestInfo> requestInfos;
+        private final Runnable onResponse;
+    }
+
     private interface ResponseDataMapper {
         JsonObject map(PDU pdu, RequestInfo requestInfo);
     }
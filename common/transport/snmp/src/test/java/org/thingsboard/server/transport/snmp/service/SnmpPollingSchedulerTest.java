@@ -0,0 +1,198 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.transport.snmp.service;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.snmp4j.Target;
+import org.snmp4j.smi.UdpAddress;
+import org.thingsboard.server.common.data.transport.snmp.config.impl.TelemetryQueryingSnmpCommunicationConfig;
+import org.thingsboard.server.transport.snmp.session.DeviceSessionContext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class SnmpPollingSchedulerTest {
+
+    private static final long TICK_MS = 100;
+
+    private final List<Poll> polls = new ArrayList<>();
+    private final AtomicLong pollingLag = new AtomicLong();
+    private SnmpPollingScheduler scheduler;
+
+    @Before
+    public void before() {
+        scheduler = new SnmpPollingScheduler(TICK_MS, 1, pollingLag,
+                (sessionContext, tasks, onComplete) -> polls.add(new Poll(sessionContext, tasks, onComplete)));
+    }
+
+    @Test
+    public void testTasksAreBucketedByTick() {
+        DeviceSessionContext device = device("127.0.0.1/161");
+        SnmpPollingTask first = task(device, 1000);
+        SnmpPollingTask second = task(device, 1000);
+        SnmpPollingTask later = task(device, 1000);
+        scheduler.schedule(first, 1010);
+        scheduler.schedule(second, 1100);
+        scheduler.schedule(later, 1101);
+
+        scheduler.tick(1099);
+        assertTrue(polls.isEmpty());
+
+        scheduler.tick(1100);
+        assertEquals(1, polls.size());
+        assertSame(device, polls.get(0).sessionContext);
+        assertEquals(List.of(first, second), polls.get(0).tasks);
+
+        polls.get(0).onComplete.run();
+        scheduler.tick(1200);
+        assertEquals(2, polls.size());
+        assertEquals(List.of(later), polls.get(1).tasks);
+    }
+
+    @Test
+    public void testTaskIsRescheduledAfterPoll() {
+        DeviceSessionContext device = device("127.0.0.1/161");
+        SnmpPollingTask task = task(device, 500);
+        scheduler.schedule(task, 1000);
+
+        scheduler.tick(1000);
+        assertEquals(1, polls.size());
+        polls.get(0).onComplete.run();
+
+        scheduler.tick(1400);
+        assertEquals(1, polls.size());
+        scheduler.tick(1500);
+        assertEquals(2, polls.size());
+        assertEquals(List.of(task), polls.get(1).tasks);
+    }
+
+    @Test
+    public void testCancelledTaskIsNotPolled() {
+        DeviceSessionContext device = device("127.0.0.1/161");
+        SnmpPollingTask task = task(device, 500);
+        scheduler.schedule(task, 1000);
+        task.cancel();
+
+        scheduler.tick(1000);
+        scheduler.tick(1500);
+        assertTrue(polls.isEmpty());
+    }
+
+    @Test
+    public void testInactiveDeviceIsNotPolledButRescheduled() {
+        DeviceSessionContext device = device("127.0.0.1/161");
+        SnmpPollingTask task = task(device, 500);
+        scheduler.schedule(task, 1000);
+
+        when(device.isActive()).thenReturn(false);
+        scheduler.tick(1000);
+        assertTrue(polls.isEmpty());
+
+        when(device.isActive()).thenReturn(true);
+        scheduler.tick(1500);
+        assertEquals(1, polls.size());
+    }
+
+    @Test
+    public void testBusyAgentIsDeferred() {
+        DeviceSessionContext first = device("127.0.0.1/161");
+        DeviceSessionContext second = device("127.0.0.1/161");
+        DeviceSessionContext otherAgent = device("127.0.0.2/161");
+        scheduler.schedule(task(first, 10000), 1000);
+        scheduler.schedule(task(second, 10000), 1000);
+        scheduler.schedule(task(otherAgent, 10000), 1000);
+
+        scheduler.tick(1000);
+        assertEquals(2, polls.size());
+        assertSame(first, polls.get(0).sessionContext);
+        assertSame(otherAgent, polls.get(1).sessionContext);
+
+        scheduler.tick(1100);
+        assertEquals(2, polls.size());
+
+        polls.get(0).onComplete.run();
+        // completion callback must release the agent only once
+        polls.get(0).onComplete.run();
+        scheduler.tick(1200);
+        assertEquals(3, polls.size());
+        assertSame(second, polls.get(2).sessionContext);
+    }
+
+    @Test
+    public void testFailedDispatchReleasesAgent() {
+        List<DeviceSessionContext> attempts = new ArrayList<>();
+        scheduler = new SnmpPollingScheduler(TICK_MS, 1, pollingLag, (sessionContext, tasks, onComplete) -> {
+            attempts.add(sessionContext);
+            throw new IllegalStateException("Failed to send");
+        });
+        DeviceSessionContext first = device("127.0.0.1/161");
+        DeviceSessionContext second = device("127.0.0.1/161");
+        scheduler.schedule(task(first, 10000), 1000);
+        scheduler.schedule(task(second, 10000), 1000);
+
+        scheduler.tick(1000);
+
+        assertEquals(List.of(first, second), attempts);
+    }
+
+    @Test
+    public void testPollingLagGauge() {
+        DeviceSessionContext device = device("127.0.0.1/161");
+        scheduler.schedule(task(device, 10000), 1050);
+        scheduler.schedule(task(device, 10000), 1120);
+
+        scheduler.tick(1300);
+        assertEquals(250, pollingLag.get());
+
+        scheduler.tick(1400);
+        assertEquals(0, pollingLag.get());
+    }
+
+    private DeviceSessionContext device(String agentAddress) {
+        DeviceSessionContext sessionContext = mock(DeviceSessionContext.class);
+        Target target = mock(Target.class);
+        when(target.getAddress()).thenReturn(new UdpAddress(agentAddress));
+        when(sessionContext.getTarget()).thenReturn(target);
+        when(sessionContext.isActive()).thenReturn(true);
+        return sessionContext;
+    }
+
+    private SnmpPollingTask task(DeviceSessionContext sessionContext, long queryingFrequencyMs) {
+        TelemetryQueryingSnmpCommunicationConfig config = new TelemetryQueryingSnmpCommunicationConfig();
+        config.setQueryingFrequencyMs(queryingFrequencyMs);
+        return new SnmpPollingTask(sessionContext, config);
+    }
+
+    private static class Poll {
+        private final DeviceSessionContext sessionContext;
+        private final List<SnmpPollingTask> tasks;
+        private final Runnable onComplete;
+
+        private Poll(DeviceSessionContext sessionContext, List<SnmpPollingTask> tasks, Runnable onComplete) {
+            this.sessionContext = sessionContext;
+            this.tasks = tasks;
+            this.onComplete = onComplete;
+        }
+    }
+}
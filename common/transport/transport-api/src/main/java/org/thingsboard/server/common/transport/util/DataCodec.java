@@ -0,0 +1,40 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.common.transport.util;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Schema-based codec of a single message class.
+ * Codecs are registered in {@link DataDecodingEncodingService} and take precedence over the generic FST serialization.
+ * */
+public interface DataCodec<T> {
+
+    /**
+     * Unique and stable identifier of the codec that is written to the encoded data.
+     * Must never be changed or reused once the codec is released.
+     * */
+    int getTypeId();
+
+    Class<T> getMsgClass();
+
+    byte[] encode(T msg);
+
+    T decode(ByteBuffer data) throws InvalidProtocolBufferException;
+
+}
@@ -17,23 +17,84 @@ package org.thingsboard.server.common.transport.util;
 
 import lombok.extern.slf4j.Slf4j;
 import org.nustaq.serialization.FSTConfiguration;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 @Slf4j
 @Service
 public class ProtoWithFSTService implements DataDecodingEncodingService {
 
+    static final byte MAGIC_BYTE_0 = 'T';
+    static final byte MAGIC_BYTE_1 = 'B';
+    static final byte FORMAT_VERSION = 1;
+    static final int HEADER_LENGTH = 5;
+
     private final FSTConfiguration config = FSTConfiguration.createDefaultConfiguration();
 
+    private final Map<Class<?>, DataCodec<?>> codecsByClass = new HashMap<>();
+    private final Map<Integer, DataCodec<?>> codecsByTypeId = new HashMap<>();
+
+    @Autowired(required = false)
+    private List<DataCodec<?>> codecs = Collections.emptyList();
+
+    @Value("${queue.actor_msg_encoding:fst}")
+    private String encoding;
+
+    private boolean protoEncodingEnabled;
+
+    public ProtoWithFSTService() {
+    }
+
+    public ProtoWithFSTService(List<DataCodec<?>> codecs, boolean protoEncodingEnabled) {
+        this.codecs = codecs;
+        this.encoding = protoEncodingEnabled ? "protobuf" : "fst";
+        init();
+    }
+
+    @PostConstruct
+    public void init() {
+        protoEncodingEnabled = "protobuf".equalsIgnoreCase(encoding);
+        for (DataCodec<?> codec : codecs) {
+            DataCodec<?> existing = codecsByTypeId.put(codec.getTypeId(), codec);
+            if (existing != null) {
+                throw new IllegalStateException("Codecs " + existing.getClass().getSimpleName() + " and "
+                        + codec.getClass().getSimpleName() + " share the same type id: " + codec.getTypeId());
+            }
+            codecsByClass.put(codec.getMsgClass(), codec);
+        }
+        log.info("Using [{}] encoding for [{}] registered message codecs", protoEncodingEnabled ? "protobuf" : "fst", codecs.size());
+    }
+
+    /**
+     * The header is only a hint: FST data may start with the same bytes. So the data is decoded as FST if the type id
+     * of the header has no registered codec or the codec fails to decode it.
+     */
     @Override
     public <T> Optional<T> decode(byte[] byteArray) {
+        DataCodec<?> codec = getProtoCodec(byteArray);
+        if (codec != null) {
+            try {
+                @SuppressWarnings("unchecked")
+                T msg = (T) codec.decode(ByteBuffer.wrap(byteArray, HEADER_LENGTH, byteArray.length - HEADER_LENGTH));
+                return Optional.ofNullable(msg);
+            } catch (Exception e) {
+                log.debug("Failed to decode message of type [{}] with protobuf, trying FST", codec.getTypeId(), e);
+            }
+        }
         try {
             @SuppressWarnings("unchecked")
             T msg = byteArray != null && byteArray.length > 0 ? (T) config.asObject(byteArray) : null;
             return Optional.ofNullable(msg);
-        } catch (IllegalArgumentException e) {
+        } catch (Exception e) {
             log.error("Error during deserialization message, [{}]", e.getMessage());
             return Optional.empty();
         }
@@ -41,7 +102,35 @@ public class ProtoWithFSTService implements DataDecodingEncodingService {
 
     @Override
     public <T> byte[] encode(T msq) {
+        if (protoEncodingEnabled && msq != null) {
+            @SuppressWarnings("unchecked")
+            DataCodec<T> codec = (DataCodec<T>) codecsByClass.get(msq.getClass());
+            if (codec != null) {
+                return encodeProto(codec, msq);
+            }
+        }
         return config.asByteArray(msq);
     }
 
+    private <T> byte[] encodeProto(DataCodec<T> codec, T msg) {
+        byte[] body = codec.encode(msg);
+        byte[] result = new byte[HEADER_LENGTH + body.length];
+        int typeId = codec.getTypeId();
+        result[0] = MAGIC_BYTE_0;
+        result[1] = MAGIC_BYTE_1;
+        result[2] = FORMAT_VERSION;
+        result[3] = (byte) (typeId >>> 8);
+        result[4] = (byte) typeId;
+        System.arraycopy(body, 0, result, HEADER_LENGTH, body.length);
+        return result;
+    }
+
+    private DataCodec<?> getProtoCodec(byte[] byteArray) {
+        if (byteArray == null || byteArray.length < HEADER_LENGTH
+                || byteArray[0] != MAGIC_BYTE_0 || byteArray[1] != MAGIC_BYTE_1 || byteArray[2] != FORMAT_VERSION) {
+            return null;
+        }
+        return codecsByTypeId.get(((byteArray[3] & 0xFF) << 8) | (byteArray[4] & 0xFF));
+    }
+
 }
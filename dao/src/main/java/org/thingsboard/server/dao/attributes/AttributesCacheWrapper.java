@@ -16,13 +16,27 @@
 package org.thingsboard.server.dao.attributes;
 
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.cache.Cache;
 import org.springframework.cache.CacheManager;
+import org.springframework.cache.support.NullValue;
+import org.springframework.cache.support.SimpleValueWrapper;
 import org.springframework.context.annotation.Primary;
+import org.springframework.data.redis.cache.RedisCache;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
 import org.springframework.stereotype.Service;
+import org.thingsboard.server.cache.TbNearCache;
+import org.thingsboard.server.cache.TbRedisCacheKeys;
 import org.thingsboard.server.common.data.kv.AttributeKvEntry;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 import static org.thingsboard.server.common.data.CacheConstants.ATTRIBUTES_CACHE;
 
 @Service
@@ -32,19 +46,101 @@ import static org.thingsboard.server.common.data.CacheConstants.ATTRIBUTES_CACHE
 public class AttributesCacheWrapper {
     private final Cache attributesCache;
 
+    @Autowired(required = false)
+    private RedisConnectionFactory redisConnectionFactory;
+
     public AttributesCacheWrapper(CacheManager cacheManager) {
         this.attributesCache = cacheManager.getCache(ATTRIBUTES_CACHE);
     }
 
     public Cache.ValueWrapper get(AttributeCacheKey attributeCacheKey) {
+        return get(attributesCache, attributeCacheKey);
+    }
+
+    private Cache.ValueWrapper get(Cache cache, AttributeCacheKey attributeCacheKey) {
         try {
-            return attributesCache.get(attributeCacheKey);
+            return cache.get(attributeCacheKey);
         } catch (Exception e) {
             log.debug("Failed to retrieve element from cache for key {}. Reason - {}.", attributeCacheKey, e.getMessage());
             return null;
         }
     }
 
+    /**
+     * Returns the cached values of the given keys. Keys that are not present in the cache are not included in the result.
+     * For Redis all keys are fetched with a single MGET command. With the near cache only the keys missing in the local tier are fetched.
+     * */
+    public Map<AttributeCacheKey, Cache.ValueWrapper> getAll(List<AttributeCacheKey> attributeCacheKeys) {
+        if (attributesCache instanceof TbNearCache) {
+            return getAllFromNearCache((TbNearCache) attributesCache, attributeCacheKeys);
+        }
+        return getAll(attributesCache, attributeCacheKeys);
+    }
+
+    private Map<AttributeCacheKey, Cache.ValueWrapper> getAllFromNearCache(TbNearCache nearCache, List<AttributeCacheKey> attributeCacheKeys) {
+        Map<AttributeCacheKey, Cache.ValueWrapper> result = new HashMap<>();
+        List<AttributeCacheKey> missingKeys = new ArrayList<>();
+        Map<AttributeCacheKey, Long> versions = new HashMap<>();
+        for (AttributeCacheKey attributeCacheKey : attributeCacheKeys) {
+            Cache.ValueWrapper valueWrapper = nearCache.getLocal(attributeCacheKey);
+            if (valueWrapper != null) {
+                result.put(attributeCacheKey, valueWrapper);
+            } else {
+                missingKeys.add(attributeCacheKey);
+                versions.put(attributeCacheKey, nearCache.getLocalVersion(attributeCacheKey));
+            }
+        }
+        if (!missingKeys.isEmpty()) {
+            Map<AttributeCacheKey, Cache.ValueWrapper> remoteResult = getAll(nearCache.getRemoteCache(), missingKeys);
+            remoteResult.forEach((key, valueWrapper) -> nearCache.putLocal(key, valueWrapper.get(), versions.get(key)));
+            nearCache.recordRemoteLookups(remoteResult.size(), missingKeys.size() - remoteResult.size());
+            result.putAll(remoteResult);
+        }
+        return result;
+    }
+
+    private Map<AttributeCacheKey, Cache.ValueWrapper> getAll(Cache cache, List<AttributeCacheKey> attributeCacheKeys) {
+        if (cache instanceof RedisCache && redisConnectionFactory != null && attributeCacheKeys.size() > 1) {
+            try {
+                return getAllFromRedis((RedisCache) cache, attributeCacheKeys);
+            } catch (Exception e) {
+                log.debug("Failed to retrieve elements from cache for keys {}. Reason - {}.", attributeCacheKeys, e.getMessage());
+                return new HashMap<>();
+            }
+        }
+        Map<AttributeCacheKey, Cache.ValueWrapper> result = new HashMap<>();
+        for (AttributeCacheKey attributeCacheKey : attributeCacheKeys) {
+            Cache.ValueWrapper valueWrapper = get(cache, attributeCacheKey);
+            if (valueWrapper != null) {
+                result.put(attributeCacheKey, valueWrapper);
+            }
+        }
+        return result;
+    }
+
+    private Map<AttributeCacheKey, Cache.ValueWrapper> getAllFromRedis(RedisCache redisCache, List<AttributeCacheKey> attributeCacheKeys) {
+        byte[][] rawKeys = new byte[attributeCacheKeys.size()][];
+        for (int i = 0; i < rawKeys.length; i++) {
+            rawKeys[i] = TbRedisCacheKeys.toRawKey(redisCache, attributeCacheKeys.get(i));
+        }
+        List<byte[]> rawValues;
+        try (RedisConnection connection = redisConnectionFactory.getConnection()) {
+            rawValues = connection.mGet(rawKeys);
+        }
+        Map<AttributeCacheKey, Cache.ValueWrapper> result = new HashMap<>();
+        if (rawValues == null) {
+            return result;
+        }
+        for (int i = 0; i < rawValues.size(); i++) {
+            byte[] rawValue = rawValues.get(i);
+            if (rawValue != null) {
+                Object value = redisCache.getCacheConfiguration().getValueSerializationPair().read(ByteBuffer.wrap(rawValue));
+                result.put(attributeCacheKeys.get(i), new SimpleValueWrapper(value instanceof NullValue ? null : value));
+            }
+        }
+        return result;
+    }
+
     public void put(AttributeCacheKey attributeCacheKey, AttributeKvEntry attributeKvEntry) {
         try {
             attributesCache.put(attributeCacheKey, attributeKvEntry);
@@ -118,16 +118,15 @@ public class CachedAttributesService implements AttributesService {
     }
 
     private Map<String, Cache.ValueWrapper> findCachedAttributes(EntityId entityId, String scope, Collection<String> attributeKeys) {
-        Map<String, Cache.ValueWrapper> cachedAttributes = new HashMap<>();
+        List<AttributeCacheKey> attributeCacheKeys = new ArrayList<>(attributeKeys.size());
         for (String attributeKey : attributeKeys) {
-            Cache.ValueWrapper cachedAttributeValue = cacheWrapper.get(new AttributeCacheKey(scope, entityId, attributeKey));
-            if (cachedAttributeValue != null) {
-                hitCounter.increment();
-                cachedAttributes.put(attributeKey, cachedAttributeValue);
-            } else {
-                missCounter.increment();
-            }
+            attributeCacheKeys.add(new AttributeCacheKey(scope, entityId, attributeKey));
         }
+        Map<AttributeCacheKey, Cache.ValueWrapper> wrappedCachedAttributes = cacheWrapper.getAll(attributeCacheKeys);
+        Map<String, Cache.ValueWrapper> cachedAttributes = new HashMap<>();
+        wrappedCachedAttributes.forEach((attributeCacheKey, cachedAttributeValue) -> cachedAttributes.put(attributeCacheKey.getKey(), cachedAttributeValue));
+        hitCounter.add(cachedAttributes.size());
+        missCounter.add(attributeCacheKeys.size() - cachedAttributes.size());
         return cachedAttributes;
     }
 
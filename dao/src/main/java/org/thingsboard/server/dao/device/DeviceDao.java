@@ -63,6 +63,16 @@ public interface DeviceDao extends Dao<Device>, TenantEntityDao {
      */
     PageData<Device> findDevicesByTenantId(UUID tenantId, PageLink pageLink);
 
+    /**
+     * Find devices by tenantId ordered by id, starting after the given id.
+     *
+     * @param tenantId the tenantId
+     * @param idOffset the id of the last device of the previous page
+     * @param limit the limit
+     * @return the list of device objects
+     */
+    List<Device> findDevicesByTenantIdAndIdOffset(UUID tenantId, UUID idOffset, int limit);
+
     /**
      * Find device infos by tenantId and page link.
      *
@@ -76,6 +76,7 @@ import org.thingsboard.server.dao.device.provision.ProvisionResponseStatus;
 import org.thingsboard.server.dao.entity.AbstractEntityService;
 import org.thingsboard.server.dao.event.EventService;
 import org.thingsboard.server.dao.exception.DataValidationException;
+import org.thingsboard.server.dao.exception.IncorrectParameterException;
 import org.thingsboard.server.dao.ota.OtaPackageService;
 import org.thingsboard.server.dao.service.DataValidator;
 import org.thingsboard.server.dao.service.PaginatedRemover;
@@ -112,6 +113,8 @@ public class DeviceServiceImpl extends AbstractEntityService implements DeviceSe
     public static final String INCORRECT_DEVICE_ID = "Incorrect deviceId ";
     public static final String INCORRECT_EDGE_ID = "Incorrect edgeId ";
 
+    private static final UUID MIN_DEVICE_ID = new UUID(0L, 0L);
+
     @Autowired
     private DeviceDao deviceDao;
 
@@ -344,6 +347,16 @@ public class DeviceServiceImpl extends AbstractEntityService implements DeviceSe
         return deviceDao.findDevicesByTenantId(tenantId.getId(), pageLink);
     }
 
+    @Override
+    public List<Device> findDevicesByTenantIdAndIdOffset(TenantId tenantId, DeviceId idOffset, int limit) {
+        log.trace("Executing findDevicesByTenantIdAndIdOffset, tenantId [{}], idOffset [{}], limit [{}]", tenantId, idOffset, limit);
+        validateId(tenantId, INCORRECT_TENANT_ID + tenantId);
+        if (limit <= 0) {
+            throw new IncorrectParameterException("Incorrect limit " + limit);
+        }
+        return deviceDao.findDevicesByTenantIdAndIdOffset(tenantId.getId(), idOffset != null ? idOffset.getId() : MIN_DEVICE_ID, limit);
+    }
+
     @Override
     public PageData<DeviceInfo> findDeviceInfosByTenantId(TenantId tenantId, PageLink pageLink) {
         log.trace("Executing findDeviceInfosByTenantId, tenantId [{}], pageLink [{}]", tenantId, pageLink);
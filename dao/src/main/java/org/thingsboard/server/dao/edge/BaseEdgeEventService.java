@@ -28,6 +28,9 @@ import org.thingsboard.server.common.data.page.TimePageLink;
 import org.thingsboard.server.dao.exception.DataValidationException;
 import org.thingsboard.server.dao.service.DataValidator;
 
+import java.util.List;
+import java.util.UUID;
+
 @Service
 @Slf4j
 public class BaseEdgeEventService implements EdgeEventService {
@@ -46,6 +49,11 @@ public class BaseEdgeEventService implements EdgeEventService {
         return edgeEventDao.findEdgeEvents(tenantId.getId(), edgeId, pageLink, withTsUpdate);
     }
 
+    @Override
+    public List<EdgeEvent> findEdgeEventsAfter(TenantId tenantId, EdgeId edgeId, long startTs, UUID startId, int limit) {
+        return edgeEventDao.findEdgeEventsAfter(tenantId.getId(), edgeId, startTs, startId, limit);
+    }
+
     private DataValidator<EdgeEvent> edgeEventValidator =
             new DataValidator<EdgeEvent>() {
                 @Override
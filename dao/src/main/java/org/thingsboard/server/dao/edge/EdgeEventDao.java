@@ -22,6 +22,7 @@ import org.thingsboard.server.common.data.page.PageData;
 import org.thingsboard.server.common.data.page.TimePageLink;
 import org.thingsboard.server.dao.Dao;
 
+import java.util.List;
 import java.util.UUID;
 
 /**
@@ -48,4 +49,17 @@ public interface EdgeEventDao extends Dao<EdgeEvent> {
      */
     PageData<EdgeEvent> findEdgeEvents(UUID tenantId, EdgeId edgeId, TimePageLink pageLink, boolean withTsUpdate);
 
+    /**
+     * Find edge events created after the (startTs, startId) position, ordered by creation time and id.
+     * Unlike the offset based paging, the cost of the read does not grow with the position in the queue.
+     *
+     * @param tenantId the tenantId
+     * @param edgeId   the edgeId
+     * @param startTs  the creation time of the last read event
+     * @param startId  the id of the last read event
+     * @param limit    max number of events to return
+     * @return the event list
+     */
+    List<EdgeEvent> findEdgeEventsAfter(UUID tenantId, EdgeId edgeId, long startTs, UUID startId, int limit);
+
 }
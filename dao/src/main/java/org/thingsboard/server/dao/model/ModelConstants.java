@@ -548,6 +548,7 @@ public class ModelConstants {
     public static final String ATTRIBUTES_KV_CF = "attributes_kv_cf";
     public static final String TS_KV_CF = "ts_kv_cf";
     public static final String TS_KV_PARTITIONS_CF = "ts_kv_partitions_cf";
+    public static final String TS_KV_ROLLUP_CF = "ts_kv_rollup_cf";
     public static final String TS_KV_LATEST_CF = "ts_kv_latest_cf";
 
     public static final String PARTITION_COLUMN = "partition";
@@ -576,6 +577,25 @@ public class ModelConstants {
             ArrayUtils.addAll(COUNT_AGGREGATION_COLUMNS, new String[]{sum(LONG_VALUE_COLUMN), sum(DOUBLE_VALUE_COLUMN)});
     protected static final String[] AVG_AGGREGATION_COLUMNS = SUM_AGGREGATION_COLUMNS;
 
+    /**
+     * Cassandra time-series rollup constants.
+     */
+    public static final String ROLLUP_RESOLUTION_COLUMN = "resolution";
+    public static final String ROLLUP_DIRTY_COLUMN = "dirty";
+
+    public static final String[] ROLLUP_COLUMNS = new String[]{
+            "long_cnt", "dbl_cnt", "bool_cnt", "str_cnt", "json_cnt",
+            "long_min", "long_max", "long_sum", "dbl_min", "dbl_max", "dbl_sum",
+            "bool_min", "bool_max", "str_min", "str_max", "json_min", "json_max"};
+
+    /**
+     * Same layout as {@link #ROLLUP_COLUMNS}, computed from the raw time-series.
+     */
+    public static final String[] ROLLUP_AGGREGATION_COLUMNS = new String[]{
+            count(LONG_VALUE_COLUMN), count(DOUBLE_VALUE_COLUMN), count(BOOLEAN_VALUE_COLUMN), count(STRING_VALUE_COLUMN), count(JSON_VALUE_COLUMN),
+            min(LONG_VALUE_COLUMN), max(LONG_VALUE_COLUMN), sum(LONG_VALUE_COLUMN), min(DOUBLE_VALUE_COLUMN), max(DOUBLE_VALUE_COLUMN), sum(DOUBLE_VALUE_COLUMN),
+            min(BOOLEAN_VALUE_COLUMN), max(BOOLEAN_VALUE_COLUMN), min(STRING_VALUE_COLUMN), max(STRING_VALUE_COLUMN), min(JSON_VALUE_COLUMN), max(JSON_VALUE_COLUMN)};
+
     public static String min(String s) {
         return "min(" + s + ")";
     }
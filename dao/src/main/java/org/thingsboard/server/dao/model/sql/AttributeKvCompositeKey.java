@@ -44,6 +44,6 @@ public class AttributeKvCompositeKey implements Serializable {
     private UUID entityId;
     @Column(name = ATTRIBUTE_TYPE_COLUMN)
     private String attributeType;
-    @Column(name = ATTRIBUTE_KEY_COLUMN)
-    private String attributeKey;
+    @Column(name = ATTRIBUTE_KEY_COLUMN, columnDefinition = "int")
+    private int attributeKey;
 }
@@ -17,9 +17,11 @@ package org.thingsboard.server.dao.sql;
 
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.SettableFuture;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
 import org.thingsboard.common.util.ThingsBoardThreadFactory;
 import org.thingsboard.server.common.stats.MessagesStats;
+import org.thingsboard.server.dao.exception.SqlQueueFullException;
 
 import java.util.ArrayList;
 import java.util.Comparator;
@@ -29,6 +31,7 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -36,15 +39,20 @@ import java.util.stream.Stream;
 @Slf4j
 public class TbSqlBlockingQueue<E> implements TbSqlQueue<E> {
 
-    private final BlockingQueue<TbSqlQueueElement<E>> queue = new LinkedBlockingQueue<>();
+    private final BlockingQueue<TbSqlQueueElement<E>> queue;
     private final TbSqlBlockingQueueParams params;
 
     private ExecutorService executor;
     private final MessagesStats stats;
+    private final AtomicInteger queueSizeGauge;
+    private final Timer flushTimer;
 
-    public TbSqlBlockingQueue(TbSqlBlockingQueueParams params, MessagesStats stats) {
+    public TbSqlBlockingQueue(TbSqlBlockingQueueParams params, MessagesStats stats, AtomicInteger queueSizeGauge, Timer flushTimer) {
         this.params = params;
         this.stats = stats;
+        this.queueSizeGauge = queueSizeGauge;
+        this.flushTimer = flushTimer;
+        this.queue = params.getMaxQueueSize() > 0 ? new LinkedBlockingQueue<>(params.getMaxQueueSize()) : new LinkedBlockingQueue<>();
     }
 
     @Override
@@ -57,29 +65,25 @@ public class TbSqlBlockingQueue<E> implements TbSqlQueue<E> {
             List<TbSqlQueueElement<E>> entities = new ArrayList<>(batchSize);
             while (!Thread.interrupted()) {
                 try {
-                    long currentTs = System.currentTimeMillis();
                     TbSqlQueueElement<E> attr = queue.poll(maxDelay, TimeUnit.MILLISECONDS);
                     if (attr == null) {
+                        queueSizeGauge.set(queue.size());
                         continue;
                     } else {
                         entities.add(attr);
                     }
-                    queue.drainTo(entities, batchSize - 1);
-                    boolean fullPack = entities.size() == batchSize;
+                    collectBatch(entities, batchSize, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxDelay));
+                    queueSizeGauge.set(queue.size());
                     log.debug("[{}] Going to save {} entities", logName, entities.size());
+                    long flushStartTs = System.nanoTime();
                     Stream<E> entitiesStream = entities.stream().map(TbSqlQueueElement::getEntity);
                     saveFunction.accept(
                             (params.isBatchSortEnabled() ? entitiesStream.sorted(batchUpdateComparator) : entitiesStream)
                                     .collect(Collectors.toList())
                     );
+                    flushTimer.record(System.nanoTime() - flushStartTs, TimeUnit.NANOSECONDS);
                     entities.forEach(v -> v.getFuture().set(null));
                     stats.incrementSuccessful(entities.size());
-                    if (!fullPack) {
-                        long remainingDelay = maxDelay - (System.currentTimeMillis() - currentTs);
-                        if (remainingDelay > 0) {
-                            Thread.sleep(remainingDelay);
-                        }
-                    }
                 } catch (Exception e) {
                     stats.incrementFailed(entities.size());
                     entities.forEach(entityFutureWrapper -> entityFutureWrapper.getFuture().setException(e));
@@ -104,6 +108,28 @@ public class TbSqlBlockingQueue<E> implements TbSqlQueue<E> {
         }, params.getStatsPrintIntervalMs(), params.getStatsPrintIntervalMs(), TimeUnit.MILLISECONDS);
     }
 
+    /**
+     * Fills the batch until it is full or the deadline of its first element is reached,
+     * so a full batch is flushed right away while a partial one waits no longer than maxDelay.
+     */
+    private void collectBatch(List<TbSqlQueueElement<E>> entities, int batchSize, long deadline) throws InterruptedException {
+        while (entities.size() < batchSize) {
+            queue.drainTo(entities, batchSize - entities.size());
+            if (entities.size() >= batchSize) {
+                return;
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return;
+            }
+            TbSqlQueueElement<E> next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                return;
+            }
+            entities.add(next);
+        }
+    }
+
     @Override
     public void destroy() {
         if (executor != null) {
@@ -114,8 +140,27 @@ public class TbSqlBlockingQueue<E> implements TbSqlQueue<E> {
     @Override
     public ListenableFuture<Void> add(E element) {
         SettableFuture<Void> future = SettableFuture.create();
-        queue.add(new TbSqlQueueElement<>(future, element));
         stats.incrementTotal();
+        if (!offer(new TbSqlQueueElement<>(future, element))) {
+            stats.incrementFailed();
+            future.setException(new SqlQueueFullException(params.getLogName()));
+        }
         return future;
     }
+
+    private boolean offer(TbSqlQueueElement<E> element) {
+        if (queue.offer(element)) {
+            return true;
+        }
+        long maxBlockTimeMs = params.getMaxBlockTimeMs();
+        if (maxBlockTimeMs <= 0) {
+            return false;
+        }
+        try {
+            return queue.offer(element, maxBlockTimeMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
 }
@@ -32,4 +32,12 @@ public class TbSqlBlockingQueueParams {
     private final long statsPrintIntervalMs;
     private final String statsNamePrefix;
     private final boolean batchSortEnabled;
+    /**
+     * Max number of pending elements per queue. 0 means the queue is unbounded.
+     */
+    private final int maxQueueSize;
+    /**
+     * Time to wait for free space in a full queue before the element is rejected. 0 means reject immediately.
+     */
+    private final long maxBlockTimeMs;
 }
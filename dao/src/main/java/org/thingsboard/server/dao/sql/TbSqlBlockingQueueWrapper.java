@@ -16,6 +16,7 @@
 package org.thingsboard.server.dao.sql;
 
 import com.google.common.util.concurrent.ListenableFuture;
+import io.micrometer.core.instrument.Timer;
 import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
 import org.thingsboard.server.common.stats.MessagesStats;
@@ -24,6 +25,7 @@ import org.thingsboard.server.common.stats.StatsFactory;
 import java.util.Comparator;
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 import java.util.function.Function;
 
@@ -47,8 +49,11 @@ public class TbSqlBlockingQueueWrapper<E> {
      */
     public void init(ScheduledLogExecutorComponent logExecutor, Consumer<List<E>> saveFunction, Comparator<E> batchUpdateComparator) {
         for (int i = 0; i < maxThreads; i++) {
-            MessagesStats stats = statsFactory.createMessagesStats(params.getStatsNamePrefix() + ".queue." + i);
-            TbSqlBlockingQueue<E> queue = new TbSqlBlockingQueue<>(params, stats);
+            String statsKey = params.getStatsNamePrefix() + ".queue." + i;
+            MessagesStats stats = statsFactory.createMessagesStats(statsKey);
+            AtomicInteger queueSizeGauge = statsFactory.createGauge(statsKey + ".size", new AtomicInteger(0));
+            Timer flushTimer = statsFactory.createTimer(statsKey + ".flush");
+            TbSqlBlockingQueue<E> queue = new TbSqlBlockingQueue<>(params, stats, queueSizeGauge, flushTimer);
             queues.add(queue);
             queue.init(logExecutor, saveFunction, batchUpdateComparator, i);
         }
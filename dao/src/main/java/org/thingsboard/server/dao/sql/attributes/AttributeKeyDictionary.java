@@ -0,0 +1,122 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.dao.sql.attributes;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.SettableFuture;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.thingsboard.server.dao.model.sql.AttributeKvDictionary;
+import org.thingsboard.server.dao.model.sql.AttributeKvDictionaryCompositeKey;
+
+import javax.annotation.PostConstruct;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Caches the mapping between attribute keys and the integer ids stored in the attribute_kv table.
+ * Key ids are never reassigned, so both directions are cached for the lifetime of the node.
+ * Keys that are not found are not cached: another node may create them at any moment, so a miss is always checked in the database.
+ * A new key is inserted once per node: concurrent callers for the same key wait on the future of the first one.
+ */
+@Component
+@Slf4j
+public class AttributeKeyDictionary {
+
+    private final ConcurrentMap<String, Integer> keyIds = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Integer, String> keys = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, SettableFuture<Integer>> pendingKeys = new ConcurrentHashMap<>();
+
+    @Autowired
+    private AttributeKvDictionaryRepository dictionaryRepository;
+
+    @Autowired
+    private AttributeKvInsertRepository insertRepository;
+
+    @PostConstruct
+    public void init() {
+        try {
+            dictionaryRepository.findAll().forEach(this::put);
+            log.info("Loaded {} attribute keys", keyIds.size());
+        } catch (Exception e) {
+            log.warn("Failed to preload attribute keys, they will be loaded on demand", e);
+        }
+    }
+
+    /**
+     * Returns the id of the key, or null if the key was never saved.
+     */
+    public Integer findKeyId(String strKey) {
+        Integer keyId = keyIds.get(strKey);
+        if (keyId != null) {
+            return keyId;
+        }
+        Optional<AttributeKvDictionary> dictionary = dictionaryRepository.findById(new AttributeKvDictionaryCompositeKey(strKey));
+        if (dictionary.isPresent()) {
+            return put(dictionary.get());
+        }
+        return null;
+    }
+
+    public int getOrSaveKeyId(String strKey) {
+        Integer keyId = keyIds.get(strKey);
+        if (keyId != null) {
+            return keyId;
+        }
+        SettableFuture<Integer> future = SettableFuture.create();
+        SettableFuture<Integer> pending = pendingKeys.putIfAbsent(strKey, future);
+        if (pending != null) {
+            return Futures.getUnchecked(pending);
+        }
+        try {
+            keyId = keyIds.get(strKey);
+            if (keyId == null) {
+                keyId = insertRepository.saveOrGetKeyId(strKey);
+                put(strKey, keyId);
+            }
+            future.set(keyId);
+            return keyId;
+        } catch (RuntimeException e) {
+            future.setException(e);
+            throw e;
+        } finally {
+            pendingKeys.remove(strKey, future);
+        }
+    }
+
+    public String getKey(int keyId) {
+        String strKey = keys.get(keyId);
+        if (strKey == null) {
+            AttributeKvDictionary dictionary = dictionaryRepository.findByKeyId(keyId)
+                    .orElseThrow(() -> new RuntimeException("Failed to find attribute key by id: " + keyId));
+            put(dictionary);
+            strKey = dictionary.getKey();
+        }
+        return strKey;
+    }
+
+    private int put(AttributeKvDictionary dictionary) {
+        return put(dictionary.getKey(), dictionary.getKeyId());
+    }
+
+    private int put(String strKey, int keyId) {
+        keyIds.put(strKey, keyId);
+        keys.put(keyId, strKey);
+        return keyId;
+    }
+}
@@ -50,6 +50,10 @@ public abstract class AttributeKvInsertRepository {
                     "ON CONFLICT (entity_type, entity_id, attribute_type, attribute_key) " +
                     "DO UPDATE SET str_v = ?, long_v = ?, dbl_v = ?, bool_v = ?, json_v =  cast(? AS json), last_update_ts = ?;";
 
+    private static final String INSERT_OR_GET_KEY_ID =
+            "INSERT INTO attribute_kv_dictionary (key) VALUES (?) " +
+                    "ON CONFLICT (key) DO UPDATE SET key = EXCLUDED.key RETURNING key_id;";
+
     @Autowired
     protected JdbcTemplate jdbcTemplate;
 
@@ -59,6 +63,10 @@ public abstract class AttributeKvInsertRepository {
     @Value("${sql.remove_null_chars}")
     private boolean removeNullChars;
 
+    protected int saveOrGetKeyId(String key) {
+        return jdbcTemplate.queryForObject(INSERT_OR_GET_KEY_ID, Integer.class, key);
+    }
+
     protected void saveOrUpdate(List<AttributeKvEntity> entities) {
         transactionTemplate.execute(new TransactionCallbackWithoutResult() {
             @Override
@@ -93,7 +101,7 @@ public abstract class AttributeKvInsertRepository {
                         ps.setString(7, kvEntity.getId().getEntityType().name());
                         ps.setObject(8, kvEntity.getId().getEntityId());
                         ps.setString(9, kvEntity.getId().getAttributeType());
-                        ps.setString(10, kvEntity.getId().getAttributeKey());
+                        ps.setInt(10, kvEntity.getId().getAttributeKey());
                     }
 
                     @Override
@@ -123,7 +131,7 @@ public abstract class AttributeKvInsertRepository {
                         ps.setString(1, kvEntity.getId().getEntityType().name());
                         ps.setObject(2, kvEntity.getId().getEntityId());
                         ps.setString(3, kvEntity.getId().getAttributeType());
-                        ps.setString(4, kvEntity.getId().getAttributeKey());
+                        ps.setInt(4, kvEntity.getId().getAttributeKey());
 
                         ps.setString(5, replaceNullChars(kvEntity.getStrValue()));
                         ps.setString(11, replaceNullChars(kvEntity.getStrValue()));
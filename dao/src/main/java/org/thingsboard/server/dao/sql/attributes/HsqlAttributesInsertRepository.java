@@ -39,6 +39,19 @@ public class HsqlAttributesInsertRepository extends AttributeKvInsertRepository
                     "WHEN NOT MATCHED THEN INSERT (entity_type, entity_id, attribute_type, attribute_key, str_v, long_v, dbl_v, bool_v, json_v, last_update_ts) " +
                     "VALUES (A.entity_type, A.entity_id, A.attribute_type, A.attribute_key, A.str_v, A.long_v, A.dbl_v, A.bool_v, A.json_v, A.last_update_ts)";
 
+    private static final String INSERT_KEY_IF_ABSENT =
+            "MERGE INTO attribute_kv_dictionary USING(VALUES ?) D (key) " +
+                    "ON (attribute_kv_dictionary.key=D.key) " +
+                    "WHEN NOT MATCHED THEN INSERT (key) VALUES (D.key);";
+
+    private static final String SELECT_KEY_ID = "SELECT key_id FROM attribute_kv_dictionary WHERE key = ?;";
+
+    @Override
+    protected int saveOrGetKeyId(String key) {
+        jdbcTemplate.update(INSERT_KEY_IF_ABSENT, key);
+        return jdbcTemplate.queryForObject(SELECT_KEY_ID, Integer.class, key);
+    }
+
     @Override
     protected void saveOrUpdate(List<AttributeKvEntity> entities) {
         entities.forEach(entity -> {
@@ -46,7 +59,7 @@ public class HsqlAttributesInsertRepository extends AttributeKvInsertRepository
                 ps.setString(1, entity.getId().getEntityType().name());
                 ps.setObject(2, entity.getId().getEntityId());
                 ps.setString(3, entity.getId().getAttributeType());
-                ps.setString(4, entity.getId().getAttributeKey());
+                ps.setInt(4, entity.getId().getAttributeKey());
                 ps.setString(5, entity.getStrValue());
 
                 if (entity.getLongValue() != null) {
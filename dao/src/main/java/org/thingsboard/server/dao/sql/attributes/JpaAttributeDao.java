@@ -15,6 +15,7 @@
  */
 package org.thingsboard.server.dao.sql.attributes;
 
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
@@ -40,8 +41,10 @@ import org.thingsboard.server.dao.sql.TbSqlBlockingQueueWrapper;
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.function.Function;
 import java.util.stream.Collectors;
@@ -59,6 +62,9 @@ public class JpaAttributeDao extends JpaAbstractDaoListeningExecutorService impl
     @Autowired
     private AttributeKvInsertRepository attributeKvInsertRepository;
 
+    @Autowired
+    private AttributeKeyDictionary keyDictionary;
+
     @Autowired
     private StatsFactory statsFactory;
 
@@ -74,6 +80,12 @@ public class JpaAttributeDao extends JpaAbstractDaoListeningExecutorService impl
     @Value("${sql.attributes.batch_threads:4}")
     private int batchThreads;
 
+    @Value("${sql.attributes.max_queue_size:0}")
+    private int maxQueueSize;
+
+    @Value("${sql.attributes.max_block_time_ms:0}")
+    private long maxBlockTimeMs;
+
     @Value("${sql.batch_sort:false}")
     private boolean batchSortEnabled;
 
@@ -88,6 +100,8 @@ public class JpaAttributeDao extends JpaAbstractDaoListeningExecutorService impl
                 .statsPrintIntervalMs(statsPrintIntervalMs)
                 .statsNamePrefix("attributes")
                 .batchSortEnabled(batchSortEnabled)
+                .maxQueueSize(maxQueueSize)
+                .maxBlockTimeMs(maxBlockTimeMs)
                 .build();
 
         Function<AttributeKvEntity, Integer> hashcodeFunction = entity -> entity.getId().getEntityId().hashCode();
@@ -109,10 +123,14 @@ public class JpaAttributeDao extends JpaAbstractDaoListeningExecutorService impl
 
     @Override
     public ListenableFuture<Optional<AttributeKvEntry>> find(TenantId tenantId, EntityId entityId, String attributeType, String attributeKey) {
+        Integer keyId = keyDictionary.findKeyId(attributeKey);
+        if (keyId == null) {
+            return Futures.immediateFuture(Optional.empty());
+        }
         AttributeKvCompositeKey compositeKey =
-                getAttributeKvCompositeKey(entityId, attributeType, attributeKey);
+                getAttributeKvCompositeKey(entityId, attributeType, keyId);
         return Futures.immediateFuture(
-                Optional.ofNullable(DaoUtil.getData(attributeKvRepository.findById(compositeKey))));
+                Optional.ofNullable(DaoUtil.getData(attributeKvRepository.findById(compositeKey).map(this::setStrKey))));
     }
 
     @Override
@@ -120,21 +138,25 @@ public class JpaAttributeDao extends JpaAbstractDaoListeningExecutorService impl
         List<AttributeKvCompositeKey> compositeKeys =
                 attributeKeys
                         .stream()
-                        .map(attributeKey ->
-                                getAttributeKvCompositeKey(entityId, attributeType, attributeKey))
+                        .map(keyDictionary::findKeyId)
+                        .filter(Objects::nonNull)
+                        .map(keyId ->
+                                getAttributeKvCompositeKey(entityId, attributeType, keyId))
                         .collect(Collectors.toList());
+        if (compositeKeys.isEmpty()) {
+            return Futures.immediateFuture(Collections.emptyList());
+        }
         return Futures.immediateFuture(
-                DaoUtil.convertDataList(Lists.newArrayList(attributeKvRepository.findAllById(compositeKeys))));
+                toData(attributeKvRepository.findAllById(compositeKeys)));
     }
 
     @Override
     public ListenableFuture<List<AttributeKvEntry>> findAll(TenantId tenantId, EntityId entityId, String attributeType) {
         return Futures.immediateFuture(
-                DaoUtil.convertDataList(Lists.newArrayList(
-                        attributeKvRepository.findAllByEntityTypeAndEntityIdAndAttributeType(
-                                entityId.getEntityType(),
-                                entityId.getId(),
-                                attributeType))));
+                toData(attributeKvRepository.findAllByEntityTypeAndEntityIdAndAttributeType(
+                        entityId.getEntityType(),
+                        entityId.getId(),
+                        attributeType)));
     }
 
     @Override
@@ -155,7 +177,8 @@ public class JpaAttributeDao extends JpaAbstractDaoListeningExecutorService impl
     @Override
     public ListenableFuture<Void> save(TenantId tenantId, EntityId entityId, String attributeType, AttributeKvEntry attribute) {
         AttributeKvEntity entity = new AttributeKvEntity();
-        entity.setId(new AttributeKvCompositeKey(entityId.getEntityType(), entityId.getId(), attributeType, attribute.getKey()));
+        entity.setId(new AttributeKvCompositeKey(entityId.getEntityType(), entityId.getId(), attributeType, keyDictionary.getOrSaveKeyId(attribute.getKey())));
+        entity.setStrKey(attribute.getKey());
         entity.setLastUpdateTs(attribute.getLastUpdateTs());
         entity.setStrValue(attribute.getStrValue().orElse(null));
         entity.setDoubleValue(attribute.getDoubleValue().orElse(null));
@@ -172,14 +195,26 @@ public class JpaAttributeDao extends JpaAbstractDaoListeningExecutorService impl
     @Override
     public ListenableFuture<List<Void>> removeAll(TenantId tenantId, EntityId entityId, String attributeType, List<String> keys) {
         return service.submit(() -> {
-            keys.forEach(key ->
-                    attributeKvRepository.delete(entityId.getEntityType(), entityId.getId(), attributeType, key)
-            );
+            keys.stream()
+                    .map(keyDictionary::findKeyId)
+                    .filter(Objects::nonNull)
+                    .forEach(keyId ->
+                            attributeKvRepository.delete(entityId.getEntityType(), entityId.getId(), attributeType, keyId)
+                    );
             return null;
         });
     }
 
-    private AttributeKvCompositeKey getAttributeKvCompositeKey(EntityId entityId, String attributeType, String attributeKey) {
+    private List<AttributeKvEntry> toData(Iterable<AttributeKvEntity> entities) {
+        return DaoUtil.convertDataList(Lists.newArrayList(Iterables.transform(entities, this::setStrKey)));
+    }
+
+    private AttributeKvEntity setStrKey(AttributeKvEntity entity) {
+        entity.setStrKey(keyDictionary.getKey(entity.getId().getAttributeKey()));
+        return entity;
+    }
+
+    private AttributeKvCompositeKey getAttributeKvCompositeKey(EntityId entityId, String attributeType, int attributeKey) {
         return new AttributeKvCompositeKey(
                 entityId.getEntityType(),
                 entityId.getId(),
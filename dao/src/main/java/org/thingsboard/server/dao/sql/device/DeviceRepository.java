@@ -71,6 +71,12 @@ public interface DeviceRepository extends PagingAndSortingRepository<DeviceEntit
     Page<DeviceEntity> findByTenantId(@Param("tenantId") UUID tenantId,
                                       Pageable pageable);
 
+    @Query("SELECT d FROM DeviceEntity d WHERE d.tenantId = :tenantId " +
+            "AND d.id > :idOffset ORDER BY d.id")
+    List<DeviceEntity> findByTenantIdAndIdOffset(@Param("tenantId") UUID tenantId,
+                                                 @Param("idOffset") UUID idOffset,
+                                                 Pageable pageable);
+
     @Query("SELECT d FROM DeviceEntity d WHERE d.tenantId = :tenantId " +
             "AND LOWER(d.searchText) LIKE LOWER(CONCAT(:textSearch, '%'))")
     Page<DeviceEntity> findByTenantId(@Param("tenantId") UUID tenantId,
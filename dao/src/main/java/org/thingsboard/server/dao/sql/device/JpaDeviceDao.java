@@ -19,6 +19,7 @@ import com.google.common.util.concurrent.ListenableFuture;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.repository.CrudRepository;
 import org.springframework.stereotype.Component;
@@ -87,6 +88,11 @@ public class JpaDeviceDao extends JpaAbstractSearchTextDao<DeviceEntity, Device>
         }
     }
 
+    @Override
+    public List<Device> findDevicesByTenantIdAndIdOffset(UUID tenantId, UUID idOffset, int limit) {
+        return DaoUtil.convertDataList(deviceRepository.findByTenantIdAndIdOffset(tenantId, idOffset, PageRequest.of(0, limit)));
+    }
+
     @Override
     public PageData<DeviceInfo> findDeviceInfosByTenantId(UUID tenantId, PageLink pageLink) {
         return DaoUtil.toPageData(
@@ -23,6 +23,7 @@ import org.springframework.data.repository.PagingAndSortingRepository;
 import org.springframework.data.repository.query.Param;
 import org.thingsboard.server.dao.model.sql.EdgeEventEntity;
 
+import java.util.List;
 import java.util.UUID;
 
 public interface EdgeEventRepository extends PagingAndSortingRepository<EdgeEventEntity, UUID>, JpaSpecificationExecutor<EdgeEventEntity> {
@@ -51,4 +52,16 @@ public interface EdgeEventRepository extends PagingAndSortingRepository<EdgeEven
                                                                                     @Param("startTime") Long startTime,
                                                                                     @Param("endTime") Long endTime,
                                                                                     Pageable pageable);
+
+    @Query("SELECT e FROM EdgeEventEntity e WHERE " +
+            "e.tenantId = :tenantId " +
+            "AND e.edgeId = :edgeId " +
+            "AND (e.createdTime > :startTime OR (e.createdTime = :startTime AND e.id > :startId)) " +
+            "ORDER BY e.createdTime ASC, e.id ASC"
+    )
+    List<EdgeEventEntity> findEdgeEventsAfter(@Param("tenantId") UUID tenantId,
+                                              @Param("edgeId") UUID edgeId,
+                                              @Param("startTime") long startTime,
+                                              @Param("startId") UUID startId,
+                                              Pageable pageable);
 }
@@ -20,6 +20,7 @@ import com.google.common.util.concurrent.ListenableFuture;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.repository.CrudRepository;
 import org.springframework.stereotype.Component;
 import org.thingsboard.server.common.data.edge.EdgeEvent;
@@ -35,6 +36,7 @@ import org.thingsboard.server.dao.model.sql.EdgeEventEntity;
 import org.thingsboard.server.dao.model.sql.EventEntity;
 import org.thingsboard.server.dao.sql.JpaAbstractSearchTextDao;
 
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 
@@ -104,6 +106,12 @@ public class JpaBaseEdgeEventDao extends JpaAbstractSearchTextDao<EdgeEventEntit
         }
     }
 
+    @Override
+    public List<EdgeEvent> findEdgeEventsAfter(UUID tenantId, EdgeId edgeId, long startTs, UUID startId, int limit) {
+        return DaoUtil.convertDataList(
+                edgeEventRepository.findEdgeEventsAfter(tenantId, edgeId.getId(), startTs, startId, PageRequest.of(0, limit)));
+    }
+
     public Optional<EdgeEvent> save(EdgeEventEntity entity) {
         log.debug("Save edge event [{}] ", entity);
         if (entity.getTenantId() == null) {
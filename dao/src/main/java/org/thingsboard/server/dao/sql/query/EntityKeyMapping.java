@@ -258,8 +258,8 @@ public class EntityKeyMapping {
             String query;
             if (!entityKey.getType().equals(EntityKeyType.ATTRIBUTE)) {
                 String join = (hasFilter() && hasFilterValues(ctx)) ? "inner join" : "left join";
-                query = String.format("%s attribute_kv %s ON %s.entity_id=entities.id AND %s.entity_type=%s AND %s.attribute_key=:%s_key_id ",
-                        join, alias, alias, alias, entityTypeStr, alias, alias);
+                query = String.format("%s attribute_kv_dictionary %s ON %s.key = :%s %s attribute_kv %s ON %s.entity_id=entities.id AND %s.entity_type=%s AND %s.attribute_key=%s.key_id ",
+                        join, getDictionaryAlias(), getDictionaryAlias(), getKeyId(), join, alias, alias, alias, entityTypeStr, alias, getDictionaryAlias());
                 String scope;
                 if (entityKey.getType().equals(EntityKeyType.CLIENT_ATTRIBUTE)) {
                     scope = DataConstants.CLIENT_SCOPE;
@@ -270,10 +270,10 @@ public class EntityKeyMapping {
                 }
                 query = String.format("%s AND %s.attribute_type='%s' %s", query, alias, scope, filterQuery);
             } else {
-                String join = (hasFilter() && hasFilterValues(ctx)) ? "join LATERAL" : "left join LATERAL";
-                query = String.format("%s (select * from attribute_kv %s WHERE %s.entity_id=entities.id AND %s.entity_type=%s AND %s.attribute_key=:%s_key_id %s " +
+                String join = (hasFilter() && hasFilterValues(ctx)) ? "join" : "left join";
+                query = String.format("%s attribute_kv_dictionary %s ON %s.key = :%s %s LATERAL (select * from attribute_kv %s WHERE %s.entity_id=entities.id AND %s.entity_type=%s AND %s.attribute_key=%s.key_id %s " +
                                 "ORDER BY %s.last_update_ts DESC limit 1) as %s ON true",
-                        join, alias, alias, alias, entityTypeStr, alias, alias, filterQuery, alias, alias);
+                        join, getDictionaryAlias(), getDictionaryAlias(), getKeyId(), join, alias, alias, alias, entityTypeStr, alias, getDictionaryAlias(), filterQuery, alias, alias);
             }
             return query;
         }
@@ -289,6 +289,10 @@ public class EntityKeyMapping {
         return alias + "_key_id";
     }
 
+    private String getDictionaryAlias() {
+        return alias + "_dict";
+    }
+
     public static String buildSelections(List<EntityKeyMapping> mappings, EntityFilterType filterType, EntityType entityType) {
         return mappings.stream().map(mapping -> mapping.toSelection(filterType, entityType)).collect(
                 Collectors.joining(", "));
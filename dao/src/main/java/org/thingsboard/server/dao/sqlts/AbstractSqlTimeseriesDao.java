@@ -53,6 +53,12 @@ public abstract class AbstractSqlTimeseriesDao extends BaseAbstractSqlTimeseries
     @Value("${sql.ts.batch_threads:4}")
     protected int tsBatchThreads;
 
+    @Value("${sql.ts.max_queue_size:0}")
+    protected int tsMaxQueueSize;
+
+    @Value("${sql.ts.max_block_time_ms:0}")
+    protected long tsMaxBlockTimeMs;
+
     @Value("${sql.timescale.batch_threads:4}")
     protected int timescaleBatchThreads;
 
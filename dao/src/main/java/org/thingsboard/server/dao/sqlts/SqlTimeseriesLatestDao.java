@@ -96,6 +96,12 @@ public class SqlTimeseriesLatestDao extends BaseAbstractSqlTimeseriesDao impleme
     @Value("${sql.ts_latest.batch_threads:4}")
     private int tsLatestBatchThreads;
 
+    @Value("${sql.ts_latest.max_queue_size:0}")
+    private int tsLatestMaxQueueSize;
+
+    @Value("${sql.ts_latest.max_block_time_ms:0}")
+    private long tsLatestMaxBlockTimeMs;
+
     @Value("${sql.batch_sort:false}")
     protected boolean batchSortEnabled;
 
@@ -114,6 +120,8 @@ public class SqlTimeseriesLatestDao extends BaseAbstractSqlTimeseriesDao impleme
                 .statsPrintIntervalMs(tsLatestStatsPrintIntervalMs)
                 .statsNamePrefix("ts.latest")
                 .batchSortEnabled(false)
+                .maxQueueSize(tsLatestMaxQueueSize)
+                .maxBlockTimeMs(tsLatestMaxBlockTimeMs)
                 .build();
 
         java.util.function.Function<TsKvLatestEntity, Integer> hashcodeFunction = entity -> entity.getEntityId().hashCode();
@@ -0,0 +1,116 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.dao.sqlts.dictionary;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.SettableFuture;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.thingsboard.server.dao.model.sqlts.dictionary.TsKvDictionary;
+import org.thingsboard.server.dao.sqlts.insert.dictionary.InsertTsKvDictionaryRepository;
+import org.thingsboard.server.dao.util.SqlTsOrTsLatestAnyDao;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Maps time-series keys to the ids stored in ts_kv and ts_kv_latest.
+ * The whole dictionary is loaded on startup. A new key is inserted once per node:
+ * concurrent callers for the same key wait on the future of the first one, callers for other keys are not blocked.
+ */
+@Component
+@SqlTsOrTsLatestAnyDao
+@Slf4j
+public class TsKeyDictionary {
+
+    private final ConcurrentMap<String, Integer> keyIds = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, SettableFuture<Integer>> pendingKeys = new ConcurrentHashMap<>();
+
+    @Autowired
+    private TsKvDictionaryRepository dictionaryRepository;
+
+    @Autowired
+    private InsertTsKvDictionaryRepository insertDictionaryRepository;
+
+    @PostConstruct
+    public void init() {
+        try {
+            dictionaryRepository.findAll().forEach(dictionary -> keyIds.put(dictionary.getKey(), dictionary.getKeyId()));
+            log.info("Loaded {} time-series keys", keyIds.size());
+        } catch (Exception e) {
+            log.warn("Failed to preload time-series keys, they will be loaded on demand", e);
+        }
+    }
+
+    public Integer getOrSaveKeyId(String strKey) {
+        Integer keyId = keyIds.get(strKey);
+        if (keyId != null) {
+            return keyId;
+        }
+        SettableFuture<Integer> future = SettableFuture.create();
+        SettableFuture<Integer> pending = pendingKeys.putIfAbsent(strKey, future);
+        if (pending != null) {
+            return Futures.getUnchecked(pending);
+        }
+        try {
+            keyId = keyIds.get(strKey);
+            if (keyId == null) {
+                keyId = insertDictionaryRepository.saveOrGetKeyId(strKey);
+                keyIds.put(strKey, keyId);
+            }
+            future.set(keyId);
+            return keyId;
+        } catch (RuntimeException e) {
+            future.setException(e);
+            throw e;
+        } finally {
+            pendingKeys.remove(strKey, future);
+        }
+    }
+
+    public Map<String, Integer> resolveKeyIds(Collection<String> strKeys) {
+        Map<String, Integer> result = new HashMap<>(strKeys.size());
+        List<String> missingKeys = new ArrayList<>();
+        for (String strKey : strKeys) {
+            Integer keyId = keyIds.get(strKey);
+            if (keyId != null) {
+                result.put(strKey, keyId);
+            } else {
+                missingKeys.add(strKey);
+            }
+        }
+        if (!missingKeys.isEmpty()) {
+            for (TsKvDictionary dictionary : dictionaryRepository.findAllByKeyIn(new HashSet<>(missingKeys))) {
+                keyIds.put(dictionary.getKey(), dictionary.getKeyId());
+                result.put(dictionary.getKey(), dictionary.getKeyId());
+            }
+            for (String strKey : missingKeys) {
+                if (!result.containsKey(strKey)) {
+                    result.put(strKey, getOrSaveKeyId(strKey));
+                }
+            }
+        }
+        return result;
+    }
+}
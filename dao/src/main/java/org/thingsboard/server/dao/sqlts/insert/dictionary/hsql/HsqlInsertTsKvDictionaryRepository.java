@@ -0,0 +1,43 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.dao.sqlts.insert.dictionary.hsql;
+
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+import org.thingsboard.server.dao.sqlts.insert.AbstractInsertRepository;
+import org.thingsboard.server.dao.sqlts.insert.dictionary.InsertTsKvDictionaryRepository;
+import org.thingsboard.server.dao.util.HsqlDao;
+import org.thingsboard.server.dao.util.SqlTsOrTsLatestAnyDao;
+
+@SqlTsOrTsLatestAnyDao
+@HsqlDao
+@Repository
+@Transactional
+public class HsqlInsertTsKvDictionaryRepository extends AbstractInsertRepository implements InsertTsKvDictionaryRepository {
+
+    private static final String INSERT_IF_ABSENT =
+            "MERGE INTO ts_kv_dictionary USING(VALUES ?) D (key) " +
+                    "ON (ts_kv_dictionary.key=D.key) " +
+                    "WHEN NOT MATCHED THEN INSERT (key) VALUES (D.key);";
+
+    private static final String SELECT_KEY_ID = "SELECT key_id FROM ts_kv_dictionary WHERE key = ?;";
+
+    @Override
+    public int saveOrGetKeyId(String key) {
+        jdbcTemplate.update(INSERT_IF_ABSENT, key);
+        return jdbcTemplate.queryForObject(SELECT_KEY_ID, Integer.class, key);
+    }
+}
@@ -0,0 +1,128 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.dao.sqlts.insert.psql;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+/**
+ * Encodes rows in the PostgreSQL binary COPY format.
+ * See https://www.postgresql.org/docs/current/sql-copy.html#id-1.9.3.55.9.4
+ */
+class PsqlBinaryCopyWriter {
+
+    private static final byte[] SIGNATURE = {'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xFF, '\r', '\n', 0};
+
+    private final ByteArrayOutputStream buffer;
+    private final DataOutputStream out;
+
+    PsqlBinaryCopyWriter(int initialSize) {
+        this.buffer = new ByteArrayOutputStream(initialSize);
+        this.out = new DataOutputStream(buffer);
+    }
+
+    void writeHeader() throws IOException {
+        out.write(SIGNATURE);
+        out.writeInt(0);
+        out.writeInt(0);
+    }
+
+    void writeTrailer() throws IOException {
+        out.writeShort(-1);
+    }
+
+    void startRow(int fieldCount) throws IOException {
+        out.writeShort(fieldCount);
+    }
+
+    void writeUuid(UUID value) throws IOException {
+        if (value == null) {
+            writeNull();
+        } else {
+            out.writeInt(16);
+            out.writeLong(value.getMostSignificantBits());
+            out.writeLong(value.getLeastSignificantBits());
+        }
+    }
+
+    void writeInt(Integer value) throws IOException {
+        if (value == null) {
+            writeNull();
+        } else {
+            out.writeInt(4);
+            out.writeInt(value);
+        }
+    }
+
+    void writeLong(Long value) throws IOException {
+        if (value == null) {
+            writeNull();
+        } else {
+            out.writeInt(8);
+            out.writeLong(value);
+        }
+    }
+
+    void writeDouble(Double value) throws IOException {
+        if (value == null) {
+            writeNull();
+        } else {
+            out.writeInt(8);
+            out.writeDouble(value);
+        }
+    }
+
+    void writeBoolean(Boolean value) throws IOException {
+        if (value == null) {
+            writeNull();
+        } else {
+            out.writeInt(1);
+            out.writeByte(value ? 1 : 0);
+        }
+    }
+
+    /**
+     * Text, varchar and json share the same binary representation: the UTF-8 bytes of the value.
+     */
+    void writeString(String value) throws IOException {
+        if (value == null) {
+            writeNull();
+        } else {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    int size() {
+        return buffer.size();
+    }
+
+    byte[] toByteArray() {
+        return buffer.toByteArray();
+    }
+
+    void reset() {
+        buffer.reset();
+    }
+
+    private void writeNull() throws IOException {
+        out.writeInt(-1);
+    }
+}
@@ -0,0 +1,114 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.dao.sqlts.insert.psql;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+import org.thingsboard.server.dao.model.sqlts.ts.TsKvEntity;
+import org.thingsboard.server.dao.sqlts.insert.AbstractInsertRepository;
+import org.thingsboard.server.dao.sqlts.insert.InsertTsRepository;
+import org.thingsboard.server.dao.util.PsqlDao;
+import org.thingsboard.server.dao.util.SqlTsDao;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+/**
+ * Streams a batch into a session-local staging table with binary COPY and merges it into ts_kv with one upsert.
+ * When a batch contains the same (entity_id, key, ts) more than once, the last entry wins, as in {@link PsqlInsertTsRepository}.
+ */
+@SqlTsDao
+@PsqlDao
+@Repository
+@Transactional
+@ConditionalOnProperty(prefix = "sql.ts", value = "insert_mode", havingValue = "copy")
+public class PsqlCopyInsertTsRepository extends AbstractInsertRepository implements InsertTsRepository<TsKvEntity> {
+
+    private static final int FIELD_COUNT = 9;
+    private static final int FLUSH_THRESHOLD = 64 * 1024;
+
+    private static final String CREATE_STAGING_TABLE = "CREATE TEMP TABLE IF NOT EXISTS ts_kv_staging " +
+            "(seq int, entity_id uuid, key int, ts bigint, bool_v boolean, str_v varchar(10000000), long_v bigint, dbl_v double precision, json_v json) " +
+            "ON COMMIT DELETE ROWS;";
+
+    private static final String COPY_TO_STAGING_TABLE = "COPY ts_kv_staging (seq, entity_id, key, ts, bool_v, str_v, long_v, dbl_v, json_v) FROM STDIN (FORMAT BINARY)";
+
+    private static final String MERGE_STAGING_TABLE = "INSERT INTO ts_kv (entity_id, key, ts, bool_v, str_v, long_v, dbl_v, json_v) " +
+            "SELECT DISTINCT ON (entity_id, key, ts) entity_id, key, ts, bool_v, str_v, long_v, dbl_v, json_v FROM ts_kv_staging " +
+            "ORDER BY entity_id, key, ts, seq DESC " +
+            "ON CONFLICT (entity_id, key, ts) DO UPDATE SET bool_v = EXCLUDED.bool_v, str_v = EXCLUDED.str_v, long_v = EXCLUDED.long_v, dbl_v = EXCLUDED.dbl_v, json_v = EXCLUDED.json_v;";
+
+    @Override
+    public void saveOrUpdate(List<TsKvEntity> entities) {
+        jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute(CREATE_STAGING_TABLE);
+                copyToStagingTable(connection, entities);
+                statement.execute(MERGE_STAGING_TABLE);
+            }
+            return null;
+        });
+    }
+
+    private void copyToStagingTable(Connection connection, List<TsKvEntity> entities) throws SQLException {
+        CopyIn copyIn = connection.unwrap(PGConnection.class).getCopyAPI().copyIn(COPY_TO_STAGING_TABLE);
+        try {
+            PsqlBinaryCopyWriter writer = new PsqlBinaryCopyWriter(FLUSH_THRESHOLD * 2);
+            writer.writeHeader();
+            for (int i = 0; i < entities.size(); i++) {
+                writeRow(writer, i, entities.get(i));
+                if (writer.size() >= FLUSH_THRESHOLD) {
+                    flush(copyIn, writer);
+                }
+            }
+            writer.writeTrailer();
+            flush(copyIn, writer);
+            copyIn.endCopy();
+        } catch (IOException e) {
+            throw new SQLException("Failed to encode ts_kv batch for COPY", e);
+        } finally {
+            if (copyIn.isActive()) {
+                copyIn.cancelCopy();
+            }
+        }
+    }
+
+    private void writeRow(PsqlBinaryCopyWriter writer, int seq, TsKvEntity entity) throws IOException {
+        writer.startRow(FIELD_COUNT);
+        writer.writeInt(seq);
+        writer.writeUuid(entity.getEntityId());
+        writer.writeInt(entity.getKey());
+        writer.writeLong(entity.getTs());
+        writer.writeBoolean(entity.getBooleanValue());
+        writer.writeString(replaceNullChars(entity.getStrValue()));
+        writer.writeLong(entity.getLongValue());
+        writer.writeDouble(entity.getDoubleValue());
+        writer.writeString(replaceNullChars(entity.getJsonValue()));
+    }
+
+    private static void flush(CopyIn copyIn, PsqlBinaryCopyWriter writer) throws SQLException {
+        byte[] bytes = writer.toByteArray();
+        copyIn.writeToCopy(bytes, 0, bytes.length);
+        writer.reset();
+    }
+}
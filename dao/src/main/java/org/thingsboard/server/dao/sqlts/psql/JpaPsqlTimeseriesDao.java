@@ -18,12 +18,14 @@ package org.thingsboard.server.dao.sqlts.psql;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
 import lombok.extern.slf4j.Slf4j;
 import org.hibernate.exception.ConstraintViolationException;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Component;
+import org.thingsboard.common.util.ThingsBoardThreadFactory;
 import org.thingsboard.server.common.data.id.EntityId;
 import org.thingsboard.server.common.data.id.TenantId;
 import org.thingsboard.server.common.data.kv.TsKvEntry;
@@ -40,10 +42,13 @@ import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
-import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 @Component
 @Slf4j
@@ -51,17 +56,27 @@ import java.util.concurrent.locks.ReentrantLock;
 @SqlTsDao
 public class JpaPsqlTimeseriesDao extends AbstractChunkedAggregationTimeseriesDao {
 
-    private final Map<Long, PsqlPartition> partitions = new ConcurrentHashMap<>();
-    private static final ReentrantLock partitionCreationLock = new ReentrantLock();
+    /**
+     * Written only by the partitions executor, read by the ingest threads.
+     */
+    private volatile PsqlPartitionBounds partitions = PsqlPartitionBounds.EMPTY;
+    private final ConcurrentMap<Long, ListenableFuture<Void>> pendingPartitions = new ConcurrentHashMap<>();
 
     @Autowired
     private PsqlPartitioningRepository partitioningRepository;
 
     private SqlTsPartitionDate tsFormat;
+    private ScheduledExecutorService partitionsExecutor;
 
     @Value("${sql.postgres.ts_key_value_partitioning:MONTHS}")
     private String partitioning;
 
+    @Value("${sql.postgres.ts_key_value_partitions_ahead:2}")
+    private int partitionsAhead;
+
+    @Value("${sql.postgres.ts_key_value_partitions_check_interval_ms:3600000}")
+    private long partitionsCheckIntervalMs;
+
     @Override
     protected void init() {
         super.init();
@@ -72,12 +87,23 @@ public class JpaPsqlTimeseriesDao extends AbstractChunkedAggregationTimeseriesDa
             log.warn("Incorrect configuration of partitioning {}", partitioning);
             throw new RuntimeException("Failed to parse partitioning property: " + partitioning + "!");
         }
+        if (!tsFormat.equals(SqlTsPartitionDate.INDEFINITE)) {
+            partitionsExecutor = Executors.newSingleThreadScheduledExecutor(ThingsBoardThreadFactory.forName("sql-ts-partitions"));
+            partitionsExecutor.scheduleWithFixedDelay(this::createUpcomingPartitions, 0, partitionsCheckIntervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    protected void destroy() {
+        if (partitionsExecutor != null) {
+            partitionsExecutor.shutdownNow();
+        }
+        super.destroy();
     }
 
     @Override
     public ListenableFuture<Integer> save(TenantId tenantId, EntityId entityId, TsKvEntry tsKvEntry, long ttl) {
         int dataPointDays = getDataPointDays(tsKvEntry, computeTtl(ttl));
-        savePartitionIfNotExist(tsKvEntry.getTs());
         String strKey = tsKvEntry.getKey();
         Integer keyId = getOrSaveKeyId(strKey);
         TsKvEntity entity = new TsKvEntity();
@@ -90,46 +116,91 @@ public class JpaPsqlTimeseriesDao extends AbstractChunkedAggregationTimeseriesDa
         entity.setBooleanValue(tsKvEntry.getBooleanValue().orElse(null));
         entity.setJsonValue(tsKvEntry.getJsonValue().orElse(null));
         log.trace("Saving entity: {}", entity);
-        return Futures.transform(tsQueue.add(entity), v -> dataPointDays, MoreExecutors.directExecutor());
+        ListenableFuture<Void> saveFuture;
+        if (isPartitionReady(tsKvEntry.getTs())) {
+            saveFuture = tsQueue.add(entity);
+        } else {
+            saveFuture = Futures.transformAsync(createPartitionAsync(tsKvEntry.getTs()), v -> tsQueue.add(entity), MoreExecutors.directExecutor());
+        }
+        return Futures.transform(saveFuture, v -> dataPointDays, MoreExecutors.directExecutor());
+    }
+
+    private boolean isPartitionReady(long ts) {
+        return tsFormat.equals(SqlTsPartitionDate.INDEFINITE) || ts < 0 || partitions.contains(ts);
+    }
+
+    /**
+     * Late or backfilled data: the partition is created on the partitions executor,
+     * concurrent points of the same partition share one creation future.
+     */
+    private ListenableFuture<Void> createPartitionAsync(long ts) {
+        long partitionStartTs = toMills(tsFormat.trancateTo(toLocalDateTime(ts)));
+        SettableFuture<Void> future = SettableFuture.create();
+        ListenableFuture<Void> pending = pendingPartitions.putIfAbsent(partitionStartTs, future);
+        if (pending != null) {
+            return pending;
+        }
+        try {
+            partitionsExecutor.execute(() -> {
+                try {
+                    savePartition(toPartition(partitionStartTs));
+                    future.set(null);
+                } catch (Throwable t) {
+                    future.setException(t);
+                } finally {
+                    pendingPartitions.remove(partitionStartTs, future);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // executor is shut down, fail the waiting saves instead of leaving them pending forever
+            future.setException(e);
+            pendingPartitions.remove(partitionStartTs, future);
+        }
+        return future;
     }
 
-    private void savePartitionIfNotExist(long ts) {
-        if (!tsFormat.equals(SqlTsPartitionDate.INDEFINITE) && ts >= 0) {
-            LocalDateTime time = LocalDateTime.ofInstant(Instant.ofEpochMilli(ts), ZoneOffset.UTC);
-            LocalDateTime localDateTimeStart = tsFormat.trancateTo(time);
-            long partitionStartTs = toMills(localDateTimeStart);
-            if (partitions.get(partitionStartTs) == null) {
-                LocalDateTime localDateTimeEnd = tsFormat.plusTo(localDateTimeStart);
-                long partitionEndTs = toMills(localDateTimeEnd);
-                ZonedDateTime zonedDateTime = localDateTimeStart.atZone(ZoneOffset.UTC);
-                String partitionDate = zonedDateTime.format(DateTimeFormatter.ofPattern(tsFormat.getPattern()));
-                savePartition(new PsqlPartition(partitionStartTs, partitionEndTs, partitionDate));
+    private void createUpcomingPartitions() {
+        try {
+            LocalDateTime partitionStart = tsFormat.trancateTo(toLocalDateTime(System.currentTimeMillis()));
+            for (int i = 0; i <= partitionsAhead; i++) {
+                savePartition(toPartition(toMills(partitionStart)));
+                partitionStart = tsFormat.plusTo(partitionStart);
             }
+        } catch (Exception e) {
+            log.warn("Failed to create upcoming partitions", e);
         }
     }
 
+    private PsqlPartition toPartition(long partitionStartTs) {
+        LocalDateTime localDateTimeStart = toLocalDateTime(partitionStartTs);
+        long partitionEndTs = toMills(tsFormat.plusTo(localDateTimeStart));
+        ZonedDateTime zonedDateTime = localDateTimeStart.atZone(ZoneOffset.UTC);
+        String partitionDate = zonedDateTime.format(DateTimeFormatter.ofPattern(tsFormat.getPattern()));
+        return new PsqlPartition(partitionStartTs, partitionEndTs, partitionDate);
+    }
+
     private void savePartition(PsqlPartition psqlPartition) {
-        if (!partitions.containsKey(psqlPartition.getStart())) {
-            partitionCreationLock.lock();
+        if (!partitions.containsStart(psqlPartition.getStart())) {
             try {
                 log.trace("Saving partition: {}", psqlPartition);
                 partitioningRepository.save(psqlPartition);
                 log.trace("Adding partition to Set: {}", psqlPartition);
-                partitions.put(psqlPartition.getStart(), psqlPartition);
             } catch (DataIntegrityViolationException ex) {
                 log.trace("Error occurred during partition save:", ex);
                 if (ex.getCause() instanceof ConstraintViolationException) {
                     log.warn("Saving partition [{}] rejected. Timeseries data will save to the ts_kv_indefinite (DEFAULT) partition.", psqlPartition.getPartitionDate());
-                    partitions.put(psqlPartition.getStart(), psqlPartition);
                 } else {
                     throw new RuntimeException(ex);
                 }
-            } finally {
-                partitionCreationLock.unlock();
             }
+            partitions = partitions.add(psqlPartition.getStart(), psqlPartition.getEnd());
         }
     }
 
+    private static LocalDateTime toLocalDateTime(long ts) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(ts), ZoneOffset.UTC);
+    }
+
     private static long toMills(LocalDateTime time) {
         return time.toInstant(ZoneOffset.UTC).toEpochMilli();
     }
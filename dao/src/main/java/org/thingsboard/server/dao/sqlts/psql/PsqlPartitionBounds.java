@@ -0,0 +1,71 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.dao.sqlts.psql;
+
+import java.util.Arrays;
+
+/**
+ * Immutable, sorted set of non-overlapping [start, end) partition ranges.
+ * Lookups are a binary search over primitive arrays, so the ingest path does not allocate.
+ */
+final class PsqlPartitionBounds {
+
+    static final PsqlPartitionBounds EMPTY = new PsqlPartitionBounds(new long[0], new long[0]);
+
+    private final long[] starts;
+    private final long[] ends;
+
+    private PsqlPartitionBounds(long[] starts, long[] ends) {
+        this.starts = starts;
+        this.ends = ends;
+    }
+
+    boolean contains(long ts) {
+        int idx = Arrays.binarySearch(starts, ts);
+        if (idx < 0) {
+            idx = -idx - 2;
+            if (idx < 0) {
+                return false;
+            }
+        }
+        return ts < ends[idx];
+    }
+
+    boolean containsStart(long start) {
+        return Arrays.binarySearch(starts, start) >= 0;
+    }
+
+    int size() {
+        return starts.length;
+    }
+
+    PsqlPartitionBounds add(long start, long end) {
+        int idx = Arrays.binarySearch(starts, start);
+        if (idx >= 0) {
+            return this;
+        }
+        int insertAt = -idx - 1;
+        long[] newStarts = new long[starts.length + 1];
+        long[] newEnds = new long[ends.length + 1];
+        System.arraycopy(starts, 0, newStarts, 0, insertAt);
+        System.arraycopy(ends, 0, newEnds, 0, insertAt);
+        newStarts[insertAt] = start;
+        newEnds[insertAt] = end;
+        System.arraycopy(starts, insertAt, newStarts, insertAt + 1, starts.length - insertAt);
+        System.arraycopy(ends, insertAt, newEnds, insertAt + 1, ends.length - insertAt);
+        return new PsqlPartitionBounds(newStarts, newEnds);
+    }
+}
@@ -31,6 +31,7 @@ import org.thingsboard.server.common.data.kv.TsKvEntry;
 import org.thingsboard.server.dao.nosql.TbResultSet;
 
 import javax.annotation.Nullable;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.Executor;
@@ -57,20 +58,32 @@ public class AggregatePartitionsFunction implements com.google.common.util.concu
     private final String key;
     private final long ts;
     private final Executor executor;
+    private final List<TsKvRollup> rollups;
 
     public AggregatePartitionsFunction(Aggregation aggregation, String key, long ts, Executor executor) {
+        this(aggregation, key, ts, executor, Collections.emptyList());
+    }
+
+    /**
+     * @param rollups pre-aggregated buckets that are combined with the aggregated partitions
+     */
+    public AggregatePartitionsFunction(Aggregation aggregation, String key, long ts, Executor executor, List<TsKvRollup> rollups) {
         this.aggregation = aggregation;
         this.key = key;
         this.ts = ts;
         this.executor = executor;
+        this.rollups = rollups;
     }
 
     @Override
     public ListenableFuture<Optional<TsKvEntry>> apply(@Nullable List<TbResultSet> rsList) {
     log.trace("[{}][{}][{}] Going to aggregate data", key, ts, aggregation);
-    if (rsList == null || rsList.isEmpty()) {
+    if ((rsList == null || rsList.isEmpty()) && rollups.isEmpty()) {
         return Futures.immediateFuture(Optional.empty());
     }
+    if (rsList == null) {
+        rsList = Collections.emptyList();
+    }
     return Futures.transform(
         Futures.allAsList(
             rsList.stream().map(rs -> rs.allRows(this.executor))
@@ -83,6 +96,9 @@ public class AggregatePartitionsFunction implements com.google.common.util.concu
                         processResultSetRow(row, aggResult);
                     }
                 }
+                for (TsKvRollup rollup : rollups) {
+                    processRollup(rollup, aggResult);
+                }
                 return processAggregationResult(aggResult);
             } catch (Exception e) {
                 log.error("[{}][{}][{}] Failed to aggregate data", key, ts, aggregation, e);
@@ -92,14 +108,6 @@ public class AggregatePartitionsFunction implements com.google.common.util.concu
     }
 
     private void processResultSetRow(Row row, AggregationResult aggResult) {
-        long curCount = 0L;
-
-        Long curLValue = null;
-        Double curDValue = null;
-        Boolean curBValue = null;
-        String curSValue = null;
-        String curJValue = null;
-
         long longCount = row.getLong(LONG_CNT_POS);
         long doubleCount = row.getLong(DOUBLE_CNT_POS);
         long boolCount = row.getLong(BOOL_CNT_POS);
@@ -107,32 +115,62 @@ public class AggregatePartitionsFunction implements com.google.common.util.concu
         long jsonCount = row.getLong(JSON_CNT_POS);
 
         if (longCount > 0 || doubleCount > 0) {
-            if (longCount > 0) {
-                aggResult.dataType = DataType.LONG;
-                curCount += longCount;
-                curLValue = getLongValue(row);
-            }
-            if (doubleCount > 0) {
-                aggResult.hasDouble = true;
-                aggResult.dataType = DataType.DOUBLE;
-                curCount += doubleCount;
-                curDValue = getDoubleValue(row);
-            }
+            processPartialResult(aggResult, longCount, doubleCount, longCount > 0 ? getLongValue(row) : null, doubleCount > 0 ? getDoubleValue(row) : null);
         } else if (boolCount > 0) {
-            aggResult.dataType = DataType.BOOLEAN;
-            curCount = boolCount;
-            curBValue = getBooleanValue(row);
+            processPartialResult(aggResult, DataType.BOOLEAN, boolCount, getBooleanValue(row), null, null);
         } else if (strCount > 0) {
-            aggResult.dataType = DataType.STRING;
-            curCount = strCount;
-            curSValue = getStringValue(row);
+            processPartialResult(aggResult, DataType.STRING, strCount, null, getStringValue(row), null);
         } else if (jsonCount > 0) {
-            aggResult.dataType = DataType.JSON;
-            curCount = jsonCount;
-            curJValue = getJsonValue(row);
-        } else {
-            return;
+            processPartialResult(aggResult, DataType.JSON, jsonCount, null, null, getJsonValue(row));
+        }
+    }
+
+    private void processRollup(TsKvRollup rollup, AggregationResult aggResult) {
+        boolean min = aggregation == Aggregation.MIN;
+        boolean max = aggregation == Aggregation.MAX;
+        boolean sum = aggregation == Aggregation.SUM || aggregation == Aggregation.AVG;
+        if (rollup.getLongCount() > 0 || rollup.getDoubleCount() > 0) {
+            Long curLValue = null;
+            Double curDValue = null;
+            if (rollup.getLongCount() > 0) {
+                curLValue = min ? rollup.getLongMin() : max ? rollup.getLongMax() : sum ? rollup.getLongSum() : null;
+            }
+            if (rollup.getDoubleCount() > 0) {
+                curDValue = min ? rollup.getDoubleMin() : max ? rollup.getDoubleMax() : sum ? rollup.getDoubleSum() : null;
+            }
+            processPartialResult(aggResult, rollup.getLongCount(), rollup.getDoubleCount(), curLValue, curDValue);
+        } else if (rollup.getBoolCount() > 0) {
+            Boolean curBValue = min ? rollup.getBoolMin() : max ? rollup.getBoolMax() : null;
+            processPartialResult(aggResult, DataType.BOOLEAN, rollup.getBoolCount(), curBValue, null, null);
+        } else if (rollup.getStrCount() > 0) {
+            String curSValue = min ? rollup.getStrMin() : max ? rollup.getStrMax() : null;
+            processPartialResult(aggResult, DataType.STRING, rollup.getStrCount(), null, curSValue, null);
+        } else if (rollup.getJsonCount() > 0) {
+            String curJValue = min ? rollup.getJsonMin() : max ? rollup.getJsonMax() : null;
+            processPartialResult(aggResult, DataType.JSON, rollup.getJsonCount(), null, null, curJValue);
+        }
+    }
+
+    private void processPartialResult(AggregationResult aggResult, long longCount, long doubleCount, Long curLValue, Double curDValue) {
+        long curCount = 0L;
+        if (longCount > 0) {
+            aggResult.dataType = DataType.LONG;
+            curCount += longCount;
+        }
+        if (doubleCount > 0) {
+            aggResult.hasDouble = true;
+            aggResult.dataType = DataType.DOUBLE;
+            curCount += doubleCount;
         }
+        processPartialResult(aggResult, curCount, curLValue, curDValue, null, null, null);
+    }
+
+    private void processPartialResult(AggregationResult aggResult, DataType dataType, long curCount, Boolean curBValue, String curSValue, String curJValue) {
+        aggResult.dataType = dataType;
+        processPartialResult(aggResult, curCount, null, null, curBValue, curSValue, curJValue);
+    }
+
+    private void processPartialResult(AggregationResult aggResult, long curCount, Long curLValue, Double curDValue, Boolean curBValue, String curSValue, String curJValue) {
 
         if (aggregation == Aggregation.COUNT) {
             aggResult.count += curCount;
@@ -44,6 +44,8 @@ import org.thingsboard.server.dao.service.Validator;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 import static org.apache.commons.lang3.StringUtils.isBlank;
@@ -133,18 +135,28 @@ public class BaseTimeseriesService implements TimeseriesService {
             throw new IncorrectParameterException("Key value entry can't be null");
         }
         List<ListenableFuture<Integer>> futures = Lists.newArrayListWithExpectedSize(INSERTS_PER_ENTRY);
-        saveAndRegisterFutures(tenantId, futures, entityId, tsKvEntry, 0L);
+        saveAndRegisterFutures(tenantId, futures, entityId, tsKvEntry, 0L, true);
         return Futures.transform(Futures.allAsList(futures), SUM_ALL_INTEGERS, MoreExecutors.directExecutor());
     }
 
     @Override
     public ListenableFuture<Integer> save(TenantId tenantId, EntityId entityId, List<TsKvEntry> tsKvEntries, long ttl) {
+        return doSave(tenantId, entityId, tsKvEntries, ttl, true);
+    }
+
+    @Override
+    public ListenableFuture<Integer> saveWithoutLatest(TenantId tenantId, EntityId entityId, List<TsKvEntry> tsKvEntries, long ttl) {
+        return doSave(tenantId, entityId, tsKvEntries, ttl, false);
+    }
+
+    private ListenableFuture<Integer> doSave(TenantId tenantId, EntityId entityId, List<TsKvEntry> tsKvEntries, long ttl, boolean saveLatest) {
         List<ListenableFuture<Integer>> futures = Lists.newArrayListWithExpectedSize(tsKvEntries.size() * INSERTS_PER_ENTRY);
+        resolveKeyIds(tsKvEntries, saveLatest);
         for (TsKvEntry tsKvEntry : tsKvEntries) {
             if (tsKvEntry == null) {
                 throw new IncorrectParameterException("Key value entry can't be null");
             }
-            saveAndRegisterFutures(tenantId, futures, entityId, tsKvEntry, ttl);
+            saveAndRegisterFutures(tenantId, futures, entityId, tsKvEntry, ttl, saveLatest);
         }
         return Futures.transform(Futures.allAsList(futures), SUM_ALL_INTEGERS, MoreExecutors.directExecutor());
     }
@@ -152,6 +164,7 @@ public class BaseTimeseriesService implements TimeseriesService {
     @Override
     public ListenableFuture<List<Void>> saveLatest(TenantId tenantId, EntityId entityId, List<TsKvEntry> tsKvEntries) {
         List<ListenableFuture<Void>> futures = Lists.newArrayListWithExpectedSize(tsKvEntries.size());
+        resolveLatestKeyIds(tsKvEntries);
         for (TsKvEntry tsKvEntry : tsKvEntries) {
             if (tsKvEntry == null) {
                 throw new IncorrectParameterException("Key value entry can't be null");
@@ -161,12 +174,34 @@ public class BaseTimeseriesService implements TimeseriesService {
         return Futures.allAsList(futures);
     }
 
-    private void saveAndRegisterFutures(TenantId tenantId, List<ListenableFuture<Integer>> futures, EntityId entityId, TsKvEntry tsKvEntry, long ttl) {
+    private void resolveKeyIds(List<TsKvEntry> tsKvEntries, boolean saveLatest) {
+        if (tsKvEntries.size() > 1) {
+            Set<String> keys = getKeys(tsKvEntries);
+            timeseriesDao.resolveKeyIds(keys);
+            if (saveLatest) {
+                timeseriesLatestDao.resolveKeyIds(keys);
+            }
+        }
+    }
+
+    private void resolveLatestKeyIds(List<TsKvEntry> tsKvEntries) {
+        if (tsKvEntries.size() > 1) {
+            timeseriesLatestDao.resolveKeyIds(getKeys(tsKvEntries));
+        }
+    }
+
+    private static Set<String> getKeys(List<TsKvEntry> tsKvEntries) {
+        return tsKvEntries.stream().filter(Objects::nonNull).map(TsKvEntry::getKey).collect(Collectors.toSet());
+    }
+
+    private void saveAndRegisterFutures(TenantId tenantId, List<ListenableFuture<Integer>> futures, EntityId entityId, TsKvEntry tsKvEntry, long ttl, boolean saveLatest) {
         if (entityId.getEntityType().equals(EntityType.ENTITY_VIEW)) {
             throw new IncorrectParameterException("Telemetry data can't be stored for entity view. Read only");
         }
         futures.add(timeseriesDao.savePartition(tenantId, entityId, tsKvEntry.getTs(), tsKvEntry.getKey(), ttl));
-        futures.add(Futures.transform(timeseriesLatestDao.saveLatest(tenantId, entityId, tsKvEntry), v -> 0, MoreExecutors.directExecutor()));
+        if (saveLatest) {
+            futures.add(Futures.transform(timeseriesLatestDao.saveLatest(tenantId, entityId, tsKvEntry), v -> 0, MoreExecutors.directExecutor()));
+        }
         futures.add(timeseriesDao.save(tenantId, entityId, tsKvEntry, ttl));
     }
 
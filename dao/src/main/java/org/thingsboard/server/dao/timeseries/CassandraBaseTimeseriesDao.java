@@ -29,6 +29,7 @@ import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.MoreExecutors;
 import lombok.extern.slf4j.Slf4j;
+import org.thingsboard.common.util.ThingsBoardThreadFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.env.Environment;
@@ -43,6 +44,7 @@ import org.thingsboard.server.common.data.kv.DeleteTsKvQuery;
 import org.thingsboard.server.common.data.kv.KvEntry;
 import org.thingsboard.server.common.data.kv.ReadTsKvQuery;
 import org.thingsboard.server.common.data.kv.TsKvEntry;
+import org.thingsboard.server.common.stats.StatsFactory;
 import org.thingsboard.server.dao.model.ModelConstants;
 import org.thingsboard.server.dao.nosql.TbResultSet;
 import org.thingsboard.server.dao.nosql.TbResultSetFuture;
@@ -56,11 +58,18 @@ import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -99,6 +108,57 @@ public class CassandraBaseTimeseriesDao extends AbstractCassandraBaseTimeseriesD
     @Value("${cassandra.query.set_null_values_enabled}")
     private boolean setNullValuesEnabled;
 
+    @Value("${cassandra.query.ts_key_value_partitions_prefetch:1}")
+    private int partitionsPrefetch;
+
+    @Value("${cassandra.query.ts_rollups.enabled:false}")
+    private boolean rollupsEnabled;
+
+    @Value("${cassandra.query.ts_rollups.resolutions:MINUTE,HOUR,DAY}")
+    private String rollupResolutionsConfig;
+
+    @Value("${cassandra.query.ts_rollups.compaction_delay_ms:60000}")
+    private long rollupCompactionDelayMs;
+
+    @Value("${cassandra.query.ts_rollups.compaction_interval_ms:60000}")
+    private long rollupCompactionIntervalMs;
+
+    @Value("${cassandra.query.ts_rollups.compaction_batch_size:1000}")
+    private int rollupCompactionBatchSize;
+
+    @Value("${cassandra.query.ts_rollups.compaction_spread_ms:3600000}")
+    private long rollupCompactionSpreadMs;
+
+    @Value("${cassandra.query.ts_rollups.max_tracked_keys:1000000}")
+    private int rollupMaxTrackedKeys;
+
+    @Value("${cassandra.query.ts_write_coalescing.enabled:false}")
+    private boolean writeCoalescingEnabled;
+
+    @Value("${cassandra.query.ts_write_coalescing.batch_size:100}")
+    private int writeCoalescingBatchSize;
+
+    @Value("${cassandra.query.ts_write_coalescing.max_batch_bytes:5120}")
+    private int writeCoalescingMaxBatchBytes;
+
+    @Value("${cassandra.query.ts_write_coalescing.linger_ms:5}")
+    private long writeCoalescingLingerMs;
+
+    @Value("${cassandra.query.ts_write_coalescing.queue_size:200000}")
+    private int writeCoalescingQueueSize;
+
+    @Value("${cassandra.query.rate_limit_print_interval_ms:10000}")
+    private long writeCoalescingStatsPrintIntervalMs;
+
+    @Autowired
+    private StatsFactory statsFactory;
+
+    private CassandraWriteCoalescer writeCoalescer;
+
+    private List<TsRollupResolution> rollupResolutions = Collections.emptyList();
+    private TsRollupCompactor rollupCompactor;
+    private ScheduledExecutorService rollupCompactionExecutor;
+
     private NoSqlTsPartitionDate tsFormat;
 
     private PreparedStatement partitionInsertStmt;
@@ -109,6 +169,11 @@ public class CassandraBaseTimeseriesDao extends AbstractCassandraBaseTimeseriesD
     private PreparedStatement[] fetchStmtsDesc;
     private PreparedStatement deleteStmt;
     private PreparedStatement deletePartitionStmt;
+    private PreparedStatement rollupInsertStmt;
+    private PreparedStatement rollupDirtyStmt;
+    private PreparedStatement rollupFetchStmt;
+    private PreparedStatement rollupAggregationStmt;
+    private PreparedStatement rollupDeleteStmt;
     private final Lock stmtCreationLock = new ReentrantLock();
 
     private boolean isInstall() {
@@ -127,14 +192,56 @@ public class CassandraBaseTimeseriesDao extends AbstractCassandraBaseTimeseriesD
             if (!isFixedPartitioning() && partitionsCacheSize > 0) {
                 cassandraTsPartitionsCache = new CassandraTsPartitionsCache(partitionsCacheSize);
             }
+            if (writeCoalescingEnabled) {
+                writeCoalescer = new CassandraWriteCoalescer(writeCoalescingBatchSize, writeCoalescingMaxBatchBytes, writeCoalescingLingerMs, writeCoalescingQueueSize, writeCoalescingStatsPrintIntervalMs,
+                        statsFactory, this::executeAsyncWrite);
+                writeCoalescer.init();
+            }
+            if (rollupsEnabled) {
+                initRollups();
+            }
         } else {
             log.warn("Incorrect configuration of partitioning {}", partitioning);
             throw new RuntimeException("Failed to parse partitioning property: " + partitioning + "!");
         }
     }
 
+    private void initRollups() {
+        List<TsRollupResolution> resolutions = new ArrayList<>();
+        for (String name : rollupResolutionsConfig.split(",")) {
+            if (!name.trim().isEmpty()) {
+                TsRollupResolution resolution = TsRollupResolution.valueOf(name.trim().toUpperCase());
+                // rollup buckets are stored in the partitions of the raw data, so they can't be larger than the partition
+                if (isFixedPartitioning() || resolution.getDurationMs() <= tsFormat.getTruncateUnit().getDuration().toMillis()) {
+                    resolutions.add(resolution);
+                } else {
+                    log.warn("Rollup resolution {} is ignored because it is larger than the {} partitioning", resolution, partitioning);
+                }
+            }
+        }
+        if (resolutions.isEmpty()) {
+            log.warn("Time-series rollups are disabled because no rollup resolution is applicable");
+            rollupsEnabled = false;
+            return;
+        }
+        resolutions.sort(Comparator.comparingLong(TsRollupResolution::getDurationMs).reversed());
+        rollupResolutions = resolutions;
+        rollupCompactor = new TsRollupCompactor(rollupResolutions, rollupCompactionDelayMs, rollupCompactionSpreadMs,
+                rollupCompactionBatchSize, rollupMaxTrackedKeys, this::compactRollup);
+        if (!isInstall()) {
+            rollupCompactionExecutor = Executors.newSingleThreadScheduledExecutor(ThingsBoardThreadFactory.forName("ts-rollup-compaction"));
+            rollupCompactionExecutor.scheduleWithFixedDelay(this::compactRollups, rollupCompactionIntervalMs, rollupCompactionIntervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
     @PreDestroy
     public void stop() {
+        if (writeCoalescer != null) {
+            writeCoalescer.destroy();
+        }
+        if (rollupCompactionExecutor != null) {
+            rollupCompactionExecutor.shutdownNow();
+        }
         super.stopExecutor();
     }
 
@@ -176,7 +283,10 @@ public class CassandraBaseTimeseriesDao extends AbstractCassandraBaseTimeseriesD
             stmtBuilder.setInt(6, (int) ttl);
         }
         BoundStatement stmt = stmtBuilder.build();
-        futures.add(getFuture(executeAsyncWrite(tenantId, stmt), rs -> null));
+        futures.add(executeTsWrite(tenantId, entityId, tsKvEntry.getKey(), partition, stmt));
+        if (rollupsEnabled) {
+            onRollupWrite(tenantId, entityId, tsKvEntry, ttl, futures);
+        }
         return Futures.transform(Futures.allAsList(futures), result -> dataPointDays, MoreExecutors.directExecutor());
     }
 
@@ -215,7 +325,22 @@ public class CassandraBaseTimeseriesDao extends AbstractCassandraBaseTimeseriesD
             @Override
             public void onSuccess(@Nullable List<Long> partitions) {
                 QueryCursor cursor = new QueryCursor(entityId.getEntityType().name(), entityId.getId(), query, partitions);
-                deleteAsync(tenantId, cursor, resultFuture);
+                if (rollupsEnabled) {
+                    Futures.addCallback(deleteRollups(tenantId, entityId, query, partitions), new FutureCallback<List<Void>>() {
+                        @Override
+                        public void onSuccess(@Nullable List<Void> result) {
+                            deleteAsync(tenantId, cursor, resultFuture);
+                        }
+
+                        @Override
+                        public void onFailure(Throwable t) {
+                            log.error("[{}][{}] Failed to delete rollups for interval {}-{}", entityId.getEntityType().name(), entityId.getId(), query.getStartTs(), query.getEndTs(), t);
+                            resultFuture.setException(t);
+                        }
+                    }, readResultsProcessingExecutor);
+                } else {
+                    deleteAsync(tenantId, cursor, resultFuture);
+                }
             }
 
             @Override
@@ -268,6 +393,10 @@ public class CassandraBaseTimeseriesDao extends AbstractCassandraBaseTimeseriesD
             return findAllAsyncWithLimit(tenantId, entityId, query);
         } else {
             long step = Math.max(query.getInterval(), MIN_AGGREGATION_STEP_MS);
+            List<TsRollupResolution> resolutions = getRollupResolutions(step);
+            if (!resolutions.isEmpty()) {
+                return findAllAsyncWithRollups(tenantId, entityId, query, step, resolutions);
+            }
             long stepTs = query.getStartTs();
             List<ListenableFuture<Optional<TsKvEntry>>> futures = new ArrayList<>();
             while (stepTs < query.getEndTs()) {
@@ -298,7 +427,11 @@ public class CassandraBaseTimeseriesDao extends AbstractCassandraBaseTimeseriesD
             @Override
             public void onSuccess(@Nullable List<Long> partitions) {
                 TsKvQueryCursor cursor = new TsKvQueryCursor(entityId.getEntityType().name(), entityId.getId(), query, partitions);
-                findAllAsyncSequentiallyWithLimit(tenantId, cursor, resultFuture);
+                if (partitionsPrefetch > 1) {
+                    findAllAsyncWithPrefetch(tenantId, cursor, new ArrayDeque<>(), resultFuture);
+                } else {
+                    findAllAsyncSequentiallyWithLimit(tenantId, cursor, resultFuture);
+                }
             }
 
             @Override
@@ -319,18 +452,7 @@ public class CassandraBaseTimeseriesDao extends AbstractCassandraBaseTimeseriesD
         if (cursor.isFull() || !cursor.hasNextPartition()) {
             resultFuture.set(cursor.getData());
         } else {
-            PreparedStatement proto = getFetchStmt(Aggregation.NONE, cursor.getOrderBy());
-            BoundStatementBuilder stmtBuilder = new BoundStatementBuilder(proto.bind());
-
-            stmtBuilder.setString(0, cursor.getEntityType());
-            stmtBuilder.setUuid(1, cursor.getEntityId());
-            stmtBuilder.setString(2, cursor.getKey());
-            stmtBuilder.setLong(3, cursor.getNextPartition());
-            stmtBuilder.setLong(4, cursor.getStartTs());
-            stmtBuilder.setLong(5, cursor.getEndTs());
-            stmtBuilder.setInt(6, cursor.getCurrentLimit());
-
-            BoundStatement stmt = stmtBuilder.build();
+            BoundStatement stmt = getFetchPartitionStmt(cursor, cursor.getNextPartition(), cursor.getCurrentLimit());
 
             Futures.addCallback(executeAsyncRead(tenantId, stmt), new FutureCallback<TbResultSet>() {
                 @Override
@@ -365,6 +487,65 @@ public class CassandraBaseTimeseriesDao extends AbstractCassandraBaseTimeseriesD
         }
     }
 
+    /**
+     * Keeps up to {@code partitionsPrefetch} partition reads in flight while the results are still consumed in the
+     * partition order. Each read is limited by the records that were still missing when it was issued, so the last
+     * consumed partition may return more than needed and is truncated by the cursor. Reads that are not needed once
+     * the cursor is full are cancelled.
+     */
+    void findAllAsyncWithPrefetch(TenantId tenantId, TsKvQueryCursor cursor, Deque<ListenableFuture<List<TsKvEntry>>> inFlight,
+                                  SimpleListenableFuture<List<TsKvEntry>> resultFuture) {
+        if (!cursor.isFull()) {
+            while (inFlight.size() < partitionsPrefetch && cursor.hasNextPartition()) {
+                inFlight.add(fetchPartition(tenantId, cursor, cursor.getNextPartition(), cursor.getCurrentLimit()));
+            }
+        }
+        if (cursor.isFull() || inFlight.isEmpty()) {
+            inFlight.forEach(future -> future.cancel(false));
+            resultFuture.set(cursor.getData());
+            return;
+        }
+        Futures.addCallback(inFlight.poll(), new FutureCallback<List<TsKvEntry>>() {
+            @Override
+            public void onSuccess(@Nullable List<TsKvEntry> result) {
+                cursor.addData(result == null ? Collections.emptyList() : result);
+                findAllAsyncWithPrefetch(tenantId, cursor, inFlight, resultFuture);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                log.error("[{}][{}] Failed to fetch data for key {}", cursor.getEntityType(), cursor.getEntityId(), cursor.getKey(), t);
+                inFlight.forEach(future -> future.cancel(false));
+                resultFuture.setException(t);
+            }
+        }, readResultsProcessingExecutor);
+    }
+
+    protected ListenableFuture<List<TsKvEntry>> fetchPartition(TenantId tenantId, TsKvQueryCursor cursor, long partition, int limit) {
+        BoundStatement stmt = getFetchPartitionStmt(cursor, partition, limit);
+        return Futures.transformAsync(executeAsyncRead(tenantId, stmt), result -> {
+            if (result == null) {
+                return Futures.immediateFuture(Collections.emptyList());
+            }
+            return Futures.transform(result.allRows(readResultsProcessingExecutor), this::convertResultToTsKvEntryList, readResultsProcessingExecutor);
+        }, readResultsProcessingExecutor);
+    }
+
+    private BoundStatement getFetchPartitionStmt(TsKvQueryCursor cursor, long partition, int limit) {
+        PreparedStatement proto = getFetchStmt(Aggregation.NONE, cursor.getOrderBy());
+        BoundStatementBuilder stmtBuilder = new BoundStatementBuilder(proto.bind());
+
+        stmtBuilder.setString(0, cursor.getEntityType());
+        stmtBuilder.setUuid(1, cursor.getEntityId());
+        stmtBuilder.setString(2, cursor.getKey());
+        stmtBuilder.setLong(3, partition);
+        stmtBuilder.setLong(4, cursor.getStartTs());
+        stmtBuilder.setLong(5, cursor.getEndTs());
+        stmtBuilder.setInt(6, limit);
+
+        return stmtBuilder.build();
+    }
+
     private ListenableFuture<Optional<TsKvEntry>> findAndAggregateAsync(TenantId tenantId, EntityId entityId, ReadTsKvQuery query, long minPartition, long maxPartition) {
         final Aggregation aggregation = query.getAggregation();
         final String key = query.getKey();
@@ -401,16 +582,7 @@ public class CassandraBaseTimeseriesDao extends AbstractCassandraBaseTimeseriesD
                 List<TbResultSetFuture> futures = new ArrayList<>(partitions.size());
                 for (Long partition : partitions) {
                     log.trace("Fetching data for partition [{}] for entityType {} and entityId {}", partition, entityId.getEntityType(), entityId.getId());
-                    BoundStatementBuilder stmtBuilder = new BoundStatementBuilder(proto.bind());
-                    stmtBuilder.setString(0, entityId.getEntityType().name());
-                    stmtBuilder.setUuid(1, entityId.getId());
-                    stmtBuilder.setString(2, key);
-                    stmtBuilder.setLong(3, partition);
-                    stmtBuilder.setLong(4, startTs);
-                    stmtBuilder.setLong(5, endTs);
-                    BoundStatement stmt = stmtBuilder.build();
-                    log.debug(GENERATED_QUERY_FOR_ENTITY_TYPE_AND_ENTITY_ID, stmt, entityId.getEntityType(), entityId.getId());
-                    futures.add(executeAsyncRead(tenantId, stmt));
+                    futures.add(executeAsyncRead(tenantId, getAggregationStmt(proto, entityId, key, partition, startTs, endTs)));
                 }
                 return Futures.allAsList(futures);
             } catch (Throwable e) {
@@ -420,6 +592,242 @@ public class CassandraBaseTimeseriesDao extends AbstractCassandraBaseTimeseriesD
         };
     }
 
+    private BoundStatement getAggregationStmt(PreparedStatement proto, EntityId entityId, String key, long partition, long startTs, long endTs) {
+        BoundStatementBuilder stmtBuilder = new BoundStatementBuilder(proto.bind());
+        stmtBuilder.setString(0, entityId.getEntityType().name());
+        stmtBuilder.setUuid(1, entityId.getId());
+        stmtBuilder.setString(2, key);
+        stmtBuilder.setLong(3, partition);
+        stmtBuilder.setLong(4, startTs);
+        stmtBuilder.setLong(5, endTs);
+        BoundStatement stmt = stmtBuilder.build();
+        log.debug(GENERATED_QUERY_FOR_ENTITY_TYPE_AND_ENTITY_ID, stmt, entityId.getEntityType(), entityId.getId());
+        return stmt;
+    }
+
+    private List<TsRollupResolution> getRollupResolutions(long step) {
+        if (!rollupsEnabled) {
+            return Collections.emptyList();
+        }
+        return rollupResolutions.stream().filter(resolution -> resolution.getDurationMs() <= step).collect(Collectors.toList());
+    }
+
+    /**
+     * Aggregates the intervals from the coarsest rollup buckets that fit into them. Edges of the intervals and the
+     * buckets that are missing or dirty are taken from the finer resolutions and at last from the raw data.
+     */
+    private ListenableFuture<List<TsKvEntry>> findAllAsyncWithRollups(TenantId tenantId, EntityId entityId, ReadTsKvQuery query, long step, List<TsRollupResolution> resolutions) {
+        TsRollupPlanner planner = new TsRollupPlanner(query.getStartTs(), query.getEndTs(), step);
+        List<TsRollupPlanner.Interval> intervals = planner.getIntervals();
+        if (intervals.isEmpty()) {
+            return Futures.immediateFuture(Collections.emptyList());
+        }
+        long endTs = intervals.get(intervals.size() - 1).getEndTs();
+        ListenableFuture<List<Long>> partitionsFuture = getPartitionsFuture(tenantId, query, entityId, toPartitionTs(query.getStartTs()), toPartitionTs(endTs));
+        ListenableFuture<List<Long>> plannedFuture = Futures.transformAsync(partitionsFuture,
+                partitions -> applyRollups(tenantId, entityId, query.getKey(), planner, resolutions, 0, partitions), readResultsProcessingExecutor);
+        return Futures.transformAsync(plannedFuture, partitions -> aggregateIntervals(tenantId, entityId, query, planner, partitions), readResultsProcessingExecutor);
+    }
+
+    private ListenableFuture<List<Long>> applyRollups(TenantId tenantId, EntityId entityId, String key, TsRollupPlanner planner,
+                                                      List<TsRollupResolution> resolutions, int level, List<Long> partitions) {
+        if (level >= resolutions.size()) {
+            return Futures.immediateFuture(partitions);
+        }
+        TsRollupResolution resolution = resolutions.get(level);
+        List<long[]> ranges = planner.getBucketRanges(resolution);
+        if (ranges.isEmpty()) {
+            return applyRollups(tenantId, entityId, key, planner, resolutions, level + 1, partitions);
+        }
+        return Futures.transformAsync(fetchRollups(tenantId, entityId, key, resolution, ranges, partitions), buckets -> {
+            for (TsKvRollup dirtyBucket : planner.apply(resolution, buckets)) {
+                repairRollup(tenantId, entityId, key, resolution, dirtyBucket.getTs(), dirtyBucket.getTtl());
+            }
+            return applyRollups(tenantId, entityId, key, planner, resolutions, level + 1, partitions);
+        }, readResultsProcessingExecutor);
+    }
+
+    private ListenableFuture<List<TsKvEntry>> aggregateIntervals(TenantId tenantId, EntityId entityId, ReadTsKvQuery query, TsRollupPlanner planner, List<Long> partitions) {
+        PreparedStatement proto = getFetchStmt(query.getAggregation(), DESC_ORDER);
+        List<ListenableFuture<Optional<TsKvEntry>>> futures = new ArrayList<>();
+        for (TsRollupPlanner.Interval interval : planner.getIntervals()) {
+            List<TbResultSetFuture> rsFutures = new ArrayList<>();
+            for (long[] range : interval.getRawRanges()) {
+                for (Long partition : filterPartitions(partitions, range[0], range[1])) {
+                    rsFutures.add(executeAsyncRead(tenantId, getAggregationStmt(proto, entityId, query.getKey(), partition, range[0], range[1])));
+                }
+            }
+            long ts = interval.getStartTs() + (interval.getEndTs() - interval.getStartTs()) / 2;
+            futures.add(Futures.transformAsync(Futures.allAsList(rsFutures),
+                    new AggregatePartitionsFunction(query.getAggregation(), query.getKey(), ts, readResultsProcessingExecutor, interval.getRollups()), readResultsProcessingExecutor));
+        }
+        return Futures.transform(Futures.allAsList(futures),
+                input -> input.stream().filter(Optional::isPresent).map(Optional::get).collect(Collectors.toList()), readResultsProcessingExecutor);
+    }
+
+    private List<Long> filterPartitions(List<Long> partitions, long startTs, long endTs) {
+        long minPartition = toPartitionTs(startTs);
+        long maxPartition = toPartitionTs(endTs - 1);
+        return partitions.stream().filter(partition -> partition >= minPartition && partition <= maxPartition).collect(Collectors.toList());
+    }
+
+    private ListenableFuture<Map<Long, TsKvRollup>> fetchRollups(TenantId tenantId, EntityId entityId, String key, TsRollupResolution resolution,
+                                                                 List<long[]> ranges, List<Long> partitions) {
+        List<ListenableFuture<List<Row>>> futures = new ArrayList<>();
+        for (long[] range : ranges) {
+            for (Long partition : filterPartitions(partitions, range[0], range[1])) {
+                BoundStatement stmt = getRollupFetchStmt().bind()
+                        .setString(0, entityId.getEntityType().name())
+                        .setUuid(1, entityId.getId())
+                        .setString(2, key)
+                        .setString(3, resolution.name())
+                        .setLong(4, partition)
+                        .setLong(5, range[0])
+                        .setLong(6, range[1]);
+                futures.add(getFutureAsync(executeAsyncRead(tenantId, stmt),
+                        rs -> rs == null ? Futures.immediateFuture(Collections.emptyList()) : rs.allRows(readResultsProcessingExecutor)));
+            }
+        }
+        return Futures.transform(Futures.allAsList(futures), rowsList -> {
+            Map<Long, TsKvRollup> buckets = new HashMap<>();
+            for (List<Row> rows : rowsList) {
+                for (Row row : rows) {
+                    TsKvRollup bucket = TsKvRollup.fromRow(row.getLong(0), row, 2);
+                    bucket.setDirty(row.getBoolean(1));
+                    int ttlIndex = 2 + ModelConstants.ROLLUP_COLUMNS.length;
+                    bucket.setTtl(row.isNull(ttlIndex) ? 0 : row.getInt(ttlIndex));
+                    buckets.put(bucket.getTs(), bucket);
+                }
+            }
+            return buckets;
+        }, readResultsProcessingExecutor);
+    }
+
+    private void onRollupWrite(TenantId tenantId, EntityId entityId, TsKvEntry tsKvEntry, long ttl, List<ListenableFuture<Void>> futures) {
+        long now = System.currentTimeMillis();
+        if (!rollupCompactor.onWrite(tenantId, entityId, tsKvEntry.getKey(), ttl, now)) {
+            // the open buckets of the key are not compacted and the queries read the raw data for them
+            log.trace("[{}][{}] Rollups of key {} are not tracked, the limit of the tracked keys is reached", entityId.getEntityType(), entityId.getId(), tsKvEntry.getKey());
+        }
+        for (TsRollupResolution resolution : rollupResolutions) {
+            long bucketTs = resolution.floor(tsKvEntry.getTs());
+            // only closed buckets may be already compacted
+            if (isRollupBucketClosed(resolution, bucketTs, now)) {
+                BoundStatement stmt = getRollupDirtyStmt().bind()
+                        .setInt(0, (int) ttl)
+                        .setString(1, entityId.getEntityType().name())
+                        .setUuid(2, entityId.getId())
+                        .setString(3, tsKvEntry.getKey())
+                        .setString(4, resolution.name())
+                        .setLong(5, toPartitionTs(bucketTs))
+                        .setLong(6, bucketTs);
+                futures.add(getFuture(executeAsyncWrite(tenantId, stmt), rs -> null));
+            }
+        }
+    }
+
+    private boolean isRollupBucketClosed(TsRollupResolution resolution, long bucketTs, long now) {
+        return bucketTs + resolution.getDurationMs() <= now - rollupCompactionDelayMs;
+    }
+
+    private void compactRollups() {
+        try {
+            rollupCompactor.compact(System.currentTimeMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Throwable t) {
+            log.warn("Failed to compact time-series rollups", t);
+        }
+    }
+
+    private void repairRollup(TenantId tenantId, EntityId entityId, String key, TsRollupResolution resolution, long bucketTs, long ttl) {
+        Futures.addCallback(compactRollup(tenantId, entityId, key, resolution, bucketTs, ttl), new FutureCallback<Void>() {
+            @Override
+            public void onSuccess(@Nullable Void result) {
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                log.debug("[{}][{}] Failed to repair {} rollup of key {} at {}", entityId.getEntityType(), entityId.getId(), resolution, key, bucketTs, t);
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    /**
+     * Aggregates the raw data of the closed bucket and saves it to the rollup table. The rollup is written with the
+     * timestamp of the read minus the compaction delay, so the dirty flag of a late write that could be missed by
+     * the read is never overwritten. The rollup expires with the given TTL of the raw data in seconds.
+     */
+    ListenableFuture<Void> compactRollup(TenantId tenantId, EntityId entityId, String key, TsRollupResolution resolution, long bucketTs, long ttl) {
+        long now = System.currentTimeMillis();
+        if (!isRollupBucketClosed(resolution, bucketTs, now)) {
+            return Futures.immediateFuture(null);
+        }
+        long writeTimestamp = TimeUnit.MILLISECONDS.toMicros(now - rollupCompactionDelayMs);
+        long partition = toPartitionTs(bucketTs);
+        BoundStatement stmt = getAggregationStmt(getRollupAggregationStmt(), entityId, key, partition, bucketTs, bucketTs + resolution.getDurationMs());
+        return getFutureAsync(executeAsyncRead(tenantId, stmt), rs -> {
+            ListenableFuture<List<Row>> rowsFuture = rs == null ? Futures.immediateFuture(Collections.emptyList()) : rs.allRows(readResultsProcessingExecutor);
+            return Futures.transformAsync(rowsFuture, rows -> {
+                TsKvRollup rollup = rows == null || rows.isEmpty() ? new TsKvRollup(bucketTs) : TsKvRollup.fromRow(bucketTs, rows.get(0), 0);
+                return saveRollup(tenantId, entityId, key, resolution, partition, rollup, ttl, writeTimestamp);
+            }, readResultsProcessingExecutor);
+        });
+    }
+
+    private ListenableFuture<Void> saveRollup(TenantId tenantId, EntityId entityId, String key, TsRollupResolution resolution, long partition,
+                                              TsKvRollup rollup, long ttl, long writeTimestamp) {
+        BoundStatementBuilder stmtBuilder = new BoundStatementBuilder(getRollupInsertStmt().bind());
+        stmtBuilder.setString(0, entityId.getEntityType().name())
+                .setUuid(1, entityId.getId())
+                .setString(2, key)
+                .setString(3, resolution.name())
+                .setLong(4, partition)
+                .setLong(5, rollup.getTs())
+                .setBoolean(6, false)
+                .setLong(7, rollup.getLongCount())
+                .setLong(8, rollup.getDoubleCount())
+                .setLong(9, rollup.getBoolCount())
+                .setLong(10, rollup.getStrCount())
+                .setLong(11, rollup.getJsonCount());
+        Object[] values = {rollup.getLongMin(), rollup.getLongMax(), rollup.getLongSum(),
+                rollup.getDoubleMin(), rollup.getDoubleMax(), rollup.getDoubleSum(),
+                rollup.getBoolMin(), rollup.getBoolMax(), rollup.getStrMin(), rollup.getStrMax(), rollup.getJsonMin(), rollup.getJsonMax()};
+        for (int i = 0; i < values.length; i++) {
+            Object value = values[i];
+            if (value instanceof Long) {
+                stmtBuilder.setLong(12 + i, (Long) value);
+            } else if (value instanceof Double) {
+                stmtBuilder.setDouble(12 + i, (Double) value);
+            } else if (value instanceof Boolean) {
+                stmtBuilder.setBoolean(12 + i, (Boolean) value);
+            } else if (value instanceof String) {
+                stmtBuilder.setString(12 + i, (String) value);
+            }
+        }
+        stmtBuilder.setInt(24, (int) ttl);
+        stmtBuilder.setLong(25, writeTimestamp);
+        return getFuture(executeAsyncWrite(tenantId, stmtBuilder.build()), rs -> null);
+    }
+
+    private ListenableFuture<List<Void>> deleteRollups(TenantId tenantId, EntityId entityId, DeleteTsKvQuery query, List<Long> partitions) {
+        List<ListenableFuture<Void>> futures = new ArrayList<>();
+        for (Long partition : partitions) {
+            for (TsRollupResolution resolution : rollupResolutions) {
+                BoundStatement stmt = getRollupDeleteStmt().bind()
+                        .setString(0, entityId.getEntityType().name())
+                        .setUuid(1, entityId.getId())
+                        .setString(2, query.getKey())
+                        .setString(3, resolution.name())
+                        .setLong(4, partition)
+                        .setLong(5, resolution.floor(query.getStartTs()))
+                        .setLong(6, query.getEndTs());
+                futures.add(getFuture(executeAsyncWrite(tenantId, stmt), rs -> null));
+            }
+        }
+        return Futures.allAsList(futures);
+    }
+
     private boolean isFixedPartitioning() {
         return tsFormat.getTruncateUnit().equals(ChronoUnit.FOREVER);
     }
@@ -471,7 +879,15 @@ public class CassandraBaseTimeseriesDao extends AbstractCassandraBaseTimeseriesD
             stmtBuilder.setInt(6, (int) ttl);
         }
         BoundStatement stmt = stmtBuilder.build();
-        return getFuture(executeAsyncWrite(tenantId, stmt), rs -> null);
+        return executeTsWrite(tenantId, entityId, tsKvEntry.getKey(), partition, stmt);
+    }
+
+    private ListenableFuture<Void> executeTsWrite(TenantId tenantId, EntityId entityId, String key, long partition, BoundStatement stmt) {
+        if (writeCoalescer != null) {
+            return writeCoalescer.add(tenantId, entityId, new CassandraPartitionCacheKey(entityId, key, partition), stmt);
+        } else {
+            return getFuture(executeAsyncWrite(tenantId, stmt), rs -> null);
+        }
     }
 
     private ListenableFuture<Integer> doSavePartition(TenantId tenantId, EntityId entityId, String key, long ttl, long partition) {
@@ -485,6 +901,9 @@ public class CassandraBaseTimeseriesDao extends AbstractCassandraBaseTimeseriesD
         if (ttl > 0) {
             stmt = stmt.setInt(4, (int) ttl);
         }
+        if (writeCoalescer != null) {
+            return Futures.transform(writeCoalescer.add(tenantId, entityId, key, stmt), v -> 0, MoreExecutors.directExecutor());
+        }
         return getFuture(executeAsyncWrite(tenantId, stmt), rs -> 0);
     }
 
@@ -611,6 +1030,116 @@ public class CassandraBaseTimeseriesDao extends AbstractCassandraBaseTimeseriesD
         return deletePartitionStmt;
     }
 
+    private PreparedStatement getRollupInsertStmt() {
+        if (rollupInsertStmt == null) {
+            stmtCreationLock.lock();
+            try {
+                if (rollupInsertStmt == null) {
+                    rollupInsertStmt = prepare(INSERT_INTO + ModelConstants.TS_KV_ROLLUP_CF +
+                            "(" + ModelConstants.ENTITY_TYPE_COLUMN +
+                            "," + ModelConstants.ENTITY_ID_COLUMN +
+                            "," + ModelConstants.KEY_COLUMN +
+                            "," + ModelConstants.ROLLUP_RESOLUTION_COLUMN +
+                            "," + ModelConstants.PARTITION_COLUMN +
+                            "," + ModelConstants.TS_COLUMN +
+                            "," + ModelConstants.ROLLUP_DIRTY_COLUMN +
+                            "," + String.join(",", ModelConstants.ROLLUP_COLUMNS) + ")" +
+                            " VALUES(?, ?, ?, ?, ?, ?, ?" + String.join("", Collections.nCopies(ModelConstants.ROLLUP_COLUMNS.length, ", ?")) + ")" +
+                            " USING TTL ? AND TIMESTAMP ?");
+                }
+            } finally {
+                stmtCreationLock.unlock();
+            }
+        }
+        return rollupInsertStmt;
+    }
+
+    private PreparedStatement getRollupDirtyStmt() {
+        if (rollupDirtyStmt == null) {
+            stmtCreationLock.lock();
+            try {
+                if (rollupDirtyStmt == null) {
+                    rollupDirtyStmt = prepare("UPDATE " + ModelConstants.TS_KV_ROLLUP_CF + " USING TTL ?" +
+                            " SET " + ModelConstants.ROLLUP_DIRTY_COLUMN + " = true" +
+                            " WHERE " + ModelConstants.ENTITY_TYPE_COLUMN + EQUALS_PARAM
+                            + "AND " + ModelConstants.ENTITY_ID_COLUMN + EQUALS_PARAM
+                            + "AND " + ModelConstants.KEY_COLUMN + EQUALS_PARAM
+                            + "AND " + ModelConstants.ROLLUP_RESOLUTION_COLUMN + EQUALS_PARAM
+                            + "AND " + ModelConstants.PARTITION_COLUMN + EQUALS_PARAM
+                            + "AND " + ModelConstants.TS_COLUMN + " = ?");
+                }
+            } finally {
+                stmtCreationLock.unlock();
+            }
+        }
+        return rollupDirtyStmt;
+    }
+
+    private PreparedStatement getRollupFetchStmt() {
+        if (rollupFetchStmt == null) {
+            stmtCreationLock.lock();
+            try {
+                if (rollupFetchStmt == null) {
+                    rollupFetchStmt = prepare(SELECT_PREFIX + ModelConstants.TS_COLUMN + ", " + ModelConstants.ROLLUP_DIRTY_COLUMN + ", "
+                            + String.join(", ", ModelConstants.ROLLUP_COLUMNS) + ", TTL(" + ModelConstants.ROLLUP_DIRTY_COLUMN + ")"
+                            + " FROM " + ModelConstants.TS_KV_ROLLUP_CF
+                            + " WHERE " + ModelConstants.ENTITY_TYPE_COLUMN + EQUALS_PARAM
+                            + "AND " + ModelConstants.ENTITY_ID_COLUMN + EQUALS_PARAM
+                            + "AND " + ModelConstants.KEY_COLUMN + EQUALS_PARAM
+                            + "AND " + ModelConstants.ROLLUP_RESOLUTION_COLUMN + EQUALS_PARAM
+                            + "AND " + ModelConstants.PARTITION_COLUMN + EQUALS_PARAM
+                            + "AND " + ModelConstants.TS_COLUMN + " >= ? "
+                            + "AND " + ModelConstants.TS_COLUMN + " < ?");
+                }
+            } finally {
+                stmtCreationLock.unlock();
+            }
+        }
+        return rollupFetchStmt;
+    }
+
+    private PreparedStatement getRollupAggregationStmt() {
+        if (rollupAggregationStmt == null) {
+            stmtCreationLock.lock();
+            try {
+                if (rollupAggregationStmt == null) {
+                    rollupAggregationStmt = prepare(SELECT_PREFIX
+                            + String.join(", ", ModelConstants.ROLLUP_AGGREGATION_COLUMNS) + " FROM " + ModelConstants.TS_KV_CF
+                            + " WHERE " + ModelConstants.ENTITY_TYPE_COLUMN + EQUALS_PARAM
+                            + "AND " + ModelConstants.ENTITY_ID_COLUMN + EQUALS_PARAM
+                            + "AND " + ModelConstants.KEY_COLUMN + EQUALS_PARAM
+                            + "AND " + ModelConstants.PARTITION_COLUMN + EQUALS_PARAM
+                            + "AND " + ModelConstants.TS_COLUMN + " >= ? "
+                            + "AND " + ModelConstants.TS_COLUMN + " < ?");
+                }
+            } finally {
+                stmtCreationLock.unlock();
+            }
+        }
+        return rollupAggregationStmt;
+    }
+
+    private PreparedStatement getRollupDeleteStmt() {
+        if (rollupDeleteStmt == null) {
+            stmtCreationLock.lock();
+            try {
+                if (rollupDeleteStmt == null) {
+                    rollupDeleteStmt = prepare("DELETE FROM " + ModelConstants.TS_KV_ROLLUP_CF
+                            + " WHERE " + ModelConstants.ENTITY_TYPE_COLUMN + EQUALS_PARAM
+                            + "AND " + ModelConstants.ENTITY_ID_COLUMN + EQUALS_PARAM
+                            + "AND " + ModelConstants.KEY_COLUMN + EQUALS_PARAM
+                            + "AND " + ModelConstants.ROLLUP_RESOLUTION_COLUMN + EQUALS_PARAM
+                            + "AND " + ModelConstants.PARTITION_COLUMN + EQUALS_PARAM
+                            + "AND " + ModelConstants.TS_COLUMN + " >= ? "
+                            + "AND " + ModelConstants.TS_COLUMN + " < ?");
+                }
+            } finally {
+                stmtCreationLock.unlock();
+            }
+        }
+        return rollupDeleteStmt;
+    }
+
     private PreparedStatement getSaveStmt(DataType dataType) {
         if (saveStmts == null) {
             stmtCreationLock.lock();
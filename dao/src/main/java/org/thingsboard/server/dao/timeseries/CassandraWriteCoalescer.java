@@ -0,0 +1,265 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.dao.timeseries;
+
+import com.datastax.oss.driver.api.core.cql.BatchStatement;
+import com.datastax.oss.driver.api.core.cql.BatchableStatement;
+import com.datastax.oss.driver.api.core.cql.BoundStatement;
+import com.datastax.oss.driver.api.core.cql.DefaultBatchType;
+import com.datastax.oss.driver.api.core.cql.Statement;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.thingsboard.common.util.ThingsBoardThreadFactory;
+import org.thingsboard.server.common.data.id.EntityId;
+import org.thingsboard.server.common.data.id.TenantId;
+import org.thingsboard.server.common.stats.StatsCounter;
+import org.thingsboard.server.common.stats.StatsFactory;
+import org.thingsboard.server.dao.nosql.TbResultSet;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+
+/**
+ * Collects the time-series writes for up to the linger time and sends the writes of the same entity as unlogged
+ * batches, so a message with many keys takes one slot of the rate executor instead of one slot per statement.
+ * Within a batch the statements of the same Cassandra partition are kept next to each other. A batch is split once
+ * the size of its bound values reaches the max batch size in bytes, so it stays below the Cassandra batch size limits.
+ * The batches still take one per tenant rate limit permit per statement.
+ */
+@Slf4j
+class CassandraWriteCoalescer {
+
+    private static final String STATS_KEY = "tsWriteCoalescer";
+
+    private final int batchSize;
+    private final int maxBatchBytes;
+    private final long lingerMs;
+    private final long statsPrintIntervalMs;
+    private final BiFunction<TenantId, Statement<?>, ListenableFuture<TbResultSet>> writeFunction;
+    private final BlockingQueue<PendingWrite> queue;
+
+    private final StatsCounter totalStatements;
+    private final StatsCounter totalRequests;
+    private final StatsCounter totalBatches;
+    private final StatsCounter totalFailed;
+    private final StatsCounter totalRejected;
+
+    private ExecutorService executor;
+    private volatile boolean stopped;
+
+    CassandraWriteCoalescer(int batchSize, int maxBatchBytes, long lingerMs, int queueLimit, long statsPrintIntervalMs, StatsFactory statsFactory,
+                            BiFunction<TenantId, Statement<?>, ListenableFuture<TbResultSet>> writeFunction) {
+        this.batchSize = batchSize;
+        this.maxBatchBytes = maxBatchBytes;
+        this.queue = new LinkedBlockingQueue<>(queueLimit);
+        this.lingerMs = lingerMs;
+        this.statsPrintIntervalMs = statsPrintIntervalMs;
+        this.writeFunction = writeFunction;
+        this.totalStatements = statsFactory.createStatsCounter(STATS_KEY, "totalStatements");
+        this.totalRequests = statsFactory.createStatsCounter(STATS_KEY, "totalRequests");
+        this.totalBatches = statsFactory.createStatsCounter(STATS_KEY, "totalBatches");
+        this.totalFailed = statsFactory.createStatsCounter(STATS_KEY, "totalFailed");
+        this.totalRejected = statsFactory.createStatsCounter(STATS_KEY, "totalRejected");
+    }
+
+    void init() {
+        executor = Executors.newSingleThreadExecutor(ThingsBoardThreadFactory.forName("cassandra-ts-write-coalescer"));
+        executor.submit(() -> {
+            List<PendingWrite> writes = new ArrayList<>(batchSize);
+            long lastPrintTs = System.currentTimeMillis();
+            while (!Thread.interrupted()) {
+                try {
+                    PendingWrite write = queue.poll(lingerMs, TimeUnit.MILLISECONDS);
+                    if (write != null) {
+                        writes.add(write);
+                        collect(writes, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(lingerMs));
+                        flush(writes);
+                    }
+                } catch (InterruptedException e) {
+                    log.info("Write coalescer polling was interrupted");
+                    failAll(writes);
+                    break;
+                } catch (Exception e) {
+                    log.error("Failed to flush {} writes", writes.size(), e);
+                    writes.forEach(pending -> pending.getFuture().setException(e));
+                } finally {
+                    writes.clear();
+                }
+                if (System.currentTimeMillis() - lastPrintTs >= statsPrintIntervalMs) {
+                    printStats();
+                    lastPrintTs = System.currentTimeMillis();
+                }
+            }
+        });
+    }
+
+    void destroy() {
+        stopped = true;
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        List<PendingWrite> pending = new ArrayList<>();
+        queue.drainTo(pending);
+        failAll(pending);
+    }
+
+    ListenableFuture<Void> add(TenantId tenantId, EntityId entityId, Object partitionKey, BoundStatement statement) {
+        SettableFuture<Void> future = SettableFuture.create();
+        if (stopped) {
+            future.setException(new IllegalStateException("Write coalescer is stopped"));
+            return future;
+        }
+        try {
+            queue.add(new PendingWrite(new EntityKey(tenantId, entityId), partitionKey, statement, future));
+        } catch (IllegalStateException e) {
+            totalRejected.increment();
+            future.setException(e);
+        }
+        return future;
+    }
+
+    private void failAll(List<PendingWrite> writes) {
+        if (!writes.isEmpty()) {
+            IllegalStateException e = new IllegalStateException("Write coalescer is stopped");
+            writes.forEach(pending -> pending.getFuture().setException(e));
+        }
+    }
+
+    private void collect(List<PendingWrite> writes, long deadline) throws InterruptedException {
+        while (writes.size() < batchSize) {
+            queue.drainTo(writes, batchSize - writes.size());
+            if (writes.size() >= batchSize) {
+                return;
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return;
+            }
+            PendingWrite next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                return;
+            }
+            writes.add(next);
+        }
+    }
+
+    private void flush(List<PendingWrite> writes) {
+        Map<EntityKey, Map<Object, List<PendingWrite>>> groups = new LinkedHashMap<>();
+        for (PendingWrite write : writes) {
+            groups.computeIfAbsent(write.getEntityKey(), key -> new LinkedHashMap<>())
+                    .computeIfAbsent(write.getPartitionKey(), key -> new ArrayList<>()).add(write);
+        }
+        groups.forEach((entityKey, partitions) -> {
+            List<PendingWrite> group = new ArrayList<>();
+            int groupBytes = 0;
+            for (List<PendingWrite> partition : partitions.values()) {
+                for (PendingWrite write : partition) {
+                    int writeBytes = sizeOf(write.getStatement());
+                    if (!group.isEmpty() && groupBytes + writeBytes > maxBatchBytes) {
+                        execute(entityKey.getTenantId(), group);
+                        group = new ArrayList<>();
+                        groupBytes = 0;
+                    }
+                    group.add(write);
+                    groupBytes += writeBytes;
+                }
+            }
+            execute(entityKey.getTenantId(), group);
+        });
+    }
+
+    /**
+     * Estimates the size of the mutation by the size of the bound values, which is what Cassandra checks against
+     * the batch size thresholds.
+     */
+    static int sizeOf(BoundStatement statement) {
+        int size = 0;
+        for (ByteBuffer value : statement.getValues()) {
+            if (value != null) {
+                size += value.remaining();
+            }
+        }
+        return size;
+    }
+
+    private void execute(TenantId tenantId, List<PendingWrite> group) {
+        Statement<?> statement;
+        if (group.size() == 1) {
+            statement = group.get(0).getStatement();
+        } else {
+            List<BatchableStatement<?>> statements = new ArrayList<>(group.size());
+            group.forEach(write -> statements.add(write.getStatement()));
+            statement = BatchStatement.newInstance(DefaultBatchType.UNLOGGED, statements);
+            totalBatches.increment();
+        }
+        totalStatements.add(group.size());
+        totalRequests.increment();
+        Futures.addCallback(writeFunction.apply(tenantId, statement), new FutureCallback<TbResultSet>() {
+            @Override
+            public void onSuccess(TbResultSet result) {
+                group.forEach(write -> write.getFuture().set(null));
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                totalFailed.add(group.size());
+                group.forEach(write -> write.getFuture().setException(t));
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    private void printStats() {
+        int statements = totalStatements.get();
+        int requests = totalRequests.get();
+        if (statements > 0 || requests > 0 || totalRejected.get() > 0 || !queue.isEmpty()) {
+            log.info("Write coalescer queueSize [{}] totalStatements [{}] totalRequests [{}] totalBatches [{}] statementsSaved [{}] totalFailed [{}] totalRejected [{}]",
+                    queue.size(), statements, requests, totalBatches.get(), statements - requests, totalFailed.get(), totalRejected.get());
+            totalStatements.clear();
+            totalRequests.clear();
+            totalBatches.clear();
+            totalFailed.clear();
+            totalRejected.clear();
+        }
+    }
+
+    @Data
+    private static class EntityKey {
+        private final TenantId tenantId;
+        private final EntityId entityId;
+    }
+
+    @Data
+    private static class PendingWrite {
+        private final EntityKey entityKey;
+        private final Object partitionKey;
+        private final BoundStatement statement;
+        private final SettableFuture<Void> future;
+    }
+}
@@ -22,6 +22,7 @@ import org.thingsboard.server.common.data.id.TenantId;
 import org.thingsboard.server.common.data.kv.DeleteTsKvQuery;
 import org.thingsboard.server.common.data.kv.TsKvEntry;
 
+import java.util.Collection;
 import java.util.List;
 
 public interface TimeseriesLatestDao {
@@ -37,4 +38,10 @@ public interface TimeseriesLatestDao {
     List<String> findAllKeysByDeviceProfileId(TenantId tenantId, DeviceProfileId deviceProfileId);
 
     List<String> findAllKeysByEntityIds(TenantId tenantId, List<EntityId> entityIds);
+
+    /**
+     * Resolves the dictionary ids of the keys in one go before a batch of entries is saved.
+     */
+    default void resolveKeyIds(Collection<String> keys) {
+    }
 }
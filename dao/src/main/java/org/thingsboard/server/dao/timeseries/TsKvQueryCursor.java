@@ -71,6 +71,10 @@ public class TsKvQueryCursor extends QueryCursor {
     }
 
     public void addData(List<TsKvEntry> newData) {
+        if (newData.size() > currentLimit) {
+            // prefetched partitions are read with the limit known at the time of the request
+            newData = newData.subList(0, Math.max(currentLimit, 0));
+        }
         currentLimit -= newData.size();
         data.addAll(newData);
     }
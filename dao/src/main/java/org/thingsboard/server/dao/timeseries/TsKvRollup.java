@@ -0,0 +1,92 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.dao.timeseries;
+
+import com.datastax.oss.driver.api.core.cql.Row;
+import lombok.Data;
+
+/**
+ * Partial aggregate of the time-series of one key in one rollup bucket.
+ * Counts are kept per data type, the same way as the raw aggregation queries return them.
+ */
+@Data
+public class TsKvRollup {
+
+    private final long ts;
+    private boolean dirty;
+    // Remaining TTL of the dirty flag in seconds, i.e. of the latest late write to the bucket
+    private long ttl;
+
+    private long longCount;
+    private long doubleCount;
+    private long boolCount;
+    private long strCount;
+    private long jsonCount;
+
+    private Long longMin;
+    private Long longMax;
+    private Long longSum;
+    private Double doubleMin;
+    private Double doubleMax;
+    private Double doubleSum;
+    private Boolean boolMin;
+    private Boolean boolMax;
+    private String strMin;
+    private String strMax;
+    private String jsonMin;
+    private String jsonMax;
+
+    public boolean isEmpty() {
+        return longCount == 0 && doubleCount == 0 && boolCount == 0 && strCount == 0 && jsonCount == 0;
+    }
+
+    /**
+     * Reads the columns in the order of {@link org.thingsboard.server.dao.model.ModelConstants#ROLLUP_COLUMNS}
+     * starting from the given position.
+     */
+    public static TsKvRollup fromRow(long ts, Row row, int offset) {
+        TsKvRollup rollup = new TsKvRollup(ts);
+        rollup.longCount = row.getLong(offset);
+        rollup.doubleCount = row.getLong(offset + 1);
+        rollup.boolCount = row.getLong(offset + 2);
+        rollup.strCount = row.getLong(offset + 3);
+        rollup.jsonCount = row.getLong(offset + 4);
+        if (rollup.longCount > 0) {
+            rollup.longMin = row.getLong(offset + 5);
+            rollup.longMax = row.getLong(offset + 6);
+            rollup.longSum = row.getLong(offset + 7);
+        }
+        if (rollup.doubleCount > 0) {
+            rollup.doubleMin = row.getDouble(offset + 8);
+            rollup.doubleMax = row.getDouble(offset + 9);
+            rollup.doubleSum = row.getDouble(offset + 10);
+        }
+        if (rollup.boolCount > 0) {
+            rollup.boolMin = row.getBoolean(offset + 11);
+            rollup.boolMax = row.getBoolean(offset + 12);
+        }
+        if (rollup.strCount > 0) {
+            rollup.strMin = row.getString(offset + 13);
+            rollup.strMax = row.getString(offset + 14);
+        }
+        if (rollup.jsonCount > 0) {
+            rollup.jsonMin = row.getString(offset + 15);
+            rollup.jsonMax = row.getString(offset + 16);
+        }
+        return rollup;
+    }
+
+}
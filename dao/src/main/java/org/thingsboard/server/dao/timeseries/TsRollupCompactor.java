@@ -0,0 +1,207 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.dao.timeseries;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.thingsboard.server.common.data.id.EntityId;
+import org.thingsboard.server.common.data.id.TenantId;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Keeps track of the recently written keys and compacts their rollup buckets once the buckets are closed,
+ * i.e. once the end of the bucket is older than the compaction delay.
+ * <p>
+ * The state is kept in memory only. Buckets that were not compacted, e.g. because of the restart or because the limit
+ * of the tracked keys was reached, are missing from the rollup table and the queries read the raw data for them instead.
+ * <p>
+ * The end of the bucket is shifted by a key specific offset within the compaction spread, so the buckets that are
+ * closed at the same time, e.g. the DAY buckets at midnight, are compacted gradually.
+ */
+@Slf4j
+class TsRollupCompactor {
+
+    interface BucketCompaction {
+        ListenableFuture<Void> compact(TenantId tenantId, EntityId entityId, String key, TsRollupResolution resolution, long bucketTs, long ttl);
+    }
+
+    private final List<TsRollupResolution> resolutions;
+    private final long delayMs;
+    private final long spreadMs;
+    private final int batchSize;
+    private final int maxKeys;
+    private final BucketCompaction compaction;
+
+    private final ConcurrentMap<RollupKey, RollupKeyState> keys = new ConcurrentHashMap<>();
+
+    TsRollupCompactor(List<TsRollupResolution> resolutions, long delayMs, long spreadMs, int batchSize, int maxKeys, BucketCompaction compaction) {
+        this.resolutions = resolutions;
+        this.delayMs = delayMs;
+        this.spreadMs = spreadMs;
+        this.batchSize = batchSize;
+        this.maxKeys = maxKeys;
+        this.compaction = compaction;
+    }
+
+    /**
+     * Tracks the write of the key with the given TTL in seconds, 0 means the data doesn't expire.
+     *
+     * @return false if the key is not tracked because the limit of the tracked keys is reached,
+     * the open buckets of the key are not compacted then
+     */
+    boolean onWrite(TenantId tenantId, EntityId entityId, String key, long ttl, long now) {
+        RollupKey rollupKey = new RollupKey(tenantId, entityId, key);
+        RollupKeyState state = keys.get(rollupKey);
+        if (state == null && keys.size() >= maxKeys) {
+            return false;
+        }
+        keys.compute(rollupKey, (k, current) -> {
+            if (current == null) {
+                current = new RollupKeyState(resolutions, now - delayMs, getSpreadOffsets(k), ttl);
+            } else {
+                current.updateTtl(ttl);
+            }
+            current.lastWriteTime = now;
+            return current;
+        });
+        return true;
+    }
+
+    int getKeysCount() {
+        return keys.size();
+    }
+
+    void compact(long now) throws InterruptedException {
+        long closedUntil = now - delayMs;
+        List<Map.Entry<RollupKey, RollupKeyState>> batch = new ArrayList<>(batchSize);
+        for (Map.Entry<RollupKey, RollupKeyState> entry : keys.entrySet()) {
+            batch.add(entry);
+            if (batch.size() >= batchSize) {
+                compact(batch, closedUntil);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            compact(batch, closedUntil);
+        }
+    }
+
+    private void compact(List<Map.Entry<RollupKey, RollupKeyState>> batch, long closedUntil) throws InterruptedException {
+        List<ListenableFuture<?>> allFutures = new ArrayList<>();
+        List<List<List<ListenableFuture<Void>>>> keyFutures = new ArrayList<>(batch.size());
+        for (Map.Entry<RollupKey, RollupKeyState> entry : batch) {
+            RollupKey key = entry.getKey();
+            RollupKeyState state = entry.getValue();
+            List<List<ListenableFuture<Void>>> resolutionFutures = new ArrayList<>(resolutions.size());
+            for (int i = 0; i < resolutions.size(); i++) {
+                TsRollupResolution resolution = resolutions.get(i);
+                List<ListenableFuture<Void>> futures = new ArrayList<>();
+                long resolutionClosedUntil = closedUntil - state.spreadOffsets[i];
+                for (long ts = state.compactedUntil[i]; ts + resolution.getDurationMs() <= resolutionClosedUntil; ts += resolution.getDurationMs()) {
+                    futures.add(compaction.compact(key.getTenantId(), key.getEntityId(), key.getKey(), resolution, ts, state.ttl));
+                }
+                allFutures.addAll(futures);
+                resolutionFutures.add(futures);
+            }
+            keyFutures.add(resolutionFutures);
+        }
+        try {
+            Futures.successfulAsList(allFutures).get();
+        } catch (ExecutionException e) {
+            log.warn("Failed to compact rollups", e);
+        }
+        for (int k = 0; k < batch.size(); k++) {
+            RollupKey key = batch.get(k).getKey();
+            RollupKeyState state = batch.get(k).getValue();
+            List<List<ListenableFuture<Void>>> resolutionFutures = keyFutures.get(k);
+            for (int i = 0; i < resolutions.size(); i++) {
+                // the buckets after the first failed one are compacted again during the next run
+                for (ListenableFuture<Void> future : resolutionFutures.get(i)) {
+                    if (!isSucceeded(future)) {
+                        break;
+                    }
+                    state.compactedUntil[i] += resolutions.get(i).getDurationMs();
+                }
+            }
+            keys.computeIfPresent(key, (rollupKey, current) -> current == state && state.isCompactedAfter(state.lastWriteTime) ? null : current);
+        }
+    }
+
+    private long[] getSpreadOffsets(RollupKey key) {
+        long[] offsets = new long[resolutions.size()];
+        for (int i = 0; i < resolutions.size(); i++) {
+            long spread = Math.min(spreadMs, resolutions.get(i).getDurationMs());
+            offsets[i] = spread > 0 ? Math.floorMod(key.hashCode(), spread) : 0;
+        }
+        return offsets;
+    }
+
+    private static boolean isSucceeded(ListenableFuture<Void> future) {
+        try {
+            future.get();
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    @Data
+    private static class RollupKey {
+        private final TenantId tenantId;
+        private final EntityId entityId;
+        private final String key;
+    }
+
+    private static class RollupKeyState {
+        private final long[] compactedUntil;
+        private final long[] spreadOffsets;
+        private volatile long lastWriteTime;
+        // The largest TTL of the writes to the open buckets, the rollups must not expire before the raw data
+        private volatile long ttl;
+
+        RollupKeyState(List<TsRollupResolution> resolutions, long startTs, long[] spreadOffsets, long ttl) {
+            this.compactedUntil = new long[resolutions.size()];
+            this.spreadOffsets = spreadOffsets;
+            this.ttl = ttl;
+            for (int i = 0; i < resolutions.size(); i++) {
+                compactedUntil[i] = resolutions.get(i).floor(startTs);
+            }
+        }
+
+        void updateTtl(long writeTtl) {
+            if (ttl > 0 && (writeTtl == 0 || writeTtl > ttl)) {
+                ttl = writeTtl;
+            }
+        }
+
+        boolean isCompactedAfter(long ts) {
+            for (long until : compactedUntil) {
+                if (until <= ts) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
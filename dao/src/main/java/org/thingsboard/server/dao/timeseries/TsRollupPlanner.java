@@ -0,0 +1,145 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.dao.timeseries;
+
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Splits an aggregation query into the rollup buckets and the raw time ranges to read.
+ * <p>
+ * Resolutions are applied from the coarsest to the finest one. For every interval of the query, the part that is
+ * aligned to the resolution is covered by the clean buckets of that resolution. Unaligned edges, missing and dirty
+ * buckets are left to the finer resolutions and, at last, to the raw data.
+ */
+class TsRollupPlanner {
+
+    @Getter
+    private final List<Interval> intervals = new ArrayList<>();
+
+    TsRollupPlanner(long startTs, long endTs, long step) {
+        long stepTs = startTs;
+        while (stepTs < endTs) {
+            intervals.add(new Interval(stepTs, stepTs + step));
+            stepTs += step;
+        }
+    }
+
+    /**
+     * @return merged time ranges of the buckets of the resolution that may cover the pending ranges
+     */
+    List<long[]> getBucketRanges(TsRollupResolution resolution) {
+        List<long[]> ranges = new ArrayList<>();
+        for (Interval interval : intervals) {
+            for (long[] range : interval.pending) {
+                long from = resolution.ceil(range[0]);
+                long to = resolution.floor(range[1]);
+                if (from < to) {
+                    ranges.add(new long[]{from, to});
+                }
+            }
+        }
+        return merge(ranges);
+    }
+
+    /**
+     * Covers the pending ranges with the clean buckets of the resolution.
+     *
+     * @return dirty buckets that were skipped
+     */
+    List<TsKvRollup> apply(TsRollupResolution resolution, Map<Long, TsKvRollup> buckets) {
+        List<TsKvRollup> dirtyBuckets = new ArrayList<>();
+        long duration = resolution.getDurationMs();
+        for (Interval interval : intervals) {
+            List<long[]> pending = new ArrayList<>();
+            for (long[] range : interval.pending) {
+                long from = resolution.ceil(range[0]);
+                long to = resolution.floor(range[1]);
+                if (from >= to) {
+                    pending.add(range);
+                    continue;
+                }
+                pending.add(new long[]{range[0], from});
+                for (long ts = from; ts < to; ts += duration) {
+                    TsKvRollup bucket = buckets.get(ts);
+                    if (bucket != null && !bucket.isDirty()) {
+                        if (!bucket.isEmpty()) {
+                            interval.rollups.add(bucket);
+                        }
+                    } else {
+                        if (bucket != null) {
+                            dirtyBuckets.add(bucket);
+                        }
+                        pending.add(new long[]{ts, ts + duration});
+                    }
+                }
+                pending.add(new long[]{to, range[1]});
+            }
+            interval.pending = merge(pending);
+        }
+        return dirtyBuckets;
+    }
+
+    private static List<long[]> merge(List<long[]> ranges) {
+        List<long[]> sorted = new ArrayList<>(ranges);
+        sorted.removeIf(range -> range[0] >= range[1]);
+        if (sorted.size() < 2) {
+            return sorted;
+        }
+        sorted.sort(Comparator.comparingLong(range -> range[0]));
+        List<long[]> merged = new ArrayList<>();
+        long[] current = sorted.get(0).clone();
+        for (int i = 1; i < sorted.size(); i++) {
+            long[] next = sorted.get(i);
+            if (next[0] <= current[1]) {
+                current[1] = Math.max(current[1], next[1]);
+            } else {
+                merged.add(current);
+                current = next.clone();
+            }
+        }
+        merged.add(current);
+        return merged;
+    }
+
+    static class Interval {
+        @Getter
+        private final long startTs;
+        @Getter
+        private final long endTs;
+        @Getter
+        private final List<TsKvRollup> rollups = new ArrayList<>();
+        private List<long[]> pending;
+
+        Interval(long startTs, long endTs) {
+            this.startTs = startTs;
+            this.endTs = endTs;
+            this.pending = Collections.singletonList(new long[]{startTs, endTs});
+        }
+
+        /**
+         * @return time ranges that have to be aggregated from the raw data
+         */
+        List<long[]> getRawRanges() {
+            return pending;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.dao.timeseries;
+
+import lombok.Getter;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bucket sizes of the pre-aggregated time-series kept in {@link org.thingsboard.server.dao.model.ModelConstants#TS_KV_ROLLUP_CF}.
+ * Buckets are aligned to the epoch, so every bucket is fully contained in one bucket of each coarser resolution.
+ */
+public enum TsRollupResolution {
+
+    MINUTE(TimeUnit.MINUTES.toMillis(1)), HOUR(TimeUnit.HOURS.toMillis(1)), DAY(TimeUnit.DAYS.toMillis(1));
+
+    @Getter
+    private final long durationMs;
+
+    TsRollupResolution(long durationMs) {
+        this.durationMs = durationMs;
+    }
+
+    public long floor(long ts) {
+        return Math.floorDiv(ts, durationMs) * durationMs;
+    }
+
+    public long ceil(long ts) {
+        long floor = floor(ts);
+        return floor == ts ? ts : floor + durationMs;
+    }
+
+}
@@ -68,6 +68,8 @@ public abstract class AbstractBufferedRateExecutor<T extends AsyncTask, F extend
     private final int printQueriesFreq;
     private final boolean perTenantLimitsEnabled;
     private final String perTenantLimitsConfiguration;
+    // Tasks that take more permits than the smallest limit would never pass, so they take the whole limit instead
+    private final long perTenantMaxPermits;
     private final ConcurrentMap<TenantId, TbRateLimits> perTenantLimits = new ConcurrentHashMap<>();
 
     private final AtomicInteger printQueriesIdx = new AtomicInteger(0);
@@ -87,6 +89,7 @@ public abstract class AbstractBufferedRateExecutor<T extends AsyncTask, F extend
         this.timeoutExecutor = Executors.newSingleThreadScheduledExecutor(ThingsBoardThreadFactory.forName("nosql-timeout"));
         this.perTenantLimitsEnabled = perTenantLimitsEnabled;
         this.perTenantLimitsConfiguration = perTenantLimitsConfiguration;
+        this.perTenantMaxPermits = perTenantLimitsEnabled ? getMinCapacity(perTenantLimitsConfiguration) : 1;
         this.stats = new BufferedRateExecutorStats(statsFactory);
         String concurrencyLevelKey = StatsType.RATE_EXECUTOR.getName() + "." + CONCURRENCY_LEVEL;
         this.concurrencyLevel = statsFactory.createGauge(concurrencyLevelKey, new AtomicInteger(0));
@@ -106,7 +109,7 @@ public abstract class AbstractBufferedRateExecutor<T extends AsyncTask, F extend
                 log.info("Invalid task received: {}", task);
             } else if (!task.getTenantId().isNullUid()) {
                 TbRateLimits rateLimits = perTenantLimits.computeIfAbsent(task.getTenantId(), id -> new TbRateLimits(perTenantLimitsConfiguration));
-                if (!rateLimits.tryConsume()) {
+                if (!rateLimits.tryConsume(Math.min(task.getPermits(), perTenantMaxPermits))) {
                     stats.incrementRateLimitedTenant(task.getTenantId());
                     stats.getTotalRateLimited().increment();
                     settableFuture.setException(new TenantRateLimitException());
@@ -138,6 +141,14 @@ public abstract class AbstractBufferedRateExecutor<T extends AsyncTask, F extend
         }
     }
 
+    private static long getMinCapacity(String limitsConfiguration) {
+        long minCapacity = Long.MAX_VALUE;
+        for (String limit : limitsConfiguration.split(",")) {
+            minCapacity = Math.min(minCapacity, Long.parseLong(limit.split(":")[0]));
+        }
+        return Math.max(1, minCapacity);
+    }
+
     protected abstract SettableFuture<V> create();
 
     protected abstract F wrap(T task, SettableFuture<V> future);
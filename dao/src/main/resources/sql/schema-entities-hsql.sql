@@ -72,7 +72,7 @@ CREATE TABLE IF NOT EXISTS attribute_kv (
   entity_type varchar(255),
   entity_id uuid,
   attribute_type varchar(255),
-  attribute_key varchar(255),
+  attribute_key int,
   bool_v boolean,
   str_v varchar(10000000),
   long_v bigint,
@@ -373,6 +373,12 @@ CREATE TABLE IF NOT EXISTS ts_kv_dictionary (
     CONSTRAINT ts_key_id_pkey PRIMARY KEY (key)
 );
 
+CREATE TABLE IF NOT EXISTS attribute_kv_dictionary (
+    key varchar(255) NOT NULL,
+    key_id int GENERATED BY DEFAULT AS IDENTITY(start with 0 increment by 1) UNIQUE,
+    CONSTRAINT attribute_key_id_pkey PRIMARY KEY (key)
+);
+
 CREATE TABLE IF NOT EXISTS oauth2_params (
     id uuid NOT NULL CONSTRAINT oauth2_params_pkey PRIMARY KEY,
     enabled boolean,
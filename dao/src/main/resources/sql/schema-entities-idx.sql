@@ -46,3 +46,5 @@ CREATE INDEX IF NOT EXISTS idx_attribute_kv_by_key_and_last_update_ts ON attribu
 
 CREATE INDEX IF NOT EXISTS idx_audit_log_tenant_id_and_created_time ON audit_log(tenant_id, created_time);
 
+CREATE INDEX IF NOT EXISTS idx_edge_event_by_edge_id_and_created_time ON edge_event(tenant_id, edge_id, created_time, id);
+
@@ -54,12 +54,12 @@ BEGIN
     SELECT max(attribute_kv.long_v)
     FROM tenant
              INNER JOIN attribute_kv ON tenant.id = attribute_kv.entity_id
-    WHERE attribute_kv.attribute_key = 'TTL'
+    WHERE attribute_kv.attribute_key = (SELECT key_id FROM attribute_kv_dictionary WHERE key = 'TTL')
     into max_tenant_ttl;
     SELECT max(attribute_kv.long_v)
     FROM customer
              INNER JOIN attribute_kv ON customer.id = attribute_kv.entity_id
-    WHERE attribute_kv.attribute_key = 'TTL'
+    WHERE attribute_kv.attribute_key = (SELECT key_id FROM attribute_kv_dictionary WHERE key = 'TTL')
     into max_customer_ttl;
     max_ttl := GREATEST(system_ttl, max_customer_ttl, max_tenant_ttl);
     if max_ttl IS NOT NULL AND max_ttl > 0 THEN
@@ -202,7 +202,7 @@ BEGIN
     WHILE FOUND
         LOOP
             EXECUTE format(
-                    'select attribute_kv.long_v from attribute_kv where attribute_kv.entity_id = %L and attribute_kv.attribute_key = %L',
+                    'select attribute_kv.long_v from attribute_kv where attribute_kv.entity_id = %L and attribute_kv.attribute_key = (select key_id from attribute_kv_dictionary where key = %L)',
                     tenant_id_record, 'TTL') INTO tenant_ttl;
             if tenant_ttl IS NULL THEN
                 tenant_ttl := system_ttl;
@@ -220,7 +220,7 @@ BEGIN
                 SELECT customer.id AS customer_id FROM customer WHERE customer.tenant_id = tenant_id_record
                 LOOP
                     EXECUTE format(
-                            'select attribute_kv.long_v from attribute_kv where attribute_kv.entity_id = %L and attribute_kv.attribute_key = %L',
+                            'select attribute_kv.long_v from attribute_kv where attribute_kv.entity_id = %L and attribute_kv.attribute_key = (select key_id from attribute_kv_dictionary where key = %L)',
                             customer_id_record, 'TTL') INTO customer_ttl;
                     IF customer_ttl IS NULL THEN
                         customer_ttl_ts := tenant_ttl_ts;
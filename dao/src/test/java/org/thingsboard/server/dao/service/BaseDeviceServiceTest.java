@@ -33,6 +33,7 @@ import org.thingsboard.server.common.data.Tenant;
 import org.thingsboard.server.common.data.TenantProfile;
 import org.thingsboard.server.common.data.ota.ChecksumAlgorithm;
 import org.thingsboard.server.common.data.id.CustomerId;
+import org.thingsboard.server.common.data.id.DeviceId;
 import org.thingsboard.server.common.data.id.TenantId;
 import org.thingsboard.server.common.data.page.PageData;
 import org.thingsboard.server.common.data.page.PageLink;
@@ -414,6 +415,46 @@ public abstract class BaseDeviceServiceTest extends AbstractServiceTest {
         tenantService.deleteTenant(tenantId);
     }
 
+    @Test
+    public void testFindDevicesByTenantIdAndIdOffset() {
+        Tenant tenant = new Tenant();
+        tenant.setTitle("Test tenant");
+        tenant = tenantService.saveTenant(tenant);
+
+        TenantId tenantId = tenant.getId();
+
+        List<Device> devices = new ArrayList<>();
+        for (int i=0;i<47;i++) {
+            Device device = new Device();
+            device.setTenantId(tenantId);
+            device.setName("Device"+i);
+            device.setType("default");
+            devices.add(deviceService.saveDevice(device));
+        }
+
+        List<Device> loadedDevices = new ArrayList<>();
+        DeviceId idOffset = null;
+        List<Device> page;
+        do {
+            page = deviceService.findDevicesByTenantIdAndIdOffset(tenantId, idOffset, 10);
+            loadedDevices.addAll(page);
+            if (!page.isEmpty()) {
+                idOffset = page.get(page.size() - 1).getId();
+            }
+            // deleting a loaded device must not shift the following pages
+            if (loadedDevices.size() == 10) {
+                deviceService.deleteDevice(tenantId, loadedDevices.get(0).getId());
+            }
+        } while (page.size() == 10);
+
+        Collections.sort(devices, idComparator);
+        Collections.sort(loadedDevices, idComparator);
+
+        Assert.assertEquals(devices, loadedDevices);
+
+        tenantService.deleteTenant(tenantId);
+    }
+
     @Test
     public void testFindDevicesByTenantIdAndName() {
         String title1 = "Device title 1";
@@ -34,6 +34,8 @@ import java.io.IOException;
 import java.time.LocalDateTime;
 import java.time.Month;
 import java.time.ZoneOffset;
+import java.util.List;
+import java.util.UUID;
 
 public abstract class BaseEdgeEventServiceTest extends AbstractServiceTest {
 
@@ -121,6 +123,32 @@ public abstract class BaseEdgeEventServiceTest extends AbstractServiceTest {
         Assert.assertTrue(edgeEventsWithoutTsUpdate.getData().isEmpty());
     }
 
+    @Test
+    public void findEdgeEventsAfterPosition() throws Exception {
+        long eventTime = LocalDateTime.of(2020, Month.NOVEMBER, 1, 12, 30).toEpochSecond(ZoneOffset.UTC);
+
+        EdgeId edgeId = new EdgeId(Uuids.timeBased());
+        DeviceId deviceId = new DeviceId(Uuids.timeBased());
+        TenantId tenantId = new TenantId(Uuids.timeBased());
+        EdgeEvent savedEdgeEvent = saveEdgeEventWithProvidedTime(eventTime, edgeId, deviceId, tenantId);
+        EdgeEvent savedEdgeEvent2 = saveEdgeEventWithProvidedTime(eventTime + 1, edgeId, deviceId, tenantId);
+        EdgeEvent savedEdgeEvent3 = saveEdgeEventWithProvidedTime(eventTime + 2, edgeId, deviceId, tenantId);
+
+        List<EdgeEvent> edgeEvents = edgeEventService.findEdgeEventsAfter(tenantId, edgeId, eventTime, new UUID(0L, 0L), 2);
+        Assert.assertEquals(2, edgeEvents.size());
+        Assert.assertEquals(savedEdgeEvent.getUuidId(), edgeEvents.get(0).getUuidId());
+        Assert.assertEquals(savedEdgeEvent2.getUuidId(), edgeEvents.get(1).getUuidId());
+
+        EdgeEvent last = edgeEvents.get(1);
+        edgeEvents = edgeEventService.findEdgeEventsAfter(tenantId, edgeId, last.getCreatedTime(), last.getUuidId(), 2);
+        Assert.assertEquals(1, edgeEvents.size());
+        Assert.assertEquals(savedEdgeEvent3.getUuidId(), edgeEvents.get(0).getUuidId());
+
+        last = edgeEvents.get(0);
+        edgeEvents = edgeEventService.findEdgeEventsAfter(tenantId, edgeId, last.getCreatedTime(), last.getUuidId(), 2);
+        Assert.assertTrue(edgeEvents.isEmpty());
+    }
+
     private EdgeEvent saveEdgeEventWithProvidedTime(long time, EdgeId edgeId, EntityId entityId, TenantId tenantId) throws Exception {
         EdgeEvent edgeEvent = generateEdgeEvent(tenantId, edgeId, entityId, EdgeEventActionType.ADDED);
         edgeEvent.setId(new EdgeEventId(Uuids.startOf(time)));
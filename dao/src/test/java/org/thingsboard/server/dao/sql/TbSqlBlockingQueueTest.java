@@ -0,0 +1,160 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.dao.sql;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.thingsboard.server.common.stats.MessagesStats;
+import org.thingsboard.server.dao.exception.SqlQueueFullException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(MockitoJUnitRunner.class)
+public class TbSqlBlockingQueueTest {
+
+    @Mock
+    private MessagesStats stats;
+
+    private ScheduledLogExecutorComponent logExecutor;
+    private ExecutorService executor;
+    private TbSqlBlockingQueue<Integer> queue;
+    private Timer flushTimer;
+
+    private final CountDownLatch saveStarted = new CountDownLatch(1);
+    private final CountDownLatch saveReleased = new CountDownLatch(1);
+    private final List<List<Integer>> batches = new CopyOnWriteArrayList<>();
+
+    @Before
+    public void setUp() {
+        logExecutor = new ScheduledLogExecutorComponent();
+        logExecutor.init();
+        executor = Executors.newSingleThreadExecutor();
+        flushTimer = new SimpleMeterRegistry().timer("flush");
+    }
+
+    @After
+    public void tearDown() {
+        if (queue != null) {
+            queue.destroy();
+        }
+        executor.shutdownNow();
+        logExecutor.stop();
+    }
+
+    @Test
+    public void testFullQueueFailsFast() throws Exception {
+        queue = createQueue(1, 0, 1, 0);
+        ListenableFuture<Void> first = queue.add(1);
+        assertTrue(saveStarted.await(1, TimeUnit.SECONDS));
+        ListenableFuture<Void> second = queue.add(2);
+        ListenableFuture<Void> rejected = queue.add(3);
+
+        assertTrue(rejected.isDone());
+        assertRejected(rejected);
+
+        saveReleased.countDown();
+        first.get(1, TimeUnit.SECONDS);
+        second.get(1, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testFullQueueBlocksSubmitter() throws Exception {
+        queue = createQueue(1, 0, 1, TimeUnit.SECONDS.toMillis(10));
+        queue.add(1);
+        assertTrue(saveStarted.await(1, TimeUnit.SECONDS));
+        queue.add(2);
+
+        Future<ListenableFuture<Void>> blocked = executor.submit(() -> queue.add(3));
+        Thread.sleep(100);
+        assertFalse(blocked.isDone());
+
+        saveReleased.countDown();
+        blocked.get(1, TimeUnit.SECONDS).get(1, TimeUnit.SECONDS);
+        assertEquals(3, batches.stream().mapToInt(List::size).sum());
+    }
+
+    @Test
+    public void testFullBatchIsFlushedWithoutWaitingForMaxDelay() throws Exception {
+        saveReleased.countDown();
+        queue = createQueue(3, TimeUnit.MINUTES.toMillis(1), 0, 0);
+        List<ListenableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            futures.add(queue.add(i));
+        }
+        for (ListenableFuture<Void> future : futures) {
+            future.get(5, TimeUnit.SECONDS);
+        }
+        assertEquals(Collections.singletonList(3), batches.stream().map(List::size).collect(Collectors.toList()));
+        assertEquals(1, flushTimer.count());
+    }
+
+    private TbSqlBlockingQueue<Integer> createQueue(int batchSize, long maxDelay, int maxQueueSize, long maxBlockTimeMs) {
+        TbSqlBlockingQueueParams params = TbSqlBlockingQueueParams.builder()
+                .logName("Test")
+                .batchSize(batchSize)
+                .maxDelay(maxDelay)
+                .statsPrintIntervalMs(TimeUnit.MINUTES.toMillis(1))
+                .statsNamePrefix("test")
+                .maxQueueSize(maxQueueSize)
+                .maxBlockTimeMs(maxBlockTimeMs)
+                .build();
+        TbSqlBlockingQueue<Integer> queue = new TbSqlBlockingQueue<>(params, stats, new AtomicInteger(), flushTimer);
+        Consumer<List<Integer>> saveFunction = batch -> {
+            saveStarted.countDown();
+            try {
+                saveReleased.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            batches.add(batch);
+        };
+        queue.init(logExecutor, saveFunction, Integer::compare, 0);
+        return queue;
+    }
+
+    private void assertRejected(ListenableFuture<Void> future) throws InterruptedException {
+        try {
+            future.get();
+            fail("Expected the element to be rejected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof SqlQueueFullException);
+        }
+    }
+}
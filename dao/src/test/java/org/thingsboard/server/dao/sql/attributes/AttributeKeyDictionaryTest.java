@@ -0,0 +1,135 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.dao.sql.attributes;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.thingsboard.server.dao.model.sql.AttributeKvDictionary;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class AttributeKeyDictionaryTest {
+
+    @Mock
+    private AttributeKvDictionaryRepository dictionaryRepository;
+
+    @Mock
+    private AttributeKvInsertRepository insertRepository;
+
+    private AttributeKeyDictionary keyDictionary;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        keyDictionary = new AttributeKeyDictionary();
+        ReflectionTestUtils.setField(keyDictionary, "dictionaryRepository", dictionaryRepository);
+        ReflectionTestUtils.setField(keyDictionary, "insertRepository", insertRepository);
+        executor = Executors.newFixedThreadPool(8);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testPreloadedKeysDoNotHitDatabase() {
+        when(dictionaryRepository.findAll()).thenReturn(Arrays.asList(dictionary("active", 1), dictionary("firmware", 2)));
+        keyDictionary.init();
+
+        assertEquals(Integer.valueOf(1), keyDictionary.findKeyId("active"));
+        assertEquals(2, keyDictionary.getOrSaveKeyId("firmware"));
+        assertEquals("firmware", keyDictionary.getKey(2));
+        verify(dictionaryRepository, never()).findById(any());
+        verify(insertRepository, never()).saveOrGetKeyId(anyString());
+    }
+
+    @Test
+    public void testMissingKeyIsNotCached() {
+        when(dictionaryRepository.findAll()).thenReturn(Collections.emptyList());
+        keyDictionary.init();
+        when(dictionaryRepository.findById(any())).thenReturn(Optional.empty());
+
+        assertNull(keyDictionary.findKeyId("unknown"));
+        assertNull(keyDictionary.findKeyId("unknown"));
+        verify(dictionaryRepository, times(2)).findById(any());
+
+        // the key created by another node is found on the next read
+        when(dictionaryRepository.findById(any())).thenReturn(Optional.of(dictionary("unknown", 5)));
+        assertEquals(Integer.valueOf(5), keyDictionary.findKeyId("unknown"));
+        assertEquals(Integer.valueOf(5), keyDictionary.findKeyId("unknown"));
+        assertEquals(5, keyDictionary.getOrSaveKeyId("unknown"));
+        verify(dictionaryRepository, times(3)).findById(any());
+        verify(insertRepository, never()).saveOrGetKeyId(anyString());
+    }
+
+    @Test
+    public void testConcurrentRequestsForNewKeyInsertOnce() throws Exception {
+        when(dictionaryRepository.findAll()).thenReturn(Collections.emptyList());
+        keyDictionary.init();
+        CountDownLatch insertStarted = new CountDownLatch(1);
+        CountDownLatch releaseInsert = new CountDownLatch(1);
+        when(insertRepository.saveOrGetKeyId("inactivityTimeout")).thenAnswer(invocation -> {
+            insertStarted.countDown();
+            releaseInsert.await(5, TimeUnit.SECONDS);
+            return 7;
+        });
+
+        List<Future<Integer>> results = new ArrayList<>();
+        results.add(executor.submit(() -> keyDictionary.getOrSaveKeyId("inactivityTimeout")));
+        insertStarted.await(5, TimeUnit.SECONDS);
+        for (int i = 0; i < 7; i++) {
+            results.add(executor.submit(() -> keyDictionary.getOrSaveKeyId("inactivityTimeout")));
+        }
+        releaseInsert.countDown();
+
+        for (Future<Integer> result : results) {
+            assertEquals(Integer.valueOf(7), result.get(5, TimeUnit.SECONDS));
+        }
+        verify(insertRepository, times(1)).saveOrGetKeyId("inactivityTimeout");
+    }
+
+    private static AttributeKvDictionary dictionary(String key, int keyId) {
+        AttributeKvDictionary dictionary = new AttributeKvDictionary();
+        dictionary.setKey(key);
+        dictionary.setKeyId(keyId);
+        return dictionary;
+    }
+}
@@ -0,0 +1,131 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.dao.sqlts.dictionary;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.thingsboard.server.dao.model.sqlts.dictionary.TsKvDictionary;
+import org.thingsboard.server.dao.sqlts.insert.dictionary.InsertTsKvDictionaryRepository;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class TsKeyDictionaryTest {
+
+    @Mock
+    private TsKvDictionaryRepository dictionaryRepository;
+
+    @Mock
+    private InsertTsKvDictionaryRepository insertDictionaryRepository;
+
+    private TsKeyDictionary keyDictionary;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        keyDictionary = new TsKeyDictionary();
+        ReflectionTestUtils.setField(keyDictionary, "dictionaryRepository", dictionaryRepository);
+        ReflectionTestUtils.setField(keyDictionary, "insertDictionaryRepository", insertDictionaryRepository);
+        executor = Executors.newFixedThreadPool(8);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testPreloadedKeysDoNotHitDatabase() {
+        when(dictionaryRepository.findAll()).thenReturn(Arrays.asList(dictionary("temperature", 1), dictionary("humidity", 2)));
+        keyDictionary.init();
+
+        assertEquals(Integer.valueOf(1), keyDictionary.getOrSaveKeyId("temperature"));
+        assertEquals(Integer.valueOf(2), keyDictionary.getOrSaveKeyId("humidity"));
+        verify(insertDictionaryRepository, never()).saveOrGetKeyId(anyString());
+    }
+
+    @Test
+    public void testConcurrentRequestsForNewKeyInsertOnce() throws Exception {
+        when(dictionaryRepository.findAll()).thenReturn(Collections.emptyList());
+        keyDictionary.init();
+        CountDownLatch insertStarted = new CountDownLatch(1);
+        CountDownLatch releaseInsert = new CountDownLatch(1);
+        when(insertDictionaryRepository.saveOrGetKeyId("pressure")).thenAnswer(invocation -> {
+            insertStarted.countDown();
+            releaseInsert.await(5, TimeUnit.SECONDS);
+            return 7;
+        });
+
+        List<Future<Integer>> results = new ArrayList<>();
+        results.add(executor.submit(() -> keyDictionary.getOrSaveKeyId("pressure")));
+        insertStarted.await(5, TimeUnit.SECONDS);
+        for (int i = 0; i < 7; i++) {
+            results.add(executor.submit(() -> keyDictionary.getOrSaveKeyId("pressure")));
+        }
+        releaseInsert.countDown();
+
+        for (Future<Integer> result : results) {
+            assertEquals(Integer.valueOf(7), result.get(5, TimeUnit.SECONDS));
+        }
+        verify(insertDictionaryRepository, times(1)).saveOrGetKeyId("pressure");
+    }
+
+    @Test
+    public void testResolveKeyIds() {
+        when(dictionaryRepository.findAll()).thenReturn(Collections.singletonList(dictionary("temperature", 1)));
+        keyDictionary.init();
+        when(dictionaryRepository.findAllByKeyIn(any())).thenReturn(Collections.singletonList(dictionary("humidity", 2)));
+        when(insertDictionaryRepository.saveOrGetKeyId("pressure")).thenReturn(3);
+
+        Map<String, Integer> keyIds = keyDictionary.resolveKeyIds(Arrays.asList("temperature", "humidity", "pressure", "pressure"));
+
+        assertEquals(3, keyIds.size());
+        assertEquals(Integer.valueOf(1), keyIds.get("temperature"));
+        assertEquals(Integer.valueOf(2), keyIds.get("humidity"));
+        assertEquals(Integer.valueOf(3), keyIds.get("pressure"));
+        verify(insertDictionaryRepository, times(1)).saveOrGetKeyId(anyString());
+        assertEquals(Integer.valueOf(2), keyDictionary.getOrSaveKeyId("humidity"));
+    }
+
+    private static TsKvDictionary dictionary(String key, int keyId) {
+        TsKvDictionary dictionary = new TsKvDictionary();
+        dictionary.setKey(key);
+        dictionary.setKeyId(keyId);
+        return dictionary;
+    }
+}
@@ -0,0 +1,80 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.dao.sqlts.insert.psql;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class PsqlBinaryCopyWriterTest {
+
+    @Test
+    public void testRowEncoding() throws Exception {
+        UUID entityId = UUID.randomUUID();
+        PsqlBinaryCopyWriter writer = new PsqlBinaryCopyWriter(256);
+        writer.writeHeader();
+        writer.startRow(6);
+        writer.writeUuid(entityId);
+        writer.writeInt(42);
+        writer.writeLong(1_600_000_000_000L);
+        writer.writeBoolean(null);
+        writer.writeString("tést");
+        writer.writeDouble(1.5);
+        writer.writeTrailer();
+
+        ByteBuffer buf = ByteBuffer.wrap(writer.toByteArray());
+        byte[] signature = new byte[11];
+        buf.get(signature);
+        assertArrayEquals(new byte[]{'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xFF, '\r', '\n', 0}, signature);
+        assertEquals(0, buf.getInt());
+        assertEquals(0, buf.getInt());
+
+        assertEquals(6, buf.getShort());
+        assertEquals(16, buf.getInt());
+        assertEquals(entityId, new UUID(buf.getLong(), buf.getLong()));
+        assertEquals(4, buf.getInt());
+        assertEquals(42, buf.getInt());
+        assertEquals(8, buf.getInt());
+        assertEquals(1_600_000_000_000L, buf.getLong());
+        assertEquals(-1, buf.getInt());
+        byte[] expected = "tést".getBytes(StandardCharsets.UTF_8);
+        assertEquals(expected.length, buf.getInt());
+        byte[] actual = new byte[expected.length];
+        buf.get(actual);
+        assertArrayEquals(expected, actual);
+        assertEquals(8, buf.getInt());
+        assertEquals(1.5, buf.getDouble(), 0.0);
+
+        assertEquals(-1, buf.getShort());
+        assertFalse(buf.hasRemaining());
+    }
+
+    @Test
+    public void testReset() throws Exception {
+        PsqlBinaryCopyWriter writer = new PsqlBinaryCopyWriter(16);
+        writer.writeHeader();
+        writer.reset();
+        assertEquals(0, writer.size());
+        writer.writeLong(null);
+        assertEquals(4, writer.size());
+    }
+}
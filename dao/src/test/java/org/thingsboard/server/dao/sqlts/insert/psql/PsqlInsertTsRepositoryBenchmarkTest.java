@@ -0,0 +1,156 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.dao.sqlts.insert.psql;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.thingsboard.server.dao.model.sqlts.ts.TsKvEntity;
+import org.thingsboard.server.dao.sqlts.insert.InsertTsRepository;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Compares the batched INSERT and the binary COPY ingestion paths against a real PostgreSQL database.
+ * Skipped unless a database is provided, for example:
+ * mvn test -pl dao -Dtest=PsqlInsertTsRepositoryBenchmarkTest -Dtb.benchmark.psql.url=jdbc:postgresql://localhost:5432/tb_benchmark
+ * -Dtb.benchmark.psql.username=postgres -Dtb.benchmark.psql.password=postgres
+ */
+@Slf4j
+public class PsqlInsertTsRepositoryBenchmarkTest {
+
+    private static final int BATCH_SIZE = 10000;
+    private static final int BATCHES = 20;
+    private static final int ENTITIES = 1000;
+    private static final int KEYS = 10;
+
+    private SingleConnectionDataSource dataSource;
+    private JdbcTemplate jdbcTemplate;
+    private TransactionTemplate transactionTemplate;
+
+    @Before
+    public void setUp() {
+        String url = System.getProperty("tb.benchmark.psql.url");
+        assumeTrue("PostgreSQL url is not set", url != null);
+        dataSource = new SingleConnectionDataSource(url,
+                System.getProperty("tb.benchmark.psql.username", "postgres"),
+                System.getProperty("tb.benchmark.psql.password", "postgres"), true);
+        dataSource.setAutoCommit(true);
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        jdbcTemplate.execute("DROP TABLE IF EXISTS ts_kv");
+        jdbcTemplate.execute("CREATE TABLE ts_kv (entity_id uuid NOT NULL, key int NOT NULL, ts bigint NOT NULL, bool_v boolean, " +
+                "str_v varchar(10000000), long_v bigint, dbl_v double precision, json_v json, " +
+                "CONSTRAINT ts_kv_pkey PRIMARY KEY (entity_id, key, ts))");
+    }
+
+    @After
+    public void tearDown() {
+        if (dataSource != null) {
+            jdbcTemplate.execute("DROP TABLE IF EXISTS ts_kv");
+            dataSource.destroy();
+        }
+    }
+
+    @Test
+    public void compareInsertModes() {
+        List<List<TsKvEntity>> batches = generateBatches();
+
+        long batchTime = run(init(new PsqlInsertTsRepository()), batches);
+        int batchRows = countRows();
+        jdbcTemplate.execute("TRUNCATE ts_kv");
+        long copyTime = run(init(new PsqlCopyInsertTsRepository()), batches);
+        int copyRows = countRows();
+
+        assertEquals(batchRows, copyRows);
+        // Second pass over the same data exercises the conflict path.
+        long copyUpdateTime = run(init(new PsqlCopyInsertTsRepository()), batches);
+        jdbcTemplate.execute("TRUNCATE ts_kv");
+        run(init(new PsqlInsertTsRepository()), batches);
+        long batchUpdateTime = run(init(new PsqlInsertTsRepository()), batches);
+
+        int total = BATCH_SIZE * BATCHES;
+        log.info("Inserted {} points: batch {} ms ({} points/s), copy {} ms ({} points/s)",
+                total, batchTime, rate(total, batchTime), copyTime, rate(total, copyTime));
+        log.info("Updated {} points: batch {} ms ({} points/s), copy {} ms ({} points/s)",
+                total, batchUpdateTime, rate(total, batchUpdateTime), copyUpdateTime, rate(total, copyUpdateTime));
+    }
+
+    private <T extends InsertTsRepository<TsKvEntity>> T init(T repository) {
+        ReflectionTestUtils.setField(repository, "jdbcTemplate", jdbcTemplate);
+        ReflectionTestUtils.setField(repository, "transactionTemplate", transactionTemplate);
+        ReflectionTestUtils.setField(repository, "removeNullChars", true);
+        return repository;
+    }
+
+    private long run(InsertTsRepository<TsKvEntity> repository, List<List<TsKvEntity>> batches) {
+        long startTs = System.currentTimeMillis();
+        for (List<TsKvEntity> batch : batches) {
+            transactionTemplate.execute(status -> {
+                repository.saveOrUpdate(batch);
+                return null;
+            });
+        }
+        return System.currentTimeMillis() - startTs;
+    }
+
+    private int countRows() {
+        return jdbcTemplate.queryForObject("SELECT count(*) FROM ts_kv", Integer.class);
+    }
+
+    private static List<List<TsKvEntity>> generateBatches() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        List<UUID> entityIds = new ArrayList<>(ENTITIES);
+        for (int i = 0; i < ENTITIES; i++) {
+            entityIds.add(UUID.randomUUID());
+        }
+        long ts = System.currentTimeMillis();
+        List<List<TsKvEntity>> batches = new ArrayList<>(BATCHES);
+        for (int b = 0; b < BATCHES; b++) {
+            List<TsKvEntity> batch = new ArrayList<>(BATCH_SIZE);
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                TsKvEntity entity = new TsKvEntity();
+                entity.setEntityId(entityIds.get(random.nextInt(ENTITIES)));
+                entity.setKey(random.nextInt(KEYS));
+                entity.setTs(ts++);
+                if (i % 2 == 0) {
+                    entity.setDoubleValue(random.nextDouble());
+                } else {
+                    entity.setLongValue(random.nextLong());
+                }
+                batch.add(entity);
+            }
+            batches.add(batch);
+        }
+        return batches;
+    }
+
+    private static long rate(int points, long timeMs) {
+        return timeMs > 0 ? points * 1000L / timeMs : points;
+    }
+}
@@ -0,0 +1,68 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.dao.sqlts.psql;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PsqlPartitionBoundsTest {
+
+    @Test
+    public void testEmpty() {
+        assertFalse(PsqlPartitionBounds.EMPTY.contains(0));
+        assertFalse(PsqlPartitionBounds.EMPTY.contains(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testContains() {
+        PsqlPartitionBounds bounds = PsqlPartitionBounds.EMPTY
+                .add(300, 400)
+                .add(100, 200)
+                .add(200, 300);
+
+        assertEquals(3, bounds.size());
+        assertFalse(bounds.contains(99));
+        assertTrue(bounds.contains(100));
+        assertTrue(bounds.contains(199));
+        assertTrue(bounds.contains(200));
+        assertTrue(bounds.contains(399));
+        assertFalse(bounds.contains(400));
+        assertTrue(bounds.containsStart(200));
+        assertFalse(bounds.containsStart(250));
+    }
+
+    @Test
+    public void testGaps() {
+        PsqlPartitionBounds bounds = PsqlPartitionBounds.EMPTY
+                .add(100, 200)
+                .add(500, 600);
+
+        assertTrue(bounds.contains(150));
+        assertFalse(bounds.contains(200));
+        assertFalse(bounds.contains(499));
+        assertTrue(bounds.contains(500));
+    }
+
+    @Test
+    public void testAddExistingStart() {
+        PsqlPartitionBounds bounds = PsqlPartitionBounds.EMPTY.add(100, 200);
+        assertSame(bounds, bounds.add(100, 200));
+    }
+}
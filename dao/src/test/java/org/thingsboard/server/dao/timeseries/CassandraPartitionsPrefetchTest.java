@@ -0,0 +1,119 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.dao.timeseries;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Spy;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.thingsboard.server.common.data.id.DeviceId;
+import org.thingsboard.server.common.data.id.TenantId;
+import org.thingsboard.server.common.data.kv.Aggregation;
+import org.thingsboard.server.common.data.kv.BaseReadTsKvQuery;
+import org.thingsboard.server.common.data.kv.BasicTsKvEntry;
+import org.thingsboard.server.common.data.kv.LongDataEntry;
+import org.thingsboard.server.common.data.kv.TsKvEntry;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@RunWith(MockitoJUnitRunner.class)
+public class CassandraPartitionsPrefetchTest {
+
+    private final TenantId tenantId = new TenantId(UUID.randomUUID());
+    private final DeviceId deviceId = new DeviceId(UUID.randomUUID());
+
+    @Spy
+    private CassandraBaseTimeseriesDao cassandraBaseTimeseriesDao;
+
+    private final Map<Long, SettableFuture<List<TsKvEntry>>> partitionReads = new HashMap<>();
+
+    @Before
+    public void setUp() {
+        ReflectionTestUtils.setField(cassandraBaseTimeseriesDao, "partitionsPrefetch", 3);
+        ReflectionTestUtils.setField(cassandraBaseTimeseriesDao, "readResultsProcessingExecutor", MoreExecutors.newDirectExecutorService());
+        doAnswer(invocation -> {
+            SettableFuture<List<TsKvEntry>> future = SettableFuture.create();
+            partitionReads.put(invocation.getArgument(2), future);
+            return future;
+        }).when(cassandraBaseTimeseriesDao).fetchPartition(any(), any(), anyLong(), anyInt());
+    }
+
+    @Test
+    public void testPartitionsAreConsumedInOrderAndPrefetchStopsWhenCursorIsFull() throws Exception {
+        TsKvQueryCursor cursor = new TsKvQueryCursor(deviceId.getEntityType().name(), deviceId.getId(),
+                new BaseReadTsKvQuery("temperature", 0, 1000, 0, 5, Aggregation.NONE, "ASC"), Arrays.asList(100L, 200L, 300L, 400L, 500L));
+        SimpleListenableFuture<List<TsKvEntry>> result = new SimpleListenableFuture<>();
+
+        cassandraBaseTimeseriesDao.findAllAsyncWithPrefetch(tenantId, cursor, new ArrayDeque<>(), result);
+        Assert.assertEquals(3, partitionReads.size());
+        verify(cassandraBaseTimeseriesDao, times(3)).fetchPartition(eq(tenantId), eq(cursor), anyLong(), eq(5));
+
+        partitionReads.get(300L).set(entries(300L, 301L));
+        partitionReads.get(200L).set(entries(200L, 201L));
+        Assert.assertFalse(result.isDone());
+
+        partitionReads.get(100L).set(entries(100L, 101L));
+        Assert.assertTrue(result.isDone());
+        List<Long> ts = result.get().stream().map(TsKvEntry::getTs).collect(Collectors.toList());
+        Assert.assertEquals(Arrays.asList(100L, 101L, 200L, 201L, 300L), ts);
+
+        // the window is refilled after each consumed partition with the number of records that are still missing
+        verify(cassandraBaseTimeseriesDao).fetchPartition(eq(tenantId), eq(cursor), eq(400L), eq(3));
+        verify(cassandraBaseTimeseriesDao).fetchPartition(eq(tenantId), eq(cursor), eq(500L), eq(1));
+        Assert.assertTrue(partitionReads.get(400L).isCancelled());
+        Assert.assertTrue(partitionReads.get(500L).isCancelled());
+    }
+
+    @Test
+    public void testAllPartitionsAreReadWhenLimitIsNotReached() throws Exception {
+        TsKvQueryCursor cursor = new TsKvQueryCursor(deviceId.getEntityType().name(), deviceId.getId(),
+                new BaseReadTsKvQuery("temperature", 0, 1000, 0, 100, Aggregation.NONE, "DESC"), Arrays.asList(100L, 200L, 300L, 400L));
+        SimpleListenableFuture<List<TsKvEntry>> result = new SimpleListenableFuture<>();
+
+        cassandraBaseTimeseriesDao.findAllAsyncWithPrefetch(tenantId, cursor, new ArrayDeque<>(), result);
+        partitionReads.get(200L).set(entries(201L));
+        partitionReads.get(300L).set(entries(301L));
+        partitionReads.get(400L).set(entries(401L));
+        partitionReads.get(100L).set(entries(101L));
+
+        Assert.assertTrue(result.isDone());
+        List<Long> ts = result.get().stream().map(TsKvEntry::getTs).collect(Collectors.toList());
+        Assert.assertEquals(Arrays.asList(401L, 301L, 201L, 101L), ts);
+    }
+
+    private static List<TsKvEntry> entries(long... ts) {
+        return Arrays.stream(ts).mapToObj(t -> (TsKvEntry) new BasicTsKvEntry(t, new LongDataEntry("temperature", t))).collect(Collectors.toList());
+    }
+}
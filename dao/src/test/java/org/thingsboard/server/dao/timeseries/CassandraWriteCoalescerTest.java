@@ -0,0 +1,194 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.dao.timeseries;
+
+import com.datastax.oss.driver.api.core.cql.BatchStatement;
+import com.datastax.oss.driver.api.core.cql.BoundStatement;
+import com.datastax.oss.driver.api.core.cql.Statement;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import io.micrometer.core.instrument.Counter;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.thingsboard.server.common.data.id.DeviceId;
+import org.thingsboard.server.common.data.id.TenantId;
+import org.thingsboard.server.common.stats.StatsCounter;
+import org.thingsboard.server.common.stats.StatsFactory;
+import org.thingsboard.server.dao.nosql.TbResultSet;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class CassandraWriteCoalescerTest {
+
+    private final TenantId tenantId = new TenantId(UUID.randomUUID());
+    private final DeviceId firstDeviceId = new DeviceId(UUID.randomUUID());
+    private final DeviceId secondDeviceId = new DeviceId(UUID.randomUUID());
+
+    private final List<Statement<?>> executed = new CopyOnWriteArrayList<>();
+    private final List<SettableFuture<TbResultSet>> results = new CopyOnWriteArrayList<>();
+
+    private StatsFactory statsFactory;
+    private CassandraWriteCoalescer coalescer;
+
+    @Before
+    public void setUp() {
+        statsFactory = mock(StatsFactory.class);
+        when(statsFactory.createStatsCounter(anyString(), anyString()))
+                .thenAnswer(invocation -> new StatsCounter(new AtomicInteger(), mock(Counter.class), invocation.getArgument(1)));
+        coalescer = createCoalescer(100);
+        coalescer.init();
+    }
+
+    private CassandraWriteCoalescer createCoalescer(int queueLimit) {
+        return new CassandraWriteCoalescer(3, 100, 200, queueLimit, 60000, statsFactory, (tenantId, statement) -> {
+            SettableFuture<TbResultSet> result = SettableFuture.create();
+            executed.add(statement);
+            results.add(result);
+            return result;
+        });
+    }
+
+    @After
+    public void tearDown() {
+        coalescer.destroy();
+    }
+
+    @Test
+    public void testWritesOfTheSameEntityAreBatched() throws Exception {
+        BoundStatement first = mock(BoundStatement.class);
+        BoundStatement second = mock(BoundStatement.class);
+        BoundStatement third = mock(BoundStatement.class);
+        List<ListenableFuture<Void>> futures = new ArrayList<>();
+        futures.add(coalescer.add(tenantId, firstDeviceId, "temperature", first));
+        futures.add(coalescer.add(tenantId, secondDeviceId, "temperature", second));
+        futures.add(coalescer.add(tenantId, firstDeviceId, "humidity", third));
+
+        awaitExecuted(2);
+        Assert.assertTrue(executed.get(0) instanceof BatchStatement);
+        List<Object> batched = new ArrayList<>();
+        ((BatchStatement) executed.get(0)).forEach(batched::add);
+        Assert.assertEquals(2, batched.size());
+        Assert.assertSame(first, batched.get(0));
+        Assert.assertSame(third, batched.get(1));
+        Assert.assertSame(second, executed.get(1));
+
+        results.get(0).set(null);
+        futures.get(0).get(1, TimeUnit.SECONDS);
+        futures.get(2).get(1, TimeUnit.SECONDS);
+        Assert.assertFalse(futures.get(1).isDone());
+
+        results.get(1).setException(new RuntimeException("Failed"));
+        try {
+            futures.get(1).get(1, TimeUnit.SECONDS);
+            Assert.fail("Expected the write to fail");
+        } catch (ExecutionException e) {
+            Assert.assertEquals("Failed", e.getCause().getMessage());
+        }
+    }
+
+    @Test
+    public void testBatchIsSplitByMaxBatchBytes() throws Exception {
+        BoundStatement first = mockStatement(60);
+        BoundStatement second = mockStatement(30);
+        BoundStatement third = mockStatement(20);
+        List<ListenableFuture<Void>> futures = new ArrayList<>();
+        futures.add(coalescer.add(tenantId, firstDeviceId, "temperature", first));
+        futures.add(coalescer.add(tenantId, firstDeviceId, "humidity", second));
+        futures.add(coalescer.add(tenantId, firstDeviceId, "pressure", third));
+
+        awaitExecuted(2);
+        List<Object> batched = new ArrayList<>();
+        ((BatchStatement) executed.get(0)).forEach(batched::add);
+        Assert.assertEquals(2, batched.size());
+        Assert.assertSame(first, batched.get(0));
+        Assert.assertSame(second, batched.get(1));
+        Assert.assertSame(third, executed.get(1));
+
+        results.forEach(result -> result.set(null));
+        for (ListenableFuture<Void> future : futures) {
+            future.get(1, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void testSingleWriteIsSentWithoutBatch() throws Exception {
+        BoundStatement statement = mock(BoundStatement.class);
+        ListenableFuture<Void> future = coalescer.add(tenantId, firstDeviceId, "temperature", statement);
+
+        awaitExecuted(1);
+        Assert.assertSame(statement, executed.get(0));
+        results.get(0).set(null);
+        future.get(1, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testWritesOverQueueLimitAreRejected() throws Exception {
+        CassandraWriteCoalescer notStarted = createCoalescer(1);
+        ListenableFuture<Void> queued = notStarted.add(tenantId, firstDeviceId, "temperature", mock(BoundStatement.class));
+        ListenableFuture<Void> rejected = notStarted.add(tenantId, firstDeviceId, "humidity", mock(BoundStatement.class));
+
+        Assert.assertFalse(queued.isDone());
+        assertFailed(rejected);
+
+        notStarted.destroy();
+        assertFailed(queued);
+    }
+
+    @Test
+    public void testPendingWritesAreFailedOnDestroy() throws Exception {
+        coalescer.destroy();
+
+        assertFailed(coalescer.add(tenantId, firstDeviceId, "temperature", mock(BoundStatement.class)));
+        Assert.assertTrue(executed.isEmpty());
+    }
+
+    private void assertFailed(ListenableFuture<Void> future) throws Exception {
+        try {
+            future.get(1, TimeUnit.SECONDS);
+            Assert.fail("Expected the write to fail");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    private BoundStatement mockStatement(int valueBytes) {
+        BoundStatement statement = mock(BoundStatement.class);
+        when(statement.getValues()).thenReturn(Collections.singletonList(ByteBuffer.allocate(valueBytes)));
+        return statement;
+    }
+
+    private void awaitExecuted(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(5);
+        while (executed.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(count, executed.size());
+    }
+}
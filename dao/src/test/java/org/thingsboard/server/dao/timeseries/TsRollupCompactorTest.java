@@ -0,0 +1,128 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.dao.timeseries;
+
+import com.google.common.util.concurrent.Futures;
+import org.junit.Assert;
+import org.junit.Test;
+import org.thingsboard.server.common.data.id.DeviceId;
+import org.thingsboard.server.common.data.id.TenantId;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+public class TsRollupCompactorTest {
+
+    private static final long MINUTE = TsRollupResolution.MINUTE.getDurationMs();
+    private static final long HOUR = TsRollupResolution.HOUR.getDurationMs();
+    private static final long DELAY = 1000;
+
+    private final TenantId tenantId = new TenantId(UUID.randomUUID());
+    private final DeviceId deviceId = new DeviceId(UUID.randomUUID());
+
+    private final List<String> compacted = new ArrayList<>();
+    private final List<Long> compactedTtls = new ArrayList<>();
+    private boolean failing;
+
+    private final TsRollupCompactor compactor = createCompactor(0, 100);
+
+    private TsRollupCompactor createCompactor(long spreadMs, int maxKeys) {
+        return new TsRollupCompactor(Arrays.asList(TsRollupResolution.HOUR, TsRollupResolution.MINUTE), DELAY, spreadMs, 10, maxKeys,
+                (tenantId, entityId, key, resolution, bucketTs, ttl) -> {
+                    if (failing) {
+                        return Futures.immediateFailedFuture(new RuntimeException("Failed"));
+                    }
+                    compacted.add(resolution + ":" + bucketTs);
+                    compactedTtls.add(ttl);
+                    return Futures.immediateFuture(null);
+                });
+    }
+
+    @Test
+    public void testOnlyClosedBucketsAreCompacted() throws Exception {
+        compactor.onWrite(tenantId, deviceId, "temperature", 0, HOUR + DELAY);
+
+        compactor.compact(HOUR + 2 * MINUTE + DELAY);
+
+        Assert.assertEquals(Arrays.asList("MINUTE:" + HOUR, "MINUTE:" + (HOUR + MINUTE)), compacted);
+        Assert.assertEquals(1, compactor.getKeysCount());
+
+        compacted.clear();
+        compactor.compact(2 * HOUR + DELAY);
+
+        Assert.assertEquals(59, compacted.size());
+        Assert.assertTrue(compacted.contains("HOUR:" + HOUR));
+        Assert.assertEquals(0, compactor.getKeysCount());
+    }
+
+    @Test
+    public void testFailedBucketsAreCompactedAgain() throws Exception {
+        compactor.onWrite(tenantId, deviceId, "temperature", 0, HOUR + DELAY);
+
+        failing = true;
+        compactor.compact(HOUR + MINUTE + DELAY);
+        Assert.assertTrue(compacted.isEmpty());
+
+        failing = false;
+        compactor.compact(HOUR + MINUTE + DELAY);
+        Assert.assertEquals(Arrays.asList("MINUTE:" + HOUR), compacted);
+    }
+
+    @Test
+    public void testRollupsUseLargestTtlOfWrites() throws Exception {
+        compactor.onWrite(tenantId, deviceId, "temperature", 100, HOUR + DELAY);
+        compactor.onWrite(tenantId, deviceId, "temperature", 300, HOUR + DELAY);
+        compactor.onWrite(tenantId, deviceId, "temperature", 200, HOUR + DELAY);
+
+        compactor.compact(HOUR + MINUTE + DELAY);
+        Assert.assertEquals(Arrays.asList(300L), compactedTtls);
+
+        compactor.onWrite(tenantId, deviceId, "temperature", 0, HOUR + MINUTE + DELAY);
+        compactor.compact(HOUR + 2 * MINUTE + DELAY);
+        Assert.assertEquals(Arrays.asList(300L, 0L), compactedTtls);
+    }
+
+    @Test
+    public void testKeysOverLimitAreNotTracked() throws Exception {
+        TsRollupCompactor limitedCompactor = createCompactor(0, 1);
+        Assert.assertTrue(limitedCompactor.onWrite(tenantId, deviceId, "temperature", 0, HOUR + DELAY));
+        Assert.assertFalse(limitedCompactor.onWrite(tenantId, deviceId, "humidity", 0, HOUR + DELAY));
+        Assert.assertTrue(limitedCompactor.onWrite(tenantId, deviceId, "temperature", 0, HOUR + DELAY));
+        Assert.assertEquals(1, limitedCompactor.getKeysCount());
+
+        limitedCompactor.compact(2 * HOUR + DELAY);
+        Assert.assertEquals(0, limitedCompactor.getKeysCount());
+        Assert.assertTrue(limitedCompactor.onWrite(tenantId, deviceId, "humidity", 0, 2 * HOUR + DELAY));
+    }
+
+    @Test
+    public void testCompactionIsSpreadAcrossKeys() throws Exception {
+        long spread = 30 * MINUTE;
+        TsRollupCompactor spreadCompactor = createCompactor(spread, 100);
+        for (int i = 0; i < 50; i++) {
+            spreadCompactor.onWrite(tenantId, deviceId, "key" + i, 0, HOUR + DELAY);
+        }
+
+        spreadCompactor.compact(2 * HOUR + DELAY);
+        long compactedAtClose = compacted.stream().filter(bucket -> bucket.equals("HOUR:" + HOUR)).count();
+        Assert.assertTrue(compactedAtClose < 50);
+
+        spreadCompactor.compact(2 * HOUR + spread + DELAY);
+        Assert.assertEquals(50, compacted.stream().filter(bucket -> bucket.equals("HOUR:" + HOUR)).count());
+    }
+}
@@ -0,0 +1,133 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.server.dao.timeseries;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import org.junit.Assert;
+import org.junit.Test;
+import org.thingsboard.server.common.data.kv.Aggregation;
+import org.thingsboard.server.common.data.kv.TsKvEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+public class TsRollupPlannerTest {
+
+    private static final long MINUTE = TsRollupResolution.MINUTE.getDurationMs();
+    private static final long HOUR = TsRollupResolution.HOUR.getDurationMs();
+
+    @Test
+    public void testUnalignedEdgesAreReadFromRawData() {
+        TsRollupPlanner planner = new TsRollupPlanner(HOUR - 1000, 3 * HOUR + 1000, 2 * HOUR + 2000);
+        assertRanges(planner.getBucketRanges(TsRollupResolution.HOUR), new long[]{HOUR, 3 * HOUR});
+
+        List<TsKvRollup> dirty = planner.apply(TsRollupResolution.HOUR, buckets(rollup(HOUR, 1, false), rollup(2 * HOUR, 2, false)));
+
+        Assert.assertTrue(dirty.isEmpty());
+        TsRollupPlanner.Interval interval = planner.getIntervals().get(0);
+        Assert.assertEquals(2, interval.getRollups().size());
+        assertRanges(interval.getRawRanges(), new long[]{HOUR - 1000, HOUR}, new long[]{3 * HOUR, 3 * HOUR + 1000});
+    }
+
+    @Test
+    public void testDirtyAndMissingBucketsFallBackToFinerResolution() {
+        TsRollupPlanner planner = new TsRollupPlanner(0, 3 * HOUR, 3 * HOUR);
+
+        TsKvRollup dirtyBucket = rollup(HOUR, 1, true);
+        List<TsKvRollup> dirty = planner.apply(TsRollupResolution.HOUR, buckets(rollup(0, 1, false), dirtyBucket));
+
+        Assert.assertEquals(Collections.singletonList(dirtyBucket), dirty);
+        assertRanges(planner.getBucketRanges(TsRollupResolution.MINUTE), new long[]{HOUR, 3 * HOUR});
+
+        Map<Long, TsKvRollup> minutes = new HashMap<>();
+        for (long ts = HOUR; ts < 3 * HOUR; ts += MINUTE) {
+            if (ts != 2 * HOUR) {
+                minutes.put(ts, rollup(ts, 1, false));
+            }
+        }
+        planner.apply(TsRollupResolution.MINUTE, minutes);
+
+        TsRollupPlanner.Interval interval = planner.getIntervals().get(0);
+        Assert.assertEquals(1 + 119, interval.getRollups().size());
+        assertRanges(interval.getRawRanges(), new long[]{2 * HOUR, 2 * HOUR + MINUTE});
+    }
+
+    @Test
+    public void testEmptyBucketsAreCovered() {
+        TsRollupPlanner planner = new TsRollupPlanner(0, 2 * HOUR, HOUR);
+
+        planner.apply(TsRollupResolution.HOUR, buckets(new TsKvRollup(0), rollup(HOUR, 1, false)));
+
+        Assert.assertTrue(planner.getIntervals().get(0).getRollups().isEmpty());
+        Assert.assertTrue(planner.getIntervals().get(0).getRawRanges().isEmpty());
+        Assert.assertEquals(1, planner.getIntervals().get(1).getRollups().size());
+        Assert.assertTrue(planner.getBucketRanges(TsRollupResolution.MINUTE).isEmpty());
+    }
+
+    @Test
+    public void testRollupsAreAggregated() throws Exception {
+        List<TsKvRollup> rollups = new ArrayList<>();
+        rollups.add(rollup(0, 4, false));
+        TsKvRollup doubles = new TsKvRollup(HOUR);
+        doubles.setDoubleCount(2);
+        doubles.setDoubleMin(0.5);
+        doubles.setDoubleMax(10.5);
+        doubles.setDoubleSum(11.0);
+        rollups.add(doubles);
+
+        Assert.assertEquals(19.0, aggregate(Aggregation.SUM, rollups).getDoubleValue().get(), 0.0);
+        Assert.assertEquals(19.0 / 6, aggregate(Aggregation.AVG, rollups).getDoubleValue().get(), 0.0001);
+        Assert.assertEquals(0.5, aggregate(Aggregation.MIN, rollups).getDoubleValue().get(), 0.0);
+        Assert.assertEquals(10.5, aggregate(Aggregation.MAX, rollups).getDoubleValue().get(), 0.0);
+        Assert.assertEquals(6L, aggregate(Aggregation.COUNT, rollups).getLongValue().get().longValue());
+    }
+
+    private TsKvEntry aggregate(Aggregation aggregation, List<TsKvRollup> rollups) throws Exception {
+        Optional<TsKvEntry> result = new AggregatePartitionsFunction(aggregation, "temperature", 0, MoreExecutors.directExecutor(), rollups)
+                .apply(Collections.emptyList()).get();
+        Assert.assertTrue(result.isPresent());
+        return result.get();
+    }
+
+    private static TsKvRollup rollup(long ts, long count, boolean dirty) {
+        TsKvRollup rollup = new TsKvRollup(ts);
+        rollup.setDirty(dirty);
+        rollup.setLongCount(count);
+        rollup.setLongMin(1L);
+        rollup.setLongMax(count);
+        rollup.setLongSum(count * 2);
+        return rollup;
+    }
+
+    private static Map<Long, TsKvRollup> buckets(TsKvRollup... rollups) {
+        Map<Long, TsKvRollup> buckets = new HashMap<>();
+        for (TsKvRollup rollup : rollups) {
+            buckets.put(rollup.getTs(), rollup);
+        }
+        return buckets;
+    }
+
+    private static void assertRanges(List<long[]> actual, long[]... expected) {
+        Assert.assertEquals(expected.length, actual.size());
+        for (int i = 0; i < expected.length; i++) {
+            Assert.assertArrayEquals(expected[i], actual.get(i));
+        }
+    }
+}
@@ -15,23 +15,46 @@
  */
 package org.thingsboard.rule.engine.delay;
 
+import com.google.common.util.concurrent.AsyncCallable;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.math.NumberUtils;
+import org.thingsboard.common.util.JacksonUtil;
 import org.thingsboard.rule.engine.api.RuleNode;
 import org.thingsboard.rule.engine.api.TbContext;
 import org.thingsboard.rule.engine.api.TbNode;
 import org.thingsboard.rule.engine.api.TbNodeConfiguration;
 import org.thingsboard.rule.engine.api.TbNodeException;
 import org.thingsboard.rule.engine.api.util.TbNodeUtils;
+import org.thingsboard.server.common.data.id.EntityId;
+import org.thingsboard.server.common.data.page.PageData;
+import org.thingsboard.server.common.data.page.PageLink;
 import org.thingsboard.server.common.data.plugin.ComponentType;
+import org.thingsboard.server.common.data.rule.RuleNodeState;
 import org.thingsboard.server.common.msg.TbMsg;
 import org.thingsboard.server.common.msg.TbMsgMetaData;
+import org.thingsboard.server.common.msg.queue.PartitionChangeMsg;
 import org.thingsboard.server.common.msg.queue.ServiceQueue;
+import org.thingsboard.server.common.msg.queue.TbMsgCallback;
 
+import javax.annotation.Nullable;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
-import java.util.UUID;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.thingsboard.rule.engine.api.TbRelationTypes.SUCCESS;
 
@@ -50,35 +73,275 @@ import static org.thingsboard.rule.engine.api.TbRelationTypes.SUCCESS;
 public class TbMsgDelayNode implements TbNode {
 
     private static final String TB_MSG_DELAY_NODE_MSG = "TbMsgDelayNodeMsg";
+    private static final String TB_MSG_DELAY_NODE_SPILL_LOADED_MSG = "TbMsgDelayNodeSpillLoadedMsg";
+
+    private static final long TICK_MS = 100;
+    private static final int WHEEL_SIZE = 4096;
+    // Size of the rule_node_state.state_data column
+    private static final int MAX_STATE_DATA_LENGTH = 16384;
+    private static final int SPILL_LOAD_PAGE_SIZE = 1024;
 
     private TbMsgDelayNodeConfiguration config;
-    private Map<UUID, TbMsg> pendingMsgs;
+    private TbMsgDelayWheel<TbMsg> pendingMsgs;
+    private long scheduledTickTs = Long.MAX_VALUE;
+
+    // Originators whose rule node state rows hold spilled messages, by the due time of the messages
+    private final TreeMap<Long, Set<EntityId>> spilledMsgs = new TreeMap<>();
+    private final Map<EntityId, TreeSet<Long>> spilledDueTs = new HashMap<>();
+    // Last read-modify-write of each spill row, the writes of one row are chained to run one by one
+    private final Map<EntityId, ListenableFuture<Void>> spillRowOps = new ConcurrentHashMap<>();
+    private ListenableFuture<Map<EntityId, List<Long>>> spillLoadFuture;
+    private boolean spillReloadRequired;
 
     @Override
     public void init(TbContext ctx, TbNodeConfiguration configuration) throws TbNodeException {
         this.config = TbNodeUtils.convert(configuration, TbMsgDelayNodeConfiguration.class);
-        this.pendingMsgs = new HashMap<>();
+        this.pendingMsgs = new TbMsgDelayWheel<>(WHEEL_SIZE, TICK_MS, System.currentTimeMillis());
+        // Messages spilled before the spill was disabled are still released when they are due
+        loadSpilledMsgs(ctx);
     }
 
     @Override
     public void onMsg(TbContext ctx, TbMsg msg) {
         if (msg.getType().equals(TB_MSG_DELAY_NODE_MSG)) {
-            TbMsg pendingMsg = pendingMsgs.remove(UUID.fromString(msg.getData()));
-            if (pendingMsg != null) {
-                ctx.enqueueForTellNext(pendingMsg, SUCCESS);
+            if (Long.toString(scheduledTickTs).equals(msg.getData())) {
+                scheduledTickTs = Long.MAX_VALUE;
             }
+            onTick(ctx);
+        } else if (msg.getType().equals(TB_MSG_DELAY_NODE_SPILL_LOADED_MSG)) {
+            onSpilledMsgsLoaded(ctx);
         } else {
+            long dueTs = System.currentTimeMillis() + getDelay(msg);
             if (pendingMsgs.size() < config.getMaxPendingMsgs()) {
-                pendingMsgs.put(msg.getId(), msg);
-                TbMsg tickMsg = ctx.newMsg(ServiceQueue.MAIN, TB_MSG_DELAY_NODE_MSG, ctx.getSelfId(), msg.getCustomerId(), new TbMsgMetaData(), msg.getId().toString());
-                ctx.tellSelf(tickMsg, getDelay(msg));
+                long tickTs = pendingMsgs.add(dueTs, msg);
                 ctx.ack(msg);
+                scheduleTick(ctx, tickTs);
+            } else if (config.isSpillPendingMsgs() && ctx.isLocalEntity(msg.getOriginator())) {
+                spill(ctx, msg, dueTs);
+                scheduleTick(ctx, dueTs);
             } else {
                 ctx.tellFailure(msg, new RuntimeException("Max limit of pending messages reached!"));
             }
         }
     }
 
+    @Override
+    public void onPartitionChangeMsg(TbContext ctx, PartitionChangeMsg msg) {
+        Iterator<Map.Entry<EntityId, TreeSet<Long>>> iterator = spilledDueTs.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<EntityId, TreeSet<Long>> entry = iterator.next();
+            if (!ctx.isLocalEntity(entry.getKey())) {
+                for (Long dueTs : entry.getValue()) {
+                    Set<EntityId> ids = spilledMsgs.get(dueTs);
+                    ids.remove(entry.getKey());
+                    if (ids.isEmpty()) {
+                        spilledMsgs.remove(dueTs);
+                    }
+                }
+                iterator.remove();
+            }
+        }
+        loadSpilledMsgs(ctx);
+    }
+
+    private void onTick(TbContext ctx) {
+        long ts = System.currentTimeMillis();
+        for (TbMsg pendingMsg : pendingMsgs.advance(ts)) {
+            ctx.enqueueForTellNext(pendingMsg, SUCCESS);
+        }
+        releaseSpilled(ctx, ts);
+        scheduleTick(ctx);
+    }
+
+    /**
+     * Schedules the tick for the next non-empty bucket of the wheel or the next spilled message,
+     * unless an earlier tick is already scheduled.
+     */
+    private void scheduleTick(TbContext ctx) {
+        long nextTickTs = pendingMsgs.nextTickTs();
+        if (!spilledMsgs.isEmpty()) {
+            nextTickTs = Math.min(nextTickTs, spilledMsgs.firstKey());
+        }
+        if (nextTickTs != Long.MAX_VALUE) {
+            scheduleTick(ctx, nextTickTs);
+        }
+    }
+
+    private void scheduleTick(TbContext ctx, long nextTickTs) {
+        if (nextTickTs >= scheduledTickTs) {
+            return;
+        }
+        long delay = Math.max(0, nextTickTs - System.currentTimeMillis());
+        TbMsg tickMsg = ctx.newMsg(ServiceQueue.MAIN, TB_MSG_DELAY_NODE_MSG, ctx.getSelfId(), new TbMsgMetaData(), Long.toString(nextTickTs));
+        ctx.tellSelf(tickMsg, delay);
+        scheduledTickTs = nextTickTs;
+    }
+
+    /**
+     * Appends the message to the rule node state row of its originator, so it survives restarts and
+     * moves together with the originator partition. The message is acknowledged once the row is saved.
+     */
+    private void spill(TbContext ctx, TbMsg msg, long dueTs) {
+        EntityId id = msg.getOriginator();
+        PersistedDelayedMsg persistedMsg = new PersistedDelayedMsg();
+        persistedMsg.setDueTs(dueTs);
+        persistedMsg.setQueueName(msg.getQueueName());
+        persistedMsg.setMsg(TbMsg.toByteArray(msg));
+        addSpilled(id, dueTs);
+        ListenableFuture<Void> spillFuture = runSpillRowOp(id, () -> ctx.getDbCallbackExecutor().executeAsync(() -> {
+            SpillRow row = SpillRow.find(ctx, id);
+            row.getMsgs().add(persistedMsg);
+            row.save(ctx);
+            return null;
+        }));
+        Futures.addCallback(spillFuture, new FutureCallback<Void>() {
+            @Override
+            public void onSuccess(@Nullable Void result) {
+                ctx.ack(msg);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                ctx.tellFailure(msg, t);
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    private void releaseSpilled(TbContext ctx, long ts) {
+        Set<EntityId> ids = new HashSet<>();
+        while (!spilledMsgs.isEmpty() && spilledMsgs.firstKey() <= ts) {
+            ids.addAll(spilledMsgs.pollFirstEntry().getValue());
+        }
+        for (EntityId id : ids) {
+            TreeSet<Long> dueTs = spilledDueTs.get(id);
+            dueTs.headSet(ts, true).clear();
+            if (dueTs.isEmpty()) {
+                spilledDueTs.remove(id);
+            }
+            releaseSpilled(ctx, id, ts);
+        }
+    }
+
+    /**
+     * Enqueues the due messages of the row and saves the rest of the row once the messages are enqueued.
+     */
+    private void releaseSpilled(TbContext ctx, EntityId id, long ts) {
+        ListenableFuture<Void> releaseFuture = runSpillRowOp(id, () -> {
+            ListenableFuture<SpillRow> rowFuture = ctx.getDbCallbackExecutor().executeAsync(() -> SpillRow.find(ctx, id));
+            return Futures.transformAsync(rowFuture, row -> {
+                List<PersistedDelayedMsg> dueMsgs = row.removeDue(ts);
+                if (dueMsgs.isEmpty()) {
+                    return Futures.immediateFuture(null);
+                }
+                return Futures.transformAsync(enqueue(ctx, dueMsgs),
+                        v -> ctx.getDbCallbackExecutor().executeAsync(() -> {
+                            row.save(ctx);
+                            return null;
+                        }), MoreExecutors.directExecutor());
+            }, MoreExecutors.directExecutor());
+        });
+        Futures.addCallback(releaseFuture, new FutureCallback<Void>() {
+            @Override
+            public void onSuccess(@Nullable Void result) {
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                log.warn("[{}][{}] Failed to release spilled messages, they are released again after restart", ctx.getSelfId(), id, t);
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    private ListenableFuture<Void> enqueue(TbContext ctx, List<PersistedDelayedMsg> persistedMsgs) {
+        SettableFuture<Void> future = SettableFuture.create();
+        AtomicInteger remaining = new AtomicInteger(persistedMsgs.size());
+        for (PersistedDelayedMsg persistedMsg : persistedMsgs) {
+            TbMsg msg = TbMsg.fromBytes(persistedMsg.getQueueName(), persistedMsg.getMsg(), TbMsgCallback.EMPTY);
+            ctx.enqueueForTellNext(msg, SUCCESS, () -> {
+                if (remaining.decrementAndGet() == 0) {
+                    future.set(null);
+                }
+            }, future::setException);
+        }
+        return future;
+    }
+
+    /**
+     * Runs the operation once the previous operation on the same row is completed.
+     */
+    private ListenableFuture<Void> runSpillRowOp(EntityId id, AsyncCallable<Void> op) {
+        ListenableFuture<Void> previous = spillRowOps.get(id);
+        ListenableFuture<Void> result;
+        if (previous == null) {
+            result = Futures.submitAsync(op, MoreExecutors.directExecutor());
+        } else {
+            ListenableFuture<Void> previousDone = Futures.catching(previous, Throwable.class, t -> null, MoreExecutors.directExecutor());
+            result = Futures.transformAsync(previousDone, v -> op.call(), MoreExecutors.directExecutor());
+        }
+        spillRowOps.put(id, result);
+        result.addListener(() -> spillRowOps.remove(id, result), MoreExecutors.directExecutor());
+        return result;
+    }
+
+    /**
+     * Reads the due times of the spilled messages on the db callback executor.
+     * The result is merged on the rule node actor by the {@link #TB_MSG_DELAY_NODE_SPILL_LOADED_MSG} message.
+     */
+    private void loadSpilledMsgs(TbContext ctx) {
+        if (spillLoadFuture != null) {
+            spillReloadRequired = true;
+            return;
+        }
+        spillLoadFuture = ctx.getDbCallbackExecutor().executeAsync(() -> findSpilledDueTs(ctx));
+        spillLoadFuture.addListener(() -> ctx.tellSelf(ctx.newMsg(ServiceQueue.MAIN, TB_MSG_DELAY_NODE_SPILL_LOADED_MSG,
+                ctx.getSelfId(), new TbMsgMetaData(), ""), 0L), MoreExecutors.directExecutor());
+    }
+
+    private void onSpilledMsgsLoaded(TbContext ctx) {
+        ListenableFuture<Map<EntityId, List<Long>>> loadFuture = spillLoadFuture;
+        if (loadFuture == null || !loadFuture.isDone()) {
+            return;
+        }
+        spillLoadFuture = null;
+        try {
+            Futures.getDone(loadFuture).forEach((id, dueTs) -> {
+                if (ctx.isLocalEntity(id)) {
+                    dueTs.forEach(ts -> addSpilled(id, ts));
+                }
+            });
+        } catch (ExecutionException e) {
+            log.warn("[{}] Failed to load spilled messages, they are released after the next partition change", ctx.getSelfId(), e.getCause());
+        }
+        if (spillReloadRequired) {
+            spillReloadRequired = false;
+            loadSpilledMsgs(ctx);
+        }
+        scheduleTick(ctx);
+    }
+
+    private static Map<EntityId, List<Long>> findSpilledDueTs(TbContext ctx) {
+        Map<EntityId, List<Long>> spilledDueTs = new HashMap<>();
+        PageLink pageLink = new PageLink(SPILL_LOAD_PAGE_SIZE);
+        while (true) {
+            PageData<RuleNodeState> states = ctx.findRuleNodeStates(pageLink);
+            for (RuleNodeState state : states.getData()) {
+                List<Long> dueTs = new ArrayList<>();
+                SpillRow.parse(ctx, state).forEach(msg -> dueTs.add(msg.getDueTs()));
+                spilledDueTs.put(state.getEntityId(), dueTs);
+            }
+            if (!states.hasNext()) {
+                break;
+            }
+            pageLink = pageLink.nextPageLink();
+        }
+        return spilledDueTs;
+    }
+
+    private void addSpilled(EntityId id, long dueTs) {
+        spilledMsgs.computeIfAbsent(dueTs, k -> new HashSet<>()).add(id);
+        spilledDueTs.computeIfAbsent(id, k -> new TreeSet<>()).add(dueTs);
+    }
+
     private long getDelay(TbMsg msg) {
         int periodInSeconds;
         if (config.isUseMetadataPeriodInSecondsPatterns()) {
@@ -99,6 +362,69 @@ public class TbMsgDelayNode implements TbNode {
 
     @Override
     public void destroy() {
-        pendingMsgs.clear();
+        if (pendingMsgs != null) {
+            pendingMsgs.clear();
+        }
+        spilledMsgs.clear();
+        spilledDueTs.clear();
+    }
+
+    /**
+     * Rule node state row with the spilled messages of one originator. Accessed on the db callback executor only.
+     */
+    private static class SpillRow {
+        private final EntityId entityId;
+        private final RuleNodeState state;
+        private final List<PersistedDelayedMsg> msgs;
+
+        private SpillRow(EntityId entityId, RuleNodeState state, List<PersistedDelayedMsg> msgs) {
+            this.entityId = entityId;
+            this.state = state;
+            this.msgs = msgs;
+        }
+
+        static SpillRow find(TbContext ctx, EntityId entityId) {
+            RuleNodeState state = ctx.findRuleNodeStateForEntity(entityId);
+            return new SpillRow(entityId, state, state != null ? parse(ctx, state) : new ArrayList<>());
+        }
+
+        static List<PersistedDelayedMsg> parse(TbContext ctx, RuleNodeState state) {
+            try {
+                return JacksonUtil.fromString(state.getStateData(), PersistedDelayedMsgs.class).getMsgs();
+            } catch (IllegalArgumentException e) {
+                log.warn("[{}][{}] Failed to parse spilled messages, the row is skipped", ctx.getSelfId(), state.getEntityId(), e);
+                return new ArrayList<>();
+            }
+        }
+
+        List<PersistedDelayedMsg> getMsgs() {
+            return msgs;
+        }
+
+        List<PersistedDelayedMsg> removeDue(long ts) {
+            List<PersistedDelayedMsg> dueMsgs = new ArrayList<>();
+            msgs.removeIf(msg -> msg.getDueTs() <= ts && dueMsgs.add(msg));
+            return dueMsgs;
+        }
+
+        void save(TbContext ctx) {
+            if (msgs.isEmpty()) {
+                if (state != null) {
+                    ctx.removeRuleNodeStateForEntity(entityId);
+                }
+                return;
+            }
+            PersistedDelayedMsgs persistedMsgs = new PersistedDelayedMsgs();
+            persistedMsgs.setMsgs(msgs);
+            String stateData = JacksonUtil.toString(persistedMsgs);
+            if (stateData.length() > MAX_STATE_DATA_LENGTH) {
+                throw new RuntimeException("Max limit of spilled messages reached for " + entityId + "!");
+            }
+            RuleNodeState newState = state != null ? state : new RuleNodeState();
+            newState.setRuleNodeId(ctx.getSelfId());
+            newState.setEntityId(entityId);
+            newState.setStateData(stateData);
+            ctx.saveRuleNodeState(newState);
+        }
     }
 }
@@ -26,6 +26,8 @@ public class TbMsgDelayNodeConfiguration implements NodeConfiguration<TbMsgDelay
     private int maxPendingMsgs;
     private String periodInSecondsPattern;
     private boolean useMetadataPeriodInSecondsPatterns;
+    // Store messages over the maxPendingMsgs limit in the rule node state instead of failing them
+    private boolean spillPendingMsgs;
 
     @Override
     public TbMsgDelayNodeConfiguration defaultConfiguration() {
@@ -33,6 +35,7 @@ public class TbMsgDelayNodeConfiguration implements NodeConfiguration<TbMsgDelay
         configuration.setPeriodInSeconds(60);
         configuration.setMaxPendingMsgs(1000);
         configuration.setUseMetadataPeriodInSecondsPatterns(false);
+        configuration.setSpillPendingMsgs(false);
         return configuration;
     }
 }
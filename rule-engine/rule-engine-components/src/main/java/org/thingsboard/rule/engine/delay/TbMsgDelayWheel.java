@@ -0,0 +1,141 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.rule.engine.delay;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Hashed timing wheel that keeps delayed elements in buckets by their deadline tick.
+ * Not thread-safe: the delay node accesses it from the rule node actor only.
+ */
+class TbMsgDelayWheel<T> {
+
+    private final long tickMs;
+    private final List<Entry<T>>[] buckets;
+    // Indexes of the non-empty buckets, so the next due bucket is found without visiting the empty ones
+    private final BitSet occupied;
+    private long lastTick;
+    private int size;
+
+    @SuppressWarnings("unchecked")
+    TbMsgDelayWheel(int wheelSize, long tickMs, long startTs) {
+        this.tickMs = tickMs;
+        this.buckets = new List[wheelSize];
+        this.occupied = new BitSet(wheelSize);
+        this.lastTick = startTs / tickMs;
+    }
+
+    /**
+     * Adds the element and returns the time when its bucket is due.
+     */
+    long add(long deadlineTs, T element) {
+        // Rounded up, so the element is always expired by the time its bucket is visited.
+        long tick = Math.max((deadlineTs + tickMs - 1) / tickMs, lastTick + 1);
+        int index = (int) (tick % buckets.length);
+        List<Entry<T>> bucket = buckets[index];
+        if (bucket == null) {
+            bucket = new ArrayList<>();
+            buckets[index] = bucket;
+        }
+        bucket.add(new Entry<>(deadlineTs, element));
+        occupied.set(index);
+        size++;
+        return tick * tickMs;
+    }
+
+    /**
+     * Moves the wheel to the given time and returns the elements whose deadline has passed.
+     */
+    List<T> advance(long nowTs) {
+        long nowTick = nowTs / tickMs;
+        if (nowTick <= lastTick) {
+            return Collections.emptyList();
+        }
+        List<T> expired = null;
+        long ticks = Math.min(nowTick - lastTick, buckets.length);
+        for (long tick = nowTick - ticks + 1; tick <= nowTick; tick++) {
+            int index = (int) (tick % buckets.length);
+            List<Entry<T>> bucket = buckets[index];
+            if (bucket == null || bucket.isEmpty()) {
+                continue;
+            }
+            int retained = 0;
+            for (int i = 0; i < bucket.size(); i++) {
+                Entry<T> entry = bucket.get(i);
+                if (entry.deadlineTs <= nowTs) {
+                    if (expired == null) {
+                        expired = new ArrayList<>();
+                    }
+                    expired.add(entry.element);
+                } else {
+                    bucket.set(retained++, entry);
+                }
+            }
+            size -= bucket.size() - retained;
+            bucket.subList(retained, bucket.size()).clear();
+            if (retained == 0) {
+                occupied.clear(index);
+            }
+        }
+        lastTick = nowTick;
+        return expired != null ? expired : Collections.emptyList();
+    }
+
+    /**
+     * Returns the time when the next non-empty bucket is due, or Long.MAX_VALUE if the wheel is empty.
+     * The bucket may hold only elements of the later rounds, then the wheel is advanced without expired elements.
+     */
+    long nextTickTs() {
+        if (size == 0) {
+            return Long.MAX_VALUE;
+        }
+        int start = (int) ((lastTick + 1) % buckets.length);
+        int index = occupied.nextSetBit(start);
+        if (index < 0) {
+            index = occupied.nextSetBit(0);
+        }
+        return (lastTick + 1 + Math.floorMod(index - start, buckets.length)) * tickMs;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    void clear() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = null;
+        }
+        occupied.clear();
+        size = 0;
+    }
+
+    private static class Entry<T> {
+        private final long deadlineTs;
+        private final T element;
+
+        private Entry(long deadlineTs, T element) {
+            this.deadlineTs = deadlineTs;
+            this.element = element;
+        }
+    }
+}
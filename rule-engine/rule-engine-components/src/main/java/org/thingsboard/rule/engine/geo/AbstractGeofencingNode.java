@@ -35,6 +35,7 @@ public abstract class AbstractGeofencingNode<T extends TbGpsGeofencingFilterNode
 
     protected T config;
     protected JtsSpatialContext jtsCtx;
+    private Perimeter configPerimeter;
 
     @Override
     public void init(TbContext ctx, TbNodeConfiguration configuration) throws TbNodeException {
@@ -42,6 +43,15 @@ public abstract class AbstractGeofencingNode<T extends TbGpsGeofencingFilterNode
         JtsSpatialContextFactory factory = new JtsSpatialContextFactory();
         factory.normWrapLongitude = true;
         jtsCtx = factory.newSpatialContext();
+        if (!config.isFetchPerimeterInfoFromMessageMetadata()) {
+            configPerimeter = new Perimeter();
+            configPerimeter.setPerimeterType(config.getPerimeterType());
+            configPerimeter.setCenterLatitude(config.getCenterLatitude());
+            configPerimeter.setCenterLongitude(config.getCenterLongitude());
+            configPerimeter.setRange(config.getRange());
+            configPerimeter.setRangeUnit(config.getRangeUnit());
+            configPerimeter.setPolygonsDefinition(config.getPolygonsDefinition());
+        }
     }
 
     abstract protected Class<T> getConfigClazz();
@@ -71,7 +81,7 @@ public abstract class AbstractGeofencingNode<T extends TbGpsGeofencingFilterNode
             Coordinates perimeterCoordinates = new Coordinates(perimeter.getCenterLatitude(), perimeter.getCenterLongitude());
             return perimeter.getRange() > GeoUtil.distance(entityCoordinates, perimeterCoordinates, perimeter.getRangeUnit());
         } else if (perimeter.getPerimeterType() == PerimeterType.POLYGON) {
-            return GeoUtil.contains(perimeter.getPolygonsDefinition(), new Coordinates(latitude, longitude));
+            return GeoUtil.contains(perimeter.getPolygonsDefinition(), latitude, longitude);
         } else {
             throw new TbNodeException("Unsupported perimeter type: " + perimeter.getPerimeterType());
         }
@@ -97,14 +107,7 @@ public abstract class AbstractGeofencingNode<T extends TbGpsGeofencingFilterNode
                 throw new TbNodeException("Missing perimeter definition!");
             }
         } else {
-            Perimeter perimeter = new Perimeter();
-            perimeter.setPerimeterType(config.getPerimeterType());
-            perimeter.setCenterLatitude(config.getCenterLatitude());
-            perimeter.setCenterLongitude(config.getCenterLongitude());
-            perimeter.setRange(config.getRange());
-            perimeter.setRangeUnit(config.getRangeUnit());
-            perimeter.setPolygonsDefinition(config.getPolygonsDefinition());
-            return Collections.singletonList(perimeter);
+            return Collections.singletonList(configPerimeter);
         }
     }
 
@@ -0,0 +1,133 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.rule.engine.geo;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+
+/**
+ * Polygon compiled from its JSON definition. Vertices are kept in primitive arrays, so the point test does not allocate.
+ * Polygons wider than 180 degrees are treated as crossing the antimeridian, the same way spatial4j does.
+ */
+public class GeoPolygon {
+
+    private final double[] lats;
+    private final double[] lngs;
+
+    private final double minLat;
+    private final double maxLat;
+    private final double minLng;
+    private final double maxLng;
+    private final boolean crossesDateline;
+
+    GeoPolygon(double[] lats, double[] lngs) {
+        if (lats.length < 3) {
+            throw new IllegalArgumentException("Polygon must have at least 3 points!");
+        }
+        double minLng = Double.MAX_VALUE;
+        double maxLng = -Double.MAX_VALUE;
+        for (int i = 0; i < lngs.length; i++) {
+            lngs[i] = normalizeLongitude(lngs[i]);
+            minLng = Math.min(minLng, lngs[i]);
+            maxLng = Math.max(maxLng, lngs[i]);
+        }
+        this.crossesDateline = maxLng - minLng > 180;
+        if (crossesDateline) {
+            minLng = Double.MAX_VALUE;
+            maxLng = -Double.MAX_VALUE;
+            for (int i = 0; i < lngs.length; i++) {
+                if (lngs[i] < 0) {
+                    lngs[i] += 360;
+                }
+                minLng = Math.min(minLng, lngs[i]);
+                maxLng = Math.max(maxLng, lngs[i]);
+            }
+        }
+        double minLat = Double.MAX_VALUE;
+        double maxLat = -Double.MAX_VALUE;
+        for (double lat : lats) {
+            minLat = Math.min(minLat, lat);
+            maxLat = Math.max(maxLat, lat);
+        }
+        this.lats = lats;
+        this.lngs = lngs;
+        this.minLat = minLat;
+        this.maxLat = maxLat;
+        this.minLng = minLng;
+        this.maxLng = maxLng;
+    }
+
+    /**
+     * Parses polygon in the [[lat, lng], [lat, lng], ...] format.
+     */
+    static GeoPolygon parse(JsonArray polygonArray) {
+        double[] lats = new double[polygonArray.size()];
+        double[] lngs = new double[polygonArray.size()];
+        int i = 0;
+        for (JsonElement jsonElement : polygonArray) {
+            lats[i] = jsonElement.getAsJsonArray().get(0).getAsDouble();
+            lngs[i] = jsonElement.getAsJsonArray().get(1).getAsDouble();
+            i++;
+        }
+        return new GeoPolygon(lats, lngs);
+    }
+
+    public boolean contains(double latitude, double longitude) {
+        double lng = normalizeLongitude(longitude);
+        if (crossesDateline && lng < 0) {
+            lng += 360;
+        }
+        if (latitude < minLat || latitude > maxLat || lng < minLng || lng > maxLng) {
+            return false;
+        }
+        boolean inside = false;
+        for (int i = 0, j = lats.length - 1; i < lats.length; j = i++) {
+            if ((lats[i] > latitude) != (lats[j] > latitude)
+                    && lng < (lngs[j] - lngs[i]) * (latitude - lats[i]) / (lats[j] - lats[i]) + lngs[i]) {
+                inside = !inside;
+            }
+        }
+        return inside;
+    }
+
+    double getMinLat() {
+        return minLat;
+    }
+
+    double getMaxLat() {
+        return maxLat;
+    }
+
+    double getMinLng() {
+        return minLng;
+    }
+
+    double getMaxLng() {
+        return maxLng;
+    }
+
+    boolean isCrossesDateline() {
+        return crossesDateline;
+    }
+
+    static double normalizeLongitude(double lng) {
+        if (lng >= -180 && lng <= 180) {
+            return lng;
+        }
+        double normalized = (lng + 180) % 360;
+        return normalized < 0 ? normalized + 180 : normalized - 180;
+    }
+}
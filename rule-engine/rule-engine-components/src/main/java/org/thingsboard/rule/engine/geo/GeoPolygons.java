@@ -0,0 +1,95 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.rule.engine.geo;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.index.strtree.STRtree;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Compiled polygons definition. Accepts a single polygon [[lat, lng], ...] or a list of polygons [[[lat, lng], ...], ...].
+ * Large lists are indexed with an R-tree, so only polygons whose bounding box covers the point are tested.
+ */
+public class GeoPolygons {
+
+    static final int INDEX_THRESHOLD = 16;
+
+    private final List<GeoPolygon> polygons;
+    private final STRtree index;
+
+    GeoPolygons(List<GeoPolygon> polygons) {
+        this.polygons = polygons;
+        if (polygons.size() >= INDEX_THRESHOLD) {
+            index = new STRtree();
+            for (GeoPolygon polygon : polygons) {
+                index.insert(new Envelope(polygon.getMinLng(), polygon.getMaxLng(), polygon.getMinLat(), polygon.getMaxLat()), polygon);
+                if (polygon.isCrossesDateline()) {
+                    index.insert(new Envelope(polygon.getMinLng() - 360, polygon.getMaxLng() - 360, polygon.getMinLat(), polygon.getMaxLat()), polygon);
+                }
+            }
+            // STRtree is built lazily on the first query, which is not thread-safe.
+            index.build();
+        } else {
+            index = null;
+        }
+    }
+
+    public static GeoPolygons parse(String polygonsDefinition) {
+        JsonArray polygonsArray = new JsonParser().parse(polygonsDefinition).getAsJsonArray();
+        if (polygonsArray.size() > 0 && isPolygonsList(polygonsArray)) {
+            List<GeoPolygon> polygons = new ArrayList<>(polygonsArray.size());
+            for (JsonElement polygonElement : polygonsArray) {
+                polygons.add(GeoPolygon.parse(polygonElement.getAsJsonArray()));
+            }
+            return new GeoPolygons(polygons);
+        } else {
+            return new GeoPolygons(Collections.singletonList(GeoPolygon.parse(polygonsArray)));
+        }
+    }
+
+    public boolean contains(double latitude, double longitude) {
+        if (index != null) {
+            double lng = GeoPolygon.normalizeLongitude(longitude);
+            for (Object candidate : index.query(new Envelope(lng, lng, latitude, latitude))) {
+                if (((GeoPolygon) candidate).contains(latitude, longitude)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        for (int i = 0; i < polygons.size(); i++) {
+            if (polygons.get(i).contains(latitude, longitude)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    int size() {
+        return polygons.size();
+    }
+
+    private static boolean isPolygonsList(JsonArray polygonsArray) {
+        JsonElement firstPoint = polygonsArray.get(0).getAsJsonArray().get(0);
+        return firstPoint.isJsonArray();
+    }
+}
@@ -86,6 +86,13 @@ class AlarmRuleState {
         this.dynamicPredicateValueCtx = dynamicPredicateValueCtx;
     }
 
+    /**
+     * Returns true if the rule has counted events or duration that are not reflected in the created alarms yet.
+     * */
+    boolean hasProgress() {
+        return state.getEventCount() > 0 || state.getDuration() > 0;
+    }
+
     public boolean validateTsUpdate(Set<AlarmConditionFilterKey> changedKeys) {
         for (AlarmConditionFilterKey key : changedKeys) {
             if (entityKeys.contains(key)) {
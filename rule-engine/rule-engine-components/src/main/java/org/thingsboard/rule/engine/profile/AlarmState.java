@@ -71,7 +71,6 @@ class AlarmState {
     }
 
     public boolean process(TbContext ctx, TbMsg msg, DataSnapshot data, SnapshotUpdate update) throws ExecutionException, InterruptedException {
-        initCurrentAlarm(ctx);
         lastMsgMetaData = msg.getMetaData();
         lastMsgQueueName = msg.getQueueName();
         this.dataSnapshot = data;
@@ -79,7 +78,6 @@ class AlarmState {
     }
 
     public boolean process(TbContext ctx, long ts) throws ExecutionException, InterruptedException {
-        initCurrentAlarm(ctx);
         return createOrClearAlarms(ctx, null, ts, null, AlarmRuleState::eval);
     }
 
@@ -156,9 +154,8 @@ class AlarmState {
         return true;
     }
 
-    public void initCurrentAlarm(TbContext ctx) throws InterruptedException, ExecutionException {
+    public void initCurrentAlarm(Alarm alarm) {
         if (!initialFetchDone) {
-            Alarm alarm = ctx.getAlarmService().findLatestByOriginatorAndType(ctx.getTenantId(), originator, alarmDefinition.getAlarmType()).get();
             if (alarm != null && !alarm.getStatus().isCleared()) {
                 currentAlarm = alarm;
             }
@@ -222,6 +219,15 @@ class AlarmState {
         }
     }
 
+    boolean hasRuleProgress() {
+        List<AlarmRuleState> createRules = createRulesSortedBySeverityDesc;
+        if (createRules != null && createRules.stream().anyMatch(AlarmRuleState::hasProgress)) {
+            return true;
+        }
+        AlarmRuleState clearRule = clearState;
+        return clearRule != null && clearRule.hasProgress();
+    }
+
     private TbAlarmResult calculateAlarmResult(TbContext ctx, AlarmRuleState ruleState) {
         AlarmSeverity severity = ruleState.getSeverity();
         if (currentAlarm != null) {
@@ -15,7 +15,11 @@
  */
 package org.thingsboard.rule.engine.profile;
 
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.gson.JsonParser;
+import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.util.StringUtils;
 import org.thingsboard.rule.engine.api.TbContext;
@@ -45,11 +49,14 @@ import org.thingsboard.server.common.transport.adaptor.JsonConverter;
 import org.thingsboard.server.dao.sql.query.EntityKeyMapping;
 import org.thingsboard.common.util.JacksonUtil;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
@@ -65,6 +72,11 @@ class DeviceState {
     private RuleNodeState state;
     private PersistedDeviceState pds;
     private DataSnapshot latestValues;
+    private boolean persistedStateFetchRequired;
+    private ListenableFuture<LoadedState> loadFuture;
+    private boolean loadOutdated;
+    private final Queue<TbMsg> pendingMsgs = new ArrayDeque<>();
+    private volatile long lastActivityTs = System.currentTimeMillis();
     private final ConcurrentMap<String, AlarmState> alarmStates = new ConcurrentHashMap<>();
     private final DynamicPredicateValueCtx dynamicPredicateValueCtx;
 
@@ -75,39 +87,145 @@ class DeviceState {
 
         this.dynamicPredicateValueCtx = new DynamicPredicateValueCtxImpl(ctx.getTenantId(), deviceId, ctx);
 
-        if (config.isPersistAlarmRulesState()) {
+        if (persistState) {
             if (state != null) {
-                this.state = state;
+                initPersistedState(ctx, state);
             } else {
-                this.state = ctx.findRuleNodeStateForEntity(deviceId);
-            }
-            if (this.state != null) {
-                pds = JacksonUtil.fromString(this.state.getStateData(), PersistedDeviceState.class);
-            } else {
-                this.state = new RuleNodeState();
-                this.state.setRuleNodeId(ctx.getSelfId());
-                this.state.setEntityId(deviceId);
-                pds = new PersistedDeviceState();
-                pds.setAlarmStates(new HashMap<>());
+                // the persisted state is fetched asynchronously together with the latest values
+                this.persistedStateFetchRequired = true;
             }
         }
-        if (pds != null) {
-            for (DeviceProfileAlarm alarm : deviceProfile.getAlarmSettings()) {
-                alarmStates.computeIfAbsent(alarm.getId(),
-                        a -> new AlarmState(deviceProfile, deviceId, alarm, getOrInitPersistedAlarmState(alarm), dynamicPredicateValueCtx));
-            }
+    }
+
+    private void initPersistedState(TbContext ctx, RuleNodeState state) {
+        this.state = state;
+        if (this.state != null) {
+            pds = JacksonUtil.fromString(this.state.getStateData(), PersistedDeviceState.class);
+        } else {
+            this.state = new RuleNodeState();
+            this.state.setRuleNodeId(ctx.getSelfId());
+            this.state.setEntityId(deviceId);
+            pds = new PersistedDeviceState();
+            pds.setAlarmStates(new HashMap<>());
         }
+        alarmStates.clear();
+        for (DeviceProfileAlarm alarm : deviceProfile.getAlarmSettings()) {
+            alarmStates.computeIfAbsent(alarm.getId(),
+                    a -> new AlarmState(deviceProfile, deviceId, alarm, getOrInitPersistedAlarmState(alarm), dynamicPredicateValueCtx));
+        }
+    }
+
+    /**
+     * The state is loaded when the latest values of the keys used in the alarm rules
+     * and the current alarms are fetched. Messages are processed only for the loaded state.
+     * */
+    boolean isLoaded() {
+        return latestValues != null;
+    }
+
+    DeviceId getDeviceId() {
+        return deviceId;
+    }
+
+    boolean isLoading() {
+        return loadFuture != null;
+    }
+
+    ListenableFuture<LoadedState> getLoadFuture() {
+        return loadFuture;
+    }
+
+    void addPendingMsg(TbMsg msg) {
+        pendingMsgs.add(msg);
+    }
+
+    Queue<TbMsg> getPendingMsgs() {
+        return pendingMsgs;
+    }
+
+    long getLastActivityTs() {
+        return lastActivityTs;
+    }
+
+    /**
+     * Returns true if the alarm rule state is kept only in memory and would be lost if this device state is removed.
+     * */
+    boolean hasTransientAlarmState() {
+        return !persistState && alarmStates.values().stream().anyMatch(AlarmState::hasRuleProgress);
     }
 
-    public void updateProfile(TbContext ctx, DeviceProfile deviceProfile) throws ExecutionException, InterruptedException {
+    /**
+     * Starts asynchronous fetch of the persisted rule node state, latest values and current alarms.
+     * The result is applied with {@link #onLoaded(TbContext, LoadedState)} on the rule node actor thread.
+     * */
+    ListenableFuture<LoadedState> loadAsync(TbContext ctx) {
+        ListenableFuture<RuleNodeState> stateFuture = persistedStateFetchRequired ?
+                ctx.getDbCallbackExecutor().executeAsync(() -> ctx.findRuleNodeStateForEntity(deviceId)) : Futures.immediateFuture(null);
+        Set<AlarmConditionFilterKey> entityKeysToFetch = deviceProfile.getEntityKeys();
+        DataSnapshot snapshot = new DataSnapshot(entityKeysToFetch);
+        ListenableFuture<Void> snapshotFuture = addEntityKeysToSnapshot(ctx, deviceId, entityKeysToFetch, snapshot);
+        ListenableFuture<Map<String, Alarm>> alarmsFuture = fetchLatestAlarms(ctx);
+        loadFuture = Futures.whenAllSucceed(stateFuture, snapshotFuture, alarmsFuture).call(() ->
+                new LoadedState(Futures.getDone(stateFuture), snapshot, Futures.getDone(alarmsFuture)), MoreExecutors.directExecutor());
+        return loadFuture;
+    }
+
+    void onLoaded(TbContext ctx, LoadedState loadedState) {
+        loadFuture = null;
+        if (loadOutdated) {
+            // the profile was updated while the state was loading, so the result may miss new keys and alarms
+            loadOutdated = false;
+            return;
+        }
+        if (persistedStateFetchRequired) {
+            persistedStateFetchRequired = false;
+            initPersistedState(ctx, loadedState.getRuleNodeState());
+        }
+        for (DeviceProfileAlarm alarm : deviceProfile.getAlarmSettings()) {
+            AlarmState alarmState = alarmStates.computeIfAbsent(alarm.getId(),
+                    a -> new AlarmState(this.deviceProfile, deviceId, alarm, getOrInitPersistedAlarmState(alarm), dynamicPredicateValueCtx));
+            alarmState.initCurrentAlarm(loadedState.getAlarms().get(alarm.getAlarmType()));
+        }
+        latestValues = loadedState.getSnapshot();
+    }
+
+    void onLoadFailure() {
+        loadFuture = null;
+        loadOutdated = false;
+    }
+
+    private void invalidateLoadedState() {
+        latestValues = null;
+        loadOutdated = loadFuture != null;
+    }
+
+    private ListenableFuture<Map<String, Alarm>> fetchLatestAlarms(TbContext ctx) {
+        Set<String> alarmTypes = deviceProfile.getAlarmSettings().stream().map(DeviceProfileAlarm::getAlarmType).collect(Collectors.toSet());
+        if (alarmTypes.isEmpty()) {
+            return Futures.immediateFuture(Collections.emptyMap());
+        }
+        Map<String, ListenableFuture<Alarm>> alarmFutures = new HashMap<>();
+        for (String alarmType : alarmTypes) {
+            alarmFutures.put(alarmType, ctx.getAlarmService().findLatestByOriginatorAndType(ctx.getTenantId(), deviceId, alarmType));
+        }
+        return Futures.whenAllSucceed(alarmFutures.values()).call(() -> {
+            Map<String, Alarm> alarms = new HashMap<>();
+            alarmFutures.forEach((alarmType, alarmFuture) -> {
+                Alarm alarm = Futures.getUnchecked(alarmFuture);
+                if (alarm != null) {
+                    alarms.put(alarmType, alarm);
+                }
+            });
+            return alarms;
+        }, MoreExecutors.directExecutor());
+    }
+
+    public void updateProfile(TbContext ctx, DeviceProfile deviceProfile) {
         Set<AlarmConditionFilterKey> oldKeys = this.deviceProfile.getEntityKeys();
         this.deviceProfile.updateDeviceProfile(deviceProfile);
-        if (latestValues != null) {
-            Set<AlarmConditionFilterKey> keysToFetch = new HashSet<>(this.deviceProfile.getEntityKeys());
-            keysToFetch.removeAll(oldKeys);
-            if (!keysToFetch.isEmpty()) {
-                addEntityKeysToSnapshot(ctx, deviceId, keysToFetch, latestValues);
-            }
+        if (!oldKeys.containsAll(this.deviceProfile.getEntityKeys())) {
+            // new keys are fetched asynchronously with the next load of this device state
+            invalidateLoadedState();
         }
         Set<String> newAlarmStateIds = this.deviceProfile.getAlarmSettings().stream().map(DeviceProfileAlarm::getId).collect(Collectors.toSet());
         alarmStates.keySet().removeIf(id -> !newAlarmStateIds.contains(id));
@@ -116,11 +234,16 @@ class DeviceState {
                 alarmStates.get(alarm.getId()).updateState(alarm, getOrInitPersistedAlarmState(alarm));
             } else {
                 alarmStates.putIfAbsent(alarm.getId(), new AlarmState(this.deviceProfile, deviceId, alarm, getOrInitPersistedAlarmState(alarm), dynamicPredicateValueCtx));
+                // the current alarm of the new alarm rule is fetched asynchronously together with the latest values
+                invalidateLoadedState();
             }
         }
     }
 
     public void harvestAlarms(TbContext ctx, long ts) throws ExecutionException, InterruptedException {
+        if (!isLoaded()) {
+            return;
+        }
         log.debug("[{}] Going to harvest alarms: {}", ctx.getSelfId(), ts);
         boolean stateChanged = false;
         for (AlarmState state : alarmStates.values()) {
@@ -133,9 +256,7 @@ class DeviceState {
     }
 
     public void process(TbContext ctx, TbMsg msg) throws ExecutionException, InterruptedException {
-        if (latestValues == null) {
-            latestValues = fetchLatestValues(ctx, deviceId);
-        }
+        lastActivityTs = System.currentTimeMillis();
         boolean stateChanged = false;
         if (msg.getType().equals(SessionMsgType.POST_TELEMETRY_REQUEST.name())) {
             stateChanged = processTelemetry(ctx, msg);
@@ -266,6 +387,8 @@ class DeviceState {
                         stateChanged |= alarmState.process(ctx, msg, latestValues, update);
                     } catch (ApiUsageLimitsExceededException e) {
                         alarmStates.remove(alarm.getId());
+                        // the removed alarm state is restored with the next load of this device state
+                        invalidateLoadedState();
                         throw e;
                     }
                 }
@@ -313,18 +436,11 @@ class DeviceState {
         return EntityKeyType.ATTRIBUTE;
     }
 
-    private DataSnapshot fetchLatestValues(TbContext ctx, EntityId originator) throws ExecutionException, InterruptedException {
-        Set<AlarmConditionFilterKey> entityKeysToFetch = deviceProfile.getEntityKeys();
-        DataSnapshot result = new DataSnapshot(entityKeysToFetch);
-        addEntityKeysToSnapshot(ctx, originator, entityKeysToFetch, result);
-        return result;
-    }
-
-    private void addEntityKeysToSnapshot(TbContext ctx, EntityId originator, Set<AlarmConditionFilterKey> entityKeysToFetch, DataSnapshot result) throws InterruptedException, ExecutionException {
+    private ListenableFuture<Void> addEntityKeysToSnapshot(TbContext ctx, EntityId originator, Set<AlarmConditionFilterKey> entityKeysToFetch, DataSnapshot result) {
         Set<String> attributeKeys = new HashSet<>();
         Set<String> latestTsKeys = new HashSet<>();
+        Set<AlarmConditionFilterKey> entityFields = new HashSet<>();
 
-        Device device = null;
         for (AlarmConditionFilterKey entityKey : entityKeysToFetch) {
             String key = entityKey.getKey();
             switch (entityKey.getType()) {
@@ -335,42 +451,56 @@ class DeviceState {
                     latestTsKeys.add(key);
                     break;
                 case ENTITY_FIELD:
-                    if (device == null) {
-                        device = ctx.getDeviceService().findDeviceById(ctx.getTenantId(), new DeviceId(originator.getId()));
-                    }
-                    if (device != null) {
-                        switch (key) {
-                            case EntityKeyMapping.NAME:
-                                result.putValue(entityKey, device.getCreatedTime(), EntityKeyValue.fromString(device.getName()));
-                                break;
-                            case EntityKeyMapping.TYPE:
-                                result.putValue(entityKey, device.getCreatedTime(), EntityKeyValue.fromString(device.getType()));
-                                break;
-                            case EntityKeyMapping.CREATED_TIME:
-                                result.putValue(entityKey, device.getCreatedTime(), EntityKeyValue.fromLong(device.getCreatedTime()));
-                                break;
-                            case EntityKeyMapping.LABEL:
-                                result.putValue(entityKey, device.getCreatedTime(), EntityKeyValue.fromString(device.getLabel()));
-                                break;
-                        }
-                    }
+                    entityFields.add(entityKey);
                     break;
             }
         }
 
-        if (!latestTsKeys.isEmpty()) {
-            List<TsKvEntry> data = ctx.getTimeseriesService().findLatest(ctx.getTenantId(), originator, latestTsKeys).get();
-            for (TsKvEntry entry : data) {
+        ListenableFuture<Device> deviceFuture = entityFields.isEmpty() ? Futures.immediateFuture(null) :
+                ctx.getDeviceService().findDeviceByIdAsync(ctx.getTenantId(), new DeviceId(originator.getId()));
+        ListenableFuture<List<TsKvEntry>> latestTsFuture = latestTsKeys.isEmpty() ? Futures.immediateFuture(Collections.emptyList()) :
+                ctx.getTimeseriesService().findLatest(ctx.getTenantId(), originator, latestTsKeys);
+        List<ListenableFuture<List<AttributeKvEntry>>> attributeFutures = new ArrayList<>();
+        if (!attributeKeys.isEmpty()) {
+            attributeFutures.add(ctx.getAttributesService().find(ctx.getTenantId(), originator, DataConstants.CLIENT_SCOPE, attributeKeys));
+            attributeFutures.add(ctx.getAttributesService().find(ctx.getTenantId(), originator, DataConstants.SHARED_SCOPE, attributeKeys));
+            attributeFutures.add(ctx.getAttributesService().find(ctx.getTenantId(), originator, DataConstants.SERVER_SCOPE, attributeKeys));
+        }
+        List<ListenableFuture<?>> futures = new ArrayList<>(attributeFutures);
+        futures.add(deviceFuture);
+        futures.add(latestTsFuture);
+
+        // all results are applied in a single callback since the snapshot is not thread safe
+        return Futures.whenAllSucceed(futures).call(() -> {
+            Device device = Futures.getDone(deviceFuture);
+            if (device != null) {
+                for (AlarmConditionFilterKey entityKey : entityFields) {
+                    switch (entityKey.getKey()) {
+                        case EntityKeyMapping.NAME:
+                            result.putValue(entityKey, device.getCreatedTime(), EntityKeyValue.fromString(device.getName()));
+                            break;
+                        case EntityKeyMapping.TYPE:
+                            result.putValue(entityKey, device.getCreatedTime(), EntityKeyValue.fromString(device.getType()));
+                            break;
+                        case EntityKeyMapping.CREATED_TIME:
+                            result.putValue(entityKey, device.getCreatedTime(), EntityKeyValue.fromLong(device.getCreatedTime()));
+                            break;
+                        case EntityKeyMapping.LABEL:
+                            result.putValue(entityKey, device.getCreatedTime(), EntityKeyValue.fromString(device.getLabel()));
+                            break;
+                    }
+                }
+            }
+            for (TsKvEntry entry : Futures.getDone(latestTsFuture)) {
                 if (entry.getValue() != null) {
                     result.putValue(new AlarmConditionFilterKey(AlarmConditionKeyType.TIME_SERIES, entry.getKey()), entry.getTs(), toEntityValue(entry));
                 }
             }
-        }
-        if (!attributeKeys.isEmpty()) {
-            addToSnapshot(result, ctx.getAttributesService().find(ctx.getTenantId(), originator, DataConstants.CLIENT_SCOPE, attributeKeys).get());
-            addToSnapshot(result, ctx.getAttributesService().find(ctx.getTenantId(), originator, DataConstants.SHARED_SCOPE, attributeKeys).get());
-            addToSnapshot(result, ctx.getAttributesService().find(ctx.getTenantId(), originator, DataConstants.SERVER_SCOPE, attributeKeys).get());
-        }
+            for (ListenableFuture<List<AttributeKvEntry>> attributeFuture : attributeFutures) {
+                addToSnapshot(result, Futures.getDone(attributeFuture));
+            }
+            return null;
+        }, MoreExecutors.directExecutor());
     }
 
     private void addToSnapshot(DataSnapshot snapshot, List<AttributeKvEntry> data) {
@@ -403,6 +533,13 @@ class DeviceState {
         return deviceProfile.getProfileId();
     }
 
+    @Data
+    static class LoadedState {
+        private final RuleNodeState ruleNodeState;
+        private final DataSnapshot snapshot;
+        private final Map<String, Alarm> alarms;
+    }
+
     private PersistedAlarmState getOrInitPersistedAlarmState(DeviceProfileAlarm alarm) {
         if (pds != null) {
             PersistedAlarmState alarmState = pds.getAlarmStates().get(alarm.getId());
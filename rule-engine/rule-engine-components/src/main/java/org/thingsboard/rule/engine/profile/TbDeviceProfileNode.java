@@ -17,6 +17,9 @@ package org.thingsboard.rule.engine.profile;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import lombok.extern.slf4j.Slf4j;
 import org.thingsboard.rule.engine.api.RuleEngineDeviceProfileCache;
 import org.thingsboard.rule.engine.api.RuleNode;
@@ -40,11 +43,18 @@ import org.thingsboard.server.common.msg.TbMsgMetaData;
 import org.thingsboard.server.common.msg.queue.PartitionChangeMsg;
 import org.thingsboard.common.util.JacksonUtil;
 
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 @Slf4j
 @RuleNode(
@@ -63,11 +73,14 @@ public class TbDeviceProfileNode implements TbNode {
     private static final String PERIODIC_MSG_TYPE = "TbDeviceProfilePeriodicMsg";
     private static final String PROFILE_UPDATE_MSG_TYPE = "TbDeviceProfileUpdateMsg";
     private static final String DEVICE_UPDATE_MSG_TYPE = "TbDeviceUpdateMsg";
+    private static final String STATE_LOADED_MSG_TYPE = "TbDeviceStateLoadedMsg";
 
     private TbDeviceProfileNodeConfiguration config;
     private RuleEngineDeviceProfileCache cache;
     private TbContext ctx;
     private final Map<DeviceId, DeviceState> deviceStates = new ConcurrentHashMap<>();
+    private final Set<DeviceId> stateLoadQueue = new LinkedHashSet<>();
+    private int stateLoadsInProgress;
 
     @Override
     public void init(TbContext ctx, TbNodeConfiguration configuration) throws TbNodeException {
@@ -110,6 +123,13 @@ public class TbDeviceProfileNode implements TbNode {
         if (msg.getType().equals(PERIODIC_MSG_TYPE)) {
             scheduleAlarmHarvesting(ctx, msg);
             harvestAlarms(ctx, System.currentTimeMillis());
+        } else if (msg.getType().equals(STATE_LOADED_MSG_TYPE)) {
+            stateLoadsInProgress--;
+            DeviceState deviceState = deviceStates.get(new DeviceId(UUID.fromString(msg.getData())));
+            if (deviceState != null && deviceState.isLoading() && deviceState.getLoadFuture().isDone()) {
+                onStateLoaded(ctx, deviceState);
+            }
+            loadQueuedStates(ctx);
         } else if (msg.getType().equals(PROFILE_UPDATE_MSG_TYPE)) {
             updateProfile(ctx, new DeviceProfileId(UUID.fromString(msg.getData())));
         } else if (msg.getType().equals(DEVICE_UPDATE_MSG_TYPE)) {
@@ -130,13 +150,7 @@ public class TbDeviceProfileNode implements TbNode {
                     removeDeviceState(deviceId);
                     ctx.tellSuccess(msg);
                 } else {
-                    DeviceState deviceState = getOrCreateDeviceState(ctx, deviceId, null);
-                    if (deviceState != null) {
-                        deviceState.process(ctx, msg);
-                    } else {
-                        log.info("Device was not found! Most probably device [" + deviceId + "] has been removed from the database. Acknowledging msg.");
-                        ctx.ack(msg);
-                    }
+                    processDeviceMsg(ctx, deviceId, msg);
                 }
             } else {
                 ctx.tellSuccess(msg);
@@ -147,13 +161,25 @@ public class TbDeviceProfileNode implements TbNode {
     @Override
     public void onPartitionChangeMsg(TbContext ctx, PartitionChangeMsg msg) {
         // Cleanup the cache for all entities that are no longer assigned to current server partitions
-        deviceStates.entrySet().removeIf(entry -> !ctx.isLocalEntity(entry.getKey()));
+        List<DeviceState> removed = new ArrayList<>();
+        deviceStates.entrySet().removeIf(entry -> {
+            if (!ctx.isLocalEntity(entry.getKey())) {
+                removed.add(entry.getValue());
+                return true;
+            }
+            return false;
+        });
+        removed.forEach(state -> {
+            stateLoadQueue.remove(state.getDeviceId());
+            processPendingMsgs(ctx, state);
+        });
     }
 
     @Override
     public void destroy() {
         ctx.removeListeners();
         deviceStates.clear();
+        stateLoadQueue.clear();
     }
 
     protected DeviceState getOrCreateDeviceState(TbContext ctx, DeviceId deviceId, RuleNodeState rns) {
@@ -163,11 +189,137 @@ public class TbDeviceProfileNode implements TbNode {
             if (deviceProfile != null) {
                 deviceState = new DeviceState(ctx, config, deviceId, new ProfileState(deviceProfile), rns);
                 deviceStates.put(deviceId, deviceState);
+                evictDeviceStates(ctx, deviceId);
             }
         }
         return deviceState;
     }
 
+    private void processDeviceMsg(TbContext ctx, DeviceId deviceId, TbMsg msg) throws ExecutionException, InterruptedException {
+        DeviceState deviceState = getOrCreateDeviceState(ctx, deviceId, null);
+        if (deviceState == null) {
+            log.info("Device was not found! Most probably device [" + deviceId + "] has been removed from the database. Acknowledging msg.");
+            ctx.ack(msg);
+        } else if (deviceState.isLoaded() && deviceState.getPendingMsgs().isEmpty()) {
+            deviceState.process(ctx, msg);
+        } else {
+            // the msg is parked until the latest values and alarms of the device are fetched
+            deviceState.addPendingMsg(msg);
+            scheduleStateLoad(ctx, deviceState);
+        }
+    }
+
+    private void scheduleStateLoad(TbContext ctx, DeviceState deviceState) {
+        if (deviceState.isLoaded() || deviceState.isLoading()) {
+            return;
+        }
+        if (canStartStateLoad()) {
+            loadState(ctx, deviceState);
+        } else {
+            stateLoadQueue.add(deviceState.getDeviceId());
+        }
+    }
+
+    private void loadState(TbContext ctx, DeviceState deviceState) {
+        DeviceId deviceId = deviceState.getDeviceId();
+        ListenableFuture<DeviceState.LoadedState> loadFuture = deviceState.loadAsync(ctx);
+        if (loadFuture.isDone()) {
+            onStateLoaded(ctx, deviceState);
+        } else {
+            stateLoadsInProgress++;
+            loadFuture.addListener(() -> ctx.tellSelf(TbMsg.newMsg(STATE_LOADED_MSG_TYPE, ctx.getTenantId(), TbMsgMetaData.EMPTY,
+                    deviceId.getId().toString()), 0L), MoreExecutors.directExecutor());
+        }
+    }
+
+    private boolean canStartStateLoad() {
+        int maxConcurrentStateLoads = config.getMaxConcurrentStateLoads();
+        return maxConcurrentStateLoads <= 0 || stateLoadsInProgress < maxConcurrentStateLoads;
+    }
+
+    private void loadQueuedStates(TbContext ctx) {
+        Iterator<DeviceId> iterator = stateLoadQueue.iterator();
+        while (canStartStateLoad() && iterator.hasNext()) {
+            DeviceState deviceState = deviceStates.get(iterator.next());
+            iterator.remove();
+            if (deviceState != null && !deviceState.isLoaded() && !deviceState.isLoading()) {
+                loadState(ctx, deviceState);
+            }
+        }
+    }
+
+    private void onStateLoaded(TbContext ctx, DeviceState deviceState) {
+        try {
+            deviceState.onLoaded(ctx, Futures.getDone(deviceState.getLoadFuture()));
+        } catch (Exception e) {
+            Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+            log.warn("[{}][{}] Failed to load device state", ctx.getSelfId(), deviceState.getDeviceId(), cause);
+            deviceState.onLoadFailure();
+            TbMsg pendingMsg;
+            while ((pendingMsg = deviceState.getPendingMsgs().poll()) != null) {
+                ctx.tellFailure(pendingMsg, cause);
+            }
+            return;
+        }
+        TbMsg pendingMsg;
+        while (deviceState.isLoaded() && (pendingMsg = deviceState.getPendingMsgs().poll()) != null) {
+            try {
+                deviceState.process(ctx, pendingMsg);
+            } catch (Exception e) {
+                log.debug("[{}][{}] Failed to process msg: {}", ctx.getSelfId(), deviceState.getDeviceId(), pendingMsg, e);
+                ctx.tellFailure(pendingMsg, e);
+            }
+        }
+        if (!deviceState.isLoaded() && !deviceState.getPendingMsgs().isEmpty()) {
+            // the loaded state was outdated by a profile update, the remaining msgs wait for the reload
+            scheduleStateLoad(ctx, deviceState);
+        }
+    }
+
+    private void processPendingMsgs(TbContext ctx, DeviceState removedState) {
+        TbMsg pendingMsg;
+        if (!ctx.isLocalEntity(removedState.getDeviceId())) {
+            // the device is processed by another server now, so its state must not be created here again
+            RuntimeException error = new RuntimeException("Device [" + removedState.getDeviceId() + "] is no longer assigned to this server!");
+            while ((pendingMsg = removedState.getPendingMsgs().poll()) != null) {
+                ctx.tellFailure(pendingMsg, error);
+            }
+            return;
+        }
+        while ((pendingMsg = removedState.getPendingMsgs().poll()) != null) {
+            try {
+                processDeviceMsg(ctx, removedState.getDeviceId(), pendingMsg);
+            } catch (Exception e) {
+                ctx.tellFailure(pendingMsg, e);
+            }
+        }
+    }
+
+    /**
+     * Evicts the least recently active device states when the number of states exceeds the configured limit.
+     * Persisted rule node state is not removed, so it is fetched again with the next message for the device.
+     * States with parked messages, queued loads or alarm rule state that is not persisted are never evicted.
+     * */
+    private void evictDeviceStates(TbContext ctx, DeviceId createdDeviceId) {
+        int maxDeviceStates = config.getMaxDeviceStates();
+        if (maxDeviceStates <= 0 || deviceStates.size() <= maxDeviceStates) {
+            return;
+        }
+        // evict 10% more than required to avoid sorting the states on every new device
+        int toEvict = deviceStates.size() - maxDeviceStates + Math.max(1, maxDeviceStates / 10);
+        List<DeviceId> evicted = deviceStates.values().stream()
+                .filter(state -> !state.getDeviceId().equals(createdDeviceId))
+                .filter(state -> !state.isLoading() && state.getPendingMsgs().isEmpty())
+                .filter(state -> !stateLoadQueue.contains(state.getDeviceId()))
+                .filter(state -> !state.hasTransientAlarmState())
+                .sorted(Comparator.comparingLong(DeviceState::getLastActivityTs))
+                .limit(toEvict)
+                .map(DeviceState::getDeviceId)
+                .collect(Collectors.toList());
+        evicted.forEach(deviceStates::remove);
+        log.debug("[{}] Evicted {} device states", ctx.getSelfId(), evicted.size());
+    }
+
     protected void scheduleAlarmHarvesting(TbContext ctx, TbMsg msg) {
         TbMsg periodicCheck = TbMsg.newMsg(PERIODIC_MSG_TYPE, ctx.getTenantId(), msg != null ? msg.getCustomerId() : null, TbMsgMetaData.EMPTY, "{}");
         ctx.tellSelf(periodicCheck, TimeUnit.MINUTES.toMillis(1));
@@ -175,7 +327,11 @@ public class TbDeviceProfileNode implements TbNode {
 
     protected void harvestAlarms(TbContext ctx, long ts) throws ExecutionException, InterruptedException {
         for (DeviceState state : deviceStates.values()) {
-            state.harvestAlarms(ctx, ts);
+            if (state.isLoaded()) {
+                state.harvestAlarms(ctx, ts);
+            } else {
+                scheduleStateLoad(ctx, state);
+            }
         }
     }
 
@@ -186,6 +342,7 @@ public class TbDeviceProfileNode implements TbNode {
             for (DeviceState state : deviceStates.values()) {
                 if (deviceProfile.getId().equals(state.getProfileId())) {
                     state.updateProfile(ctx, deviceProfile);
+                    scheduleStateLoad(ctx, state);
                 }
             }
         } else {
@@ -231,5 +388,8 @@ public class TbDeviceProfileNode implements TbNode {
         if (config.isPersistAlarmRulesState() && (state != null || !config.isFetchAlarmRulesStateOnStart())) {
             ctx.removeRuleNodeStateForEntity(deviceId);
         }
+        if (state != null) {
+            processPendingMsgs(ctx, state);
+        }
     }
 }
@@ -25,6 +25,10 @@ public class TbDeviceProfileNodeConfiguration implements NodeConfiguration<TbDev
 
     private boolean persistAlarmRulesState;
     private boolean fetchAlarmRulesStateOnStart;
+    // max number of device states kept in memory, least recently active states are evicted first. 0 - unlimited
+    private int maxDeviceStates;
+    // max number of device states that are fetched from the database concurrently. 0 - unlimited
+    private int maxConcurrentStateLoads = 64;
 
     @Override
     public TbDeviceProfileNodeConfiguration defaultConfiguration() {
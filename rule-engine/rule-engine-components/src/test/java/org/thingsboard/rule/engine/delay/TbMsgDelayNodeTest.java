@@ -0,0 +1,292 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.rule.engine.delay;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.thingsboard.common.util.JacksonUtil;
+import org.thingsboard.common.util.ListeningExecutor;
+import org.thingsboard.rule.engine.api.TbContext;
+import org.thingsboard.rule.engine.api.TbNodeConfiguration;
+import org.thingsboard.rule.engine.api.TbNodeException;
+import org.thingsboard.server.common.data.id.DeviceId;
+import org.thingsboard.server.common.data.id.EntityId;
+import org.thingsboard.server.common.data.id.RuleNodeId;
+import org.thingsboard.server.common.data.page.PageData;
+import org.thingsboard.server.common.data.page.PageLink;
+import org.thingsboard.server.common.data.rule.RuleNodeState;
+import org.thingsboard.server.common.msg.TbMsg;
+import org.thingsboard.server.common.msg.TbMsgMetaData;
+import org.thingsboard.server.common.msg.queue.ServiceQueue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.thingsboard.rule.engine.api.TbRelationTypes.SUCCESS;
+
+public class TbMsgDelayNodeTest {
+
+    private static final String TICK_MSG_TYPE = "TbMsgDelayNodeMsg";
+    private static final String SPILL_LOADED_MSG_TYPE = "TbMsgDelayNodeSpillLoadedMsg";
+
+    private final RuleNodeId ruleNodeId = new RuleNodeId(UUID.randomUUID());
+    private final DeviceId deviceId = new DeviceId(UUID.randomUUID());
+
+    private TbContext ctx;
+    private TbMsgDelayNode node;
+    private final Map<EntityId, RuleNodeState> rows = new HashMap<>();
+    private final Set<EntityId> remoteEntities = new HashSet<>();
+    private final List<TbMsg> selfMsgs = new ArrayList<>();
+    private final List<TbMsg> releasedMsgs = new ArrayList<>();
+
+    @Before
+    public void before() {
+        ctx = Mockito.mock(TbContext.class);
+        ListeningExecutor dbExecutor = new ListeningExecutor() {
+            @Override
+            public <T> ListenableFuture<T> executeAsync(Callable<T> task) {
+                try {
+                    return Futures.immediateFuture(task.call());
+                } catch (Exception e) {
+                    return Futures.immediateFailedFuture(e);
+                }
+            }
+
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        };
+        when(ctx.getSelfId()).thenReturn(ruleNodeId);
+        when(ctx.getDbCallbackExecutor()).thenReturn(dbExecutor);
+        when(ctx.isLocalEntity(any())).thenAnswer(invocation -> !remoteEntities.contains(invocation.<EntityId>getArgument(0)));
+        when(ctx.newMsg(anyString(), anyString(), any(), any(), anyString())).thenAnswer(invocation ->
+                TbMsg.newMsg(invocation.<String>getArgument(1), invocation.getArgument(2), invocation.getArgument(3), invocation.getArgument(4)));
+        doAnswer(invocation -> selfMsgs.add(invocation.getArgument(0))).when(ctx).tellSelf(any(), anyLong());
+        doAnswer(invocation -> {
+            releasedMsgs.add(invocation.getArgument(0));
+            invocation.<Runnable>getArgument(2).run();
+            return null;
+        }).when(ctx).enqueueForTellNext(any(), eq(SUCCESS), any(Runnable.class), any());
+        when(ctx.findRuleNodeStates(any())).thenAnswer(invocation ->
+                new PageData<>(new ArrayList<>(rows.values()), 1, rows.size(), false));
+        when(ctx.findRuleNodeStateForEntity(any())).thenAnswer(invocation -> rows.get(invocation.<EntityId>getArgument(0)));
+        when(ctx.saveRuleNodeState(any())).thenAnswer(invocation -> {
+            RuleNodeState state = invocation.getArgument(0);
+            rows.put(state.getEntityId(), state);
+            return state;
+        });
+        doAnswer(invocation -> rows.remove(invocation.<EntityId>getArgument(0))).when(ctx).removeRuleNodeStateForEntity(any());
+    }
+
+    @Test
+    public void testTickIsScheduledForEarliestMsg() throws Exception {
+        init(10, false);
+
+        node.onMsg(ctx, newMsg(20));
+        node.onMsg(ctx, newMsg(30));
+        assertEquals(1, selfMsgs(TICK_MSG_TYPE).size());
+
+        node.onMsg(ctx, newMsg(10));
+        List<TbMsg> ticks = selfMsgs(TICK_MSG_TYPE);
+        assertEquals(2, ticks.size());
+        assertTrue(Long.parseLong(ticks.get(1).getData()) < Long.parseLong(ticks.get(0).getData()));
+    }
+
+    @Test
+    public void testMsgIsReleasedOnTick() throws Exception {
+        init(10, false);
+
+        TbMsg msg = newMsg(0);
+        node.onMsg(ctx, msg);
+        verify(ctx).ack(msg);
+
+        processTicks();
+        verify(ctx).enqueueForTellNext(msg, SUCCESS);
+    }
+
+    @Test
+    public void testMsgsOverLimitAreSpilledToOriginatorRow() throws Exception {
+        init(0, true);
+
+        TbMsg first = newMsg(0);
+        TbMsg second = newMsg(0);
+        node.onMsg(ctx, first);
+        node.onMsg(ctx, second);
+        verify(ctx).ack(first);
+        verify(ctx).ack(second);
+        assertEquals(Collections.singleton(deviceId), rows.keySet());
+        assertEquals(2, JacksonUtil.fromString(rows.get(deviceId).getStateData(), PersistedDelayedMsgs.class).getMsgs().size());
+
+        processTicks();
+        assertEquals(Set.of(first.getId(), second.getId()), releasedMsgs.stream().map(TbMsg::getId).collect(Collectors.toSet()));
+        assertTrue(rows.isEmpty());
+    }
+
+    @Test
+    public void testMsgIsFailedWhenOriginatorRowIsFull() throws Exception {
+        init(0, true);
+
+        TbMsg first = newMsg(60, '"' + StringUtils.repeat('a', 10000) + '"');
+        TbMsg second = newMsg(60, '"' + StringUtils.repeat('a', 10000) + '"');
+        node.onMsg(ctx, first);
+        node.onMsg(ctx, second);
+
+        verify(ctx).ack(first);
+        verify(ctx).tellFailure(eq(second), any());
+        assertEquals(1, JacksonUtil.fromString(rows.get(deviceId).getStateData(), PersistedDelayedMsgs.class).getMsgs().size());
+    }
+
+    @Test
+    public void testMsgOfRemoteOriginatorIsNotSpilled() throws Exception {
+        init(0, true);
+        remoteEntities.add(deviceId);
+
+        TbMsg msg = newMsg(0);
+        node.onMsg(ctx, msg);
+
+        verify(ctx).tellFailure(eq(msg), any());
+        assertTrue(rows.isEmpty());
+    }
+
+    @Test
+    public void testSpilledMsgsAreReloadedOnInit() throws Exception {
+        TbMsg msg = newMsg(0);
+        putRow(deviceId, msg, System.currentTimeMillis());
+        init(0, true);
+
+        assertTrue(releasedMsgs.isEmpty());
+        processTicks();
+        assertEquals(Collections.singletonList(msg.getId()), releasedMsgs.stream().map(TbMsg::getId).collect(Collectors.toList()));
+        assertTrue(rows.isEmpty());
+    }
+
+    @Test
+    public void testSpilledMsgsAreReleasedWhenSpillIsDisabled() throws Exception {
+        TbMsg msg = newMsg(0);
+        putRow(deviceId, msg, System.currentTimeMillis());
+        init(10, false);
+
+        processTicks();
+        verify(ctx, never()).clearRuleNodeStates();
+        assertEquals(Collections.singletonList(msg.getId()), releasedMsgs.stream().map(TbMsg::getId).collect(Collectors.toList()));
+        assertTrue(rows.isEmpty());
+    }
+
+    @Test
+    public void testSpilledMsgsAreReleasedByOriginatorOwner() throws Exception {
+        TbMsg msg = newMsg(0);
+        putRow(deviceId, msg, System.currentTimeMillis());
+        remoteEntities.add(deviceId);
+        init(0, true);
+
+        processTicks();
+        assertTrue(releasedMsgs.isEmpty());
+
+        remoteEntities.clear();
+        node.onPartitionChangeMsg(ctx, null);
+        processTicks();
+        assertEquals(Collections.singletonList(msg.getId()), releasedMsgs.stream().map(TbMsg::getId).collect(Collectors.toList()));
+    }
+
+    private void init(int maxPendingMsgs, boolean spillPendingMsgs) throws TbNodeException {
+        TbMsgDelayNodeConfiguration config = new TbMsgDelayNodeConfiguration().defaultConfiguration();
+        config.setMaxPendingMsgs(maxPendingMsgs);
+        config.setSpillPendingMsgs(spillPendingMsgs);
+        config.setUseMetadataPeriodInSecondsPatterns(true);
+        config.setPeriodInSecondsPattern("${delay}");
+        node = new TbMsgDelayNode();
+        node.init(ctx, new TbNodeConfiguration(JacksonUtil.valueToTree(config)));
+        processSelfMsgs(SPILL_LOADED_MSG_TYPE);
+    }
+
+    /**
+     * Delivers the scheduled ticks once they are due, as the actor system does.
+     */
+    private void processTicks() throws InterruptedException {
+        processSelfMsgs(SPILL_LOADED_MSG_TYPE);
+        for (TbMsg tick : selfMsgs(TICK_MSG_TYPE)) {
+            selfMsgs.remove(tick);
+            long delay = Long.parseLong(tick.getData()) - System.currentTimeMillis();
+            if (delay > 0 && delay < 1000) {
+                Thread.sleep(delay);
+            }
+            if (delay < 1000) {
+                node.onMsg(ctx, tick);
+            }
+        }
+    }
+
+    private void processSelfMsgs(String type) {
+        for (TbMsg msg : selfMsgs(type)) {
+            selfMsgs.remove(msg);
+            node.onMsg(ctx, msg);
+        }
+    }
+
+    private List<TbMsg> selfMsgs(String type) {
+        return selfMsgs.stream().filter(msg -> msg.getType().equals(type)).collect(Collectors.toList());
+    }
+
+    private TbMsg newMsg(int delayInSeconds) {
+        return newMsg(delayInSeconds, "{}");
+    }
+
+    private TbMsg newMsg(int delayInSeconds, String data) {
+        TbMsgMetaData metaData = new TbMsgMetaData();
+        metaData.putValue("delay", Integer.toString(delayInSeconds));
+        return TbMsg.newMsg(ServiceQueue.MAIN, "POST_TELEMETRY_REQUEST", deviceId, metaData, data);
+    }
+
+    private void putRow(EntityId entityId, TbMsg msg, long dueTs) {
+        PersistedDelayedMsg persistedMsg = new PersistedDelayedMsg();
+        persistedMsg.setDueTs(dueTs);
+        persistedMsg.setQueueName(msg.getQueueName());
+        persistedMsg.setMsg(TbMsg.toByteArray(msg));
+        PersistedDelayedMsgs persistedMsgs = new PersistedDelayedMsgs();
+        persistedMsgs.getMsgs().add(persistedMsg);
+        RuleNodeState state = new RuleNodeState();
+        state.setRuleNodeId(ruleNodeId);
+        state.setEntityId(entityId);
+        state.setStateData(JacksonUtil.toString(persistedMsgs));
+        rows.put(entityId, state);
+    }
+}
@@ -0,0 +1,103 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.rule.engine.delay;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TbMsgDelayWheelTest {
+
+    @Test
+    public void testElementsExpireByDeadline() {
+        TbMsgDelayWheel<String> wheel = new TbMsgDelayWheel<>(8, 100, 0);
+        wheel.add(150, "a");
+        wheel.add(250, "b");
+        wheel.add(230, "c");
+        assertEquals(3, wheel.size());
+
+        assertTrue(wheel.advance(140).isEmpty());
+        assertEquals(Collections.singletonList("a"), wheel.advance(200));
+        assertEquals(Arrays.asList("b", "c"), wheel.advance(300));
+        assertTrue(wheel.isEmpty());
+    }
+
+    @Test
+    public void testElementsBeyondOneRevolution() {
+        TbMsgDelayWheel<String> wheel = new TbMsgDelayWheel<>(8, 100, 0);
+        wheel.add(1050, "far");
+        wheel.add(250, "near");
+
+        assertEquals(Collections.singletonList("near"), wheel.advance(300));
+        assertTrue(wheel.advance(1000).isEmpty());
+        assertEquals(Collections.singletonList("far"), wheel.advance(1100));
+        assertTrue(wheel.isEmpty());
+    }
+
+    @Test
+    public void testOverdueElementsAfterLongPause() {
+        TbMsgDelayWheel<String> wheel = new TbMsgDelayWheel<>(8, 100, 0);
+        wheel.add(50, "past");
+        wheel.add(5000, "later");
+
+        assertEquals(Collections.singletonList("past"), wheel.advance(4000));
+        assertEquals(Collections.singletonList("later"), wheel.advance(6000));
+        assertTrue(wheel.isEmpty());
+    }
+
+    @Test
+    public void testNextTickIsNextNonEmptyBucket() {
+        TbMsgDelayWheel<String> wheel = new TbMsgDelayWheel<>(8, 100, 0);
+        assertEquals(Long.MAX_VALUE, wheel.nextTickTs());
+
+        assertEquals(500, wheel.add(450, "a"));
+        assertEquals(300, wheel.add(250, "b"));
+        assertEquals(300, wheel.nextTickTs());
+
+        assertEquals(Collections.singletonList("b"), wheel.advance(300));
+        assertEquals(500, wheel.nextTickTs());
+
+        assertEquals(Collections.singletonList("a"), wheel.advance(500));
+        assertEquals(Long.MAX_VALUE, wheel.nextTickTs());
+    }
+
+    @Test
+    public void testNextTickForElementBeyondOneRevolution() {
+        TbMsgDelayWheel<String> wheel = new TbMsgDelayWheel<>(8, 100, 0);
+        wheel.add(1050, "far");
+        assertEquals(300, wheel.nextTickTs());
+
+        assertTrue(wheel.advance(300).isEmpty());
+        assertEquals(1100, wheel.nextTickTs());
+        assertEquals(Collections.singletonList("far"), wheel.advance(1100));
+    }
+
+    @Test
+    public void testNextTickWrapsAroundWheel() {
+        TbMsgDelayWheel<String> wheel = new TbMsgDelayWheel<>(8, 100, 0);
+        wheel.add(650, "a");
+        assertEquals(Collections.singletonList("a"), wheel.advance(700));
+
+        wheel.add(950, "b");
+        assertEquals(1000, wheel.nextTickTs());
+        assertEquals(Collections.singletonList("b"), wheel.advance(1000));
+        assertEquals(Long.MAX_VALUE, wheel.nextTickTs());
+    }
+}
@@ -0,0 +1,109 @@
+/**
+ * Copyright © 2016-2021 The Thingsboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.thingsboard.rule.engine.geo;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonParser;
+import org.junit.Test;
+import org.locationtech.spatial4j.context.jts.JtsSpatialContext;
+import org.locationtech.spatial4j.context.jts.JtsSpatialContextFactory;
+import org.locationtech.spatial4j.shape.Shape;
+import org.locationtech.spatial4j.shape.ShapeFactory;
+import org.locationtech.spatial4j.shape.SpatialRelation;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class GeoUtilTest {
+
+    private static final String SQUARE = "[[50.0, 30.0], [50.0, 31.0], [51.0, 31.0], [51.0, 30.0]]";
+    private static final String CONCAVE = "[[0.0, 0.0], [0.0, 10.0], [10.0, 10.0], [10.0, 0.0], [5.0, 5.0]]";
+    private static final String DATELINE = "[[-10.0, 170.0], [-10.0, -170.0], [10.0, -170.0], [10.0, 170.0]]";
+
+    @Test
+    public void testContains() {
+        assertTrue(GeoUtil.contains(SQUARE, new Coordinates(50.5, 30.5)));
+        assertFalse(GeoUtil.contains(SQUARE, new Coordinates(51.5, 30.5)));
+        assertFalse(GeoUtil.contains(CONCAVE, 5.0, 1.0));
+        assertTrue(GeoUtil.contains(CONCAVE, 5.0, 8.0));
+        assertTrue(GeoUtil.contains(DATELINE, 0.0, 179.0));
+        assertTrue(GeoUtil.contains(DATELINE, 0.0, -179.0));
+        assertTrue(GeoUtil.contains(DATELINE, 0.0, 181.0));
+        assertFalse(GeoUtil.contains(DATELINE, 0.0, 0.0));
+    }
+
+    @Test
+    public void testContainsMatchesSpatial4j() {
+        Random random = new Random(42);
+        for (String polygon : new String[]{SQUARE, CONCAVE, DATELINE}) {
+            Shape shape = buildShape(polygon);
+            for (int i = 0; i < 10000; i++) {
+                double lat = -20 + random.nextDouble() * 80;
+                double lng = -180 + random.nextDouble() * 360;
+                boolean expected = shape.relate(jtsCtx().getShapeFactory().pointXY(lng, lat)).equals(SpatialRelation.CONTAINS);
+                assertEquals(polygon + " " + lat + ", " + lng, expected, GeoUtil.contains(polygon, lat, lng));
+            }
+        }
+    }
+
+    @Test
+    public void testIndexedPolygonsList() {
+        StringBuilder definition = new StringBuilder("[");
+        int count = GeoPolygons.INDEX_THRESHOLD * 4;
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                definition.append(",");
+            }
+            double lat = i;
+            definition.append("[[").append(lat).append(", 10.0], [").append(lat).append(", 10.5], [")
+                    .append(lat + 0.5).append(", 10.5], [").append(lat + 0.5).append(", 10.0]]");
+        }
+        definition.append("]");
+        GeoPolygons polygons = GeoUtil.getPolygons(definition.toString());
+        assertEquals(count, polygons.size());
+        for (int i = 0; i < count; i++) {
+            assertTrue(polygons.contains(i + 0.25, 10.25));
+            assertFalse(polygons.contains(i + 0.75, 10.25));
+        }
+        assertSame(polygons, GeoUtil.getPolygons(definition.toString()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidDefinition() {
+        GeoUtil.contains("[[50.0, 30.0]]", 50.0, 30.0);
+    }
+
+    private static JtsSpatialContext jtsCtx() {
+        JtsSpatialContextFactory factory = new JtsSpatialContextFactory();
+        factory.normWrapLongitude = true;
+        return factory.newSpatialContext();
+    }
+
+    private static Shape buildShape(String polygon) {
+        JtsSpatialContext ctx = jtsCtx();
+        ShapeFactory.PolygonBuilder builder = ctx.getShapeFactory().polygon();
+        JsonArray points = new JsonParser().parse(polygon).getAsJsonArray();
+        for (int i = 0; i <= points.size(); i++) {
+            JsonArray point = points.get(i % points.size()).getAsJsonArray();
+            builder.pointXY(ctx.getShapeFactory().normX(point.get(1).getAsDouble()), ctx.getShapeFactory().normY(point.get(0).getAsDouble()));
+        }
+        return builder.buildOrRect();
+    }
+}
@@ -19,9 +19,11 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.AdditionalAnswers;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.junit.MockitoJUnitRunner;
@@ -34,6 +36,7 @@ import org.thingsboard.server.common.data.DataConstants;
 import org.thingsboard.server.common.data.Device;
 import org.thingsboard.server.common.data.DeviceProfile;
 import org.thingsboard.server.common.data.EntityType;
+import org.thingsboard.server.common.data.alarm.Alarm;
 import org.thingsboard.server.common.data.alarm.AlarmSeverity;
 import org.thingsboard.server.common.data.device.profile.AlarmCondition;
 import org.thingsboard.server.common.data.device.profile.AlarmConditionFilter;
@@ -47,6 +50,7 @@ import org.thingsboard.server.common.data.id.DeviceId;
 import org.thingsboard.server.common.data.id.DeviceProfileId;
 import org.thingsboard.server.common.data.id.TenantId;
 import org.thingsboard.server.common.data.kv.AttributeKvEntry;
+import org.thingsboard.server.common.data.kv.TsKvEntry;
 import org.thingsboard.server.common.data.query.BooleanFilterPredicate;
 import org.thingsboard.server.common.data.query.DynamicValue;
 import org.thingsboard.server.common.data.query.DynamicValueSourceType;
@@ -219,11 +223,12 @@ public class TbDeviceProfileNodeTest {
         device.setCustomerId(customerId);
 
         AttributeKvCompositeKey compositeKey = new AttributeKvCompositeKey(
-                EntityType.TENANT, deviceId.getId(), "SERVER_SCOPE", "alarmEnabled"
+                EntityType.TENANT, deviceId.getId(), "SERVER_SCOPE", 0
         );
 
         AttributeKvEntity attributeKvEntity = new AttributeKvEntity();
         attributeKvEntity.setId(compositeKey);
+        attributeKvEntity.setStrKey("alarmEnabled");
         attributeKvEntity.setBooleanValue(Boolean.TRUE);
         attributeKvEntity.setLastUpdateTs(System.currentTimeMillis());
 
@@ -301,11 +306,12 @@ public class TbDeviceProfileNodeTest {
         device.setCustomerId(customerId);
 
         AttributeKvCompositeKey compositeKey = new AttributeKvCompositeKey(
-                EntityType.TENANT, tenantId.getId(), "SERVER_SCOPE", "alarmEnabled"
+                EntityType.TENANT, tenantId.getId(), "SERVER_SCOPE", 0
         );
 
         AttributeKvEntity attributeKvEntity = new AttributeKvEntity();
         attributeKvEntity.setId(compositeKey);
+        attributeKvEntity.setStrKey("alarmEnabled");
         attributeKvEntity.setBooleanValue(Boolean.TRUE);
         attributeKvEntity.setLastUpdateTs(System.currentTimeMillis());
 
@@ -384,11 +390,12 @@ public class TbDeviceProfileNodeTest {
         DeviceProfileData deviceProfileData = new DeviceProfileData();
 
         AttributeKvCompositeKey compositeKey = new AttributeKvCompositeKey(
-                EntityType.TENANT, deviceId.getId(), "SERVER_SCOPE", "greaterAttribute"
+                EntityType.TENANT, deviceId.getId(), "SERVER_SCOPE", 0
         );
 
         AttributeKvEntity attributeKvEntity = new AttributeKvEntity();
         attributeKvEntity.setId(compositeKey);
+        attributeKvEntity.setStrKey("greaterAttribute");
         attributeKvEntity.setLongValue(30L);
         attributeKvEntity.setLastUpdateTs(0L);
 
@@ -457,11 +464,12 @@ public class TbDeviceProfileNodeTest {
         device.setCustomerId(customerId);
 
         AttributeKvCompositeKey compositeKey = new AttributeKvCompositeKey(
-                EntityType.CUSTOMER, deviceId.getId(), "SERVER_SCOPE", "lessAttribute"
+                EntityType.CUSTOMER, deviceId.getId(), "SERVER_SCOPE", 0
         );
 
         AttributeKvEntity attributeKvEntity = new AttributeKvEntity();
         attributeKvEntity.setId(compositeKey);
+        attributeKvEntity.setStrKey("lessAttribute");
         attributeKvEntity.setLongValue(30L);
         attributeKvEntity.setLastUpdateTs(0L);
 
@@ -532,11 +540,12 @@ public class TbDeviceProfileNodeTest {
         DeviceProfileData deviceProfileData = new DeviceProfileData();
 
         AttributeKvCompositeKey compositeKey = new AttributeKvCompositeKey(
-                EntityType.TENANT, deviceId.getId(), "SERVER_SCOPE", "lessAttribute"
+                EntityType.TENANT, deviceId.getId(), "SERVER_SCOPE", 0
         );
 
         AttributeKvEntity attributeKvEntity = new AttributeKvEntity();
         attributeKvEntity.setId(compositeKey);
+        attributeKvEntity.setStrKey("lessAttribute");
         attributeKvEntity.setLongValue(50L);
         attributeKvEntity.setLastUpdateTs(0L);
 
@@ -606,7 +615,7 @@ public class TbDeviceProfileNodeTest {
         DeviceProfileData deviceProfileData = new DeviceProfileData();
 
         AttributeKvCompositeKey compositeKey = new AttributeKvCompositeKey(
-                EntityType.TENANT, deviceId.getId(), "SERVER_SCOPE", "tenantAttribute"
+                EntityType.TENANT, deviceId.getId(), "SERVER_SCOPE", 0
         );
 
         Device device = new Device();
@@ -615,6 +624,7 @@ public class TbDeviceProfileNodeTest {
 
         AttributeKvEntity attributeKvEntity = new AttributeKvEntity();
         attributeKvEntity.setId(compositeKey);
+        attributeKvEntity.setStrKey("tenantAttribute");
         attributeKvEntity.setLongValue(100L);
         attributeKvEntity.setLastUpdateTs(0L);
 
@@ -692,7 +702,7 @@ public class TbDeviceProfileNodeTest {
         DeviceProfileData deviceProfileData = new DeviceProfileData();
 
         AttributeKvCompositeKey compositeKey = new AttributeKvCompositeKey(
-                EntityType.DEVICE, deviceId.getId(), EntityKeyType.SERVER_ATTRIBUTE.name(), "tenantAttribute"
+                EntityType.DEVICE, deviceId.getId(), EntityKeyType.SERVER_ATTRIBUTE.name(), 0
         );
 
         Device device = new Device();
@@ -701,6 +711,7 @@ public class TbDeviceProfileNodeTest {
 
         AttributeKvEntity attributeKvEntity = new AttributeKvEntity();
         attributeKvEntity.setId(compositeKey);
+        attributeKvEntity.setStrKey("tenantAttribute");
         attributeKvEntity.setLongValue(100L);
         attributeKvEntity.setLastUpdateTs(0L);
 
@@ -768,14 +779,212 @@ public class TbDeviceProfileNodeTest {
         verify(ctx, Mockito.never()).tellFailure(Mockito.any(), Mockito.any());
     }
 
+    @Test
+    public void testMsgIsProcessedAfterDeviceStateIsLoaded() throws Exception {
+        init();
+
+        DeviceProfile deviceProfile = createTemperatureAlarmProfile();
+        SettableFuture<List<TsKvEntry>> latestFuture = SettableFuture.create();
+        Mockito.when(cache.get(tenantId, deviceId)).thenReturn(deviceProfile);
+        Mockito.when(timeseriesService.findLatest(tenantId, deviceId, Collections.singleton("temperature"))).thenReturn(latestFuture);
+        Mockito.when(alarmService.findLatestByOriginatorAndType(tenantId, deviceId, "highTemperatureAlarm")).thenReturn(Futures.immediateFuture(null));
+        Mockito.when(alarmService.createOrUpdateAlarm(Mockito.any())).thenAnswer(AdditionalAnswers.returnsFirstArg());
+        TbMsg theMsg = TbMsg.newMsg("ALARM", deviceId, new TbMsgMetaData(), "");
+        Mockito.when(ctx.newMsg(Mockito.anyString(), Mockito.anyString(), Mockito.any(), Mockito.any(), Mockito.any(), Mockito.anyString())).thenReturn(theMsg);
+
+        ObjectNode data = mapper.createObjectNode();
+        data.put("temperature", 42);
+        TbMsg msg = TbMsg.newMsg(SessionMsgType.POST_TELEMETRY_REQUEST.name(), deviceId, new TbMsgMetaData(),
+                TbMsgDataType.JSON, mapper.writeValueAsString(data), null, null);
+        node.onMsg(ctx, msg);
+        verify(ctx, Mockito.never()).tellSuccess(msg);
+
+        latestFuture.set(Collections.emptyList());
+        ArgumentCaptor<TbMsg> loadedMsgCaptor = ArgumentCaptor.forClass(TbMsg.class);
+        verify(ctx).tellSelf(loadedMsgCaptor.capture(), eq(0L));
+        node.onMsg(ctx, loadedMsgCaptor.getValue());
+
+        verify(ctx).tellSuccess(msg);
+        verify(ctx).tellNext(theMsg, "Alarm Created");
+        verify(ctx, Mockito.never()).tellFailure(Mockito.any(), Mockito.any());
+    }
+
+    @Test
+    public void testDeviceStatesAreEvicted() throws Exception {
+        ObjectNode config = mapper.createObjectNode();
+        config.put("maxDeviceStates", 1);
+        init(config);
+
+        DeviceProfile deviceProfile = new DeviceProfile();
+        DeviceProfileData deviceProfileData = new DeviceProfileData();
+        deviceProfileData.setAlarms(Collections.emptyList());
+        deviceProfile.setProfileData(deviceProfileData);
+        DeviceId otherDeviceId = new DeviceId(UUID.randomUUID());
+        Mockito.when(cache.get(Mockito.eq(tenantId), Mockito.any(DeviceId.class))).thenReturn(deviceProfile);
+
+        for (DeviceId id : Arrays.asList(deviceId, otherDeviceId, deviceId)) {
+            TbMsg msg = TbMsg.newMsg(SessionMsgType.POST_TELEMETRY_REQUEST.name(), id, new TbMsgMetaData(),
+                    TbMsgDataType.JSON, "{\"temperature\":42}", null, null);
+            node.onMsg(ctx, msg);
+            verify(ctx).tellSuccess(msg);
+        }
+        verify(cache, Mockito.times(2)).get(tenantId, deviceId);
+    }
+
+    @Test
+    public void testDeviceStateWithPendingMsgsIsNotEvicted() throws Exception {
+        ObjectNode config = mapper.createObjectNode();
+        config.put("maxDeviceStates", 1);
+        init(config);
+
+        DeviceProfile emptyProfile = new DeviceProfile();
+        DeviceProfileData emptyProfileData = new DeviceProfileData();
+        emptyProfileData.setAlarms(Collections.emptyList());
+        emptyProfile.setProfileData(emptyProfileData);
+        DeviceId otherDeviceId = new DeviceId(UUID.randomUUID());
+        SettableFuture<List<TsKvEntry>> latestFuture = SettableFuture.create();
+        Mockito.when(cache.get(tenantId, deviceId)).thenReturn(createTemperatureAlarmProfile());
+        Mockito.when(cache.get(tenantId, otherDeviceId)).thenReturn(emptyProfile);
+        Mockito.when(timeseriesService.findLatest(tenantId, deviceId, Collections.singleton("temperature"))).thenReturn(latestFuture);
+        Mockito.when(alarmService.findLatestByOriginatorAndType(tenantId, deviceId, "highTemperatureAlarm")).thenReturn(Futures.immediateFuture(null));
+
+        TbMsg parkedMsg = TbMsg.newMsg(SessionMsgType.POST_TELEMETRY_REQUEST.name(), deviceId, new TbMsgMetaData(),
+                TbMsgDataType.JSON, "{\"temperature\":20}", null, null);
+        node.onMsg(ctx, parkedMsg);
+        TbMsg otherMsg = TbMsg.newMsg(SessionMsgType.POST_TELEMETRY_REQUEST.name(), otherDeviceId, new TbMsgMetaData(),
+                TbMsgDataType.JSON, "{\"temperature\":20}", null, null);
+        node.onMsg(ctx, otherMsg);
+        verify(ctx).tellSuccess(otherMsg);
+
+        latestFuture.set(Collections.emptyList());
+        ArgumentCaptor<TbMsg> loadedMsgCaptor = ArgumentCaptor.forClass(TbMsg.class);
+        verify(ctx).tellSelf(loadedMsgCaptor.capture(), eq(0L));
+        node.onMsg(ctx, loadedMsgCaptor.getValue());
+
+        verify(ctx).tellSuccess(parkedMsg);
+        verify(cache, Mockito.times(1)).get(tenantId, deviceId);
+    }
+
+    @Test
+    public void testPendingMsgsAreFailedWhenDeviceIsNoLongerLocal() throws Exception {
+        init();
+
+        SettableFuture<List<TsKvEntry>> latestFuture = SettableFuture.create();
+        Mockito.when(cache.get(tenantId, deviceId)).thenReturn(createTemperatureAlarmProfile());
+        Mockito.when(timeseriesService.findLatest(tenantId, deviceId, Collections.singleton("temperature"))).thenReturn(latestFuture);
+        Mockito.when(alarmService.findLatestByOriginatorAndType(tenantId, deviceId, "highTemperatureAlarm")).thenReturn(Futures.immediateFuture(null));
+
+        TbMsg parkedMsg = TbMsg.newMsg(SessionMsgType.POST_TELEMETRY_REQUEST.name(), deviceId, new TbMsgMetaData(),
+                TbMsgDataType.JSON, "{\"temperature\":20}", null, null);
+        node.onMsg(ctx, parkedMsg);
+        node.onPartitionChangeMsg(ctx, null);
+
+        verify(ctx).tellFailure(eq(parkedMsg), Mockito.any());
+        verify(cache, Mockito.times(1)).get(tenantId, deviceId);
+    }
+
+    @Test
+    public void testZeroMaxConcurrentStateLoadsIsUnlimited() throws Exception {
+        ObjectNode config = mapper.createObjectNode();
+        config.put("maxConcurrentStateLoads", 0);
+        init(config);
+
+        SettableFuture<List<TsKvEntry>> latestFuture = SettableFuture.create();
+        Mockito.when(cache.get(tenantId, deviceId)).thenReturn(createTemperatureAlarmProfile());
+        Mockito.when(timeseriesService.findLatest(tenantId, deviceId, Collections.singleton("temperature"))).thenReturn(latestFuture);
+        Mockito.when(alarmService.findLatestByOriginatorAndType(tenantId, deviceId, "highTemperatureAlarm")).thenReturn(Futures.immediateFuture(null));
+
+        TbMsg msg = TbMsg.newMsg(SessionMsgType.POST_TELEMETRY_REQUEST.name(), deviceId, new TbMsgMetaData(),
+                TbMsgDataType.JSON, "{\"temperature\":20}", null, null);
+        node.onMsg(ctx, msg);
+        verify(timeseriesService).findLatest(tenantId, deviceId, Collections.singleton("temperature"));
+
+        latestFuture.set(Collections.emptyList());
+        ArgumentCaptor<TbMsg> loadedMsgCaptor = ArgumentCaptor.forClass(TbMsg.class);
+        verify(ctx).tellSelf(loadedMsgCaptor.capture(), eq(0L));
+        node.onMsg(ctx, loadedMsgCaptor.getValue());
+
+        verify(ctx).tellSuccess(msg);
+    }
+
+    @Test(timeout = 10000)
+    public void testCurrentAlarmOfNewAlarmRuleIsLoadedAsynchronously() throws Exception {
+        init();
+
+        DeviceProfile oldProfile = createTemperatureAlarmProfile();
+        oldProfile.setId(deviceProfileId);
+        DeviceProfileAlarm oldAlarm = oldProfile.getProfileData().getAlarms().get(0);
+        oldAlarm.setId("otherTemperatureAlarmID");
+        oldAlarm.setAlarmType("otherTemperatureAlarm");
+        DeviceProfile newProfile = createTemperatureAlarmProfile();
+        newProfile.setId(deviceProfileId);
+        SettableFuture<Alarm> alarmFuture = SettableFuture.create();
+        Mockito.when(cache.get(tenantId, deviceId)).thenReturn(oldProfile);
+        Mockito.when(cache.get(tenantId, deviceProfileId)).thenReturn(newProfile);
+        Mockito.when(timeseriesService.findLatest(tenantId, deviceId, Collections.singleton("temperature"))).thenReturn(Futures.immediateFuture(Collections.emptyList()));
+        Mockito.when(alarmService.findLatestByOriginatorAndType(tenantId, deviceId, "otherTemperatureAlarm")).thenReturn(Futures.immediateFuture(null));
+        Mockito.when(alarmService.findLatestByOriginatorAndType(tenantId, deviceId, "highTemperatureAlarm")).thenReturn(alarmFuture);
+        Mockito.when(alarmService.createOrUpdateAlarm(Mockito.any())).thenAnswer(AdditionalAnswers.returnsFirstArg());
+        TbMsg theMsg = TbMsg.newMsg("ALARM", deviceId, new TbMsgMetaData(), "");
+        Mockito.when(ctx.newMsg(Mockito.anyString(), Mockito.anyString(), Mockito.any(), Mockito.any(), Mockito.any(), Mockito.anyString())).thenReturn(theMsg);
+
+        TbMsg firstMsg = TbMsg.newMsg(SessionMsgType.POST_TELEMETRY_REQUEST.name(), deviceId, new TbMsgMetaData(),
+                TbMsgDataType.JSON, "{\"temperature\":20}", null, null);
+        node.onMsg(ctx, firstMsg);
+        verify(ctx).tellSuccess(firstMsg);
+
+        node.onMsg(ctx, TbMsg.newMsg("TbDeviceProfileUpdateMsg", tenantId, TbMsgMetaData.EMPTY, deviceProfileId.getId().toString()));
+        TbMsg msg = TbMsg.newMsg(SessionMsgType.POST_TELEMETRY_REQUEST.name(), deviceId, new TbMsgMetaData(),
+                TbMsgDataType.JSON, "{\"temperature\":42}", null, null);
+        node.onMsg(ctx, msg);
+        verify(ctx, Mockito.never()).tellSuccess(msg);
+
+        alarmFuture.set(null);
+        ArgumentCaptor<TbMsg> loadedMsgCaptor = ArgumentCaptor.forClass(TbMsg.class);
+        verify(ctx).tellSelf(loadedMsgCaptor.capture(), eq(0L));
+        node.onMsg(ctx, loadedMsgCaptor.getValue());
+
+        verify(ctx).tellSuccess(msg);
+        verify(ctx).tellNext(theMsg, "Alarm Created");
+        verify(ctx, Mockito.never()).tellFailure(Mockito.any(), Mockito.any());
+    }
+
+    private DeviceProfile createTemperatureAlarmProfile() {
+        AlarmConditionFilter highTempFilter = new AlarmConditionFilter();
+        highTempFilter.setKey(new AlarmConditionFilterKey(AlarmConditionKeyType.TIME_SERIES, "temperature"));
+        highTempFilter.setValueType(EntityKeyValueType.NUMERIC);
+        NumericFilterPredicate highTemperaturePredicate = new NumericFilterPredicate();
+        highTemperaturePredicate.setOperation(NumericFilterPredicate.NumericOperation.GREATER);
+        highTemperaturePredicate.setValue(new FilterPredicateValue<>(30.0));
+        highTempFilter.setPredicate(highTemperaturePredicate);
+        AlarmCondition alarmCondition = new AlarmCondition();
+        alarmCondition.setCondition(Collections.singletonList(highTempFilter));
+        AlarmRule alarmRule = new AlarmRule();
+        alarmRule.setCondition(alarmCondition);
+        DeviceProfileAlarm dpa = new DeviceProfileAlarm();
+        dpa.setId("highTemperatureAlarmID");
+        dpa.setAlarmType("highTemperatureAlarm");
+        dpa.setCreateRules(new TreeMap<>(Collections.singletonMap(AlarmSeverity.CRITICAL, alarmRule)));
+
+        DeviceProfile deviceProfile = new DeviceProfile();
+        DeviceProfileData deviceProfileData = new DeviceProfileData();
+        deviceProfileData.setAlarms(Collections.singletonList(dpa));
+        deviceProfile.setProfileData(deviceProfileData);
+        return deviceProfile;
+    }
+
     private void init() throws TbNodeException {
+        init(mapper.createObjectNode());
+    }
+
+    private void init(ObjectNode config) throws TbNodeException {
         Mockito.when(ctx.getTenantId()).thenReturn(tenantId);
         Mockito.when(ctx.getDeviceProfileCache()).thenReturn(cache);
         Mockito.when(ctx.getTimeseriesService()).thenReturn(timeseriesService);
         Mockito.when(ctx.getAlarmService()).thenReturn(alarmService);
         Mockito.when(ctx.getDeviceService()).thenReturn(deviceService);
         Mockito.when(ctx.getAttributesService()).thenReturn(attributesService);
-        TbNodeConfiguration nodeConfiguration = new TbNodeConfiguration(mapper.createObjectNode());
+        TbNodeConfiguration nodeConfiguration = new TbNodeConfiguration(config);
         node = new TbDeviceProfileNode();
         node.init(ctx, nodeConfiguration);
     }